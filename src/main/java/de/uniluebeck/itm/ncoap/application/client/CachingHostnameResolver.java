@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link HostnameResolver} to cache the results of another {@link HostnameResolver}. Resolved addresses are
+ * cached for the positive TTL, failures (i.e. {@link UnknownHostException}s) for the negative TTL. The defaults are
+ * taken from the security properties <code>networkaddress.cache.ttl</code> and
+ * <code>networkaddress.cache.negative.ttl</code> (or {@link #DEFAULT_POSITIVE_TTL} and
+ * {@link #DEFAULT_NEGATIVE_TTL} if not set).
+ *
+ * Cached addresses are resolved again asynchronously as soon as {@link #REFRESH_RATIO} of their TTL passed. Until
+ * the new result is available the cached address is returned, i.e. frequently used hostnames are never resolved
+ * synchronously after the first resolution. If the address cannot be resolved again, the cached address is kept
+ * until it expires.
+ *
+ * @author Oliver Kleine
+ */
+public class CachingHostnameResolver implements HostnameResolver {
+
+    private static Logger log = LoggerFactory.getLogger(CachingHostnameResolver.class.getName());
+
+    /**
+     * The number of milliseconds to cache resolved addresses if the security property
+     * <code>networkaddress.cache.ttl</code> is not set
+     */
+    public static final long DEFAULT_POSITIVE_TTL = 30000;
+
+    /**
+     * The number of milliseconds to cache failures if the security property
+     * <code>networkaddress.cache.negative.ttl</code> is not set
+     */
+    public static final long DEFAULT_NEGATIVE_TTL = 10000;
+
+    /**
+     * The share of the TTL of a cached address to pass before the address is resolved again
+     */
+    public static final double REFRESH_RATIO = 0.8;
+
+    /**
+     * The maximum number of cached hostnames
+     */
+    public static final int MAX_ENTRIES = 10000;
+
+    private final HostnameResolver hostnameResolver;
+    private final Executor executor;
+    private final long positiveTtl;
+    private final long negativeTtl;
+
+    private Cache<String, Resolution> resolutions = CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+    /**
+     * Creates a new {@link CachingHostnameResolver} with the TTLs given by the security properties
+     *
+     * @param hostnameResolver the {@link HostnameResolver} to actually resolve hostnames
+     * @param executor the {@link Executor} to resolve cached hostnames again
+     */
+    public CachingHostnameResolver(HostnameResolver hostnameResolver, Executor executor){
+        this(hostnameResolver, executor, getTtl("networkaddress.cache.ttl", DEFAULT_POSITIVE_TTL),
+                getTtl("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param hostnameResolver the {@link HostnameResolver} to actually resolve hostnames
+     * @param executor the {@link Executor} to resolve cached hostnames again
+     * @param positiveTtl the time to cache resolved addresses
+     * @param negativeTtl the time to cache failures
+     * @param timeUnit the {@link TimeUnit} of both TTLs
+     */
+    public CachingHostnameResolver(HostnameResolver hostnameResolver, Executor executor, long positiveTtl,
+                                   long negativeTtl, TimeUnit timeUnit){
+        this.hostnameResolver = hostnameResolver;
+        this.executor = executor;
+        this.positiveTtl = timeUnit.toMillis(positiveTtl);
+        this.negativeTtl = timeUnit.toMillis(negativeTtl);
+    }
+
+    private static long getTtl(String property, long defaultTtl){
+        try{
+            String value = Security.getProperty(property);
+            if(value != null && Long.parseLong(value.trim()) >= 0)
+                return Long.parseLong(value.trim()) * 1000;
+        }
+        catch (NumberFormatException e) {
+            log.warn("Invalid value of security property {} (use default).", property);
+        }
+        return defaultTtl;
+    }
+
+    @Override
+    public InetAddress resolve(final String hostname) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        final Resolution resolution = resolutions.getIfPresent(hostname);
+
+        if(resolution == null || resolution.getExpiry() <= now)
+            return resolveNow(hostname).get();
+
+        //Resolve again before the cached address expires
+        if(resolution.getFailure() == null && resolution.getRefreshTime() <= now && resolution.startRefresh()){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refresh(hostname, resolution);
+                }
+            });
+        }
+
+        return resolution.get();
+    }
+
+    private Resolution resolveNow(String hostname) throws UnknownHostException {
+        long start = System.currentTimeMillis();
+        Resolution resolution;
+
+        try{
+            resolution = createResolution(hostnameResolver.resolve(hostname));
+        }
+        catch (UnknownHostException e) {
+            long now = System.currentTimeMillis();
+            resolution = new Resolution(null, e, now + negativeTtl, now + negativeTtl);
+        }
+
+        resolutions.put(hostname, resolution);
+        log.debug("Resolved {} in {} ms.", hostname, System.currentTimeMillis() - start);
+
+        return resolution;
+    }
+
+    /**
+     * Resolves the given hostname again. If that fails, the given (still valid) resolution is kept until it expires
+     * instead of caching the failure.
+     */
+    private void refresh(String hostname, Resolution resolution){
+        long start = System.currentTimeMillis();
+
+        try{
+            resolutions.asMap().replace(hostname, resolution, createResolution(hostnameResolver.resolve(hostname)));
+            log.debug("Resolved {} again in {} ms.", hostname, System.currentTimeMillis() - start);
+        }
+        catch (UnknownHostException e) {
+            log.warn("Could not resolve {} again (keep cached address).", hostname);
+            resolutions.asMap().replace(hostname, resolution, new Resolution(resolution.getAddress(), null,
+                    resolution.getExpiry(), resolution.getExpiry()));
+        }
+    }
+
+    private Resolution createResolution(InetAddress address){
+        long now = System.currentTimeMillis();
+        return new Resolution(address, null, now + positiveTtl, now + (long) (positiveTtl * REFRESH_RATIO));
+    }
+
+
+    private static class Resolution {
+
+        private final InetAddress address;
+        private final UnknownHostException failure;
+        private final long expiry;
+        private final long refreshTime;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        public Resolution(InetAddress address, UnknownHostException failure, long expiry, long refreshTime){
+            this.address = address;
+            this.failure = failure;
+            this.expiry = expiry;
+            this.refreshTime = refreshTime;
+        }
+
+        public InetAddress get() throws UnknownHostException {
+            if(failure != null)
+                throw failure;
+
+            return address;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        public UnknownHostException getFailure() {
+            return failure;
+        }
+
+        public long getExpiry() {
+            return expiry;
+        }
+
+        public long getRefreshTime() {
+            return refreshTime;
+        }
+
+        public boolean startRefresh(){
+            return refreshing.compareAndSet(false, true);
+        }
+    }
+}
@@ -24,17 +24,35 @@
  */
 package de.uniluebeck.itm.ncoap.application.client;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseResponseProcessor;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferFailureProcessor;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferHandler;
+import de.uniluebeck.itm.ncoap.communication.blockwise.InternalBlockwiseTransferFailedMessage;
+import de.uniluebeck.itm.ncoap.communication.blockwise.InternalNextBlockRequestMessage;
 import de.uniluebeck.itm.ncoap.communication.blockwise.InternalNextBlockReceivedMessage;
 import de.uniluebeck.itm.ncoap.communication.blockwise.InternalNextBlockReceivedMessageProcessor;
+import de.uniluebeck.itm.ncoap.communication.blockwise.InternalStreamingRegistrationMessage;
 import de.uniluebeck.itm.ncoap.communication.core.CoapClientDatagramChannelFactory;
+import de.uniluebeck.itm.ncoap.communication.core.CoapExecutors;
+import de.uniluebeck.itm.ncoap.communication.core.CoapClientTcpChannelFactory;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransport;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransports;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.*;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
 import de.uniluebeck.itm.ncoap.message.options.InvalidOptionException;
 import de.uniluebeck.itm.ncoap.message.options.OptionRegistry;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName;
 import de.uniluebeck.itm.ncoap.message.options.ToManyOptionsException;
 import de.uniluebeck.itm.ncoap.toolbox.ByteArrayWrapper;
 import org.jboss.netty.channel.*;
@@ -42,18 +60,40 @@ import org.jboss.netty.channel.socket.DatagramChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.Inet6Address;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.OBSERVE_REQUEST;
 
 /**
  * An instance of {@link CoapClientApplication} is the entry point to send {@link CoapRequest}s. By
  * {@link #writeCoapRequest(CoapRequest, CoapResponseProcessor)} it provides an
  * easy-to-use method to write CoAP requests to a server.
  *
- * Each instance of {@link CoapClientApplication} is automatically bound to a (random) available local port.
+ * Each instance of {@link CoapClientApplication} is automatically bound to a (random) available local port or,
+ * if created with {@link #CoapClientApplication(int)}, to several ports. In the latter case each remote address is
+ * pinned to one of the local ports (i.e. all requests to the same remote address are sent from the same port) and
+ * each port has its own reliability state (e.g. message IDs). Thus, the traffic to different remote addresses is
+ * spread over several sockets and I/O threads.
+ *
+ * Incoming responses are handed over from the I/O threads to the application threads in the order of their arrival
+ * per remote address, i.e. the {@link CoapResponseProcessor}s are never invoked by I/O threads. The threads for I/O,
+ * protocol timers, and application work are provided by independently sized pools (see {@link CoapExecutors}).
+ *
+ * Additionally, requests to particular remote addresses can be sent via CoAP over TCP (see
+ * {@link #connectTcp(InetSocketAddress)}), e.g. for bulk traffic between backends. Such requests are multiplexed
+ * (by token) over one connection per remote address and their responses are received without blockwise transfer.
  *
  * @author Oliver Kleine
  */
@@ -61,36 +101,125 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private TokenFactory tokenFactory = new TokenFactory();
-    private HashBasedTable<ByteArrayWrapper, InetSocketAddress, CoapResponseProcessor> responseProcessors =
-            HashBasedTable.create();
+    /**
+     * The interval (in milliseconds) to remove the callbacks of requests that were not answered within
+     * {@link ExchangeTable#EXCHANGE_LIFETIME}
+     */
+    public static final long EXCHANGE_CLEANUP_INTERVAL = 10000;
+
+    /**
+     * The maximum number of IP literal destinations whose remote addresses are cached
+     */
+    public static final int DESTINATION_CACHE_SIZE = 1000;
+
+    private volatile TokenFactory tokenFactory = new TokenFactory(TokenFactory.MAX_TOKEN_LENGTH);
+    private ExchangeTable responseProcessors = new ExchangeTable();
+
+    //remote addresses of IP literal destinations (key: host and port)
+    private Cache<String, InetSocketAddress> destinations =
+            CacheBuilder.newBuilder().maximumSize(DESTINATION_CACHE_SIZE).build();
+
+    //running observations (key: remote address, path, query, accepted media types)
+    private HashMap<List<Object>, ObservationMultiplexer> observations =
+            new HashMap<List<Object>, ObservationMultiplexer>();
 
-    private DatagramChannel datagramChannel;
+    private DatagramChannel[] datagramChannels;
 
+    //connections for CoAP over TCP (key: remote address)
+    private ConcurrentHashMap<InetSocketAddress, Channel> tcpChannels =
+            new ConcurrentHashMap<InetSocketAddress, Channel>();
+    private CoapClientTcpChannelFactory tcpChannelFactory;
+
+    private CoapExecutors executors;
     private ScheduledExecutorService executorService;
 
+    private volatile HostnameResolver hostnameResolver;
+
     /**
      * Creates a new instance of {@link CoapClientApplication} which is bound to a local socket and provides all
      * functionality to send {@link CoapRequest}s and receive {@link CoapResponse}s.
      */
     public CoapClientApplication(){
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Client I/O Thread#%d").build();
-        this.executorService =
-                Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory);
+        this(1);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClientApplication} which is bound to the given number of local sockets
+     * and provides all functionality to send {@link CoapRequest}s and receive {@link CoapResponse}s. Each remote
+     * address is pinned to one of the sockets.
+     *
+     * @param numberOfChannels the number of local sockets (i.e. {@link DatagramChannel}s)
+     */
+    public CoapClientApplication(int numberOfChannels){
+        this(DatagramTransports.getDefault(), numberOfChannels);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClientApplication} whose {@link DatagramChannel}s are provided by the
+     * given {@link DatagramTransport}, e.g. a {@link de.uniluebeck.itm.ncoap.communication.transport.LoopbackTransport}
+     * to communicate with servers within the same JVM.
+     *
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}s
+     * @param numberOfChannels the number of {@link DatagramChannel}s
+     */
+    public CoapClientApplication(DatagramTransport transport, int numberOfChannels){
+        //Each channel may occupy one I/O thread
+        this(new CoapExecutors("CoAP Client", Runtime.getRuntime().availableProcessors() + numberOfChannels,
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors()),
+                transport, numberOfChannels);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClientApplication} that uses the given {@link CoapExecutors}, i.e.
+     * independently sized pools for I/O, protocol timers (e.g. retransmissions and deadlines), and the invocation of
+     * the {@link CoapResponseProcessor}s. The executors are shut down on {@link #shutdown()}.
+     *
+     * @param executors the {@link CoapExecutors} to provide the threads
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}s
+     * @param numberOfChannels the number of {@link DatagramChannel}s
+     */
+    public CoapClientApplication(CoapExecutors executors, DatagramTransport transport, int numberOfChannels){
+        this.executors = executors;
+        this.executorService = executors.getTimerExecutorService();
 
-        CoapClientDatagramChannelFactory factory = new CoapClientDatagramChannelFactory(executorService);
+        this.hostnameResolver = new CachingHostnameResolver(HostnameResolver.SYSTEM, executorService);
 
-        datagramChannel = factory.getChannel();
-        datagramChannel.getPipeline().addLast("Client Application", this);
+        CoapClientDatagramChannelFactory factory =
+                new CoapClientDatagramChannelFactory(executors, numberOfChannels, transport);
 
+        datagramChannels = factory.getChannels();
+        for(DatagramChannel datagramChannel : datagramChannels)
+            datagramChannel.getPipeline().addLast("Client Application", this);
 
-        log.info("New CoAP client on port {}.", datagramChannel.getLocalAddress().getPort());
+        //Remove callbacks of requests that were never answered
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                int removed = responseProcessors.removeExpiredExchanges();
+                if(removed > 0)
+                    log.info("Removed {} expired response callbacks.", removed);
+            }
+        }, EXCHANGE_CLEANUP_INTERVAL, EXCHANGE_CLEANUP_INTERVAL, TimeUnit.MILLISECONDS);
+
+
+        log.info("New CoAP client on port {} ({} channels).", getClientPort(), datagramChannels.length);
     }
 
     /**
      * This method is to send a CoAP request to a remote
      * recipient. All necessary information to send the message (like the recipient IP address or port) is
-     * automatically extracted from the given {@link CoapRequest} instance.
+     * automatically extracted from the given {@link CoapRequest} instance. The request is prepared and written to
+     * the channel by the calling thread, i.e. without being handed over to another thread first.
+     *
+     * If the {@link CoapRequest} contains the {@link OptionName#OBSERVE_REQUEST} option and there is already
+     * a running observation of the same resource (i.e. the same remote address, path, query, and accepted media types)
+     * then no request is sent. Instead the given {@link CoapResponseProcessor} is added as subscriber of the running
+     * observation and immediately receives the latest update notification (if any). To stop receiving
+     * update notifications use {@link #cancelObservation(CoapRequest, CoapResponseProcessor)}.
+     *
+     * If the request cannot be sent (e.g. if the hostname of the recipient cannot be resolved), the given
+     * {@link CoapResponseProcessor} is informed only if it implements {@link RequestFailureProcessor}. Otherwise the
+     * request is dropped without callback.
      *
      * @param coapRequest The {@link CoapRequest} object to be sent
      * @param coapResponseProcessor The {@link CoapResponseProcessor} instance to handle responses and
@@ -99,87 +228,513 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
     public void writeCoapRequest(final CoapRequest coapRequest, final CoapResponseProcessor coapResponseProcessor)
             throws ToManyOptionsException, InvalidOptionException {
 
-        executorService.submit(new Runnable(){
+        try {
+            final InetSocketAddress rcptSocketAddress = getRemoteAddress(coapRequest);
 
-            @Override
-            public void run() {
-                try {
-                    coapRequest.setToken(tokenFactory.getNextToken());
+            if(rcptSocketAddress.isUnresolved()){
+                if(coapResponseProcessor instanceof RequestFailureProcessor)
+                    ((RequestFailureProcessor) coapResponseProcessor).processRequestFailure(
+                            new UnknownHostException(rcptSocketAddress.getHostName()));
+                return;
+            }
 
-                    int targetPort = coapRequest.getTargetUri().getPort();
-                    if(targetPort == -1)
-                        targetPort = OptionRegistry.COAP_PORT_DEFAULT;
+            //Observations are always run via UDP
+            Channel tcpChannel = null;
+            if(coapRequest.getOption(OBSERVE_REQUEST).isEmpty())
+                tcpChannel = tcpChannels.get(rcptSocketAddress);
 
+            CoapResponseProcessor responseProcessor = coapResponseProcessor;
+            if(!coapRequest.getOption(OBSERVE_REQUEST).isEmpty()){
+                responseProcessor = addObservationSubscriber(coapRequest, rcptSocketAddress, coapResponseProcessor);
 
-                    final InetSocketAddress rcptSocketAddress =
-                            new InetSocketAddress(coapRequest.getTargetUri().getHost(), targetPort);
+                if(responseProcessor == null){
+                    log.info("Added subscriber to running observation of {}.", coapRequest.getTargetUri());
+                    return;
+                }
+            }
 
-                    addResponseCallback(coapRequest.getToken(), rcptSocketAddress, coapResponseProcessor);
+            coapRequest.setToken(addResponseCallback(rcptSocketAddress, responseProcessor));
 
-                    ChannelFuture future = Channels.write(datagramChannel, coapRequest, rcptSocketAddress);
+            final byte[] token = coapRequest.getToken();
+            final CoapResponseProcessor callback = responseProcessor;
 
+            ChannelFuture future;
+            if(tcpChannel != null){
+                //Responses via TCP are never split into blocks
+                future = Channels.write(tcpChannel, coapRequest);
+            }
+            else{
+                final DatagramChannel datagramChannel = getChannel(rcptSocketAddress);
+
+                if(responseProcessor instanceof BlockwiseResponseProcessor)
+                    Channels.write(datagramChannel, new InternalStreamingRegistrationMessage(coapRequest.getToken()));
+
+                //The calling thread writes the request directly, the I/O thread sends it from the channels write queue
+                future = Channels.write(datagramChannel, coapRequest, rcptSocketAddress);
+
+                //Remove the streaming registration if the request could not be written
+                if(responseProcessor instanceof BlockwiseResponseProcessor){
                     future.addListener(new ChannelFutureListener() {
                         @Override
                         public void operationComplete(ChannelFuture future) throws Exception {
-                            log.info("Sent to to {}:{}: {}",
-                                    new Object[]{rcptSocketAddress.getAddress().getHostAddress(),
-                                            rcptSocketAddress.getPort(), coapRequest});
-
-                            if(coapResponseProcessor instanceof RetransmissionProcessor)
-                                ((RetransmissionProcessor) coapResponseProcessor).requestSent();
+                            if(!future.isSuccess())
+                                Channels.write(datagramChannel,
+                                        new InternalCancelExchangeMessage(token, rcptSocketAddress));
                         }
                     });
+                }
+            }
+
+            //Let the request fail if it could not be written
+            future.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if(future.isSuccess())
+                        return;
 
-                } catch (Exception e) {
-                    log.error("Exception while trying to send message.", e);
+                    log.error("Could not send request with token {}.", new ByteArrayWrapper(token),
+                            future.getCause());
+
+                    if(callback instanceof RequestFailureProcessor)
+                        ((RequestFailureProcessor) callback).processRequestFailure(future.getCause());
+
+                    if(!(callback instanceof CoapResponseFuture))
+                        removeResponseCallback(token, rcptSocketAddress);
                 }
+            });
+
+            if(log.isInfoEnabled() || coapResponseProcessor instanceof RetransmissionProcessor){
+                future.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        log.info("Sent to to {}:{}: {}",
+                                new Object[]{rcptSocketAddress.getAddress().getHostAddress(),
+                                        rcptSocketAddress.getPort(), coapRequest});
+
+                        if(coapResponseProcessor instanceof RetransmissionProcessor)
+                            ((RetransmissionProcessor) coapResponseProcessor).requestSent();
+                    }
+                });
             }
-        });
 
+        } catch (Exception e) {
+            log.error("Exception while trying to send message.", e);
+
+            if(coapResponseProcessor instanceof RequestFailureProcessor)
+                ((RequestFailureProcessor) coapResponseProcessor).processRequestFailure(e);
+        }
     }
 
     /**
-     * Returns the local port the {@link DatagramChannel} of this {@link CoapClientApplication} is bound to.
-     * @return the local port the {@link DatagramChannel} of this {@link CoapClientApplication} is bound to.
+     * Sends the given {@link CoapRequest} and returns a {@link ListenableFuture} to be set with the first
+     * {@link CoapResponse}. The future fails with a {@link TimeoutException} if the recipient did not acknowledge
+     * the (confirmable) request after all retransmissions or if there was no response within the given deadline.
+     *
+     * Cancelling the future (or the deadline to pass) immediately removes all state of the request in the client,
+     * i.e. the token is released and scheduled retransmissions are stopped. The message ID remains allocated for
+     * its usual lifetime to keep the duplicate detection of the recipient intact.
+     *
+     * Since the futures are {@link ListenableFuture}s, several requests can be awaited together, e.g. with
+     * {@link Futures#allAsList(Iterable)}. Requests with {@link OptionName#OBSERVE_REQUEST} option are to be sent
+     * with {@link #writeCoapRequest(CoapRequest, CoapResponseProcessor)}.
+     *
+     * @param coapRequest the {@link CoapRequest} to be sent
+     * @param deadline the maximum time to wait for a response (<code>0</code> means no deadline, i.e. to wait until
+     *                 the retransmissions for a confirmable request timed out)
+     * @param timeUnit the {@link TimeUnit} of the deadline
+     *
+     * @return a {@link ListenableFuture} to be set with the first {@link CoapResponse}
+     *
+     * @throws IllegalArgumentException if the given {@link CoapRequest} contains the
+     * {@link OptionName#OBSERVE_REQUEST} option
      */
-    public int getClientPort() {
-        return datagramChannel.getLocalAddress().getPort();
+    public ListenableFuture<CoapResponse> writeCoapRequest(final CoapRequest coapRequest, long deadline,
+                                                           TimeUnit timeUnit)
+            throws ToManyOptionsException, InvalidOptionException {
+
+        if(!coapRequest.getOption(OBSERVE_REQUEST).isEmpty())
+            throw new IllegalArgumentException("Observations are not supported with futures.");
+
+        final CoapResponseFuture responseFuture = new CoapResponseFuture();
+        final long deadlineMillis = timeUnit.toMillis(deadline);
+
+        writeCoapRequest(coapRequest, responseFuture);
+
+        final ScheduledFuture deadlineFuture = deadlineMillis <= 0 ? null :
+                executorService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(responseFuture.deadlinePassed(deadlineMillis))
+                            log.info("Deadline of {} ms passed for {}.", deadlineMillis, coapRequest);
+                    }
+                }, deadlineMillis, TimeUnit.MILLISECONDS);
+
+        responseFuture.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if(deadlineFuture != null)
+                    deadlineFuture.cancel(false);
+
+                //Remove all state of the request unless there was a response
+                if((responseFuture.isCancelled() || !isSuccessful(responseFuture))
+                        && coapRequest.getToken().length > 0)
+                    cancelExchange(coapRequest.getToken(), getRemoteAddress(coapRequest));
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return responseFuture;
     }
 
     /**
-     * Shuts the client down by closing the datagramChannel which includes to unbind the datagramChannel from a listening port and
-     * by this means free the port. All blocked or bound external resources are released.
+     * Sends the given {@link CoapRequest} and returns a {@link ListenableFuture} to be set with the first
+     * {@link CoapResponse} (without deadline). See {@link #writeCoapRequest(CoapRequest, long, TimeUnit)} for
+     * details.
+     *
+     * @param coapRequest the {@link CoapRequest} to be sent
+     *
+     * @return a {@link ListenableFuture} to be set with the first {@link CoapResponse}
      */
-    public final void shutdown(){
-        //Close the datagram datagramChannel (includes unbind)
-        ChannelFuture future = datagramChannel.close();
+    public ListenableFuture<CoapResponse> writeCoapRequest(CoapRequest coapRequest)
+            throws ToManyOptionsException, InvalidOptionException {
 
-        //Await the closure and let the factory release its external resource to finalize the shutdown
-        future.addListener(new ChannelFutureListener() {
-            @Override
-            public void operationComplete(ChannelFuture future) throws Exception {
-                DatagramChannel closedChannel = (DatagramChannel) future.getChannel();
-                log.info("Client channel closed (port: " + closedChannel.getLocalAddress().getPort() + ").");
+        return writeCoapRequest(coapRequest, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isSuccessful(CoapResponseFuture responseFuture){
+        try{
+            responseFuture.get();
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void cancelExchange(byte[] token, InetSocketAddress remoteAddress){
+        removeResponseCallback(token, remoteAddress);
+        Channels.write(getChannel(remoteAddress), new InternalCancelExchangeMessage(token, remoteAddress));
+        log.info("Cancelled exchange with token {}.", new ByteArrayWrapper(token));
+    }
+
+    /**
+     * Stops the given {@link CoapResponseProcessor} to receive update notifications of the observation started
+     * with the given {@link CoapRequest}. If there are no subscribers left, the observation on the remote server is
+     * cancelled, i.e. a {@link Code#GET} without {@link OptionName#OBSERVE_REQUEST} option is sent.
+     *
+     * @param coapRequest the {@link CoapRequest} that was given to
+     *                    {@link #writeCoapRequest(CoapRequest, CoapResponseProcessor)} to start the observation
+     * @param coapResponseProcessor the {@link CoapResponseProcessor} to stop receiving update notifications
+     *
+     * @return <code>true</code> if the {@link CoapResponseProcessor} was a subscriber of a running observation,
+     * <code>false</code> otherwise
+     */
+    public boolean cancelObservation(CoapRequest coapRequest, CoapResponseProcessor coapResponseProcessor){
+        ObservationMultiplexer multiplexer;
+
+        synchronized (this){
+            multiplexer = observations.get(getObservationKey(coapRequest, getRemoteAddress(coapRequest)));
+            if(multiplexer == null)
+                return false;
+
+            if(multiplexer.removeSubscriber(coapResponseProcessor) > 0)
+                return true;
+
+            observations.remove(multiplexer.getObservationKey());
+        }
+
+        log.info("Cancel observation of {} (no subscribers left).", multiplexer.getCoapRequest().getTargetUri());
+        cancelExchange(multiplexer.getCoapRequest().getToken(), multiplexer.getRemoteAddress());
+
+        try{
+            CoapRequest cancellationRequest =
+                    new CoapRequest(MsgType.CON, Code.GET, multiplexer.getCoapRequest().getTargetUri());
+
+            Set<MediaType> acceptedMediaTypes = multiplexer.getCoapRequest().getAcceptedMediaTypes();
+            cancellationRequest.setAccept(acceptedMediaTypes.toArray(new MediaType[acceptedMediaTypes.size()]));
+
+            writeCoapRequest(cancellationRequest, new CoapResponseProcessor() {
+                @Override
+                public void processCoapResponse(CoapResponse coapResponse) {
+                    log.debug("Response on observation cancellation: {}", coapResponse);
+                }
+            });
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+
+        return true;
+    }
+
+    private synchronized ObservationMultiplexer addObservationSubscriber(CoapRequest coapRequest,
+            InetSocketAddress remoteAddress, CoapResponseProcessor coapResponseProcessor){
+
+        List<Object> observationKey = getObservationKey(coapRequest, remoteAddress);
+        ObservationMultiplexer multiplexer = observations.get(observationKey);
+
+        if(multiplexer != null){
+            multiplexer.addSubscriber(coapResponseProcessor);
+            return null;
+        }
+
+        multiplexer = new ObservationMultiplexer(this, observationKey, coapRequest, remoteAddress);
+        multiplexer.addSubscriber(coapResponseProcessor);
+        observations.put(observationKey, multiplexer);
+
+        return multiplexer;
+    }
 
-                executorService.shutdownNow();
+    private boolean responseBlockReceived(CoapResponse coapResponse, InetSocketAddress remoteAddress){
+        CoapResponseProcessor callback = responseProcessors.get(coapResponse.getToken(), remoteAddress);
 
-                datagramChannel.getFactory().releaseExternalResources();
-                log.info("External resources released. Shutdown completed.");
+        if(!(callback instanceof BlockwiseResponseProcessor))
+            return false;
+
+        try{
+            boolean isLastBlock = coapResponse.isLastBlock(BLOCK_2);
+            long offset = coapResponse.getBlockNumber(BLOCK_2) * coapResponse.getMaxBlocksizeForResponse().length();
+
+            if(isLastBlock)
+                removeResponseCallback(coapResponse.getToken(), remoteAddress);
+
+            boolean requestNextBlock =
+                    ((BlockwiseResponseProcessor) callback).processResponseBlock(coapResponse, offset);
+
+            if(!isLastBlock && requestNextBlock)
+                requestNextBlock(coapResponse);
+        }
+        catch (InvalidOptionException e) {
+            log.error("This should never happen.", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the given {@link ObservationMultiplexer}, i.e. the observation was stopped by the remote server
+     */
+    synchronized void removeObservationMultiplexer(ObservationMultiplexer multiplexer){
+        if(observations.get(multiplexer.getObservationKey()) == multiplexer)
+            observations.remove(multiplexer.getObservationKey());
+    }
+
+    private static List<Object> getObservationKey(CoapRequest coapRequest, InetSocketAddress remoteAddress){
+        URI targetUri = coapRequest.getTargetUri();
+        return Arrays.<Object>asList(remoteAddress, targetUri.getPath(), targetUri.getQuery(),
+                new HashSet<MediaType>(coapRequest.getAcceptedMediaTypes()));
+    }
+
+    private InetSocketAddress getRemoteAddress(CoapRequest coapRequest){
+        String host = coapRequest.getTargetUri().getHost();
+        int targetPort = coapRequest.getTargetUri().getPort();
+        if(targetPort == -1)
+            targetPort = OptionRegistry.COAP_PORT_DEFAULT;
+
+        //Hostnames are resolved (and cached according to their TTL) by the hostname resolver
+        if(!InetAddresses.isUriInetAddress(host)){
+            try{
+                return new InetSocketAddress(hostnameResolver.resolve(host), targetPort);
+            }
+            catch (UnknownHostException e) {
+                log.warn("Could not resolve hostname {}.", host);
+                return InetSocketAddress.createUnresolved(host, targetPort);
+            }
+        }
+
+        //IP literals never change their address and are thus cached without expiry
+
+        String destination = host + ":" + targetPort;
+        InetSocketAddress remoteAddress = destinations.getIfPresent(destination);
+        if(remoteAddress == null){
+            remoteAddress = new InetSocketAddress(InetAddresses.forUriString(host), targetPort);
+            destinations.put(destination, remoteAddress);
+        }
+
+        return remoteAddress;
+    }
+
+    /**
+     * Requests the block following the given block of a blockwise transferred {@link CoapResponse}. This method
+     * is to be invoked by a {@link BlockwiseResponseProcessor} that returned <code>false</code> from
+     * {@link BlockwiseResponseProcessor#processResponseBlock(CoapResponse, long)}, i.e. as soon as it is ready to
+     * process the next block.
+     *
+     * @param coapResponse the latest received block
+     */
+    public void requestNextBlock(CoapResponse coapResponse){
+        InetSocketAddress remoteAddress = responseProcessors.getRemoteAddress(coapResponse.getToken());
+        if(remoteAddress == null){
+            log.warn("No open request for token {}.", new ByteArrayWrapper(coapResponse.getToken()));
+            return;
+        }
+
+        Channels.write(getChannel(remoteAddress), new InternalNextBlockRequestMessage(coapResponse.getToken()));
+    }
+
+    /**
+     * Returns the {@link DatagramChannel} the given remote address is pinned to
+     */
+    private DatagramChannel getChannel(InetSocketAddress remoteAddress){
+        if(datagramChannels.length == 1)
+            return datagramChannels[0];
+
+        int hash = remoteAddress.hashCode();
+        hash ^= (hash >>> 16);
+        return datagramChannels[(hash & Integer.MAX_VALUE) % datagramChannels.length];
+    }
+
+    /**
+     * Establishes a CoAP over TCP (RFC 8323) connection to the given remote address. As long as this connection is
+     * open, all requests to the given remote address (except for observations) are sent via this connection instead
+     * of UDP. The requests are matched with their responses by their token, i.e. any number of requests can be
+     * pending concurrently. Responses are received without blockwise transfer, no matter how large they are.
+     *
+     * If there already is an open connection to the given remote address, this method does nothing.
+     *
+     * @param remoteAddress the remote address to connect to (e.g. a server that invoked
+     *                      {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication#bindTcp(
+     *                      InetSocketAddress)})
+     *
+     * @throws IOException if the connection could not be established
+     */
+    public synchronized void connectTcp(final InetSocketAddress remoteAddress) throws IOException {
+        Channel tcpChannel = tcpChannels.get(remoteAddress);
+        if(tcpChannel != null && tcpChannel.isOpen())
+            return;
+
+        if(tcpChannelFactory == null)
+            tcpChannelFactory = new CoapClientTcpChannelFactory(executors.getExecutionHandler(), this);
+
+        final Channel newChannel = tcpChannelFactory.connect(remoteAddress);
+        tcpChannels.put(remoteAddress, newChannel);
+
+        //Upcoming requests are sent via UDP again after the connection was closed
+        newChannel.getCloseFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if(tcpChannels.remove(remoteAddress, newChannel))
+                    log.info("TCP connection to {} closed.", remoteAddress);
             }
         });
+    }
 
-        future.awaitUninterruptibly();
+    /**
+     * Closes the CoAP over TCP connection to the given remote address (if any). Upcoming requests to the given remote
+     * address are sent via UDP.
+     *
+     * @param remoteAddress the remote address to close the connection to
+     */
+    public void disconnectTcp(InetSocketAddress remoteAddress){
+        Channel tcpChannel = tcpChannels.get(remoteAddress);
+        if(tcpChannel != null)
+            tcpChannel.close().awaitUninterruptibly();
     }
 
-    private synchronized void addResponseCallback(byte[] token, InetSocketAddress remoteAddress,
-                                                  CoapResponseProcessor coapResponseProcessor){
-        responseProcessors.put(new ByteArrayWrapper(token), remoteAddress, coapResponseProcessor);
+    /**
+     * Sets the {@link HostnameResolver} to resolve the hostnames of the target URIs of upcoming
+     * {@link CoapRequest}s. The default is a {@link CachingHostnameResolver} on top of
+     * {@link HostnameResolver#SYSTEM}, i.e. hostnames are resolved synchronously only once and then again
+     * asynchronously before their TTL expires. IP literals are never given to the {@link HostnameResolver}.
+     *
+     * @param hostnameResolver the {@link HostnameResolver} to resolve the hostnames of upcoming
+     *                         {@link CoapRequest}s
+     */
+    public void setHostnameResolver(HostnameResolver hostnameResolver){
+        this.hostnameResolver = hostnameResolver;
+    }
+
+    /**
+     * Sets the number of blocks to be requested concurrently when receiving a blockwise transferred
+     * {@link CoapResponse}. The default value 1 means stop-and-wait.
+     *
+     * @param windowSize the number of blocks to be requested concurrently
+     */
+    public void setBlock2WindowSize(int windowSize){
+        for(DatagramChannel datagramChannel : datagramChannels)
+            datagramChannel.getPipeline().get(BlockwiseTransferHandler.class).setBlock2WindowSize(windowSize);
+    }
+
+    /**
+     * Sets the length (in bytes) of the tokens of upcoming {@link CoapRequest}s. Shorter tokens save bytes on
+     * constrained links but limit the number of distinct tokens to 2^(8 * length). A token is never used for two
+     * open requests to the same remote address at the same time. The default length is 8.
+     *
+     * @param tokenLength the length of the tokens of upcoming {@link CoapRequest}s (1 to 8)
+     */
+    public void setTokenLength(int tokenLength){
+        this.tokenFactory = new TokenFactory(tokenLength);
+    }
+
+    /**
+     * Returns the length (in bytes) of the tokens of upcoming {@link CoapRequest}s
+     * @return the length (in bytes) of the tokens of upcoming {@link CoapRequest}s
+     */
+    public int getTokenLength(){
+        return tokenFactory.getTokenLength();
+    }
+
+    /**
+     * Returns the local port the (first) {@link DatagramChannel} of this {@link CoapClientApplication} is bound to.
+     * @return the local port the (first) {@link DatagramChannel} of this {@link CoapClientApplication} is bound to.
+     */
+    public int getClientPort() {
+        return datagramChannels[0].getLocalAddress().getPort();
+    }
+
+    /**
+     * Returns the number of {@link DatagramChannel}s (i.e. local ports) of this {@link CoapClientApplication}
+     * @return the number of {@link DatagramChannel}s (i.e. local ports) of this {@link CoapClientApplication}
+     */
+    public int getNumberOfChannels(){
+        return datagramChannels.length;
+    }
+
+    /**
+     * Shuts the client down by closing all datagram channels which includes to unbind them from their listening
+     * ports and by this means free the ports. All blocked or bound external resources are released.
+     */
+    public final void shutdown(){
+        //Close the datagram channels (includes unbind) and await the closure
+        for(DatagramChannel datagramChannel : datagramChannels){
+            int port = datagramChannel.getLocalAddress().getPort();
+            datagramChannel.close().awaitUninterruptibly();
+            log.info("Client channel closed (port: " + port + ").");
+        }
+
+        //Close the CoAP over TCP connections (if any)
+        synchronized (this){
+            if(tcpChannelFactory != null)
+                tcpChannelFactory.shutdown();
+        }
+
+        //Let the factory release its external resources to finalize the shutdown
+        executors.shutdown();
+        datagramChannels[0].getFactory().releaseExternalResources();
+        log.info("External resources released. Shutdown completed.");
+    }
+
+    private byte[] addResponseCallback(InetSocketAddress remoteAddress, CoapResponseProcessor coapResponseProcessor){
+        TokenFactory tokenFactory = this.tokenFactory;
+
+        //Skip tokens of open requests (e.g. running observations)
+        long token;
+        long attempts = 0;
+        do{
+            if(attempts++ == tokenFactory.getNumberOfTokens())
+                throw new IllegalStateException("All tokens in use.");
+
+            token = tokenFactory.getNextToken();
+        }
+        while(!responseProcessors.add(token, tokenFactory.getTokenLength(), remoteAddress, coapResponseProcessor));
+
         log.debug("Number of clients waiting for response: {}. ", responseProcessors.size());
+
+        return tokenFactory.toByteArray(token);
     }
 
 
-    private synchronized CoapResponseProcessor removeResponseCallback(byte[] token, InetSocketAddress remoteAddress){
-        CoapResponseProcessor result = responseProcessors.remove(new ByteArrayWrapper(token), remoteAddress);
+    private CoapResponseProcessor removeResponseCallback(byte[] token, InetSocketAddress remoteAddress){
+        CoapResponseProcessor result = responseProcessors.remove(token, remoteAddress);
         log.debug("Number of clients waiting for response: {}. ", responseProcessors.size());
         return result;
     }
@@ -204,7 +759,7 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
 
             //find proper callback
             CoapResponseProcessor callback =
-                    responseProcessors.get(message.getToken(), me.getRemoteAddress());
+                    responseProcessors.get(message.getToken().getData(), (InetSocketAddress) me.getRemoteAddress());
 
             if(callback != null && callback instanceof EmptyAcknowledgementProcessor)
                 ((EmptyAcknowledgementProcessor) callback).processEmptyAcknowledgement(message);
@@ -224,9 +779,6 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
             if(callback != null && callback instanceof RetransmissionTimeoutProcessor)
                 ((RetransmissionTimeoutProcessor) callback).processRetransmissionTimeout(timeoutMessage);
 
-            //pass the token back
-            tokenFactory.passBackToken(timeoutMessage.getToken());
-
             me.getFuture().setSuccess();
             return;
         }
@@ -236,7 +788,8 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
                     (InternalMessageRetransmissionMessage) me.getMessage();
 
             CoapResponseProcessor callback =
-                    responseProcessors.get(retransmissionMessage.getToken(), retransmissionMessage.getRemoteAddress());
+                    responseProcessors.get(retransmissionMessage.getToken().getData(),
+                            retransmissionMessage.getRemoteAddress());
 
             if(callback != null && callback instanceof RetransmissionProcessor)
                 ((RetransmissionProcessor) callback).requestSent();
@@ -249,7 +802,7 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
             InternalNextBlockReceivedMessage message = (InternalNextBlockReceivedMessage) me.getMessage();
 
             CoapResponseProcessor callback =
-                    responseProcessors.get(message.getToken(), me.getRemoteAddress());
+                    responseProcessors.get(message.getToken().getData(), (InetSocketAddress) me.getRemoteAddress());
 
             if(callback != null && callback instanceof InternalNextBlockReceivedMessageProcessor)
                 ((InternalNextBlockReceivedMessageProcessor) callback).receivedNextBlock();
@@ -258,6 +811,24 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
             return;
         }
 
+        if(me.getMessage() instanceof InternalBlockwiseTransferFailedMessage){
+            InternalBlockwiseTransferFailedMessage failedMessage =
+                    (InternalBlockwiseTransferFailedMessage) me.getMessage();
+
+            //Running observations are kept, i.e. the next update notification is awaited
+            CoapResponseProcessor callback =
+                    responseProcessors.get(failedMessage.getToken().getData(), failedMessage.getRemoteAddress());
+
+            if(callback != null && !(callback instanceof ObservationMultiplexer))
+                removeResponseCallback(failedMessage.getToken().getData(), failedMessage.getRemoteAddress());
+
+            if(callback != null && callback instanceof BlockwiseTransferFailureProcessor)
+                ((BlockwiseTransferFailureProcessor) callback).processBlockwiseTransferFailure(failedMessage);
+
+            me.getFuture().setSuccess();
+            return;
+        }
+
         if(me.getMessage() instanceof CoapResponse){
             CoapResponse coapResponse = (CoapResponse) me.getMessage();
 
@@ -266,10 +837,18 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
                     ((InetSocketAddress) me.getRemoteAddress()).getAddress() instanceof Inet6Address);
             log.debug("InetAddress: {}.", ((InetSocketAddress) me.getRemoteAddress()).getAddress().toString());
 
+            //Give blocks of streamed transfers to the application
+            if(!coapResponse.getOptionList().getOption(BLOCK_2).isEmpty()
+                    && responseBlockReceived(coapResponse, (InetSocketAddress) me.getRemoteAddress())){
+
+                me.getFuture().setSuccess();
+                return;
+            }
+
             CoapResponseProcessor callback;
 
             if(coapResponse.isUpdateNotification())
-                callback = responseProcessors.get(new ByteArrayWrapper(coapResponse.getToken()), me.getRemoteAddress());
+                callback = responseProcessors.get(coapResponse.getToken(), (InetSocketAddress) me.getRemoteAddress());
             else
                 callback = removeResponseCallback(coapResponse.getToken(), (InetSocketAddress) me.getRemoteAddress());
 
@@ -281,9 +860,6 @@ public class CoapClientApplication extends SimpleChannelUpstreamHandler {
                 log.debug("No callback found for token {}.", new ByteArrayWrapper(coapResponse.getToken()));
             }
 
-            //pass the token back
-            tokenFactory.passBackToken(coapResponse.getToken());
-
             me.getFuture().setSuccess();
         }
 
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferFailedException;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferFailureProcessor;
+import de.uniluebeck.itm.ncoap.communication.blockwise.InternalBlockwiseTransferFailedMessage;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.InternalRetransmissionTimeoutMessage;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RetransmissionTimeoutProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The {@link com.google.common.util.concurrent.ListenableFuture} returned by
+ * {@link CoapClientApplication#writeCoapRequest(de.uniluebeck.itm.ncoap.message.CoapRequest, long,
+ * java.util.concurrent.TimeUnit)}. It is set with the first incoming {@link CoapResponse} and fails with a
+ * {@link TimeoutException} if the recipient did not acknowledge the request, the deadline passed, or the request
+ * expired without response (see {@link ExchangeExpiryProcessor}), or with a {@link BlockwiseTransferFailedException}
+ * if a blockwise transferred response could not be reassembled. If the request could not be sent at all, it fails
+ * with the cause (see {@link RequestFailureProcessor}).
+ *
+ * @author Oliver Kleine
+ */
+class CoapResponseFuture extends AbstractFuture<CoapResponse>
+        implements CoapResponseProcessor, RetransmissionTimeoutProcessor, BlockwiseTransferFailureProcessor,
+                   ExchangeExpiryProcessor, RequestFailureProcessor {
+
+    @Override
+    public void processCoapResponse(CoapResponse coapResponse) {
+        set(coapResponse);
+    }
+
+    @Override
+    public void processRetransmissionTimeout(InternalRetransmissionTimeoutMessage timeoutMessage) {
+        setException(new TimeoutException("No acknowledgement received from " + timeoutMessage.getRemoteAddress()
+                + "."));
+    }
+
+    @Override
+    public void processExchangeExpiry(InetSocketAddress remoteAddress) {
+        setException(new TimeoutException("No response received from " + remoteAddress + "."));
+    }
+
+    @Override
+    public void processRequestFailure(Throwable cause) {
+        setException(cause);
+    }
+
+    @Override
+    public void processBlockwiseTransferFailure(InternalBlockwiseTransferFailedMessage failedMessage) {
+        setException(new BlockwiseTransferFailedException(failedMessage.getReason()));
+    }
+
+    /**
+     * Lets this future fail with a {@link TimeoutException} since the given deadline passed
+     *
+     * @param deadline the deadline in milliseconds
+     *
+     * @return <code>true</code> if this future failed, <code>false</code> if it was already completed
+     */
+    boolean deadlinePassed(long deadline){
+        return setException(new TimeoutException("No response within " + deadline + " ms."));
+    }
+}
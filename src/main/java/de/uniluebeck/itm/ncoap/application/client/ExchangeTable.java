@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link ExchangeTable} relates the tokens of open requests to the {@link CoapResponseProcessor}s to be
+ * invoked upon incoming responses. Entries are keyed by the primitive representation of the token (see
+ * {@link TokenFactory#toLong(byte[])}) and store the token length and the remote address to verify incoming
+ * messages. Thus, a token is used for at most one open request at a time (regardless of the remote address) and
+ * lookups as well as removals are lock-free.
+ *
+ * Entries expire if there was no message for {@link #EXCHANGE_LIFETIME} milliseconds (e.g. a request with
+ * {@link de.uniluebeck.itm.ncoap.message.header.MsgType#NON} that was never answered), except for the entries of
+ * running observations. Expired entries are removed by {@link #removeExpiredExchanges()} which informs the
+ * {@link CoapResponseProcessor}s implementing {@link ExchangeExpiryProcessor}.
+ *
+ * @author Oliver Kleine
+ */
+class ExchangeTable {
+
+    /**
+     * The number of milliseconds an entry is kept without any message for the corresponding request (i.e. the
+     * EXCHANGE_LIFETIME of the CoAP draft)
+     */
+    static final long EXCHANGE_LIFETIME = 247000;
+
+    private static Logger log = LoggerFactory.getLogger(ExchangeTable.class.getName());
+
+    private ConcurrentHashMap<Long, Exchange> exchanges = new ConcurrentHashMap<Long, Exchange>();
+
+    /**
+     * Adds an entry for the given token unless the token is already used for an open request
+     *
+     * @param token the primitive representation of the token
+     * @param tokenLength the length of the token (in bytes)
+     * @param remoteAddress the address of the recipient of the request
+     * @param coapResponseProcessor the {@link CoapResponseProcessor} to be invoked upon incoming responses
+     *
+     * @return <code>true</code> if the entry was added, <code>false</code> if the token is already in use
+     */
+    boolean add(long token, int tokenLength, InetSocketAddress remoteAddress,
+                CoapResponseProcessor coapResponseProcessor){
+
+        return exchanges.putIfAbsent(token, new Exchange(tokenLength, remoteAddress, coapResponseProcessor)) == null;
+    }
+
+    /**
+     * Returns the {@link CoapResponseProcessor} for the given token and remote address (if any) and extends the
+     * lifetime of the entry
+     *
+     * @param token the token of an incoming message
+     * @param remoteAddress the sender of an incoming message
+     *
+     * @return the {@link CoapResponseProcessor} for the given token and remote address or <code>null</code> if
+     * there is no such entry
+     */
+    CoapResponseProcessor get(byte[] token, InetSocketAddress remoteAddress){
+        Exchange exchange = getExchange(token, remoteAddress);
+        if(exchange == null)
+            return null;
+
+        exchange.touch();
+        return exchange.getCoapResponseProcessor();
+    }
+
+    /**
+     * Returns the remote address of the open request with the given token (if any)
+     *
+     * @param token the token of an open request
+     *
+     * @return the remote address of the open request with the given token or <code>null</code> if there is no
+     * such entry
+     */
+    InetSocketAddress getRemoteAddress(byte[] token){
+        if(token.length == 0 || token.length > TokenFactory.MAX_TOKEN_LENGTH)
+            return null;
+
+        Exchange exchange = exchanges.get(TokenFactory.toLong(token));
+        if(exchange == null || exchange.getTokenLength() != token.length)
+            return null;
+
+        return exchange.getRemoteAddress();
+    }
+
+    /**
+     * Removes the entry for the given token and remote address (if any)
+     *
+     * @param token the token of an incoming message
+     * @param remoteAddress the sender of an incoming message
+     *
+     * @return the {@link CoapResponseProcessor} of the removed entry or <code>null</code> if there was no such entry
+     */
+    CoapResponseProcessor remove(byte[] token, InetSocketAddress remoteAddress){
+        Exchange exchange = getExchange(token, remoteAddress);
+        if(exchange == null || !exchanges.remove(TokenFactory.toLong(token), exchange))
+            return null;
+
+        return exchange.getCoapResponseProcessor();
+    }
+
+    /**
+     * Removes all expired entries and informs their {@link CoapResponseProcessor}s implementing
+     * {@link ExchangeExpiryProcessor}
+     *
+     * @return the number of removed entries
+     */
+    int removeExpiredExchanges(){
+        long now = System.currentTimeMillis();
+        int removed = 0;
+
+        Iterator<Map.Entry<Long, Exchange>> entries = exchanges.entrySet().iterator();
+        while(entries.hasNext()){
+            Exchange exchange = entries.next().getValue();
+            if(exchange.isExpired(now)){
+                entries.remove();
+                removed++;
+
+                if(exchange.getCoapResponseProcessor() instanceof ExchangeExpiryProcessor){
+                    try{
+                        ((ExchangeExpiryProcessor) exchange.getCoapResponseProcessor())
+                                .processExchangeExpiry(exchange.getRemoteAddress());
+                    }
+                    catch(Exception e){
+                        log.error("Exception while processing expired exchange.", e);
+                    }
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Returns the number of entries
+     * @return the number of entries
+     */
+    int size(){
+        return exchanges.size();
+    }
+
+    private Exchange getExchange(byte[] token, InetSocketAddress remoteAddress){
+        if(token.length == 0 || token.length > TokenFactory.MAX_TOKEN_LENGTH)
+            return null;
+
+        Exchange exchange = exchanges.get(TokenFactory.toLong(token));
+        if(exchange == null || exchange.getTokenLength() != token.length
+                || !exchange.getRemoteAddress().equals(remoteAddress))
+            return null;
+
+        return exchange;
+    }
+
+
+    private static class Exchange {
+
+        private final int tokenLength;
+        private final InetSocketAddress remoteAddress;
+        private final CoapResponseProcessor coapResponseProcessor;
+
+        private volatile long expiry;
+
+        public Exchange(int tokenLength, InetSocketAddress remoteAddress,
+                        CoapResponseProcessor coapResponseProcessor){
+            this.tokenLength = tokenLength;
+            this.remoteAddress = remoteAddress;
+            this.coapResponseProcessor = coapResponseProcessor;
+            touch();
+        }
+
+        public int getTokenLength() {
+            return tokenLength;
+        }
+
+        public InetSocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public CoapResponseProcessor getCoapResponseProcessor() {
+            return coapResponseProcessor;
+        }
+
+        public void touch(){
+            //running observations are removed on cancellation only
+            if(coapResponseProcessor instanceof ObservationMultiplexer)
+                expiry = Long.MAX_VALUE;
+            else
+                expiry = System.currentTimeMillis() + EXCHANGE_LIFETIME;
+        }
+
+        public boolean isExpired(long now){
+            return expiry < now;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * A {@link HostnameResolver} resolves the hostnames of the target URIs of outgoing
+ * {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s. The {@link CoapClientApplication} uses a
+ * {@link CachingHostnameResolver} on top of the system resolver by default (see
+ * {@link CoapClientApplication#setHostnameResolver(HostnameResolver)} to use another one, e.g. a local stand-in
+ * for tests).
+ *
+ * @author Oliver Kleine
+ */
+public interface HostnameResolver {
+
+    /**
+     * The {@link HostnameResolver} using {@link InetAddress#getByName(String)}
+     */
+    public static final HostnameResolver SYSTEM = new HostnameResolver() {
+        @Override
+        public InetAddress resolve(String hostname) throws UnknownHostException {
+            return InetAddress.getByName(hostname);
+        }
+    };
+
+    /**
+     * Returns the {@link InetAddress} of the given hostname
+     *
+     * @param hostname the hostname to be resolved
+     *
+     * @return the {@link InetAddress} of the given hostname
+     *
+     * @throws UnknownHostException if the given hostname could not be resolved
+     */
+    public InetAddress resolve(String hostname) throws UnknownHostException;
+}
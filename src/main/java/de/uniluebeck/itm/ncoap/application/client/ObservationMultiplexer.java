@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.*;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link ObservationMultiplexer} is the {@link CoapResponseProcessor} of a single observation of a remote
+ * resource shared by several local subscribers (instances of {@link CoapResponseProcessor}). Update notifications
+ * are forwarded to all subscribers unless they are older than the latest notification according to the value of
+ * the observe option. New subscribers immediately receive the latest notification.
+ *
+ * @author Oliver Kleine
+ */
+class ObservationMultiplexer implements CoapResponseProcessor, RetransmissionTimeoutProcessor,
+        EmptyAcknowledgementProcessor, RetransmissionProcessor, RequestFailureProcessor {
+
+    /**
+     * The time (in milliseconds) after which a notification is considered fresh regardless of the value of the
+     * observe option
+     */
+    public static final long NOTIFICATION_FRESHNESS_TIMEOUT = TimeUnit.SECONDS.toMillis(128);
+
+    //The observe option is an unsigned integer with up to 2 bytes
+    private static final long SEQUENCE_NUMBER_RANGE = 1 << 16;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private CoapClientApplication clientApplication;
+    private List<Object> observationKey;
+    private CoapRequest coapRequest;
+    private InetSocketAddress remoteAddress;
+
+    private List<CoapResponseProcessor> subscribers = new CopyOnWriteArrayList<CoapResponseProcessor>();
+
+    private CoapResponse latestNotification;
+    private long latestSequenceNumber;
+    private long latestNotificationTime;
+
+    /**
+     * @param clientApplication the {@link CoapClientApplication} running the observation
+     * @param observationKey the key of the observation (remote address, resource, and accepted media types)
+     * @param coapRequest the {@link CoapRequest} to start the observation
+     * @param remoteAddress the address of the observed server
+     */
+    ObservationMultiplexer(CoapClientApplication clientApplication, List<Object> observationKey,
+                           CoapRequest coapRequest, InetSocketAddress remoteAddress){
+        this.clientApplication = clientApplication;
+        this.observationKey = observationKey;
+        this.coapRequest = coapRequest;
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * Returns the {@link CoapRequest} that started the observation
+     * @return the {@link CoapRequest} that started the observation
+     */
+    public CoapRequest getCoapRequest() {
+        return coapRequest;
+    }
+
+    /**
+     * Returns the address of the observed server
+     * @return the address of the observed server
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Returns the key of the observation (remote address, resource, and accepted media types)
+     * @return the key of the observation (remote address, resource, and accepted media types)
+     */
+    public List<Object> getObservationKey() {
+        return observationKey;
+    }
+
+    /**
+     * Adds a new subscriber. If there was already an update notification received, it is immediately forwarded to
+     * the new subscriber.
+     *
+     * @param subscriber the {@link CoapResponseProcessor} to receive the update notifications
+     */
+    public void addSubscriber(CoapResponseProcessor subscriber){
+        CoapResponse notification;
+        synchronized (this){
+            subscribers.add(subscriber);
+            notification = latestNotification;
+        }
+
+        if(notification != null)
+            subscriber.processCoapResponse(notification);
+    }
+
+    /**
+     * Removes the given subscriber
+     *
+     * @param subscriber the {@link CoapResponseProcessor} to be removed
+     *
+     * @return the number of remaining subscribers
+     */
+    public synchronized int removeSubscriber(CoapResponseProcessor subscriber){
+        subscribers.remove(subscriber);
+        return subscribers.size();
+    }
+
+    @Override
+    public void processCoapResponse(CoapResponse coapResponse) {
+        if(!coapResponse.isUpdateNotification()){
+            log.info("Observation {} stopped by response {}.", observationKey, coapResponse);
+            clientApplication.removeObservationMultiplexer(this);
+        }
+        else if(!updateLatestNotification(coapResponse)){
+            log.info("Dropped outdated update notification (observe option {}) for {}.",
+                    coapResponse.getObserveOptionValue(), observationKey);
+            return;
+        }
+
+        for(CoapResponseProcessor subscriber : subscribers){
+            subscriber.processCoapResponse(coapResponse);
+        }
+    }
+
+    private synchronized boolean updateLatestNotification(CoapResponse updateNotification){
+        long sequenceNumber = updateNotification.getObserveOptionValue();
+        long now = System.currentTimeMillis();
+
+        if(latestNotification != null && now < latestNotificationTime + NOTIFICATION_FRESHNESS_TIMEOUT){
+            long difference = (sequenceNumber - latestSequenceNumber + SEQUENCE_NUMBER_RANGE) % SEQUENCE_NUMBER_RANGE;
+            if(difference == 0 || difference >= SEQUENCE_NUMBER_RANGE / 2)
+                return false;
+        }
+
+        latestNotification = updateNotification;
+        latestSequenceNumber = sequenceNumber;
+        latestNotificationTime = now;
+        return true;
+    }
+
+    @Override
+    public void processRetransmissionTimeout(InternalRetransmissionTimeoutMessage timeoutMessage) {
+        clientApplication.removeObservationMultiplexer(this);
+
+        for(CoapResponseProcessor subscriber : subscribers){
+            if(subscriber instanceof RetransmissionTimeoutProcessor)
+                ((RetransmissionTimeoutProcessor) subscriber).processRetransmissionTimeout(timeoutMessage);
+        }
+    }
+
+    @Override
+    public void processRequestFailure(Throwable cause) {
+        clientApplication.removeObservationMultiplexer(this);
+
+        for(CoapResponseProcessor subscriber : subscribers){
+            if(subscriber instanceof RequestFailureProcessor)
+                ((RequestFailureProcessor) subscriber).processRequestFailure(cause);
+        }
+    }
+
+    @Override
+    public void processEmptyAcknowledgement(InternalEmptyAcknowledgementReceivedMessage message) {
+        for(CoapResponseProcessor subscriber : subscribers){
+            if(subscriber instanceof EmptyAcknowledgementProcessor)
+                ((EmptyAcknowledgementProcessor) subscriber).processEmptyAcknowledgement(message);
+        }
+    }
+
+    @Override
+    public void requestSent() {
+        for(CoapResponseProcessor subscriber : subscribers){
+            if(subscriber instanceof RetransmissionProcessor)
+                ((RetransmissionProcessor) subscriber).requestSent();
+        }
+    }
+}
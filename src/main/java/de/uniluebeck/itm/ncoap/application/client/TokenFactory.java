@@ -24,65 +24,141 @@
  */
 package de.uniluebeck.itm.ncoap.application.client;
 
-import com.google.common.primitives.Longs;
-import de.uniluebeck.itm.ncoap.toolbox.ByteArrayWrapper;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.*;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * The TokenFactory generates tokens to match incoming responses with open requests and enable the
  * {@link CoapClientApplication} to invoke the correct callback method.
  *
- * Since there are 2^64 possibilities for a token
- * and the generation is randomized, it is rather unlikely to get the same token within the usual time to wait for
- * a response. That's why we pass on memorizing tokens currently in use.
+ * Tokens are generated from a counter which is mixed by a randomly keyed bijection on the token space. Thus, the
+ * first 2^(8 * token length) tokens are distinct while being unpredictable for third parties, without memorizing
+ * tokens currently in use and without any lock. Tokens are represented as primitive <code>long</code> values
+ * together with the configured token length and converted to the bytes to be sent with
+ * {@link #toByteArray(long)}.
+ *
+ * To avoid contention between sending threads, tokens of at least {@link #MIN_STRIPED_TOKEN_LENGTH} bytes are
+ * generated from {@link #STRIPES} counters. The counter is chosen by the ID of the current thread and each counter
+ * owns a disjoint residue class of the counter values, i.e. tokens are still distinct until a single counter wraps
+ * (2^(8 * token length) / {@link #STRIPES} tokens). Shorter tokens are generated from a single counter, since a
+ * thread must be able to get every token of the (small) token space to find one not currently in use.
  *
  * @author Oliver Kleine
  */
 class TokenFactory {
 
-    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+    /**
+     * The maximum length of a token (in bytes)
+     */
+    static final int MAX_TOKEN_LENGTH = 8;
 
-    private Random random = new Random(System.currentTimeMillis());
-    private Set<Long> usedTokens = Collections.synchronizedSet(new HashSet<Long>());
+    /**
+     * The number of counters for tokens of at least {@link #MIN_STRIPED_TOKEN_LENGTH} bytes (a power of 2)
+     */
+    static final int STRIPES = 16;
+
+    /**
+     * The minimum length of a token (in bytes) to be generated from {@link #STRIPES} counters
+     */
+    static final int MIN_STRIPED_TOKEN_LENGTH = 4;
+
+    //Distance of two counters in the array (64 bytes) to keep them in different cache lines
+    private static final int PADDING = 8;
+
+    private static final long MIX_MULTIPLIER = 0xC4CEB9FE1A85EC53L;
+
+    private final int tokenLength;
+    private final long mask;
+    private final int shift;
+
+    private final long offset;
+    private final long multiplier;
+
+    private final int stripes;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param tokenLength the length of the tokens to be generated (in bytes, 1 to {@link #MAX_TOKEN_LENGTH})
+     */
+    TokenFactory(int tokenLength){
+        if(tokenLength < 1 || tokenLength > MAX_TOKEN_LENGTH)
+            throw new IllegalArgumentException("Token length must be between 1 and " + MAX_TOKEN_LENGTH +
+                    " (was: " + tokenLength + ").");
+
+        this.tokenLength = tokenLength;
+        this.mask = tokenLength == MAX_TOKEN_LENGTH ? -1L : (1L << (8 * tokenLength)) - 1;
+        this.shift = 4 * tokenLength;
+
+        this.stripes = tokenLength < MIN_STRIPED_TOKEN_LENGTH ? 1 : STRIPES;
+        this.counters = new AtomicLongArray(stripes * PADDING);
+
+        Random random = new SecureRandom();
+        this.offset = random.nextLong();
+        this.multiplier = random.nextLong() | 1L;
+    }
 
     /**
      * Returns the next token to be used
      * @return the next token to be used
      */
-    byte[] getNextToken(){
-        //create new token
-        Long token;
-        do
-            token = random.nextLong();
-        while(!usedTokens.add(token));
+    long getNextToken(){
+        int stripe = (int) Thread.currentThread().getId() & (stripes - 1);
+        long count = counters.getAndIncrement(stripe * PADDING) * stripes + stripe;
 
-        byte[] result = Longs.toByteArray(token);
-        log.debug("Added token: {} (Now {} tokens in use).", new ByteArrayWrapper(result), usedTokens.size());
+        //every step is a bijection on the token space
+        long token = (count + offset) & mask;
+        token = (token * multiplier) & mask;
+        token ^= token >>> shift;
+        token = (token * MIX_MULTIPLIER) & mask;
+        token ^= token >>> shift;
 
-        return ByteArrayWrapper.removeLeadingZerosFromByteArray(result);
+        return token;
     }
 
     /**
-     * Pass the token back to make it re-usable for upcoming requests
-     * @param token the token not used anymore
+     * Returns the length of the tokens generated by this {@link TokenFactory} (in bytes)
+     * @return the length of the tokens generated by this {@link TokenFactory} (in bytes)
      */
-    void passBackToken(byte[] token){
-        if(token.length < 8){
-            byte[] tmp = new byte[]{0,0,0,0,0,0,0,0};
-            for(int i = 0; i < token.length; i++){
-                tmp[i + 8 - token.length] = token[i];
-            }
-            token = tmp;
-        }
+    int getTokenLength(){
+        return tokenLength;
+    }
+
+    /**
+     * Returns the number of distinct tokens this {@link TokenFactory} generates before tokens are repeated
+     * @return the number of distinct tokens or {@link Long#MAX_VALUE} for {@link #MAX_TOKEN_LENGTH}
+     */
+    long getNumberOfTokens(){
+        return mask == -1L ? Long.MAX_VALUE : mask + 1;
+    }
 
-        if(usedTokens.remove(Longs.fromByteArray(token)))
-            log.debug("Passed back token: {} (Now {} tokens in use.)", new ByteArrayWrapper(token), usedTokens.size());
-        else
-            log.warn("Could not pass back token {}. Still {} tokens in use.", new ByteArrayWrapper(token),
-                    usedTokens.size());
+    /**
+     * Returns the bytes to be sent for the given token (big endian with the configured token length)
+     *
+     * @param token the token generated by {@link #getNextToken()}
+     *
+     * @return the bytes to be sent for the given token
+     */
+    byte[] toByteArray(long token){
+        byte[] result = new byte[tokenLength];
+        for(int i = tokenLength - 1; i >= 0; i--){
+            result[i] = (byte) token;
+            token >>>= 8;
+        }
+        return result;
     }
 
- }
+    /**
+     * Returns the primitive representation of the given token (i.e. the reverse of {@link #toByteArray(long)})
+     *
+     * @param token the bytes of the token (up to {@link #MAX_TOKEN_LENGTH})
+     *
+     * @return the primitive representation of the given token
+     */
+    static long toLong(byte[] token){
+        long result = 0;
+        for(byte b : token)
+            result = (result << 8) | (b & 0xFF);
+        return result;
+    }
+}
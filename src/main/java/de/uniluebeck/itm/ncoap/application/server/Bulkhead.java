@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.application.server;
+
+import de.uniluebeck.itm.ncoap.message.header.Code;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * A {@link Bulkhead} limits the number of requests a {@link CoapServerApplication} concurrently gives to the
+ * {@link de.uniluebeck.itm.ncoap.application.server.webservice.WebService}s at a path (or below a path prefix). A
+ * request is running from its delivery to the service until the response is set. If all slots are occupied, up to
+ * a given number of requests wait in a queue and are delivered as soon as a running request completes. Any
+ * further request is rejected, i.e. answered with {@link Code#SERVICE_UNAVAILABLE_503} and the
+ * {@link #getRetryAfter()} value as Max-Age, so that a slow service can neither occupy all threads of the server nor
+ * build up an unbounded backlog.
+ *
+ * The counters (see the getters) are meant to be exposed as metrics.
+ *
+ * @author Oliver Kleine
+ */
+public class Bulkhead {
+
+    /**
+     * The possible results of {@link Bulkhead#admit(Runnable)}
+     */
+    enum Admission {RUN, QUEUED, REJECTED}
+
+    /**
+     * The default number of seconds a client is asked to wait before retrying a rejected request
+     */
+    public static final long DEFAULT_RETRY_AFTER = 5;
+
+    private final int maxConcurrentRequests;
+    private final int maxQueuedRequests;
+    private final long retryAfter;
+
+    private final Queue<Runnable> queue = new LinkedList<Runnable>();
+    private int runningRequests;
+
+    private long acceptedRequests;
+    private long queuedRequests;
+    private long rejectedRequests;
+    private int maxQueueLength;
+
+    /**
+     * @param maxConcurrentRequests the maximum number of concurrently running requests
+     * @param maxQueuedRequests the maximum number of requests to wait for a free slot
+     */
+    public Bulkhead(int maxConcurrentRequests, int maxQueuedRequests){
+        this(maxConcurrentRequests, maxQueuedRequests, DEFAULT_RETRY_AFTER);
+    }
+
+    /**
+     * @param maxConcurrentRequests the maximum number of concurrently running requests
+     * @param maxQueuedRequests the maximum number of requests to wait for a free slot
+     * @param retryAfter the number of seconds a client is asked to wait before retrying a rejected request (sent
+     *                   as Max-Age of the {@link Code#SERVICE_UNAVAILABLE_503} response)
+     */
+    public Bulkhead(int maxConcurrentRequests, int maxQueuedRequests, long retryAfter){
+        if(maxConcurrentRequests < 1)
+            throw new IllegalArgumentException("Maximum number of concurrent requests must be at least 1 (was " +
+                    maxConcurrentRequests + ")");
+
+        if(maxQueuedRequests < 0)
+            throw new IllegalArgumentException("Maximum number of queued requests must not be negative (was " +
+                    maxQueuedRequests + ")");
+
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Admits the given request if there is either a free slot or a free place in the queue
+     *
+     * @param request the {@link Runnable} to deliver the request to the service
+     *
+     * @return {@link Admission#RUN} if the request is to be run immediately (by the caller),
+     * {@link Admission#QUEUED} if it will be returned by {@link #release()} later, or {@link Admission#REJECTED}
+     */
+    synchronized Admission admit(Runnable request){
+        if(runningRequests < maxConcurrentRequests){
+            runningRequests++;
+            acceptedRequests++;
+            return Admission.RUN;
+        }
+
+        if(queue.size() < maxQueuedRequests){
+            queue.add(request);
+            acceptedRequests++;
+            queuedRequests++;
+            maxQueueLength = Math.max(maxQueueLength, queue.size());
+            return Admission.QUEUED;
+        }
+
+        rejectedRequests++;
+        return Admission.REJECTED;
+    }
+
+    /**
+     * Releases the slot of a completed request
+     *
+     * @return the next queued request to be run (by the caller) in the released slot or <code>null</code> if the
+     * queue is empty
+     */
+    synchronized Runnable release(){
+        Runnable next = queue.poll();
+        if(next == null)
+            runningRequests--;
+
+        return next;
+    }
+
+    /**
+     * Returns the maximum number of concurrently running requests
+     * @return the maximum number of concurrently running requests
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Returns the maximum number of requests to wait for a free slot
+     * @return the maximum number of requests to wait for a free slot
+     */
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Returns the number of seconds a client is asked to wait before retrying a rejected request
+     * @return the number of seconds a client is asked to wait before retrying a rejected request
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns the number of currently running requests
+     * @return the number of currently running requests
+     */
+    public synchronized int getRunningRequests(){
+        return runningRequests;
+    }
+
+    /**
+     * Returns the number of requests currently waiting for a free slot
+     * @return the number of requests currently waiting for a free slot
+     */
+    public synchronized int getQueueLength(){
+        return queue.size();
+    }
+
+    /**
+     * Returns the largest number of requests that were waiting for a free slot at the same time
+     * @return the largest number of requests that were waiting for a free slot at the same time
+     */
+    public synchronized int getMaxQueueLength(){
+        return maxQueueLength;
+    }
+
+    /**
+     * Returns the total number of accepted (i.e. immediately run or queued) requests
+     * @return the total number of accepted (i.e. immediately run or queued) requests
+     */
+    public synchronized long getAcceptedRequests(){
+        return acceptedRequests;
+    }
+
+    /**
+     * Returns the total number of requests that had to wait for a free slot
+     * @return the total number of requests that had to wait for a free slot
+     */
+    public synchronized long getQueuedRequests(){
+        return queuedRequests;
+    }
+
+    /**
+     * Returns the total number of rejected requests
+     * @return the total number of rejected requests
+     */
+    public synchronized long getRejectedRequests(){
+        return rejectedRequests;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "Bulkhead[running: " + runningRequests + "/" + maxConcurrentRequests + ", queued: " + queue.size() +
+                "/" + maxQueuedRequests + ", accepted: " + acceptedRequests + ", rejected: " + rejectedRequests + "]";
+    }
+}
@@ -24,12 +24,25 @@
  */
 package de.uniluebeck.itm.ncoap.application.server;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.*;
 import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebService;
 import de.uniluebeck.itm.ncoap.application.server.webservice.WebService;
 import de.uniluebeck.itm.ncoap.application.server.webservice.WellKnownCoreResource;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionController;
+import de.uniluebeck.itm.ncoap.communication.admission.RateLimit;
+import de.uniluebeck.itm.ncoap.communication.admission.RateLimiter;
+import de.uniluebeck.itm.ncoap.communication.admission.RateLimitingHandler;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferHandler;
+import de.uniluebeck.itm.ncoap.communication.core.CoapExecutors;
 import de.uniluebeck.itm.ncoap.communication.core.CoapServerDatagramChannelFactory;
+import de.uniluebeck.itm.ncoap.communication.core.CoapServerTcpChannelFactory;
 import de.uniluebeck.itm.ncoap.communication.observe.InternalObservableResourceRegistrationMessage;
+import de.uniluebeck.itm.ncoap.communication.observe.ObservableResourceHandler;
+import de.uniluebeck.itm.ncoap.communication.observe.ObservationJournal;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransport;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransports;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
 import de.uniluebeck.itm.ncoap.message.header.Code;
@@ -43,11 +56,14 @@ import org.jboss.netty.channel.socket.DatagramChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.*;
 
 import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
@@ -59,7 +75,22 @@ import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.
  * one can register {@link WebService} instances and by this means make them available at their specified path.
  *
  * Each instance of {@link CoapServerApplication} is automatically bound to a local port to listen at for
- * incoming requests.
+ * incoming requests or, if created with {@link #CoapServerApplication(InetSocketAddress...)}, to several local
+ * addresses (e.g. a range of ports). In the latter case each socket has its own pipeline (i.e. its own reliability,
+ * blockwise transfer, and observation state) and I/O thread while the registered {@link WebService}s are shared.
+ * Responses are always sent from the socket that received the request.
+ *
+ * Incoming requests are handed over from the I/O threads to the application threads in the order of their arrival
+ * per remote address. The threads for I/O, protocol timers, and application work are provided by independently
+ * sized pools (see {@link CoapExecutors}), i.e. slow web services do not delay the I/O or retransmissions.
+ *
+ * Under overload (too many exchanges in progress, too many pending messages, or too little free heap memory)
+ * incoming requests are shed before decoding (see {@link #getAdmissionController()}). Additionally, the messages
+ * per source address can be limited (see {@link #getRateLimiter()}) as well as the requests for particular
+ * {@link WebService}s (see {@link Bulkhead}).
+ *
+ * Furthermore, a server may accept CoAP over TCP (see {@link #bindTcp(InetSocketAddress)}), e.g. for bulk traffic
+ * between backends. Requests received via TCP are served by the same {@link WebService}s but without observations.
  *
  * @author Oliver Kleine
  */
@@ -69,10 +100,17 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private DatagramChannel channel;
+    private DatagramChannel[] channels;
+    private CoapServerTcpChannelFactory tcpChannelFactory;
+    private CoapExecutors executors;
+    private AdmissionController admissionController;
+    private RateLimiter rateLimiter;
 
     //This map holds all registered webservice (key: URI path, value: WebService instance)
-    private HashMap<String, WebService> registeredServices = new HashMap<String, WebService>();
+    private ConcurrentHashMap<String, WebService> registeredServices = new ConcurrentHashMap<String, WebService>();
+
+    //This map holds the bulkheads (key: URI path or path prefix, value: Bulkhead instance)
+    private ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
 
     private ListeningExecutorService listeningExecutorService;
     private ScheduledExecutorService scheduledExecutorService;
@@ -82,23 +120,69 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
      * and already provides the default <code>.well-known/core</code> resource
      */
     public CoapServerApplication(int serverPort){
+        this(new InetSocketAddress(serverPort));
+    }
+
+    /**
+     * Constructor to create a new instance of {@link CoapServerApplication} that listens on all given local
+     * addresses (one socket per address) and already provides the default <code>.well-known/core</code> resource.
+     * All sockets share the registered {@link WebService}s.
+     *
+     * @param localAddresses the local addresses to listen on, e.g. a range of ports
+     */
+    public CoapServerApplication(InetSocketAddress... localAddresses){
+        this(DatagramTransports.getDefault(), localAddresses);
+    }
+
+    /**
+     * Constructor to create a new instance of {@link CoapServerApplication} whose {@link DatagramChannel}s are
+     * provided by the given {@link DatagramTransport}, e.g. a
+     * {@link de.uniluebeck.itm.ncoap.communication.transport.LoopbackTransport} to communicate with clients within the
+     * same JVM.
+     *
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}s
+     * @param localAddresses the local addresses to listen on, e.g. a range of ports
+     */
+    public CoapServerApplication(DatagramTransport transport, InetSocketAddress... localAddresses){
+        //Each channel may occupy one I/O thread, web services may block their threads
+        this(new CoapExecutors("CoAP Server", Runtime.getRuntime().availableProcessors() + localAddresses.length,
+                Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors()),
+                transport, localAddresses);
+    }
+
+    /**
+     * Constructor to create a new instance of {@link CoapServerApplication} that uses the given
+     * {@link CoapExecutors}, i.e. independently sized pools for I/O, protocol timers, and application work (the
+     * processing of requests and the tasks of web services). The executors are shut down on {@link #shutdown()}.
+     *
+     * @param executors the {@link CoapExecutors} to provide the threads
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}s
+     * @param localAddresses the local addresses to listen on, e.g. a range of ports
+     */
+    public CoapServerApplication(CoapExecutors executors, DatagramTransport transport,
+                                 InetSocketAddress... localAddresses){
 
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Server I/O Thread#%d").build();
+        this.executors = executors;
 
-        ScheduledExecutorService ioExecutorService =
-                Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory);
+        CoapServerDatagramChannelFactory factory =
+                new CoapServerDatagramChannelFactory(executors, transport, localAddresses);
+        channels = factory.getChannels();
 
-        CoapServerDatagramChannelFactory factory = new CoapServerDatagramChannelFactory(ioExecutorService, serverPort);
-        channel = factory.getChannel();
+        this.admissionController = new AdmissionController(executors);
+        this.rateLimiter = new RateLimiter();
 
-        channel.getPipeline().addLast("Server Application", this);
+        for(DatagramChannel channel : channels){
+            channel.getPipeline().addFirst("Admission Control", new AdmissionControlHandler(admissionController));
+            channel.getPipeline().addFirst("Rate Limiting", new RateLimitingHandler(rateLimiter));
+            channel.getPipeline().addLast("Server Application", this);
+        }
 
-        this.scheduledExecutorService = ioExecutorService;
+        this.scheduledExecutorService = executors.getApplicationExecutorService();
         this.listeningExecutorService = MoreExecutors.listeningDecorator(scheduledExecutorService);
 
         registerService(new WellKnownCoreResource(registeredServices));
 
-        log.info("New server created. Listening on port {}.", getServerPort());
+        log.info("New server created. Listening on port(s) {}.", Arrays.toString(getServerPorts()));
     }
 
     /**
@@ -109,9 +193,145 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
         this(DEFAULT_COAP_SERVER_PORT);
     }
 
+    /**
+     * Enables the persistence of running observations in the given file. Observations contained in an already
+     * existing journal are resumed, i.e. the observers get update notifications without re-registration. This
+     * method is supposed to be invoked right after the construction of the server.
+     *
+     * Upon {@link #shutdown()} the running observations are kept in the journal and the observers are not
+     * notified about the shutdown.
+     *
+     * @param journalFile the file to persist the running observations
+     *
+     * @throws IOException if the given file could not be opened or loaded
+     * @throws IllegalStateException if this server listens on more than one socket
+     */
+    public void setObservationJournal(File journalFile) throws IOException {
+        if(channels.length > 1)
+            throw new IllegalStateException("Observation journal is only supported for servers with one socket.");
+
+        channels[0].getPipeline().get(ObservableResourceHandler.class)
+               .setObservationJournal(new ObservationJournal(journalFile));
+    }
+
+    /**
+     * Sets the limits for incoming blockwise requests (see
+     * {@link BlockwiseTransferHandler#setUploadLimits(int, int, int, long)}). The limits apply per socket.
+     *
+     * @param memoryThreshold the number of bytes of an upload to be kept on the heap before the payload is written
+     *                        to a temporary file
+     * @param maxUploadSize the maximum size (in bytes) of the payload of an upload
+     * @param maxConcurrentUploads the maximum number of concurrent uploads
+     * @param uploadTimeout the number of milliseconds to wait for the next block of an upload
+     */
+    public void setUploadLimits(int memoryThreshold, int maxUploadSize, int maxConcurrentUploads, long uploadTimeout){
+        for(DatagramChannel channel : channels)
+            channel.getPipeline().get(BlockwiseTransferHandler.class)
+                   .setUploadLimits(memoryThreshold, maxUploadSize, maxConcurrentUploads, uploadTimeout);
+    }
+
+    /**
+     * Lets this server additionally accept CoAP over TCP (RFC 8323) connections on the given local address. Requests
+     * received via TCP are served by the same {@link WebService}s as requests received via UDP. The responses are
+     * sent via the connection that received the request, with the token of the request and without blockwise
+     * transfer. Observations are not supported via TCP, i.e. observe requests are answered with a single response.
+     *
+     * @param localAddress the local address to listen on for incoming connections
+     *
+     * @return the local port of the listening TCP socket
+     *
+     * @throws IllegalStateException if this server already accepts CoAP over TCP
+     */
+    public synchronized int bindTcp(InetSocketAddress localAddress){
+        if(tcpChannelFactory != null)
+            throw new IllegalStateException("Server already accepts CoAP over TCP on port " + getTcpServerPort());
+
+        tcpChannelFactory = new CoapServerTcpChannelFactory(executors.getExecutionHandler(), this, localAddress);
+        return tcpChannelFactory.getPort();
+    }
+
+    /**
+     * Returns the {@link AdmissionController} of this server, e.g. to adjust its thresholds or to expose its counters
+     * as metrics. Requests received via UDP are shed before decoding if the {@link AdmissionController} reports
+     * overload (see {@link AdmissionControlHandler}).
+     *
+     * @return the {@link AdmissionController} of this server
+     */
+    public AdmissionController getAdmissionController(){
+        return admissionController;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} of this server, e.g. to set {@link RateLimit}s per source address prefix or to
+     * expose its counters as metrics. Messages received via UDP from a source exceeding its {@link RateLimit} are
+     * shed before decoding (see {@link RateLimitingHandler}). By default, no source is limited.
+     *
+     * @return the {@link RateLimiter} of this server
+     */
+    public RateLimiter getRateLimiter(){
+        return rateLimiter;
+    }
+
+    /**
+     * Limits the number of concurrently processed requests for the {@link WebService} at the given path or, if the
+     * given path is a prefix, for all {@link WebService}s below (e.g. <code>/sensors</code> for
+     * <code>/sensors/temperature</code> and <code>/sensors/humidity</code>) together. If there are bulkheads for
+     * several prefixes of a path, the longest prefix applies. Requests exceeding the limits of the {@link Bulkhead}
+     * are answered with {@link Code#SERVICE_UNAVAILABLE_503}.
+     *
+     * @param path the path or path prefix to apply the given {@link Bulkhead} to (<code>/</code> for all services)
+     * @param bulkhead the {@link Bulkhead} to limit the requests for the given path
+     */
+    public void setBulkhead(String path, Bulkhead bulkhead){
+        bulkheads.put(path, bulkhead);
+        log.info("Bulkhead for {}: {}", path, bulkhead);
+    }
+
+    /**
+     * Removes the {@link Bulkhead} for the given path or path prefix. Requests that are already queued are
+     * processed nevertheless.
+     *
+     * @param path the path or path prefix the {@link Bulkhead} to be removed was set for
+     *
+     * @return the removed {@link Bulkhead} or <code>null</code> if there was no {@link Bulkhead} for the given path
+     */
+    public Bulkhead removeBulkhead(String path){
+        return bulkheads.remove(path);
+    }
+
+    /**
+     * Returns the {@link Bulkhead}s of this server, e.g. to expose their counters as metrics
+     * @return the {@link Bulkhead}s of this server (key: path or path prefix)
+     */
+    public Map<String, Bulkhead> getBulkheads(){
+        return ImmutableMap.copyOf(bulkheads);
+    }
+
+    //Returns the bulkhead with the longest (path segment) prefix of the given path or null if there is none
+    private Bulkhead findBulkhead(String path){
+        if(bulkheads.isEmpty())
+            return null;
+
+        String prefix = path;
+        while(true){
+            Bulkhead bulkhead = bulkheads.get(prefix.isEmpty() ? "/" : prefix);
+            if(bulkhead != null || prefix.isEmpty())
+                return bulkhead;
+
+            prefix = prefix.substring(0, Math.max(prefix.lastIndexOf('/'), 0));
+        }
+    }
+
+    private void releaseBulkhead(Bulkhead bulkhead){
+        Runnable next = bulkhead.release();
+        if(next != null)
+            listeningExecutorService.execute(next);
+    }
+
     /**
      * Set the {@link ScheduledExecutorService} instance to handle incoming requests in seperate threads. The
-     * nCoAP framework sets an executor service automatically so usually there is no need to set another one.
+     * nCoAP framework sets an executor service automatically (the application executor of the {@link CoapExecutors})
+     * so usually there is no need to set another one.
      *
      * @param executorService a {@link ScheduledExecutorService}
      */
@@ -156,13 +376,10 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
                 log.error("This should never happen.", e);
             }
 
-            sendCoapResponse(coapResponse, (InetSocketAddress) me.getRemoteAddress());
+            sendCoapResponse(coapResponse, (InetSocketAddress) me.getRemoteAddress(), me.getChannel());
             return;
         }
 
-        //Create settable future to wait for response
-        final SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
-
         final CoapRequest coapRequest = (CoapRequest) me.getMessage();
         final InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
 
@@ -183,12 +400,49 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
                 log.error("This should never happen.", e);
             }
 
-            sendCoapResponse(coapResponse, (InetSocketAddress) me.getRemoteAddress());
+            sendCoapResponse(coapResponse, (InetSocketAddress) me.getRemoteAddress(), me.getChannel());
             return;
         }
 
+        //Deliver the request to the service unless the bulkhead of the service is exhausted
+        final Bulkhead bulkhead = findBulkhead(webService.getPath());
+        Runnable delivery = new Runnable(){
+            @Override
+            public void run() {
+                processCoapRequest(webService, coapRequest, remoteAddress, me.getChannel(), bulkhead);
+            }
+        };
+
+        Bulkhead.Admission admission = bulkhead == null ? Bulkhead.Admission.RUN : bulkhead.admit(delivery);
+
+        if(admission == Bulkhead.Admission.RUN){
+            delivery.run();
+        }
+        else if(admission == Bulkhead.Admission.QUEUED){
+            log.debug("Request for {} queued ({}).", webService.getPath(), bulkhead);
+        }
+        else{
+            log.info("Request for {} rejected ({}).", webService.getPath(), bulkhead);
+            sendServiceUnavailable(coapRequest, webService.getPath(), bulkhead.getRetryAfter(), remoteAddress,
+                    me.getChannel());
+        }
+    }
+
+    private void processCoapRequest(final WebService webService, final CoapRequest coapRequest,
+                                    final InetSocketAddress remoteAddress, final Channel channel,
+                                    final Bulkhead bulkhead){
 
-        webService.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+        //Create settable future to wait for response
+        final SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
+        admissionController.exchangeStarted();
+
+        try{
+            webService.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+        }
+        catch(Exception e){
+            //results in an internal server error response (and releases the bulkhead slot)
+            responseFuture.setException(e);
+        }
 
         responseFuture.addListener(new Runnable(){
             @Override
@@ -199,7 +453,11 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
 
                     if(coapResponse.getCode().isErrorMessage()){
                         coapResponse.setMessageID(coapRequest.getMessageID());
-                        sendCoapResponse(coapResponse, remoteAddress);
+                        //Responses via TCP are matched by token only
+                        if(coapRequest.getToken().length > 0){
+                            coapResponse.setToken(coapRequest.getToken());
+                        }
+                        sendCoapResponse(coapResponse, remoteAddress, channel);
                         return;
                     }
 
@@ -236,14 +494,48 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
                 }
 
                 //Send the response
-                sendCoapResponse(coapResponse, remoteAddress);
+                sendCoapResponse(coapResponse, remoteAddress, channel);
             }
         }, listeningExecutorService);
 
+        //Complete the exchange and free the slot of the request (if any) as soon as the response is available
+        responseFuture.addListener(new Runnable() {
+            @Override
+            public void run() {
+                admissionController.exchangeCompleted();
+                if(bulkhead != null)
+                    releaseBulkhead(bulkhead);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        //Expire the exchange if the service never sets the response
+        if(!responseFuture.isDone()){
+            final long exchangeTimeout = admissionController.getExchangeTimeout();
+            final ScheduledFuture timeoutFuture = executors.getTimerExecutorService().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if(responseFuture.setException(new TimeoutException("No response from service " +
+                            webService.getPath() + " within " + exchangeTimeout + " ms."))){
+
+                        admissionController.exchangeExpired();
+                        log.warn("Exchange with {} for {} expired.", remoteAddress, webService.getPath());
+                    }
+                }
+            }, exchangeTimeout, TimeUnit.MILLISECONDS);
+
+            responseFuture.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutFuture.cancel(false);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
     }
 
-    private void sendCoapResponse(final CoapResponse coapResponse, final InetSocketAddress remoteAddress){
-        //Write response
+    private void sendCoapResponse(final CoapResponse coapResponse, final InetSocketAddress remoteAddress,
+                                  Channel channel){
+        //Write response (from the socket that received the request)
         ChannelFuture future = channel.write(coapResponse, remoteAddress);
         future.addListener(new ChannelFutureListener() {
             @Override
@@ -254,6 +546,24 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
         });
     }
 
+    private void sendServiceUnavailable(CoapRequest coapRequest, String servicePath, long retryAfter,
+                                        InetSocketAddress remoteAddress, Channel channel){
+
+        CoapResponse coapResponse = new CoapResponse(Code.SERVICE_UNAVAILABLE_503);
+        try {
+            coapResponse.setMessageID(coapRequest.getMessageID());
+            if(coapRequest.getToken().length > 0){
+                coapResponse.setToken(coapRequest.getToken());
+            }
+            coapResponse.setServicePath(servicePath);
+            coapResponse.setMaxAge(retryAfter);
+        } catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+
+        sendCoapResponse(coapResponse, remoteAddress, channel);
+    }
+
     /**
      * This method is invoked by the framework if an exception occured during the reception or sending of a
      * {@link CoapMessage}.
@@ -281,6 +591,9 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
      */
     public void shutdown() throws InterruptedException {
 
+        //keep running observations (if persisted) for restart
+        channels[0].getPipeline().get(ObservableResourceHandler.class).closeObservationJournal();
+
         //remove all webservice
         WebService[] services;
         synchronized (this){
@@ -295,23 +608,24 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
         //some time to send possible update notifications (404_NOT_FOUND) to observers
         Thread.sleep(1000);
 
-        //Close the datagram datagramChannel (includes unbind)
-        ChannelFuture future = channel.close();
-
-        //Await the closure and let the factory release its external resource to finalize the shutdown
-        future.addListener(new ChannelFutureListener() {
-            @Override
-            public void operationComplete(ChannelFuture future) throws Exception {
-                DatagramChannel closedChannel = (DatagramChannel) future.getChannel();
-                log.info("Server channel closed (port {}).", closedChannel.getLocalAddress().getPort());
+        //Close the datagram channels (includes unbind) and await the closure
+        int[] ports = getServerPorts();
+        for(DatagramChannel channel : channels){
+            int port = channel.getLocalAddress().getPort();
+            channel.close().awaitUninterruptibly();
+            log.info("Server channel closed (port {}).", port);
+        }
 
-                channel.getFactory().releaseExternalResources();
-                log.info("External resources released, shutdown completed (port {}).",
-                        closedChannel.getLocalAddress().getPort());
-            }
-        });
+        //Close the CoAP over TCP connections (if any)
+        synchronized (this){
+            if(tcpChannelFactory != null)
+                tcpChannelFactory.shutdown();
+        }
 
-        future.awaitUninterruptibly();
+        //Let the factory release its external resources to finalize the shutdown
+        channels[0].getFactory().releaseExternalResources();
+        executors.shutdown();
+        log.info("External resources released, shutdown completed (port(s) {}).", Arrays.toString(ports));
     }
     
 
@@ -332,13 +646,16 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
             InternalObservableResourceRegistrationMessage message =
                     new InternalObservableResourceRegistrationMessage((ObservableWebService) webService);
 
-            ChannelFuture future = Channels.write(channel, message);
-            future.addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) throws Exception {
-                    log.info("Registered {} at observable resource handler.", webService.getPath());
-                }
-            });
+            //Each socket has its own observable resource handler
+            for(DatagramChannel channel : channels){
+                ChannelFuture future = Channels.write(channel, message);
+                future.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        log.info("Registered {} at observable resource handler.", webService.getPath());
+                    }
+                });
+            }
         }
 
         webService.setScheduledExecutorService(scheduledExecutorService);
@@ -356,7 +673,8 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
         WebService removedService = registeredServices.remove(uriPath);
 
         if(removedService != null && removedService instanceof ObservableWebService){
-            channel.write(new InternalServiceRemovedFromServerMessage(uriPath));
+            for(DatagramChannel channel : channels)
+                channel.write(new InternalServiceRemovedFromServerMessage(uriPath));
             removedService.shutdown();
         }
 
@@ -388,7 +706,32 @@ public class CoapServerApplication extends SimpleChannelUpstreamHandler {
         }
     }
 
+    /**
+     * Returns the local port of the (first) socket of this server
+     * @return the local port of the (first) socket of this server
+     */
     public int getServerPort(){
-        return channel.getLocalAddress().getPort();
+        return channels[0].getLocalAddress().getPort();
+    }
+
+    /**
+     * Returns the local ports of all sockets of this server
+     * @return the local ports of all sockets of this server
+     */
+    public int[] getServerPorts(){
+        int[] ports = new int[channels.length];
+        for(int i = 0; i < channels.length; i++)
+            ports[i] = channels[i].getLocalAddress().getPort();
+
+        return ports;
+    }
+
+    /**
+     * Returns the local port this server accepts CoAP over TCP connections on
+     * @return the local port this server accepts CoAP over TCP connections on or <code>-1</code> if
+     * {@link #bindTcp(InetSocketAddress)} was not invoked
+     */
+    public synchronized int getTcpServerPort(){
+        return tcpChannelFactory == null ? -1 : tcpChannelFactory.getPort();
     }
 }
\ No newline at end of file
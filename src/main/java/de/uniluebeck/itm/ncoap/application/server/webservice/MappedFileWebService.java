@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server.webservice;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferHandler;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.options.Option;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.ETAG;
+
+/**
+ * A {@link NotObservableWebService} to serve the content of a file (e.g. a firmware image) which is memory mapped
+ * instead of being read into the heap. Requests for {@link Code#GET} are answered with slices of the mapped region,
+ * i.e. each block of a blockwise transfer is served without copying the content. Requests without
+ * {@link de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName#BLOCK_2} option are answered with the
+ * first block of {@link BlockwiseTransferHandler#DEFAULT_BLOCKSIZE} if the file is larger.
+ *
+ * The {@link de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName#ETAG} is computed from the
+ * modification time and the length of the file. The file is mapped again as soon as either of both changed.
+ * Requests containing the current ETAG are answered with {@link Code#VALID_203}.
+ *
+ * Use {@link #createServices(String, File, MediaType)} to serve all files of a directory.
+ *
+ * @author Oliver Kleine
+ */
+public class MappedFileWebService extends NotObservableWebService<ChannelBuffer> {
+
+    private static Logger log = LoggerFactory.getLogger(MappedFileWebService.class.getName());
+
+    private static HashFunction etagHashFunction = Hashing.murmur3_128();
+
+    private File file;
+    private MediaType contentType;
+
+    private long lastModified;
+    private long length;
+    private byte[] etag;
+
+    /**
+     * @param servicePath the path this service is listening at
+     * @param file the file to be served
+     * @param contentType the {@link MediaType} of the file content
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    public MappedFileWebService(String servicePath, File file, MediaType contentType) throws IOException {
+        super(servicePath, ChannelBuffers.EMPTY_BUFFER);
+        this.file = file;
+        this.contentType = contentType;
+        map();
+    }
+
+    /**
+     * Returns a {@link MappedFileWebService} for every file contained in the given directory (and its
+     * subdirectories). The path of each service is the given path prefix followed by the path of the file relative
+     * to the given directory.
+     *
+     * @param pathPrefix the path prefix of the services (e.g. /firmware)
+     * @param directory the directory containing the files to be served
+     * @param contentType the {@link MediaType} of the files content
+     *
+     * @return a {@link MappedFileWebService} for every file contained in the given directory
+     *
+     * @throws IOException if the given directory is no directory or one of the files could not be mapped
+     */
+    public static List<MappedFileWebService> createServices(String pathPrefix, File directory,
+                                                            MediaType contentType) throws IOException {
+        File[] files = directory.listFiles();
+        if(files == null)
+            throw new IOException(directory + " is no directory.");
+
+        Arrays.sort(files);
+
+        List<MappedFileWebService> services = new ArrayList<MappedFileWebService>();
+        for(File file : files){
+            String servicePath = pathPrefix + "/" + file.getName();
+
+            if(file.isDirectory())
+                services.addAll(createServices(servicePath, file, contentType));
+            else if(file.isFile())
+                services.add(new MappedFileWebService(servicePath, file, contentType));
+        }
+
+        return services;
+    }
+
+    /**
+     * Returns the file served by this {@link MappedFileWebService}
+     * @return the file served by this {@link MappedFileWebService}
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private synchronized void map() throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("File " + file + " is too large to be mapped (" + length + " bytes).");
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try{
+            MappedByteBuffer mappedBuffer =
+                    randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            setResourceStatus(ChannelBuffers.wrappedBuffer(mappedBuffer));
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        this.lastModified = lastModified;
+        this.length = length;
+        this.etag = Longs.toByteArray(etagHashFunction.newHasher()
+                                                      .putLong(lastModified)
+                                                      .putLong(length)
+                                                      .hash()
+                                                      .asLong());
+
+        log.info("Mapped file {} ({} bytes) for service {}.", new Object[]{file, length, getPath()});
+    }
+
+    private synchronized byte[] refresh() throws IOException {
+        if(file.lastModified() != lastModified || file.length() != length)
+            map();
+
+        return etag;
+    }
+
+    @Override
+    public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest request,
+                                   InetSocketAddress remoteAddress) {
+
+        if(request.getCode() != Code.GET){
+            responseFuture.set(new CoapResponse(Code.METHOD_NOT_ALLOWED_405));
+            return;
+        }
+
+        Set<MediaType> acceptedMediaTypes = request.getAcceptedMediaTypes();
+        if(!acceptedMediaTypes.isEmpty() && !acceptedMediaTypes.contains(contentType)){
+            responseFuture.set(new CoapResponse(Code.UNSUPPORTED_MEDIA_TYPE_415));
+            return;
+        }
+
+        try{
+            byte[] etag;
+            ChannelBuffer content;
+
+            synchronized (this){
+                if(!file.isFile()){
+                    responseFuture.set(new CoapResponse(Code.NOT_FOUND_404));
+                    return;
+                }
+
+                etag = refresh();
+                content = getResourceStatus();
+            }
+
+            //The client has the current representation
+            for(Option option : request.getOptionList().getOption(ETAG)){
+                if(Arrays.equals(option.getValue(), etag)){
+                    CoapResponse coapResponse = new CoapResponse(Code.VALID_203);
+                    coapResponse.setETAG(etag);
+                    responseFuture.set(coapResponse);
+                    return;
+                }
+            }
+
+            CoapResponse coapResponse = new CoapResponse(Code.CONTENT_205);
+            coapResponse.setContentType(contentType);
+            coapResponse.setETAG(etag);
+
+            Blocksize blocksize = request.getMaxBlocksizeForResponse();
+            long blockNumber = blocksize == null ? 0 : request.getBlockNumber(BLOCK_2);
+            if(blocksize == null)
+                blocksize = BlockwiseTransferHandler.DEFAULT_BLOCKSIZE;
+
+            if(blockNumber == 0 && content.readableBytes() <= blocksize.length()){
+                coapResponse.setPayload(content.slice());
+                responseFuture.set(coapResponse);
+                return;
+            }
+
+            long offset = blockNumber * blocksize.length();
+            if(offset >= content.readableBytes()){
+                responseFuture.set(new CoapResponse(Code.BAD_OPTION_402));
+                return;
+            }
+
+            int blockLength = (int) Math.min(blocksize.length(), content.readableBytes() - offset);
+            boolean isLastBlock = offset + blockLength == content.readableBytes();
+
+            coapResponse.setPayload(content.slice((int) offset, blockLength));
+            coapResponse.setBlockOption(BLOCK_2, blockNumber, isLastBlock, blocksize);
+
+            responseFuture.set(coapResponse);
+        }
+        catch (IOException e) {
+            log.error("Could not map file {}.", file, e);
+            responseFuture.set(new CoapResponse(Code.INTERNAL_SERVER_ERROR_500));
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+            responseFuture.set(new CoapResponse(Code.INTERNAL_SERVER_ERROR_500));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        //Nothing to do here (the mapping is released by the garbage collector)...
+    }
+}
@@ -28,6 +28,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.SettableFuture;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
 import de.uniluebeck.itm.ncoap.message.header.MsgType;
 import de.uniluebeck.itm.ncoap.message.options.OptionRegistry;
 import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName;
@@ -39,8 +40,6 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.Observable;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -59,13 +58,12 @@ public abstract class ObservableWebService<T> extends Observable implements WebS
     private String path;
     private T resourceStatus;
     private boolean isUpdateNotificationConfirmable = true;
+    private boolean isRedundantNotificationSuppressionEnabled = false;
 
     private ScheduledExecutorService scheduledExecutorService;
     private ListeningExecutorService listeningExecutorService;
     private long maxAge = OptionRegistry.MAX_AGE_DEFAULT;
 
-    private ScheduledFuture maxAgeFuture;
-
     protected ObservableWebService(String path, T initialStatus){
         this.path = path;
         this.resourceStatus = initialStatus;
@@ -76,15 +74,14 @@ public abstract class ObservableWebService<T> extends Observable implements WebS
      * {@link CoapServerApplication} instance (using {@link CoapServerApplication#registerService(WebService)}.
      * So, usually there is no need to set another {@link ScheduledExecutorService} instance manually.
      *
+     * Note, that the max-age notifications are not scheduled on this {@link ScheduledExecutorService} but by the
+     * framework for all observable services at once.
+     *
      * @param executorService a {@link ScheduledExecutorService} instance.
      */
     @Override
     public void setScheduledExecutorService(ScheduledExecutorService executorService){
-        if(this.scheduledExecutorService != null)
-            this.scheduledExecutorService.shutdownNow();
-
         this.scheduledExecutorService = executorService;
-        scheduleMaxAgeNotifications();
     }
 
     @Override
@@ -141,6 +138,38 @@ public abstract class ObservableWebService<T> extends Observable implements WebS
         this.isUpdateNotificationConfirmable = isConfirmable;
     }
 
+    /**
+     * Returns whether update notifications with an unchanged serialized resource status are suppressed.
+     * @return <code>true</code> if redundant update notifications are suppressed, <code>false</code> otherwise.
+     * Default, i.e. if not set otherwise, is <code>false</code>.
+     */
+    public final boolean isRedundantNotificationSuppressionEnabled(){
+        return this.isRedundantNotificationSuppressionEnabled;
+    }
+
+    /**
+     * Enables or disables the suppression of redundant update notifications. If enabled, the framework compares a
+     * hash of the serialized resource status (per {@link MediaType}) with the one of the last update notification.
+     * <ul>
+     *     <li>
+     *         Upon invocation of {@link #setResourceStatus(Object)} no update notifications are sent to observers
+     *         whose representation did not change.
+     *     </li>
+     *     <li>
+     *         Upon expiry of the max-age observers of an unchanged representation receive a {@link Code#VALID_203}
+     *         notification (without payload) instead of a {@link Code#CONTENT_205}. Every notification then contains
+     *         an {@link OptionName#ETAG} option derived from the hash of the representation (replacing an
+     *         {@link OptionName#ETAG} set by the service).
+     *     </li>
+     * </ul>
+     *
+     * @param isEnabled <code>true</code> to suppress redundant update notifications, <code>false</code> otherwise.
+     *                  Default, i.e. if not set otherwise, is <code>false</code>.
+     */
+    public final void setRedundantNotificationSuppressionEnabled(boolean isEnabled){
+        this.isRedundantNotificationSuppressionEnabled = isEnabled;
+    }
+
     @Override
     public final String getPath() {
        return this.path;
@@ -155,19 +184,10 @@ public abstract class ObservableWebService<T> extends Observable implements WebS
     public synchronized final void setResourceStatus(T newStatus){
         this.resourceStatus = newStatus;
 
-        try{
-            if(maxAgeFuture.cancel(false))
-                log.info("Max-age notification cancelled for {}.", getPath());
-        }
-        catch(NullPointerException ex){
-            log.info("Max-age notifiation for {} not yet scheduled. This should only happen once!", getPath());
-        }
-
-        //Notify observers (methods inherited from abstract class Observable)
+        //Notify observers (methods inherited from abstract class Observable). This also postpones the next max-age
+        //notification.
         setChanged();
         notifyObservers();
-
-        scheduleMaxAgeNotifications();
     }
 
     /**
@@ -206,28 +226,14 @@ public abstract class ObservableWebService<T> extends Observable implements WebS
      *     </li>
      * </ul>
      *
+     * A new max age value takes effect with the next status update or max-age notification.
+     *
      * @param maxAge  the new max age value
      */
     public void setMaxAge(long maxAge) {
         this.maxAge = maxAge;
     }
 
-    private void scheduleMaxAgeNotifications(){
-        maxAgeFuture = scheduledExecutorService.schedule(new Runnable() {
-            @Override
-            public void run() {
-                synchronized (ObservableWebService.this){
-                    log.info("Send max-age notifications for {} with status {}.", getPath(), getResourceStatus());
-
-                    setChanged();
-                    notifyObservers();
-
-                    scheduleMaxAgeNotifications();
-                }
-            }
-        }, getMaxAge(), TimeUnit.SECONDS);
-    }
-
     /**
      * The hash code of is {@link ObservableWebService} instance is produced as {@code this.getPath().hashCode()}.
      * @return the hash code of this {@link ObservableWebService} instance
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.uniluebeck.itm.ncoap.communication.encoding.CoapMessageDecoder;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link AdmissionControlHandler} is supposed to be the first handler of a server pipeline, i.e. in front of the
+ * {@link CoapMessageDecoder}. It reads the header of incoming requests directly from the received
+ * {@link ChannelBuffer} and sheds them (without any decoding or state) if the {@link AdmissionController} reports
+ * overload. The higher the load, the cheaper the rejection:
+ *
+ * <ul>
+ *     <li>{@link AdmissionController.LoadLevel#OVERLOADED}: a {@link Code#SERVICE_UNAVAILABLE_503} response with the
+ *     token of the request and a Max-Age option as retry hint (piggy-backed for confirmable requests)</li>
+ *     <li>{@link AdmissionController.LoadLevel#CRITICAL}: an empty RST message for confirmable requests, nothing
+ *     at all for non-confirmable requests</li>
+ * </ul>
+ *
+ * Responses and empty messages always pass as they release state. Duplicates of admitted requests (i.e. with the
+ * same remote address and message ID within {@link #ADMITTED_REQUEST_LIFETIME} milliseconds) always pass, too, as
+ * the reliability handlers answer them without processing them again. Rejections are written directly to the
+ * socket, i.e. they bypass the reliability handlers.
+ *
+ * @author Oliver Kleine
+ */
+public class AdmissionControlHandler extends SimpleChannelUpstreamHandler {
+
+    /**
+     * The number of milliseconds the message ID of an admitted request is kept to let duplicates pass (i.e. the
+     * EXCHANGE_LIFETIME of the CoAP draft)
+     */
+    public static final long ADMITTED_REQUEST_LIFETIME = 247000;
+
+    /**
+     * The maximum number of message IDs of admitted requests to be kept
+     */
+    public static final int MAX_ADMITTED_REQUESTS = 100000;
+
+    private static Logger log = LoggerFactory.getLogger(AdmissionControlHandler.class.getName());
+
+    private AdmissionController admissionController;
+
+    //Remote address and message ID of admitted requests
+    private Cache<List<Object>, Boolean> admittedRequests = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ADMITTED_REQUESTS)
+            .expireAfterWrite(ADMITTED_REQUEST_LIFETIME, TimeUnit.MILLISECONDS)
+            .build();
+
+    /**
+     * @param admissionController the (shared) {@link AdmissionController} to decide on the admission of requests
+     */
+    public AdmissionControlHandler(AdmissionController admissionController){
+        this.admissionController = admissionController;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception{
+        if(!(me.getMessage() instanceof ChannelBuffer) || !isRequest((ChannelBuffer) me.getMessage())){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        ChannelBuffer request = (ChannelBuffer) me.getMessage();
+        List<Object> requestKey = Arrays.<Object>asList(me.getRemoteAddress(), getMessageID(request));
+
+        AdmissionController.LoadLevel loadLevel = admissionController.getLoadLevel();
+
+        if(loadLevel == AdmissionController.LoadLevel.NORMAL){
+            admissionController.requestAdmitted();
+            admittedRequests.put(requestKey, Boolean.TRUE);
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        //Shedding a duplicate would waste the response to the admitted request
+        if(admittedRequests.getIfPresent(requestKey) != null){
+            log.debug("Let duplicate of admitted request from {} pass.", me.getRemoteAddress());
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        boolean confirmable = getMsgTypeNumber(request) == MsgType.CON.number;
+
+        if(loadLevel == AdmissionController.LoadLevel.OVERLOADED){
+            admissionController.requestRejected();
+            log.debug("Reject request from {} ({}).", me.getRemoteAddress(), admissionController);
+            Channels.write(ctx, Channels.future(ctx.getChannel()),
+                    createServiceUnavailable(request, confirmable, admissionController.getRetryAfter()),
+                    me.getRemoteAddress());
+        }
+        else if(confirmable){
+            admissionController.requestReset();
+            log.debug("Reset request from {} ({}).", me.getRemoteAddress(), admissionController);
+            Channels.write(ctx, Channels.future(ctx.getChannel()), createReset(request), me.getRemoteAddress());
+        }
+        else{
+            admissionController.requestDropped();
+            log.debug("Drop request from {} ({}).", me.getRemoteAddress(), admissionController);
+        }
+    }
+
+    //Requests have codes from 1 to 31 (the second byte of the header)
+    private static boolean isRequest(ChannelBuffer buffer){
+        if(buffer.readableBytes() < 4)
+            return false;
+
+        int code = buffer.getUnsignedByte(buffer.readerIndex() + 1);
+        return code > 0 && code < 32;
+    }
+
+    private static int getMessageID(ChannelBuffer buffer){
+        return buffer.getUnsignedShort(buffer.readerIndex() + 2);
+    }
+
+    private static int getMsgTypeNumber(ChannelBuffer buffer){
+        return (buffer.getUnsignedByte(buffer.readerIndex()) >>> 4) & 0x03;
+    }
+
+    //Returns an empty RST message with the message ID of the given message
+    static ChannelBuffer createReset(ChannelBuffer request){
+        ChannelBuffer reset = ChannelBuffers.buffer(4);
+        reset.writeByte(1 << 6 | MsgType.RST.number << 4);
+        reset.writeByte(Code.EMPTY.number);
+        reset.writeShort(getMessageID(request));
+        return reset;
+    }
+
+    private static ChannelBuffer createServiceUnavailable(ChannelBuffer request, boolean confirmable,
+                                                          long retryAfter){
+        //Find the token option (if any) without decoding the options
+        int optionCount = request.getUnsignedByte(request.readerIndex()) & 0x0F;
+        int index = request.readerIndex() + 4;
+        int tokenIndex = -1;
+        int tokenLength = 0;
+        int optionNumber = 0;
+
+        for(int i = 0; i < optionCount && index < request.writerIndex(); i++){
+            int optionHeader = request.getUnsignedByte(index++);
+            optionNumber += optionHeader >>> 4;
+            int length = optionHeader & 0x0F;
+            if(length == 15 && index < request.writerIndex())
+                length += request.getUnsignedByte(index++);
+
+            if(optionNumber == OptionName.TOKEN.getNumber()){
+                if(length > 0 && length <= 8 && index + length <= request.writerIndex()){
+                    tokenIndex = index;
+                    tokenLength = length;
+                }
+                break;
+            }
+
+            if(optionNumber > OptionName.TOKEN.getNumber())
+                break;
+
+            index += length;
+        }
+
+        //Max-Age is an unsigned integer with as few bytes as possible
+        int maxAgeLength = 0;
+        while(maxAgeLength < 4 && retryAfter >>> (8 * maxAgeLength) > 0)
+            maxAgeLength++;
+
+        ChannelBuffer response = ChannelBuffers.buffer(4 + 1 + maxAgeLength + 1 + tokenLength);
+        MsgType msgType = confirmable ? MsgType.ACK : MsgType.NON;
+        response.writeByte(1 << 6 | msgType.number << 4 | (tokenIndex < 0 ? 1 : 2));
+        response.writeByte(Code.SERVICE_UNAVAILABLE_503.number);
+        response.writeShort(getMessageID(request));
+
+        response.writeByte(OptionName.MAX_AGE.getNumber() << 4 | maxAgeLength);
+        for(int i = maxAgeLength - 1; i >= 0; i--)
+            response.writeByte((int) (retryAfter >>> (8 * i)));
+
+        if(tokenIndex >= 0){
+            response.writeByte((OptionName.TOKEN.getNumber() - OptionName.MAX_AGE.getNumber()) << 4 | tokenLength);
+            response.writeBytes(request, tokenIndex, tokenLength);
+        }
+
+        return response;
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+import de.uniluebeck.itm.ncoap.communication.core.CoapExecutors;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link AdmissionController} keeps track of the load of a server, i.e. the number of exchanges currently
+ * processed by the application, the number of incoming messages waiting to be handed over to the application, and
+ * the free heap memory (after the last garbage collection). Each {@link AdmissionControlHandler} of the server asks
+ * the (shared) {@link AdmissionController} for the current {@link LoadLevel} before it lets an incoming request
+ * pass to the decoder.
+ *
+ * @author Oliver Kleine
+ */
+public class AdmissionController {
+
+    /**
+     * The load levels of a server
+     */
+    public static enum LoadLevel {
+        /**
+         * All requests are admitted
+         */
+        NORMAL,
+
+        /**
+         * The number of exchanges in progress or pending messages crossed its threshold. Requests are rejected with
+         * {@link Code#SERVICE_UNAVAILABLE_503} and a Max-Age retry hint.
+         */
+        OVERLOADED,
+
+        /**
+         * The number of exchanges in progress or pending messages crossed twice its threshold or the free heap memory
+         * fell below its threshold. Confirmable requests are rejected with an empty RST message, non-confirmable
+         * requests are silently dropped.
+         */
+        CRITICAL
+    }
+
+    /**
+     * The default maximum number of exchanges in progress
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_EXCHANGES = 10000;
+
+    /**
+     * The default maximum number of incoming messages waiting to be handed over to the application
+     */
+    public static final int DEFAULT_MAX_PENDING_EVENTS = 10000;
+
+    /**
+     * The default minimum ratio of free heap memory (after the last garbage collection)
+     */
+    public static final double DEFAULT_MIN_FREE_HEAP_RATIO = 0.05;
+
+    /**
+     * The default number of seconds a client is asked to wait before retrying a rejected request
+     */
+    public static final long DEFAULT_RETRY_AFTER = 5;
+
+    /**
+     * The default maximum number of milliseconds an exchange is in progress before it expires (i.e. the
+     * MAX_TRANSMIT_WAIT of the CoAP draft after which the client gave up anyway)
+     */
+    public static final long DEFAULT_EXCHANGE_TIMEOUT = 93000;
+
+    /**
+     * The number of milliseconds between two samples of the free heap memory
+     */
+    public static final int HEAP_SAMPLING_INTERVAL = 100;
+
+    private static Logger log = LoggerFactory.getLogger(AdmissionController.class.getName());
+
+    private CoapExecutors executors;
+
+    private volatile int maxInFlightExchanges = DEFAULT_MAX_IN_FLIGHT_EXCHANGES;
+    private volatile int maxPendingEvents = DEFAULT_MAX_PENDING_EVENTS;
+    private volatile double minFreeHeapRatio = DEFAULT_MIN_FREE_HEAP_RATIO;
+    private volatile long retryAfter = DEFAULT_RETRY_AFTER;
+    private volatile long exchangeTimeout = DEFAULT_EXCHANGE_TIMEOUT;
+
+    private volatile boolean heapExhausted = false;
+    private final AtomicInteger inFlightExchanges = new AtomicInteger(0);
+
+    private final AtomicLong admittedRequests = new AtomicLong(0);
+    private final AtomicLong rejectedRequests = new AtomicLong(0);
+    private final AtomicLong resetRequests = new AtomicLong(0);
+    private final AtomicLong droppedRequests = new AtomicLong(0);
+    private final AtomicLong expiredExchanges = new AtomicLong(0);
+
+    /**
+     * Creates a new {@link AdmissionController} with default thresholds. The free heap memory is sampled
+     * periodically by the timer executor of the given {@link CoapExecutors}.
+     *
+     * @param executors the {@link CoapExecutors} of the server to be protected
+     */
+    public AdmissionController(CoapExecutors executors){
+        this.executors = executors;
+
+        executors.getTimerExecutorService().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sampleHeap();
+            }
+        }, HEAP_SAMPLING_INTERVAL, HEAP_SAMPLING_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    //The usage after the last collection ignores garbage that is not yet collected
+    private void sampleHeap(){
+        long used = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            MemoryUsage usage = pool.getCollectionUsage();
+            if(pool.getType() == MemoryType.HEAP && usage != null)
+                used += usage.getUsed();
+        }
+
+        long max = Runtime.getRuntime().maxMemory();
+        boolean exhausted = max - used < minFreeHeapRatio * max;
+
+        if(exhausted != heapExhausted){
+            heapExhausted = exhausted;
+            log.warn("Heap memory {} (used after last collection: {} of {} bytes).",
+                    new Object[]{exhausted ? "exhausted" : "recovered", used, max});
+        }
+    }
+
+    /**
+     * Returns the current {@link LoadLevel}. This method is invoked for every incoming request and thus does only
+     * read counters.
+     *
+     * @return the current {@link LoadLevel}
+     */
+    public LoadLevel getLoadLevel(){
+        if(heapExhausted)
+            return LoadLevel.CRITICAL;
+
+        int inFlight = inFlightExchanges.get();
+        int pending = executors.getPendingEvents();
+
+        if(inFlight >= 2 * maxInFlightExchanges || pending >= 2 * maxPendingEvents)
+            return LoadLevel.CRITICAL;
+
+        if(inFlight >= maxInFlightExchanges || pending >= maxPendingEvents)
+            return LoadLevel.OVERLOADED;
+
+        return LoadLevel.NORMAL;
+    }
+
+    /**
+     * This method is to be invoked by the application when it starts to process a request
+     */
+    public void exchangeStarted(){
+        inFlightExchanges.incrementAndGet();
+    }
+
+    /**
+     * This method is to be invoked by the application when the response to a request is available
+     */
+    public void exchangeCompleted(){
+        inFlightExchanges.decrementAndGet();
+    }
+
+    /**
+     * This method is to be invoked by the application when there was no response to a request within
+     * {@link #getExchangeTimeout()} milliseconds (in addition to {@link #exchangeCompleted()})
+     */
+    public void exchangeExpired(){
+        expiredExchanges.incrementAndGet();
+    }
+
+    void requestAdmitted(){
+        admittedRequests.incrementAndGet();
+    }
+
+    void requestRejected(){
+        rejectedRequests.incrementAndGet();
+    }
+
+    void requestReset(){
+        resetRequests.incrementAndGet();
+    }
+
+    void requestDropped(){
+        droppedRequests.incrementAndGet();
+    }
+
+    /**
+     * Sets the maximum number of exchanges in progress, i.e. requests handed over to the web services but not yet
+     * answered
+     *
+     * @param maxInFlightExchanges the maximum number of exchanges in progress
+     */
+    public void setMaxInFlightExchanges(int maxInFlightExchanges) {
+        this.maxInFlightExchanges = maxInFlightExchanges;
+    }
+
+    /**
+     * Sets the maximum number of incoming messages waiting to be handed over to the application
+     * @param maxPendingEvents the maximum number of incoming messages waiting to be handed over to the application
+     */
+    public void setMaxPendingEvents(int maxPendingEvents) {
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    /**
+     * Sets the minimum ratio of free heap memory (after the last garbage collection), e.g. 0.05 for 5 percent. The
+     * free heap memory is sampled again immediately.
+     *
+     * @param minFreeHeapRatio the minimum ratio of free heap memory
+     */
+    public void setMinFreeHeapRatio(double minFreeHeapRatio) {
+        this.minFreeHeapRatio = minFreeHeapRatio;
+        sampleHeap();
+    }
+
+    /**
+     * Sets the number of seconds a client is asked to wait before retrying a rejected request
+     * @param retryAfter the number of seconds a client is asked to wait before retrying a rejected request
+     */
+    public void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the number of seconds a client is asked to wait before retrying a rejected request
+     * @return the number of seconds a client is asked to wait before retrying a rejected request
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds an exchange is in progress. Exchanges without response after that
+     * time are completed with an error response, i.e. they neither count as exchanges in progress nor occupy a
+     * slot of a {@link de.uniluebeck.itm.ncoap.application.server.Bulkhead} anymore.
+     *
+     * @param exchangeTimeout the maximum number of milliseconds an exchange is in progress
+     */
+    public void setExchangeTimeout(long exchangeTimeout) {
+        this.exchangeTimeout = exchangeTimeout;
+    }
+
+    /**
+     * Returns the maximum number of milliseconds an exchange is in progress
+     * @return the maximum number of milliseconds an exchange is in progress
+     */
+    public long getExchangeTimeout() {
+        return exchangeTimeout;
+    }
+
+    /**
+     * Returns the number of exchanges in progress
+     * @return the number of exchanges in progress
+     */
+    public int getInFlightExchanges(){
+        return inFlightExchanges.get();
+    }
+
+    /**
+     * Returns the number of incoming messages waiting to be handed over to the application
+     * @return the number of incoming messages waiting to be handed over to the application
+     */
+    public int getPendingEvents(){
+        return executors.getPendingEvents();
+    }
+
+    /**
+     * Returns the total number of admitted requests
+     * @return the total number of admitted requests
+     */
+    public long getAdmittedRequests(){
+        return admittedRequests.get();
+    }
+
+    /**
+     * Returns the total number of requests rejected with {@link Code#SERVICE_UNAVAILABLE_503}
+     * @return the total number of requests rejected with {@link Code#SERVICE_UNAVAILABLE_503}
+     */
+    public long getRejectedRequests(){
+        return rejectedRequests.get();
+    }
+
+    /**
+     * Returns the total number of (confirmable) requests rejected with an empty RST message
+     * @return the total number of (confirmable) requests rejected with an empty RST message
+     */
+    public long getResetRequests(){
+        return resetRequests.get();
+    }
+
+    /**
+     * Returns the total number of silently dropped (non-confirmable) requests
+     * @return the total number of silently dropped (non-confirmable) requests
+     */
+    public long getDroppedRequests(){
+        return droppedRequests.get();
+    }
+
+    /**
+     * Returns the total number of exchanges without response within {@link #getExchangeTimeout()} milliseconds
+     * @return the total number of exchanges without response within {@link #getExchangeTimeout()} milliseconds
+     */
+    public long getExpiredExchanges(){
+        return expiredExchanges.get();
+    }
+
+    @Override
+    public String toString(){
+        return "AdmissionController[level: " + getLoadLevel() + ", in-flight: " + inFlightExchanges.get() + "/" +
+                maxInFlightExchanges + ", pending: " + executors.getPendingEvents() + "/" + maxPendingEvents +
+                ", admitted: " + admittedRequests.get() + ", rejected: " + rejectedRequests.get() + ", reset: " +
+                resetRequests.get() + ", dropped: " + droppedRequests.get() + ", expired: " + expiredExchanges.get() +
+                "]";
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+/**
+ * A {@link RateLimit} is the configuration of the token buckets of the {@link RateLimiter}, i.e. the number of
+ * messages per second a source may send on average, the number of messages it may send at once (burst), and the
+ * {@link Action} for messages exceeding the limit.
+ *
+ * @author Oliver Kleine
+ */
+public class RateLimit {
+
+    /**
+     * The actions for messages exceeding a {@link RateLimit}
+     */
+    public static enum Action {
+        /**
+         * Silently drop the message
+         */
+        DROP,
+
+        /**
+         * Reject confirmable messages with an empty RST message, silently drop all others
+         */
+        RESET
+    }
+
+    private final double messagesPerSecond;
+    private final int burst;
+    private final Action action;
+
+    /**
+     * @param messagesPerSecond the number of messages per second a source may send on average
+     * @param burst the maximum number of messages a source may send at once (i.e. the capacity of the bucket)
+     * @param action the {@link Action} for messages exceeding the limit
+     *
+     * @throws IllegalArgumentException if the given rate or burst is not positive
+     */
+    public RateLimit(double messagesPerSecond, int burst, Action action){
+        if(messagesPerSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("Rate and burst must be positive (rate: " + messagesPerSecond +
+                    ", burst: " + burst + ")");
+
+        this.messagesPerSecond = messagesPerSecond;
+        this.burst = burst;
+        this.action = action;
+    }
+
+    /**
+     * Returns the number of messages per second a source may send on average
+     * @return the number of messages per second a source may send on average
+     */
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * Returns the maximum number of messages a source may send at once
+     * @return the maximum number of messages a source may send at once
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Returns the {@link Action} for messages exceeding the limit
+     * @return the {@link Action} for messages exceeding the limit
+     */
+    public Action getAction() {
+        return action;
+    }
+
+    @Override
+    public String toString(){
+        return "RateLimit[rate: " + messagesPerSecond + "/s, burst: " + burst + ", action: " + action + "]";
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RateLimiter} limits the number of incoming requests per source address (i.e. IP address regardless of
+ * the port) with a token bucket per source. The {@link RateLimit} of a source is given by the rule with the longest
+ * matching address prefix (e.g. <code>10.1.0.0/16</code> before <code>10.0.0.0/8</code>) or, if there is no
+ * matching rule, by the default {@link RateLimit}. Sources without any {@link RateLimit} are not limited.
+ *
+ * The buckets are kept in a size-bounded cache and evicted after {@link #IDLE_TIMEOUT} seconds without messages from
+ * their source, i.e. memory consumption is bounded even if the source addresses are spoofed. Sources without any
+ * {@link RateLimit} are kept in the same cache (with a shared placeholder bucket), i.e. the rules are only matched
+ * for the first message of a source. Changing the rules replaces the cache.
+ *
+ * @author Oliver Kleine
+ */
+public class RateLimiter {
+
+    /**
+     * The number of seconds without messages from a source to evict its bucket
+     */
+    public static final int IDLE_TIMEOUT = 60;
+
+    /**
+     * The maximum number of sources with a bucket (the least recently used are evicted first)
+     */
+    public static final int MAX_SOURCES = 100000;
+
+    private static Logger log = LoggerFactory.getLogger(RateLimiter.class.getName());
+
+    //Placeholder for sources without any rate limit
+    private static final TokenBucket UNLIMITED = new TokenBucket(new RateLimit(1, 1, RateLimit.Action.DROP), 0);
+
+    //Replaced (after the rules) whenever the rules change, i.e. a bucket is never created from outdated rules
+    private volatile Cache<InetAddress, TokenBucket> buckets = createBucketCache();
+
+    //This map holds the rules as configured (key: address prefix, value: rule)
+    private Map<String, Rule> rules = new HashMap<String, Rule>();
+
+    //The rules ordered by descending prefix length (for longest prefix matching)
+    private volatile List<Rule> orderedRules = ImmutableList.of();
+    private volatile RateLimit defaultRateLimit;
+
+    private final AtomicLong passedMessages = new AtomicLong(0);
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final AtomicLong resetMessages = new AtomicLong(0);
+
+    /**
+     * Sets the {@link RateLimit} for all sources without a matching rule. Existing buckets are discarded.
+     *
+     * @param rateLimit the {@link RateLimit} for all sources without a matching rule or <code>null</code> to not
+     *                  limit these sources
+     */
+    public synchronized void setDefaultRateLimit(RateLimit rateLimit){
+        this.defaultRateLimit = rateLimit;
+        buckets = createBucketCache();
+        log.info("Default rate limit: {}", rateLimit);
+    }
+
+    /**
+     * Sets the {@link RateLimit} for all sources with the given address prefix. Existing buckets are discarded.
+     *
+     * @param prefix an IP address (literal) with an optional prefix length, e.g. <code>10.0.0.0/8</code>,
+     *               <code>192.168.1.17</code>, or <code>fd00::/8</code>
+     * @param rateLimit the {@link RateLimit} for the sources with the given prefix
+     *
+     * @throws IllegalArgumentException if the given prefix is malformed
+     */
+    public synchronized void setRateLimit(String prefix, RateLimit rateLimit){
+        rules.put(prefix, new Rule(prefix, rateLimit));
+        updateRules();
+        log.info("Rate limit for {}: {}", prefix, rateLimit);
+    }
+
+    /**
+     * Removes the {@link RateLimit} for the given address prefix. Existing buckets are discarded.
+     *
+     * @param prefix the address prefix the {@link RateLimit} to be removed was set for
+     *
+     * @return the removed {@link RateLimit} or <code>null</code> if there was none for the given prefix
+     */
+    public synchronized RateLimit removeRateLimit(String prefix){
+        Rule rule = rules.remove(prefix);
+        updateRules();
+        return rule == null ? null : rule.rateLimit;
+    }
+
+    private void updateRules(){
+        List<Rule> ruleList = new ArrayList<Rule>(rules.values());
+        Collections.sort(ruleList, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule rule1, Rule rule2) {
+                return rule2.prefixLength - rule1.prefixLength;
+            }
+        });
+
+        orderedRules = ImmutableList.copyOf(ruleList);
+        buckets = createBucketCache();
+    }
+
+    private static Cache<InetAddress, TokenBucket> createBucketCache(){
+        return CacheBuilder.newBuilder()
+                           .expireAfterAccess(IDLE_TIMEOUT, TimeUnit.SECONDS)
+                           .maximumSize(MAX_SOURCES)
+                           .build();
+    }
+
+    /**
+     * Returns the configured {@link RateLimit}s
+     * @return the configured {@link RateLimit}s (key: address prefix)
+     */
+    public synchronized Map<String, RateLimit> getRateLimits(){
+        ImmutableMap.Builder<String, RateLimit> builder = ImmutableMap.builder();
+        for(Map.Entry<String, Rule> entry : rules.entrySet())
+            builder.put(entry.getKey(), entry.getValue().rateLimit);
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the {@link RateLimit} for the given source address, i.e. the {@link RateLimit} of the rule with the
+     * longest matching prefix or the default {@link RateLimit}
+     *
+     * @param address the source address
+     *
+     * @return the {@link RateLimit} for the given source address or <code>null</code> if there is none
+     */
+    public RateLimit getRateLimit(InetAddress address){
+        byte[] addressBytes = address.getAddress();
+        for(Rule rule : orderedRules){
+            if(rule.matches(addressBytes))
+                return rule.rateLimit;
+        }
+
+        return defaultRateLimit;
+    }
+
+    /**
+     * Returns the {@link TokenBucket} of the given source address (which is created if necessary)
+     *
+     * @param address the source address
+     * @param now the current time (in nanoseconds, see {@link System#nanoTime()})
+     *
+     * @return the {@link TokenBucket} of the given source address or <code>null</code> if the source is not limited
+     */
+    TokenBucket getBucket(InetAddress address, long now){
+        //The cache is to be read before the rules, a concurrently replaced cache is then discarded anyway
+        Cache<InetAddress, TokenBucket> buckets = this.buckets;
+
+        if(defaultRateLimit == null && orderedRules.isEmpty())
+            return null;
+
+        TokenBucket bucket = buckets.getIfPresent(address);
+        if(bucket == null){
+            RateLimit rateLimit = getRateLimit(address);
+            bucket = rateLimit == null ? UNLIMITED : new TokenBucket(rateLimit, now);
+
+            TokenBucket existingBucket = buckets.asMap().putIfAbsent(address, bucket);
+            if(existingBucket != null)
+                bucket = existingBucket;
+        }
+
+        return bucket == UNLIMITED ? null : bucket;
+    }
+
+    /**
+     * Takes a token from the bucket of the given source address (if the source is limited)
+     *
+     * @param address the source address
+     * @param now the current time (in nanoseconds, see {@link System#nanoTime()})
+     *
+     * @return <code>null</code> if the message is to pass, otherwise the exceeded {@link RateLimit}
+     */
+    RateLimit acquire(InetAddress address, long now){
+        TokenBucket bucket = getBucket(address, now);
+        if(bucket == null || bucket.tryAcquire(now)){
+            passedMessages.incrementAndGet();
+            return null;
+        }
+
+        return bucket.getRateLimit();
+    }
+
+    void messageDropped(){
+        droppedMessages.incrementAndGet();
+    }
+
+    void messageReset(){
+        resetMessages.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of sources with a bucket (including the sources known to be not limited)
+     * @return the number of sources with a bucket (including the sources known to be not limited)
+     */
+    public long getTrackedSources(){
+        return buckets.size();
+    }
+
+    /**
+     * Returns the total number of requests within the limits
+     * @return the total number of requests within the limits
+     */
+    public long getPassedMessages(){
+        return passedMessages.get();
+    }
+
+    /**
+     * Returns the total number of silently dropped requests
+     * @return the total number of silently dropped requests
+     */
+    public long getDroppedMessages(){
+        return droppedMessages.get();
+    }
+
+    /**
+     * Returns the total number of requests rejected with an empty RST message
+     * @return the total number of requests rejected with an empty RST message
+     */
+    public long getResetMessages(){
+        return resetMessages.get();
+    }
+
+    @Override
+    public String toString(){
+        return "RateLimiter[sources: " + buckets.size() + ", passed: " + passedMessages.get() + ", dropped: " +
+                droppedMessages.get() + ", reset: " + resetMessages.get() + "]";
+    }
+
+    private static class Rule {
+
+        private final byte[] prefix;
+        private final int prefixLength;
+        private final RateLimit rateLimit;
+
+        private Rule(String prefix, RateLimit rateLimit){
+            int slash = prefix.indexOf('/');
+            this.prefix = InetAddresses.forString(slash < 0 ? prefix : prefix.substring(0, slash)).getAddress();
+
+            try{
+                this.prefixLength = slash < 0 ? 8 * this.prefix.length : Integer.parseInt(prefix.substring(slash + 1));
+            }
+            catch(NumberFormatException e){
+                throw new IllegalArgumentException("Malformed prefix length: " + prefix, e);
+            }
+
+            if(prefixLength < 0 || prefixLength > 8 * this.prefix.length)
+                throw new IllegalArgumentException("Prefix length out of range: " + prefix);
+
+            this.rateLimit = rateLimit;
+        }
+
+        private boolean matches(byte[] address){
+            if(address.length != prefix.length)
+                return false;
+
+            int fullBytes = prefixLength / 8;
+            for(int i = 0; i < fullBytes; i++){
+                if(address[i] != prefix[i])
+                    return false;
+            }
+
+            int remainingBits = prefixLength % 8;
+            if(remainingBits == 0)
+                return true;
+
+            int mask = (0xFF << (8 - remainingBits)) & 0xFF;
+            return (address[fullBytes] & mask) == (prefix[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+import de.uniluebeck.itm.ncoap.communication.encoding.CoapMessageDecoder;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The {@link RateLimitingHandler} is supposed to be the first handler of a server pipeline, i.e. in front of the
+ * {@link CoapMessageDecoder} and the {@link AdmissionControlHandler}. It takes a token from the bucket of the source
+ * address of each incoming request (see {@link RateLimiter}). Requests exceeding the {@link RateLimit} of their
+ * source are shed without decoding, i.e. they are either silently dropped or, for confirmable requests and
+ * {@link RateLimit.Action#RESET}, rejected with an empty RST message written directly to the socket.
+ *
+ * Responses and empty messages (i.e. ACK and RST messages) always pass, as dropping them would only cause
+ * retransmissions of the server's own confirmable messages (e.g. update notifications).
+ *
+ * @author Oliver Kleine
+ */
+public class RateLimitingHandler extends SimpleChannelUpstreamHandler {
+
+    private static Logger log = LoggerFactory.getLogger(RateLimitingHandler.class.getName());
+
+    private RateLimiter rateLimiter;
+
+    /**
+     * @param rateLimiter the (shared) {@link RateLimiter} to hold the buckets of the source addresses
+     */
+    public RateLimitingHandler(RateLimiter rateLimiter){
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception{
+        if(!(me.getMessage() instanceof ChannelBuffer) || !(me.getRemoteAddress() instanceof InetSocketAddress)
+                || !isRequest((ChannelBuffer) me.getMessage())){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
+        RateLimit exceededRateLimit = rateLimiter.acquire(remoteAddress.getAddress(), System.nanoTime());
+
+        if(exceededRateLimit == null){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        ChannelBuffer message = (ChannelBuffer) me.getMessage();
+
+        if(exceededRateLimit.getAction() == RateLimit.Action.RESET && isConfirmable(message)){
+            rateLimiter.messageReset();
+            log.debug("Reset request from {} ({}).", remoteAddress, exceededRateLimit);
+            Channels.write(ctx, Channels.future(ctx.getChannel()), AdmissionControlHandler.createReset(message),
+                    remoteAddress);
+        }
+        else{
+            rateLimiter.messageDropped();
+            log.debug("Drop request from {} ({}).", remoteAddress, exceededRateLimit);
+        }
+    }
+
+    //Requests have codes from 1 to 31 (the second byte of the header)
+    private static boolean isRequest(ChannelBuffer buffer){
+        if(buffer.readableBytes() < 4)
+            return false;
+
+        int code = buffer.getUnsignedByte(buffer.readerIndex() + 1);
+        return code > 0 && code < 32;
+    }
+
+    private static boolean isConfirmable(ChannelBuffer buffer){
+        return buffer.readableBytes() >= 4 &&
+                ((buffer.getUnsignedByte(buffer.readerIndex()) >>> 4) & 0x03) == MsgType.CON.number;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+/**
+ * A {@link TokenBucket} holds the tokens of a single source address, i.e. one token is taken per message and
+ * the tokens are refilled continuously according to the {@link RateLimit} up to its burst size.
+ *
+ * @author Oliver Kleine
+ */
+class TokenBucket {
+
+    private final RateLimit rateLimit;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rateLimit the {@link RateLimit} of this bucket
+     * @param now the current time (in nanoseconds, see {@link System#nanoTime()})
+     */
+    TokenBucket(RateLimit rateLimit, long now){
+        this.rateLimit = rateLimit;
+        this.tokens = rateLimit.getBurst();
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes a token from this bucket if there is one
+     *
+     * @param now the current time (in nanoseconds, see {@link System#nanoTime()})
+     *
+     * @return <code>true</code> if a token was taken, <code>false</code> if the bucket is empty
+     */
+    synchronized boolean tryAcquire(long now){
+        tokens = Math.min(rateLimit.getBurst(), tokens + (now - lastRefill) * rateLimit.getMessagesPerSecond() / 1e9);
+        lastRefill = now;
+
+        if(tokens < 1)
+            return false;
+
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Returns the {@link RateLimit} of this bucket
+     * @return the {@link RateLimit} of this bucket
+     */
+    RateLimit getRateLimit(){
+        return rateLimit;
+    }
+}
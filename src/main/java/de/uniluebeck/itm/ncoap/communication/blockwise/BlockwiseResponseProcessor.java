@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName;
+
+/**
+ * By default the nCoAP framework gives the complete payload of a blockwise transferred {@link CoapResponse} to the
+ * application, i.e. the payload is accumulated in memory until all blocks were received.
+ *
+ * If a {@link CoapResponseProcessor} implements {@link BlockwiseResponseProcessor} every block is given to the
+ * application as soon as it was received and only one block per transfer is kept in memory. The next block is
+ * not requested before the application either returned <code>true</code> from
+ * {@link #processResponseBlock(CoapResponse, long)} or invoked
+ * {@link CoapClientApplication#requestNextBlock(CoapResponse)}.
+ *
+ * {@link CoapResponse}s without {@link OptionName#BLOCK_2} option (e.g. error responses) are given to
+ * {@link #processCoapResponse(CoapResponse)} as usual.
+ *
+ * @author Oliver Kleine
+ */
+public interface BlockwiseResponseProcessor extends CoapResponseProcessor {
+
+    /**
+     * Method invoked by the {@link CoapClientApplication} for each received block of a blockwise transferred
+     * {@link CoapResponse}, including the last one. The payload of the given {@link CoapResponse} is the block.
+     * Use {@link CoapResponse#isLastBlock(OptionName)} to check whether the transfer is complete.
+     *
+     * @param coapResponse the {@link CoapResponse} containing the block
+     * @param offset the position of the first byte of the block in the complete payload
+     *
+     * @return <code>true</code> if the next block is to be requested immediately, <code>false</code> if the
+     * application requests the next block later using {@link CoapClientApplication#requestNextBlock(CoapResponse)}
+     */
+    public boolean processResponseBlock(CoapResponse coapResponse, long offset);
+}
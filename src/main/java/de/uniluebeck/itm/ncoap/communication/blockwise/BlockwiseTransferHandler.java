@@ -25,13 +25,31 @@
 package de.uniluebeck.itm.ncoap.communication.blockwise;
 
 import com.google.common.annotations.Beta;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.InternalCancelExchangeMessage;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
 import de.uniluebeck.itm.ncoap.message.MessageDoesNotAllowPayloadException;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.Header;
 import de.uniluebeck.itm.ncoap.message.header.InvalidHeaderException;
 import de.uniluebeck.itm.ncoap.message.header.MsgType;
 import de.uniluebeck.itm.ncoap.message.options.InvalidOptionException;
+import de.uniluebeck.itm.ncoap.message.options.Option;
+import de.uniluebeck.itm.ncoap.message.options.OptionList;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName;
 import de.uniluebeck.itm.ncoap.message.options.ToManyOptionsException;
 import de.uniluebeck.itm.ncoap.toolbox.ByteArrayWrapper;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -40,17 +58,79 @@ import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_1;
 import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.ETAG;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.MAX_AGE;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.OBSERVE_REQUEST;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.OBSERVE_RESPONSE;
 
 /**
- * The {@link BlockwiseTransferHandler} currently provides the ability to receive {@link CoapResponse}s blockwise, i.e.
+ * The {@link BlockwiseTransferHandler} provides the ability to receive {@link CoapResponse}s blockwise, i.e.
  * if a server decided to split up the payload on several {@link CoapResponse}s, the {@link BlockwiseTransferHandler}
  * communicates with the server to receive follow-up blocks until the whole payload is complete.
  *
- * Upon completion it sends a {@link CoapResponse} containg the whole payload upstream
+ * Upon completion it sends a {@link CoapResponse} containg the whole payload upstream. By default the follow-up
+ * blocks are requested one after another. With {@link #setBlock2WindowSize(int)} up to the given number of blocks
+ * are requested concurrently and reordered by their block number. The requests for follow-up blocks contain all
+ * options of the original request (except the block options). A {@link Code#BAD_OPTION_402} for a block beyond
+ * the end of the payload is ignored, any other {@link Code#BAD_OPTION_402} is sent upstream. For requests
+ * registered with an
+ * {@link InternalStreamingRegistrationMessage} every block is sent upstream as soon as it was received and the next
+ * block is not requested before an {@link InternalNextBlockRequestMessage} was written.
+ *
+ * On the server side, outgoing {@link CoapResponse}s with a payload larger than the blocksize requested by the
+ * client (or {@link #DEFAULT_BLOCKSIZE} if the client did not request a blocksize) are split up into blocks. The
+ * full representation is cached for {@link #REPRESENTATION_LIFETIME} milliseconds (per resource and
+ * {@link MediaType}) and requests for follow-up blocks are answered with slices of the cached representation, i.e.
+ * without invoking the web service again. Each block contains an {@link OptionName#ETAG} to enable clients
+ * to detect a change of the representation during the transfer. Responses containing an
+ * {@link OptionName#OBSERVE_RESPONSE} option (i.e. update notifications) are only split up if the request
+ * contained a {@link OptionName#BLOCK_2} option. The block options of incoming requests are kept
+ * (per remote address and token) until the response is written, but at most {@link #BLOCK_REQUEST_TIMEOUT}
+ * milliseconds.
+ *
+ * Outgoing {@link CoapRequest}s with a payload larger than the requested {@link OptionName#BLOCK_1} blocksize
+ * (or {@link #DEFAULT_BLOCKSIZE}) are sent blockwise. Incoming blockwise {@link CoapRequest}s are reassembled
+ * before being sent upstream. Each upload keeps up to {@link #UPLOAD_MEMORY_THRESHOLD} bytes on the heap and
+ * spills to a temporary file beyond that, which is memory mapped on completion. Uploads are limited to
+ * {@link #MAX_UPLOAD_SIZE} bytes and {@link #MAX_CONCURRENT_UPLOADS} concurrent transfers, and are evicted if
+ * there was no further block for {@link #UPLOAD_TIMEOUT} milliseconds (see {@link #setUploadLimits(int, int, int,
+ * long)} to change these defaults). Expired uploads are evicted every {@link #UPLOAD_CLEANUP_INTERVAL}
+ * milliseconds if the handler was constructed with a {@link ScheduledExecutorService}, otherwise upon the next
+ * incoming block.
+ *
+ * Outgoing requests are kept until the first response. The state of a blockwise transfer (including the buffer
+ * for the payload) is created only if that response contains a {@link OptionName#BLOCK_2} option. Both are evicted
+ * if there was no message for {@link #RESPONSE_TRANSFER_TIMEOUT} milliseconds, and at most
+ * {@link #MAX_RESPONSE_TRANSFERS} of each are kept (see {@link #getResponseTransferStats()}). A block of an
+ * incomplete payload without state (e.g. after eviction) is never sent upstream as if it was the complete payload.
+ * Instead, the transfer is aborted and an {@link InternalBlockwiseTransferFailedMessage} is sent upstream. The same
+ * applies if the {@link OptionName#ETAG} of a block differs from the previous blocks.
+ *
+ * Outgoing requests with {@link OptionName#OBSERVE_REQUEST} option are kept until the observation ends (at most
+ * {@link #MAX_RESPONSE_TRANSFERS}). The first block of an update notification starts a new transfer (replacing an
+ * incomplete transfer of a previous notification) and the follow-up blocks are requested without
+ * {@link OptionName#OBSERVE_REQUEST} option. The reassembled notification contains the
+ * {@link OptionName#OBSERVE_RESPONSE} option of its first block.
  */
 
 @Beta
@@ -58,18 +138,295 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
 
     private static Logger log = LoggerFactory.getLogger(BlockwiseTransferHandler.class.getName());
 
+    /**
+     * The {@link Blocksize} for responses on requests without {@link OptionName#BLOCK_2} option
+     */
+    public static final Blocksize DEFAULT_BLOCKSIZE = Blocksize.SIZE_512;
+
+    /**
+     * The number of milliseconds a full representation is cached to answer requests for follow-up blocks
+     */
+    public static final long REPRESENTATION_LIFETIME = 60000;
+
+    /**
+     * The default number of bytes of an incoming blockwise request payload to be kept on the heap before the
+     * payload is written to a temporary file
+     */
+    public static final int UPLOAD_MEMORY_THRESHOLD = 65536;
+
+    /**
+     * The default maximum size (in bytes) of the payload of an incoming blockwise request
+     */
+    public static final int MAX_UPLOAD_SIZE = 16777216;
+
+    /**
+     * The default maximum number of concurrent incoming blockwise requests
+     */
+    public static final int MAX_CONCURRENT_UPLOADS = 64;
+
+    /**
+     * The default number of milliseconds to wait for the next block of an incoming blockwise request
+     */
+    public static final long UPLOAD_TIMEOUT = 60000;
+
+    /**
+     * The interval (in milliseconds) to evict expired incoming blockwise requests
+     */
+    public static final long UPLOAD_CLEANUP_INTERVAL = 1000;
+
+    /**
+     * The number of milliseconds the state of an outgoing request is kept without any message for this request
+     * (i.e. the EXCHANGE_LIFETIME of the CoAP draft)
+     */
+    public static final long RESPONSE_TRANSFER_TIMEOUT = 247000;
+
+    /**
+     * The maximum number of outgoing requests waiting for the first response to keep, and the maximum number of
+     * blockwise transferred responses to keep the state for
+     */
+    public static final int MAX_RESPONSE_TRANSFERS = 100000;
+
+    /**
+     * The number of milliseconds the block options of an incoming request are kept to be applied on the response
+     * (i.e. the EXCHANGE_LIFETIME of the CoAP draft)
+     */
+    public static final long BLOCK_REQUEST_TIMEOUT = 247000;
+
+    /**
+     * The maximum number of incoming requests waiting for the response to keep the block options for
+     */
+    public static final int MAX_BLOCK_REQUESTS = 100000;
+
+    private static HashFunction representationHashFunction = Hashing.murmur3_128();
+
+    private volatile int block2WindowSize = 1;
+
+    private volatile int uploadMemoryThreshold = UPLOAD_MEMORY_THRESHOLD;
+    private volatile int maxUploadSize = MAX_UPLOAD_SIZE;
+    private volatile int maxConcurrentUploads = MAX_CONCURRENT_UPLOADS;
+    private volatile long uploadTimeout = UPLOAD_TIMEOUT;
+    private ScheduledFuture uploadCleanupFuture;
+
     private Object incompleteResponseMonitor = new Object();
     private Object incompleteRequestMonitor = new Object();
 
-    private HashMap<ByteArrayWrapper, BlockwiseTransfer> incompleteResponsePayload =
+    //Outgoing requests waiting for the first response (key: token)
+    private Cache<ByteArrayWrapper, CoapRequest> pendingRequests = CacheBuilder.newBuilder()
+            .maximumSize(MAX_RESPONSE_TRANSFERS)
+            .expireAfterAccess(RESPONSE_TRANSFER_TIMEOUT, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .removalListener(new RemovalListener<ByteArrayWrapper, CoapRequest>() {
+                @Override
+                public void onRemoval(RemovalNotification<ByteArrayWrapper, CoapRequest> notification) {
+                    if(notification.getCause() != RemovalCause.REPLACED)
+                        streamingTokens.remove(notification.getKey());
+
+                    if(notification.wasEvicted())
+                        log.debug("Evicted request with token {} ({}).", notification.getKey(),
+                                notification.getCause());
+                }
+            })
+            .build();
+
+    //Incomplete blockwise transferred responses (key: token)
+    private Cache<ByteArrayWrapper, BlockwiseTransfer> incompleteResponsePayload = CacheBuilder.newBuilder()
+            .maximumSize(MAX_RESPONSE_TRANSFERS)
+            .expireAfterAccess(RESPONSE_TRANSFER_TIMEOUT, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .removalListener(new RemovalListener<ByteArrayWrapper, BlockwiseTransfer>() {
+                @Override
+                public void onRemoval(RemovalNotification<ByteArrayWrapper, BlockwiseTransfer> notification) {
+                    if(notification.wasEvicted())
+                        log.debug("Evicted blockwise transfer with token {} ({}).", notification.getKey(),
+                                notification.getCause());
+                }
+            })
+            .build();
+
+    //Outgoing requests of running observations to request the blocks of update notifications (key: token)
+    private Cache<ByteArrayWrapper, CoapRequest> observationRequests = CacheBuilder.newBuilder()
+            .maximumSize(MAX_RESPONSE_TRANSFERS)
+            .build();
+
+    //Tokens of requests whose responses are to be sent upstream block by block
+    private Set<ByteArrayWrapper> streamingTokens =
+            Collections.newSetFromMap(new ConcurrentHashMap<ByteArrayWrapper, Boolean>());
+
+    private HashMap<ByteArrayWrapper, BlockwiseTransfer> incompleteRequestPayload =
             new HashMap<ByteArrayWrapper, BlockwiseTransfer>();
 
-    private HashMap<ByteArrayWrapper, ChannelBuffer> incompleteRequestPayload =
-            new HashMap<ByteArrayWrapper, ChannelBuffer>();
+    //Incoming blockwise requests (key: remote address, path and query)
+    private HashBasedTable<InetSocketAddress, String, UploadTransfer> uploads = HashBasedTable.create();
+
+    //Full representations of blockwise transferred responses (key: path and query, content type)
+    private HashBasedTable<String, MediaType, Representation> representations = HashBasedTable.create();
+
+    //Block options of incoming requests waiting for the response (key: remote address and token or message ID)
+    private Cache<List<Object>, BlockRequest> blockRequests = CacheBuilder.newBuilder()
+            .maximumSize(MAX_BLOCK_REQUESTS)
+            .expireAfterWrite(BLOCK_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)
+            .build();
+
 
+    /**
+     * Creates a new {@link BlockwiseTransferHandler} that evicts expired incoming blockwise requests only upon
+     * the next incoming block
+     */
+    public BlockwiseTransferHandler(){
+    }
+
+    /**
+     * @param executorService the {@link ScheduledExecutorService} to periodically evict expired incoming blockwise
+     *                        requests (i.e. their temporary files and buffers)
+     */
+    public BlockwiseTransferHandler(ScheduledExecutorService executorService){
+        uploadCleanupFuture = executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpiredUploads();
+            }
+        }, UPLOAD_CLEANUP_INTERVAL, UPLOAD_CLEANUP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the limits for incoming blockwise requests. The new limits apply to upcoming blocks, i.e. running uploads
+     * exceeding the new maximum size are rejected upon their next block.
+     *
+     * @param memoryThreshold the number of bytes of an upload to be kept on the heap before the payload is written
+     *                        to a temporary file (default: {@link #UPLOAD_MEMORY_THRESHOLD})
+     * @param maxUploadSize the maximum size (in bytes) of the payload of an upload
+     *                      (default: {@link #MAX_UPLOAD_SIZE})
+     * @param maxConcurrentUploads the maximum number of concurrent uploads (default: {@link #MAX_CONCURRENT_UPLOADS})
+     * @param uploadTimeout the number of milliseconds to wait for the next block of an upload
+     *                      (default: {@link #UPLOAD_TIMEOUT})
+     */
+    public void setUploadLimits(int memoryThreshold, int maxUploadSize, int maxConcurrentUploads, long uploadTimeout){
+        if(memoryThreshold < 0 || maxUploadSize < 0 || maxConcurrentUploads < 0 || uploadTimeout <= 0)
+            throw new IllegalArgumentException("Upload limits must not be negative (timeout must be positive).");
+
+        this.uploadMemoryThreshold = memoryThreshold;
+        this.maxUploadSize = maxUploadSize;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.uploadTimeout = uploadTimeout;
+    }
+
+    /**
+     * Returns the number of bytes of an incoming blockwise request to be kept on the heap
+     * @return the number of bytes of an incoming blockwise request to be kept on the heap
+     */
+    public int getUploadMemoryThreshold(){
+        return uploadMemoryThreshold;
+    }
+
+    /**
+     * Returns the maximum size (in bytes) of the payload of an incoming blockwise request
+     * @return the maximum size (in bytes) of the payload of an incoming blockwise request
+     */
+    public int getMaxUploadSize(){
+        return maxUploadSize;
+    }
+
+    /**
+     * Returns the maximum number of concurrent incoming blockwise requests
+     * @return the maximum number of concurrent incoming blockwise requests
+     */
+    public int getMaxConcurrentUploads(){
+        return maxConcurrentUploads;
+    }
+
+    /**
+     * Returns the number of milliseconds to wait for the next block of an incoming blockwise request
+     * @return the number of milliseconds to wait for the next block of an incoming blockwise request
+     */
+    public long getUploadTimeout(){
+        return uploadTimeout;
+    }
+
+    /**
+     * Returns the number of currently running incoming blockwise requests
+     * @return the number of currently running incoming blockwise requests
+     */
+    public synchronized int getUploadCount(){
+        return uploads.size();
+    }
+
+    /**
+     * Sets the number of blocks of a blockwise transferred {@link CoapResponse} to be requested concurrently.
+     * The default value 1 means stop-and-wait, i.e. the next block is requested after the previous block was
+     * received. Greater values require the server to handle concurrent requests for different blocks.
+     *
+     * @param block2WindowSize the number of blocks to be requested concurrently
+     */
+    public void setBlock2WindowSize(int block2WindowSize){
+        if(block2WindowSize < 1)
+            throw new IllegalArgumentException("Window size must be at least 1 (was: " + block2WindowSize + ").");
+
+        this.block2WindowSize = block2WindowSize;
+    }
+
+    /**
+     * Returns the number of blocks of a blockwise transferred {@link CoapResponse} to be requested concurrently
+     * @return the number of blocks of a blockwise transferred {@link CoapResponse} to be requested concurrently
+     */
+    public int getBlock2WindowSize(){
+        return block2WindowSize;
+    }
+
+    /**
+     * Returns the number of outgoing requests whose state is currently kept, i.e. requests waiting for the first
+     * response plus incomplete blockwise transferred responses
+     *
+     * @return the number of outgoing requests whose state is currently kept
+     */
+    public long getResponseTransferCount(){
+        synchronized (incompleteResponseMonitor){
+            pendingRequests.cleanUp();
+            incompleteResponsePayload.cleanUp();
+            return pendingRequests.size() + incompleteResponsePayload.size();
+        }
+    }
+
+    /**
+     * Returns the statistics of the state kept for outgoing requests (i.e. requests waiting for the first response
+     * plus incomplete blockwise transferred responses). The eviction count is the number of requests whose state was
+     * dropped due to {@link #RESPONSE_TRANSFER_TIMEOUT} or {@link #MAX_RESPONSE_TRANSFERS}.
+     *
+     * @return the statistics of the state kept for outgoing requests
+     */
+    public CacheStats getResponseTransferStats(){
+        return pendingRequests.stats().plus(incompleteResponsePayload.stats());
+    }
 
     @Override
     public void writeRequested(ChannelHandlerContext ctx, MessageEvent me){
+        if(me.getMessage() instanceof InternalStreamingRegistrationMessage){
+            synchronized (incompleteResponseMonitor){
+                streamingTokens.add(((InternalStreamingRegistrationMessage) me.getMessage()).getToken());
+            }
+            me.getFuture().setSuccess();
+            return;
+        }
+
+        if(me.getMessage() instanceof InternalNextBlockRequestMessage){
+            writeNextBlockRequest(ctx, me);
+            return;
+        }
+
+        if(me.getMessage() instanceof InternalCancelExchangeMessage){
+            ByteArrayWrapper token = new ByteArrayWrapper(((InternalCancelExchangeMessage) me.getMessage()).getToken());
+            synchronized (incompleteResponseMonitor){
+                pendingRequests.invalidate(token);
+                observationRequests.invalidate(token);
+                incompleteResponsePayload.invalidate(token);
+                streamingTokens.remove(token);
+            }
+            synchronized (incompleteRequestMonitor){
+                incompleteRequestPayload.remove(token);
+            }
+            ctx.sendDownstream(me);
+            return;
+        }
+
         if(!(me.getMessage() instanceof CoapMessage)){
             ctx.sendDownstream(me);
             return;
@@ -85,24 +442,504 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
                 return;
             }
 
-            BlockwiseTransfer transfer =
-                    new BlockwiseTransfer(request, ChannelBuffers.dynamicBuffer());
-
+            //The state of a blockwise transfer is created with the first block
             synchronized (incompleteResponseMonitor){
-                incompleteResponsePayload.put(new ByteArrayWrapper(token), transfer);
+                pendingRequests.put(new ByteArrayWrapper(token), request);
+
+                if(!request.getOptionList().getOption(OBSERVE_REQUEST).isEmpty())
+                    observationRequests.put(new ByteArrayWrapper(token), request);
             }
 
-            ctx.sendDownstream(me);
+            //Send the first block if the payload exceeds the blocksize
+            Blocksize blocksize = request.getMaxBlocksizeForRequest();
+            if(blocksize == null)
+                blocksize = DEFAULT_BLOCKSIZE;
+
+            ChannelBuffer payload = request.getPayload();
+            if(payload.readableBytes() > blocksize.length()){
+                synchronized (incompleteRequestMonitor){
+                    incompleteRequestPayload.put(new ByteArrayWrapper(token), new BlockwiseTransfer(request, payload));
+                }
 
-            //TODO handle blockwise transfer for outgoing requests with payload
+                try {
+                    setRequestBlock(request, payload, 0, blocksize);
+                }
+                catch (Exception e) {
+                    log.error("This should never happen.", e);
+                }
+            }
 
+            ctx.sendDownstream(me);
+        }
+        else if(me.getMessage() instanceof CoapResponse){
+            writeBlockwiseResponse(ctx, me);
         }
         else{
-            //TODO handle blockwise transfer for outgoing responses with payload
             ctx.sendDownstream(me);
         }
+    }
+
+    private void writeBlockwiseResponse(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
+
+        BlockRequest blockRequest = removeBlockRequest(remoteAddress, coapResponse.getToken(),
+                coapResponse.getMessageID());
+
+        //Confirm the reception of the last block of a blockwise request
+        if(blockRequest != null && blockRequest.getBlock1Size() != null && !coapResponse.getCode().isErrorMessage()){
+            try {
+                coapResponse.setBlockOption(BLOCK_1, blockRequest.getBlock1Number(), true,
+                        blockRequest.getBlock1Size());
+            }
+            catch (Exception e) {
+                log.error("This should never happen.", e);
+            }
+        }
+
+        Blocksize blocksize = DEFAULT_BLOCKSIZE;
+        long blockNumber = 0;
+        String resourceKey = coapResponse.getServicePath();
+
+        if(blockRequest != null){
+            if(blockRequest.getBlocksize() != null)
+                blocksize = blockRequest.getBlocksize();
+
+            blockNumber = blockRequest.getBlockNumber();
+            resourceKey = blockRequest.getResourceKey();
+        }
 
+        //Update notifications are not split up unless the client explicitly requested a block
+        boolean unsolicitedNotification = !coapResponse.getOptionList().getOption(OBSERVE_RESPONSE).isEmpty()
+                && (blockRequest == null || blockRequest.getBlocksize() == null);
 
+        //Only successful responses with content are split up
+        int length = coapResponse.getPayload().readableBytes();
+        if(coapResponse.getCode() != Code.CONTENT_205 || resourceKey == null || coapResponse.getContentType() == null
+                || !coapResponse.getOptionList().getOption(BLOCK_2).isEmpty() || unsolicitedNotification
+                || (blockNumber == 0 && length <= blocksize.length())){
+
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        try{
+            ChannelBuffer content;
+
+            //The payload is copied only to compute the ETAG, otherwise the representation is a slice of it
+            if(coapResponse.getOptionList().getOption(ETAG).isEmpty()){
+                byte[] bytes = new byte[length];
+                coapResponse.getPayload().getBytes(coapResponse.getPayload().readerIndex(), bytes);
+                coapResponse.setETAG(Longs.toByteArray(representationHashFunction.hashBytes(bytes).asLong()));
+                content = ChannelBuffers.wrappedBuffer(bytes);
+            }
+            else{
+                content = coapResponse.getPayload().slice();
+            }
+
+            long maxAge = coapResponse.getOptionList().getOption(MAX_AGE).isEmpty() ? -1 : coapResponse.getMaxAge();
+
+            Representation representation = new Representation(content,
+                    coapResponse.getOption(ETAG).get(0).getValue(), maxAge);
+
+            addRepresentation(resourceKey, coapResponse.getContentType(), representation);
+
+            if(!setBlock(coapResponse, representation, blockNumber, blocksize))
+                coapResponse = createErrorResponse(Code.BAD_OPTION_402, coapResponse.getMessageID(),
+                        coapResponse.getToken());
+
+            log.debug("Write block {} of {} (blocksize: {}).",
+                    new Object[]{blockNumber, resourceKey, blocksize.length()});
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+
+        Channels.write(ctx, me.getFuture(), coapResponse, remoteAddress);
+    }
+
+    private void requestReceived(ChannelHandlerContext ctx, MessageEvent me){
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
+
+        URI targetUri = coapRequest.getTargetUri();
+        String resourceKey = targetUri.getQuery() == null ?
+                targetUri.getPath() : targetUri.getPath() + "?" + targetUri.getQuery();
+
+        BlockRequest blockRequest = null;
+
+        //Reassemble blockwise requests before sending them upstream
+        if(!coapRequest.getOptionList().getOption(BLOCK_1).isEmpty()){
+            try{
+                if(!requestBlockReceived(ctx, me, resourceKey))
+                    return;
+
+                blockRequest = new BlockRequest(resourceKey, 0, null);
+                blockRequest.setBlock1(coapRequest.getBlockNumber(BLOCK_1), coapRequest.getMaxBlocksizeForRequest());
+                coapRequest.getOptionList().removeAllOptions(BLOCK_1);
+            }
+            catch (InvalidOptionException e) {
+                log.error("This should never happen.", e);
+            }
+        }
+
+        Blocksize blocksize = coapRequest.getMaxBlocksizeForResponse();
+        long blockNumber = 0;
+
+        try{
+            if(blocksize != null)
+                blockNumber = coapRequest.getBlockNumber(BLOCK_2);
+        }
+        catch (InvalidOptionException e) {
+            log.error("This should never happen.", e);
+        }
+
+        //Answer requests for follow-up blocks from the cached representation
+        if(blockNumber > 0){
+            Representation representation = getRepresentation(resourceKey, coapRequest.getAcceptedMediaTypes());
+
+            if(representation != null){
+                me.getFuture().setSuccess();
+                writeCachedBlock(ctx, remoteAddress, coapRequest, representation, blockNumber, blocksize);
+                return;
+            }
+        }
+
+        if(blockRequest != null)
+            blockRequest.setBlock2(blockNumber, blocksize);
+        else if(blocksize != null || targetUri.getQuery() != null)
+            blockRequest = new BlockRequest(resourceKey, blockNumber, blocksize);
+
+        if(blockRequest != null)
+            addBlockRequest(remoteAddress, coapRequest.getToken(), coapRequest.getMessageID(), blockRequest);
+
+        ctx.sendUpstream(me);
+    }
+
+    /**
+     * Adds the payload of the given block to the corresponding upload. If this was the last block the payload
+     * of the given request is replaced with the complete payload.
+     *
+     * @return <code>true</code> if the request is complete and to be sent upstream, <code>false</code> otherwise
+     */
+    private boolean requestBlockReceived(ChannelHandlerContext ctx, MessageEvent me, String resourceKey)
+            throws InvalidOptionException {
+
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
+
+        long blockNumber = coapRequest.getBlockNumber(BLOCK_1);
+        Blocksize blocksize = coapRequest.getMaxBlocksizeForRequest();
+        boolean isLastBlock = coapRequest.isLastBlock(BLOCK_1);
+        ChannelBuffer payload = coapRequest.getPayload();
+
+        UploadTransfer transfer;
+        Code errorCode = null;
+
+        synchronized (this){
+            removeExpiredUploads();
+
+            transfer = uploads.get(remoteAddress, resourceKey);
+
+            if(blockNumber == 0){
+                if(transfer != null)
+                    transfer.release();
+                else if(uploads.size() >= maxConcurrentUploads)
+                    errorCode = Code.SERVICE_UNAVAILABLE_503;
+
+                if(errorCode == null){
+                    transfer = new UploadTransfer();
+                    uploads.put(remoteAddress, resourceKey, transfer);
+                }
+            }
+            else if(transfer == null || transfer.getSize() != blockNumber * blocksize.length()){
+                errorCode = Code.BAD_REQUEST_400;
+            }
+
+            if(errorCode == null && transfer.getSize() + payload.readableBytes() > maxUploadSize)
+                errorCode = Code.REQUEST_ENTITY_TOO_LARGE_413;
+
+            if((errorCode != null || isLastBlock) && transfer != null)
+                uploads.remove(remoteAddress, resourceKey);
+        }
+
+        me.getFuture().setSuccess();
+
+        try{
+            if(errorCode == null)
+                transfer.append(payload);
+        }
+        catch (IOException e) {
+            log.error("Could not write block {} of upload to {}.", blockNumber, resourceKey);
+            errorCode = Code.INTERNAL_SERVER_ERROR_500;
+            removeUpload(remoteAddress, resourceKey, transfer);
+        }
+
+        if(errorCode != null){
+            log.info("Reject block {} of upload to {} from {} ({}).",
+                    new Object[]{blockNumber, resourceKey, remoteAddress, errorCode});
+
+            if(transfer != null)
+                transfer.release();
+
+            writeResponse(ctx, remoteAddress,
+                    createErrorResponse(errorCode, coapRequest.getMessageID(), coapRequest.getToken()));
+            return false;
+        }
+
+        //Confirm the reception of an intermediate block
+        if(!isLastBlock){
+            CoapResponse coapResponse = new CoapResponse(Code.CHANGED_204);
+            try{
+                coapResponse.setMessageID(coapRequest.getMessageID());
+                if(coapRequest.getToken().length > 0)
+                    coapResponse.setToken(coapRequest.getToken());
+                coapResponse.setBlockOption(BLOCK_1, blockNumber, false, blocksize);
+            }
+            catch (Exception e) {
+                log.error("This should never happen.", e);
+            }
+
+            writeResponse(ctx, remoteAddress, coapResponse);
+            return false;
+        }
+
+        try{
+            coapRequest.setPayload(transfer.getContent());
+            log.debug("Upload to {} from {} complete ({} bytes).",
+                    new Object[]{resourceKey, remoteAddress, transfer.getSize()});
+        }
+        catch (Exception e) {
+            log.error("Could not read upload to {}.", resourceKey, e);
+            transfer.release();
+            writeResponse(ctx, remoteAddress, createErrorResponse(Code.INTERNAL_SERVER_ERROR_500,
+                    coapRequest.getMessageID(), coapRequest.getToken()));
+            return false;
+        }
+
+        return true;
+    }
+
+    private synchronized void removeUpload(InetSocketAddress remoteAddress, String resourceKey,
+                                           UploadTransfer transfer){
+        if(uploads.get(remoteAddress, resourceKey) == transfer)
+            uploads.remove(remoteAddress, resourceKey);
+    }
+
+    private synchronized void removeExpiredUploads(){
+        Iterator<Table.Cell<InetSocketAddress, String, UploadTransfer>> cells = uploads.cellSet().iterator();
+        while(cells.hasNext()){
+            Table.Cell<InetSocketAddress, String, UploadTransfer> cell = cells.next();
+            if(cell.getValue().isExpired()){
+                log.info("Upload to {} from {} timed out.", cell.getColumnKey(), cell.getRowKey());
+                cell.getValue().release();
+                cells.remove();
+            }
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if(uploadCleanupFuture != null)
+            uploadCleanupFuture.cancel(false);
+
+        synchronized (this){
+            for(UploadTransfer transfer : uploads.values())
+                transfer.release();
+
+            uploads.clear();
+        }
+
+        super.channelClosed(ctx, e);
+    }
+
+    private void setRequestBlock(CoapRequest coapRequest, ChannelBuffer payload, long blockNumber,
+                                 Blocksize blocksize) throws Exception{
+
+        int offset = (int) blockNumber * blocksize.length();
+        int length = Math.min(blocksize.length(), payload.readableBytes() - offset);
+        boolean isLastBlock = offset + length == payload.readableBytes();
+
+        coapRequest.setPayload(payload.slice(payload.readerIndex() + offset, length));
+        coapRequest.setBlockOption(BLOCK_1, blockNumber, isLastBlock, blocksize);
+    }
+
+    /**
+     * Sends the next block of an outgoing blockwise request if the given response confirms the reception of an
+     * intermediate block.
+     *
+     * @return <code>true</code> if the response was an intermediate confirmation, <code>false</code> otherwise
+     */
+    private boolean requestBlockConfirmed(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        ByteArrayWrapper token = new ByteArrayWrapper(coapResponse.getToken());
+
+        BlockwiseTransfer transfer;
+        synchronized (incompleteRequestMonitor){
+            transfer = incompleteRequestPayload.get(token);
+        }
+
+        if(transfer == null)
+            return false;
+
+        try{
+            if(coapResponse.isLastBlock(BLOCK_1)){
+                synchronized (incompleteRequestMonitor){
+                    incompleteRequestPayload.remove(token);
+                }
+                return false;
+            }
+
+            CoapRequest coapRequest = (CoapRequest) transfer.getCoapMessage();
+
+            //The server may ask for a smaller blocksize
+            Blocksize blocksize = coapRequest.getMaxBlocksizeForRequest();
+            long offset = (coapResponse.getBlockNumber(BLOCK_1) + 1) * blocksize.length();
+            if(coapResponse.getMaxBlocksizeForRequest().szx < blocksize.szx)
+                blocksize = coapResponse.getMaxBlocksizeForRequest();
+
+            long nextBlockNumber = offset / blocksize.length();
+
+            coapRequest.setMessageID(-1);
+            setRequestBlock(coapRequest, transfer.getPartialPayload(), nextBlockNumber, blocksize);
+
+            log.debug("Send block {} of request with token {}.", nextBlockNumber, token);
+
+            me.getFuture().setSuccess();
+            Channels.write(ctx, Channels.future(me.getChannel()), coapRequest, me.getRemoteAddress());
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+
+        return true;
+    }
+
+    private void writeCachedBlock(ChannelHandlerContext ctx, final InetSocketAddress remoteAddress,
+                                  CoapRequest coapRequest, Representation representation, final long blockNumber,
+                                  Blocksize blocksize){
+
+        CoapResponse coapResponse = new CoapResponse(Code.CONTENT_205);
+
+        try{
+            coapResponse.setMessageID(coapRequest.getMessageID());
+            if(coapRequest.getToken().length > 0)
+                coapResponse.setToken(coapRequest.getToken());
+
+            coapResponse.setContentType(representation.getContentType());
+            coapResponse.setETAG(representation.getEtag());
+            if(representation.getMaxAge() >= 0)
+                coapResponse.setMaxAge(representation.getMaxAge());
+
+            if(!setBlock(coapResponse, representation, blockNumber, blocksize))
+                coapResponse = createErrorResponse(Code.BAD_OPTION_402, coapRequest.getMessageID(),
+                        coapRequest.getToken());
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+
+        log.debug("Send block {} from cached representation to {}.", blockNumber, remoteAddress);
+        writeResponse(ctx, remoteAddress, coapResponse);
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, final InetSocketAddress remoteAddress,
+                               final CoapResponse coapResponse){
+
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        Channels.write(ctx, future, coapResponse, remoteAddress);
+
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                log.debug("Response {} sent to {}.", coapResponse.getCode(), remoteAddress);
+            }
+        });
+    }
+
+    private boolean setBlock(CoapResponse coapResponse, Representation representation, long blockNumber,
+                             Blocksize blocksize) throws Exception{
+
+        ChannelBuffer content = representation.getContent();
+        long offset = blockNumber * blocksize.length();
+
+        if(offset >= content.readableBytes()){
+            log.info("Requested block {} exceeds representation length {}.", blockNumber, content.readableBytes());
+            return false;
+        }
+
+        int length = (int) Math.min(blocksize.length(), content.readableBytes() - offset);
+        boolean isLastBlock = offset + length == content.readableBytes();
+
+        coapResponse.setPayload(content.slice((int) offset, length));
+        coapResponse.setBlockOption(BLOCK_2, blockNumber, isLastBlock, blocksize);
+
+        return true;
+    }
+
+    private CoapResponse createErrorResponse(Code code, int messageID, byte[] token){
+        CoapResponse coapResponse = new CoapResponse(code);
+        try{
+            coapResponse.setMessageID(messageID);
+            if(token.length > 0)
+                coapResponse.setToken(token);
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+        return coapResponse;
+    }
+
+    private synchronized void addRepresentation(String resourceKey, MediaType mediaType,
+                                                Representation representation){
+        //remove expired representations
+        Iterator<Table.Cell<String, MediaType, Representation>> cells = representations.cellSet().iterator();
+        while(cells.hasNext()){
+            if(cells.next().getValue().isExpired())
+                cells.remove();
+        }
+
+        representations.put(resourceKey, mediaType, representation);
+        representation.setContentType(mediaType);
+    }
+
+    private synchronized Representation getRepresentation(String resourceKey, Set<MediaType> acceptedMediaTypes){
+        if(acceptedMediaTypes.isEmpty()){
+            for(Representation representation : representations.row(resourceKey).values()){
+                if(!representation.isExpired())
+                    return representation;
+            }
+            return null;
+        }
+
+        for(MediaType mediaType : acceptedMediaTypes){
+            Representation representation = representations.get(resourceKey, mediaType);
+            if(representation != null && !representation.isExpired())
+                return representation;
+        }
+        return null;
+    }
+
+    private void addBlockRequest(InetSocketAddress remoteAddress, byte[] token, int messageID,
+                                 BlockRequest blockRequest){
+        blockRequests.put(getBlockRequestKey(remoteAddress, token, messageID), blockRequest);
+    }
+
+    private BlockRequest removeBlockRequest(InetSocketAddress remoteAddress, byte[] token, int messageID){
+        List<Object> key = getBlockRequestKey(remoteAddress, token, messageID);
+        BlockRequest blockRequest = blockRequests.getIfPresent(key);
+        if(blockRequest != null)
+            blockRequests.invalidate(key);
+
+        return blockRequest;
+    }
+
+    //Separate responses have a new message ID, so the message ID is used only for requests without token
+    private static List<Object> getBlockRequestKey(InetSocketAddress remoteAddress, byte[] token, int messageID){
+        if(token.length > 0)
+            return Arrays.<Object>asList(remoteAddress, new ByteArrayWrapper(token));
+
+        return Arrays.<Object>asList(remoteAddress, messageID);
     }
 
     @Override
@@ -120,23 +957,57 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
             return;
         }
 
+        if(me.getMessage() instanceof CoapRequest){
+            requestReceived(ctx, me);
+            return;
+        }
+
         if(me.getMessage() instanceof CoapResponse){
             CoapResponse response = (CoapResponse) me.getMessage();
 
+            //Check if this response confirms a block of a blockwise request
+            if(!response.getOptionList().getOption(BLOCK_1).isEmpty() && requestBlockConfirmed(ctx, me))
+                return;
+
             //Check if there is a BLOCK_2 option contained
             if(response.getMaxBlocksizeForResponse() == null){
+                synchronized (incompleteResponseMonitor){
+                    pendingRequests.invalidate(new ByteArrayWrapper(response.getToken()));
+                    incompleteResponsePayload.invalidate(new ByteArrayWrapper(response.getToken()));
+
+                    //A response without observe option ends the observation
+                    if(!response.isUpdateNotification())
+                        observationRequests.invalidate(new ByteArrayWrapper(response.getToken()));
+                }
                 ctx.sendUpstream(me);
                 return;
             }
 
             final byte[] token = response.getToken();
 
+            if(getBlockwiseTransfer(response) == null){
+                blockWithoutTransferReceived(ctx, me);
+                return;
+            }
+
+            if(streamedBlockReceived(ctx, me))
+                return;
+
+            if(block2WindowSize > 1 && windowedBlockReceived(ctx, me))
+                return;
+
             BlockwiseTransfer transfer;
             //Add latest received payload to already received payload
             synchronized (incompleteResponseMonitor){
-                transfer = incompleteResponsePayload.get(new ByteArrayWrapper(token));
+                transfer = incompleteResponsePayload.getIfPresent(new ByteArrayWrapper(token));
                 if(transfer != null){
                     try {
+                        if(!transfer.matchesETag(response)){
+                            incompleteResponsePayload.invalidate(new ByteArrayWrapper(token));
+                            abortTransfer(ctx, me, "Representation changed during blockwise transfer.");
+                            return;
+                        }
+
                         if(response.getBlockNumber(BLOCK_2) == transfer.getNextBlockNumber()){
                             log.debug("Received response (Token: " + (new ByteArrayWrapper(token).toString()) +
                                     " , Block: " + response.getBlockNumber(BLOCK_2) + "), ");
@@ -169,85 +1040,392 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
                 }
             }
 
+            //The state was removed in the meantime
+            if(transfer == null){
+                blockWithoutTransferReceived(ctx, me);
+                return;
+            }
+
             //Check whether payload of the response is complete
-            if(transfer != null){
-                try {
-                    if(response.isLastBlock(BLOCK_2)){
+            try {
+                if(response.isLastBlock(BLOCK_2)){
 
-                        //Send response with complete payload to application
-                        log.debug("Block " + response.getBlockNumber(BLOCK_2) + " for response with token " +
-                                new ByteArrayWrapper(token).toString() +
-                                "  received. Payload complete. Forward to client application.");
+                    //Send response with complete payload to application
+                    log.debug("Block " + response.getBlockNumber(BLOCK_2) + " for response with token " +
+                            new ByteArrayWrapper(token).toString() +
+                            "  received. Payload complete. Forward to client application.");
 
-                        response.getOptionList().removeAllOptions(BLOCK_2);
+                    setCompletePayload(response, transfer);
+                    MessageEvent event = new UpstreamMessageEvent(me.getChannel(), response, me.getRemoteAddress());
+                    ctx.sendUpstream(event);
 
-                        response.setPayload(transfer.getPartialPayload());
-                        MessageEvent event = new UpstreamMessageEvent(me.getChannel(), response, me.getRemoteAddress());
-                        ctx.sendUpstream(event);
+                    synchronized (incompleteResponseMonitor){
+                        incompleteResponsePayload.invalidate(new ByteArrayWrapper(token));
+                        log.debug("Deleted not anymore incomplete payload for token " +
+                                new ByteArrayWrapper(token).toString() + " from list");
+                    }
+                    return;
+
+                }
+                else{
+                    final long receivedBlockNumber = response.getBlockNumber(BLOCK_2);
+
+                    log.debug("Block " + receivedBlockNumber + " for response with token " +
+                            new ByteArrayWrapper(token).toString() +
+                            "  received. Payload (still) incomplete.");
+
+                    CoapRequest nextCoapRequest = (CoapRequest) transfer.getCoapMessage();
+                    nextCoapRequest.setMessageID(-1);
+                    nextCoapRequest.setBlockOption(BLOCK_2, receivedBlockNumber + 1,
+                            false, response.getMaxBlocksizeForResponse());
+
+
+                    ChannelFuture future = Channels.future(me.getChannel());
+
+                    future.addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            log.debug("Request for block " + (receivedBlockNumber + 1) + " for token " +
+                                    new ByteArrayWrapper(token).toString() + " sent succesfully.");
 
-                        synchronized (incompleteResponseMonitor){
-                            if(incompleteResponsePayload.remove(new ByteArrayWrapper(token)) == null){
-                                log.error("This should never happen! No incomplete payload found for token " +
-                                        new ByteArrayWrapper(token).toString());
-                            }
-                            else{
-                                log.debug("Deleted not anymore incomplete payload for token " +
-                                        new ByteArrayWrapper(token).toString() + " from list");
-                            }
                         }
-                        return;
+                    });
+                    MessageEvent event = new DownstreamMessageEvent(me.getChannel(),
+                            future, nextCoapRequest, me.getRemoteAddress());
 
-                    }
-                    else{
-                        final long receivedBlockNumber = response.getBlockNumber(BLOCK_2);
+                    log.debug("Send request for block " + (receivedBlockNumber + 1) + " for token " +
+                            new ByteArrayWrapper(token).toString() + ".");
 
-                        log.debug("Block " + receivedBlockNumber + " for response with token " +
-                                new ByteArrayWrapper(token).toString() +
-                                "  received. Payload (still) incomplete.");
+                    ctx.sendDownstream(event);
+                    return;
+                }
+            }
+            catch (InvalidOptionException e) {
+                log.error("This should never happen!", e);
+            }
+            catch (MessageDoesNotAllowPayloadException e) {
+                log.error("This should never happen!", e);
+            }
+            catch (ToManyOptionsException e){
+                log.error("This should never happen!", e);
+            }
+            catch (InvalidHeaderException e) {
+                log.error("This should never happen!", e);
+            }
+        }
 
-                        CoapRequest nextCoapRequest = (CoapRequest) transfer.getCoapMessage();
-                        nextCoapRequest.setMessageID(-1);
-                        nextCoapRequest.setBlockOption(BLOCK_2, receivedBlockNumber + 1,
-                                false, response.getMaxBlocksizeForResponse());
+        log.info("Incoming 2(from {}): {}.", me.getRemoteAddress(), me.getMessage());
+        ctx.sendUpstream(me);
+    }
 
+    /**
+     * Returns the state of the blockwise transfer the given response belongs to. The state is created if there is an
+     * outgoing request with the same token waiting for the first response, or if the response is the first block
+     * of an update notification of a running observation.
+     *
+     * @return the state of the blockwise transfer or <code>null</code> if there is no such transfer (anymore)
+     */
+    private BlockwiseTransfer getBlockwiseTransfer(CoapResponse coapResponse){
+        ByteArrayWrapper token = new ByteArrayWrapper(coapResponse.getToken());
 
-                        ChannelFuture future = Channels.future(me.getChannel());
+        try{
+            boolean firstNotificationBlock = coapResponse.isUpdateNotification()
+                    && coapResponse.getBlockNumber(BLOCK_2) == 0;
 
-                        future.addListener(new ChannelFutureListener() {
-                            @Override
-                            public void operationComplete(ChannelFuture future) throws Exception {
-                                log.debug("Request for block " + (receivedBlockNumber + 1) + " for token " +
-                                        new ByteArrayWrapper(token).toString() + " sent succesfully.");
+            synchronized (incompleteResponseMonitor){
+                BlockwiseTransfer transfer = incompleteResponsePayload.getIfPresent(token);
 
-                            }
-                        });
-                        MessageEvent event = new DownstreamMessageEvent(me.getChannel(),
-                                future, nextCoapRequest, me.getRemoteAddress());
+                //A new update notification replaces the incomplete transfer of the previous one
+                if(transfer != null && !(firstNotificationBlock && transfer.getObserveOptionValue() != null))
+                    return transfer;
 
-                        log.debug("Send request for block " + (receivedBlockNumber + 1) + " for token " +
-                                new ByteArrayWrapper(token).toString() + ".");
+                CoapRequest coapRequest = pendingRequests.getIfPresent(token);
+                if(coapRequest != null){
+                    transfer = new BlockwiseTransfer(coapRequest, null);
 
-                        ctx.sendDownstream(event);
-                        return;
-                    }
+                    //Streamed transfers keep only the latest block
+                    transfer.setStreaming(streamingTokens.remove(token));
+                    pendingRequests.invalidate(token);
+                }
+                else if(firstNotificationBlock && observationRequests.getIfPresent(token) != null){
+                    CoapRequest blockRequest = createBlockRequest(observationRequests.getIfPresent(token), 0,
+                            coapResponse.getMaxBlocksizeForResponse());
+                    blockRequest.getOptionList().removeAllOptions(OBSERVE_REQUEST);
+
+                    log.debug("Received first block of update notification for token {}.", token);
+                    transfer = new BlockwiseTransfer(blockRequest, null);
                 }
-                catch (InvalidOptionException e) {
-                    log.error("This should never happen!", e);
+                else{
+                    return null;
+                }
+
+                if(coapResponse.isUpdateNotification())
+                    transfer.setObserveOptionValue(coapResponse.getObserveOptionValue());
+
+                incompleteResponsePayload.put(token, transfer);
+                return transfer;
+            }
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the payload of the given response (i.e. the last block) with the complete payload of the given
+     * transfer. Update notifications get the {@link OptionName#OBSERVE_RESPONSE} option of their first block.
+     */
+    private static void setCompletePayload(CoapResponse coapResponse, BlockwiseTransfer transfer)
+            throws MessageDoesNotAllowPayloadException, ToManyOptionsException {
+
+        coapResponse.getOptionList().removeAllOptions(BLOCK_2);
+        coapResponse.setPayload(transfer.getPartialPayload());
+
+        if(transfer.getObserveOptionValue() != null)
+            coapResponse.setObserveOptionValue(transfer.getObserveOptionValue());
+    }
+
+    /**
+     * Handles a block of a response without state of the blockwise transfer (e.g. due to
+     * {@link #RESPONSE_TRANSFER_TIMEOUT}). A response that contains the complete payload in a single block is sent
+     * upstream. Any other block would silently truncate the payload, so the exchange is aborted instead.
+     */
+    private void blockWithoutTransferReceived(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+
+        try{
+            if(coapResponse.getBlockNumber(BLOCK_2) == 0 && coapResponse.isLastBlock(BLOCK_2)){
+                coapResponse.getOptionList().removeAllOptions(BLOCK_2);
+                ctx.sendUpstream(me);
+                return;
+            }
+        }
+        catch (InvalidOptionException e) {
+            log.error("This should never happen.", e);
+        }
+
+        abortTransfer(ctx, me, "No state for blockwise transfer (expired or evicted).");
+    }
+
+    /**
+     * Sends the given response upstream if it contains the next block of a streamed transfer. The next block is
+     * requested upon {@link InternalNextBlockRequestMessage}.
+     *
+     * @return <code>true</code> if the response was part of a streamed transfer, <code>false</code> otherwise
+     */
+    private boolean streamedBlockReceived(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        ByteArrayWrapper token = new ByteArrayWrapper(coapResponse.getToken());
+
+        try{
+            synchronized (incompleteResponseMonitor){
+                BlockwiseTransfer transfer = incompleteResponsePayload.getIfPresent(token);
+                if(transfer == null || !transfer.isStreaming())
+                    return false;
+
+                long blockNumber = coapResponse.getBlockNumber(BLOCK_2);
+                if(blockNumber != transfer.getNextBlockNumber()){
+                    log.debug("Received unexpected block {} for token {} (IGNORE).", blockNumber, token);
+                    me.getFuture().setSuccess();
+                    return true;
                 }
-                catch (MessageDoesNotAllowPayloadException e) {
-                    log.error("This should never happen!", e);
+
+                if(!transfer.matchesETag(coapResponse)){
+                    incompleteResponsePayload.invalidate(token);
+                    abortTransfer(ctx, me, "Representation changed during blockwise transfer.");
+                    return true;
                 }
-                catch (ToManyOptionsException e){
-                    log.error("This should never happen!", e);
+
+                if(coapResponse.isLastBlock(BLOCK_2)){
+                    incompleteResponsePayload.invalidate(token);
                 }
-                catch (InvalidHeaderException e) {
-                    log.error("This should never happen!", e);
+                else{
+                    transfer.setNextBlockNumber(transfer.getNextBlockNumber() + 1);
+                    transfer.setBlocksize(coapResponse.getMaxBlocksizeForResponse());
+                    transfer.setRemoteAddress((InetSocketAddress) me.getRemoteAddress());
                 }
             }
         }
+        catch (InvalidOptionException e) {
+            log.error("This should never happen.", e);
+        }
 
-        log.info("Incoming 2(from {}): {}.", me.getRemoteAddress(), me.getMessage());
         ctx.sendUpstream(me);
+        return true;
+    }
+
+    private void writeNextBlockRequest(ChannelHandlerContext ctx, MessageEvent me){
+        ByteArrayWrapper token = ((InternalNextBlockRequestMessage) me.getMessage()).getToken();
+
+        BlockwiseTransfer transfer;
+        synchronized (incompleteResponseMonitor){
+            transfer = incompleteResponsePayload.getIfPresent(token);
+        }
+
+        if(transfer == null || !transfer.isStreaming() || transfer.getRemoteAddress() == null){
+            log.warn("No streamed transfer waiting for the next block with token {}.", token);
+            me.getFuture().setFailure(new IllegalStateException("No streamed transfer for token " + token));
+            return;
+        }
+
+        try{
+            CoapRequest nextCoapRequest = (CoapRequest) transfer.getCoapMessage();
+            nextCoapRequest.setMessageID(-1);
+            nextCoapRequest.setBlockOption(BLOCK_2, transfer.getNextBlockNumber(), false, transfer.getBlocksize());
+
+            log.debug("Send request for block {} for token {}.", transfer.getNextBlockNumber(), token);
+            Channels.write(ctx, me.getFuture(), nextCoapRequest, transfer.getRemoteAddress());
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+    }
+
+    /**
+     * Adds the block contained in the given response to the corresponding transfer, i.e. either to the partial
+     * payload (if all previous blocks were received) or to the blocks to be reordered. Afterwards, further blocks
+     * are requested to keep up to {@link #getBlock2WindowSize()} requests in flight.
+     *
+     * @return <code>true</code> if the response was part of a blockwise transfer, <code>false</code> otherwise
+     */
+    private boolean windowedBlockReceived(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        ByteArrayWrapper token = new ByteArrayWrapper(coapResponse.getToken());
+
+        BlockwiseTransfer transfer;
+        boolean complete;
+        TreeMap<Long, CoapRequest> nextBlockRequests = new TreeMap<Long, CoapRequest>();
+
+        try{
+            synchronized (incompleteResponseMonitor){
+                transfer = incompleteResponsePayload.getIfPresent(token);
+                if(transfer == null)
+                    return false;
+
+                long blockNumber = coapResponse.getBlockNumber(BLOCK_2);
+                TreeMap<Long, ChannelBuffer> receivedBlocks = transfer.getReceivedBlocks();
+
+                if(blockNumber < transfer.getNextBlockNumber() || receivedBlocks.containsKey(blockNumber)){
+                    log.debug("Received duplicate block {} for token {} (IGNORE).", blockNumber, token);
+                    me.getFuture().setSuccess();
+                    return true;
+                }
+
+                if(!transfer.matchesETag(coapResponse)){
+                    incompleteResponsePayload.invalidate(token);
+                    abortTransfer(ctx, me, "Representation changed during blockwise transfer.");
+                    return true;
+                }
+
+                transfer.getRequestedBlocks().remove(coapResponse.getMessageID());
+
+                if(coapResponse.isLastBlock(BLOCK_2))
+                    transfer.setLastBlockNumber(blockNumber);
+
+                if(transfer.getBlocksize() == null)
+                    transfer.setBlocksize(coapResponse.getMaxBlocksizeForResponse());
+
+                receivedBlocks.put(blockNumber, coapResponse.getPayload());
+
+                //Add all blocks that are in place to the partial payload
+                while(!receivedBlocks.isEmpty() && receivedBlocks.firstKey() == transfer.getNextBlockNumber()){
+                    ChannelBuffer payload = receivedBlocks.remove(receivedBlocks.firstKey());
+                    transfer.getPartialPayload().writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+                    transfer.setNextBlockNumber(transfer.getNextBlockNumber() + 1);
+                }
+
+                complete = transfer.getLastBlockNumber() >= 0
+                        && transfer.getNextBlockNumber() > transfer.getLastBlockNumber();
+
+                //The payload does not end before the block answered with 4.02, i.e. the 4.02 was not expected
+                CoapMessage badOptionResponse = transfer.getBadOptionResponse();
+                if(!complete && badOptionResponse != null
+                        && transfer.getNextBlockNumber() >= transfer.getBadOptionBlockNumber()){
+
+                    incompleteResponsePayload.invalidate(token);
+                    me.getFuture().setSuccess();
+                    ctx.sendUpstream(new UpstreamMessageEvent(me.getChannel(), badOptionResponse,
+                            me.getRemoteAddress()));
+                    return true;
+                }
+
+                if(complete){
+                    incompleteResponsePayload.invalidate(token);
+                }
+                else{
+                    long windowEnd = transfer.getNextBlockNumber() + block2WindowSize - 1;
+                    if(transfer.getLastBlockNumber() >= 0)
+                        windowEnd = Math.min(windowEnd, transfer.getLastBlockNumber());
+
+                    while(transfer.getRequestedBlockNumber() < windowEnd){
+                        transfer.setRequestedBlockNumber(transfer.getRequestedBlockNumber() + 1);
+                        nextBlockRequests.put(transfer.getRequestedBlockNumber(), createBlockRequest(
+                                (CoapRequest) transfer.getCoapMessage(), transfer.getRequestedBlockNumber(),
+                                transfer.getBlocksize()));
+                    }
+                }
+            }
+
+            sendInternalNextBlockReceivedMessage(coapResponse.getToken(), (InetSocketAddress) me.getRemoteAddress(),
+                    ctx);
+
+            if(complete){
+                log.debug("Payload for token {} complete. Forward to client application.", token);
+
+                setCompletePayload(coapResponse, transfer);
+                ctx.sendUpstream(new UpstreamMessageEvent(me.getChannel(), coapResponse, me.getRemoteAddress()));
+                return true;
+            }
+
+            me.getFuture().setSuccess();
+
+            //The requests are written without holding the lock since downstream handlers and listeners may call back
+            for(Long blockNumber : nextBlockRequests.keySet()){
+                log.debug("Send request for block {} for token {}.", blockNumber, token);
+                Channels.write(ctx, Channels.future(me.getChannel()), nextBlockRequests.get(blockNumber),
+                        me.getRemoteAddress());
+            }
+
+            //The message IDs are set while writing. Blocks received in the meantime are not recorded anymore.
+            synchronized (incompleteResponseMonitor){
+                for(Long blockNumber : nextBlockRequests.keySet()){
+                    if(blockNumber >= transfer.getNextBlockNumber()
+                            && !transfer.getReceivedBlocks().containsKey(blockNumber)){
+                        int messageID = nextBlockRequests.get(blockNumber).getMessageID();
+                        transfer.getRequestedBlocks().put(messageID, blockNumber);
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("This should never happen.", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a new {@link CoapRequest} with all options of the given original request except the block options,
+     * and the {@link OptionName#BLOCK_2} option for the given block
+     */
+    private static CoapRequest createBlockRequest(CoapRequest originalRequest, long blockNumber, Blocksize blocksize)
+            throws Exception {
+
+        OptionList optionList = new OptionList();
+        for(OptionName optionName : OptionName.values()){
+            if(optionName == BLOCK_1 || optionName == BLOCK_2)
+                continue;
+
+            for(Option option : originalRequest.getOptionList().getOption(optionName))
+                optionList.addOption(originalRequest.getCode(), optionName, option);
+        }
+
+        CoapRequest blockRequest = new CoapRequest(new Header(MsgType.CON, originalRequest.getCode()), optionList,
+                ChannelBuffers.buffer(0));
+        blockRequest.setBlockOption(BLOCK_2, blockNumber, false, blocksize);
+
+        return blockRequest;
     }
 
     private void sendInternalNextBlockReceivedMessage(byte[] token, InetSocketAddress remoteAddress,
@@ -258,20 +1436,242 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
         ctx.sendUpstream(event);
     }
 
+    /**
+     * Sends an {@link InternalBlockwiseTransferFailedMessage} upstream instead of the response contained in the
+     * given {@link MessageEvent}. The state of the transfer is supposed to be removed already.
+     */
+    private void abortTransfer(ChannelHandlerContext ctx, MessageEvent me, String reason){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
+
+        log.warn("Abort blockwise transfer with token {} from {}: {}",
+                new Object[]{new ByteArrayWrapper(coapResponse.getToken()), remoteAddress, reason});
+
+        me.getFuture().setSuccess();
+
+        InternalBlockwiseTransferFailedMessage message =
+                new InternalBlockwiseTransferFailedMessage(coapResponse.getToken(), remoteAddress, reason);
+        ctx.sendUpstream(new UpstreamMessageEvent(ctx.getChannel(), message, remoteAddress));
+    }
+
     private void errorMessageReceived(ChannelHandlerContext ctx, MessageEvent me){
         CoapMessage coapMessage = (CoapMessage) me.getMessage();
+
+        //In windowed mode the window may exceed the last block which the server answers with 4.02
+        if(block2WindowSize > 1 && coapMessage.getCode() == Code.BAD_OPTION_402){
+            synchronized (incompleteResponseMonitor){
+                BlockwiseTransfer transfer =
+                        incompleteResponsePayload.getIfPresent(new ByteArrayWrapper(coapMessage.getToken()));
+
+                Long blockNumber = transfer == null ? null :
+                        transfer.getRequestedBlocks().remove(coapMessage.getMessageID());
+
+                //Only a block behind the next missing one may be beyond the end of the payload
+                if(blockNumber != null && blockNumber > transfer.getNextBlockNumber()){
+                    if(transfer.getLastBlockNumber() < 0 && (transfer.getBadOptionResponse() == null
+                            || blockNumber < transfer.getBadOptionBlockNumber())){
+
+                        //The 4.02 is sent upstream if the payload turns out to be longer
+                        transfer.setBadOptionResponse(coapMessage, blockNumber);
+                    }
+
+                    if(transfer.getLastBlockNumber() < 0 || blockNumber > transfer.getLastBlockNumber()){
+                        log.debug("Block {} possibly beyond the end of the payload for token {} (IGNORE).",
+                                blockNumber, new ByteArrayWrapper(coapMessage.getToken()));
+                        me.getFuture().setSuccess();
+                        return;
+                    }
+                }
+            }
+        }
+
         synchronized (incompleteResponseMonitor){
-            incompleteResponsePayload.remove(coapMessage.getToken());
+            pendingRequests.invalidate(new ByteArrayWrapper(coapMessage.getToken()));
+            observationRequests.invalidate(new ByteArrayWrapper(coapMessage.getToken()));
+            incompleteResponsePayload.invalidate(new ByteArrayWrapper(coapMessage.getToken()));
+        }
+        synchronized (incompleteRequestMonitor){
+            incompleteRequestPayload.remove(new ByteArrayWrapper(coapMessage.getToken()));
         }
         ctx.sendUpstream(me);
     }
 
+    private class BlockRequest {
+
+        private String resourceKey;
+        private long blockNumber;
+        private Blocksize blocksize;
+        private long block1Number;
+        private Blocksize block1Size;
+
+        public BlockRequest(String resourceKey, long blockNumber, Blocksize blocksize){
+            this.resourceKey = resourceKey;
+            this.blockNumber = blockNumber;
+            this.blocksize = blocksize;
+        }
+
+        public String getResourceKey() {
+            return resourceKey;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public Blocksize getBlocksize() {
+            return blocksize;
+        }
+
+        public void setBlock2(long blockNumber, Blocksize blocksize){
+            this.blockNumber = blockNumber;
+            this.blocksize = blocksize;
+        }
+
+        public long getBlock1Number() {
+            return block1Number;
+        }
+
+        public Blocksize getBlock1Size() {
+            return block1Size;
+        }
+
+        public void setBlock1(long block1Number, Blocksize block1Size){
+            this.block1Number = block1Number;
+            this.block1Size = block1Size;
+        }
+    }
+
+    private class UploadTransfer {
+
+        private ChannelBuffer content = ChannelBuffers.dynamicBuffer();
+        private File file;
+        private RandomAccessFile randomAccessFile;
+        private int size;
+        private long lastBlockTime = System.currentTimeMillis();
+
+        public synchronized void append(ChannelBuffer payload) throws IOException {
+            lastBlockTime = System.currentTimeMillis();
+            size += payload.readableBytes();
+
+            //Spill the payload received so far to a temporary file
+            if(file == null && size > uploadMemoryThreshold){
+                file = File.createTempFile("ncoap-upload", ".tmp");
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                write(content);
+                content = null;
+            }
+
+            if(file == null)
+                content.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+            else
+                write(payload.duplicate());
+        }
+
+        private void write(ChannelBuffer buffer) throws IOException {
+            while(buffer.readable())
+                buffer.readBytes(randomAccessFile.getChannel(), buffer.readableBytes());
+        }
+
+        public synchronized ChannelBuffer getContent() throws IOException {
+            if(file == null)
+                return content;
+
+            ChannelBuffer result = ChannelBuffers.wrappedBuffer(
+                    randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size));
+            release();
+
+            return result;
+        }
+
+        public synchronized int getSize() {
+            return size;
+        }
+
+        public synchronized void release(){
+            if(randomAccessFile != null){
+                try {
+                    randomAccessFile.close();
+                }
+                catch (IOException e) {
+                    log.warn("Could not close temporary file {}.", file);
+                }
+                randomAccessFile = null;
+            }
+
+            if(file != null && !file.delete())
+                file.deleteOnExit();
+        }
+
+        public synchronized boolean isExpired(){
+            return System.currentTimeMillis() > lastBlockTime + uploadTimeout;
+        }
+    }
+
+    private class Representation {
+
+        private ChannelBuffer content;
+        private byte[] etag;
+        private long maxAge;
+        private MediaType contentType;
+        private long expiryTime;
+
+        public Representation(ChannelBuffer content, byte[] etag, long maxAge){
+            this.content = content;
+            this.etag = etag;
+            this.maxAge = maxAge;
+            this.expiryTime = System.currentTimeMillis() + REPRESENTATION_LIFETIME;
+        }
+
+        public ChannelBuffer getContent() {
+            return content;
+        }
+
+        public byte[] getEtag() {
+            return etag;
+        }
+
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        public MediaType getContentType() {
+            return contentType;
+        }
+
+        public void setContentType(MediaType contentType) {
+            this.contentType = contentType;
+        }
+
+        public boolean isExpired(){
+            return System.currentTimeMillis() > expiryTime;
+        }
+    }
+
     private class BlockwiseTransfer {
 
         private CoapMessage coapMessage;
         private ChannelBuffer partialPayload;
         private int nextBlockNumber = 0;
 
+        //used in windowed mode only
+        private TreeMap<Long, ChannelBuffer> receivedBlocks = new TreeMap<Long, ChannelBuffer>();
+        private long requestedBlockNumber = 0;
+        private long lastBlockNumber = -1;
+        private Blocksize blocksize;
+        private HashMap<Integer, Long> requestedBlocks = new HashMap<Integer, Long>();
+        private CoapMessage badOptionResponse;
+        private long badOptionBlockNumber = -1;
+
+        //ETAG of the first block (if any)
+        private byte[] etag;
+
+        //Observe option of the first block of update notifications
+        private Long observeOptionValue;
+
+        //used in streaming mode only
+        private boolean streaming;
+        private InetSocketAddress remoteAddress;
+
         public BlockwiseTransfer(CoapMessage coapMessage, ChannelBuffer partialPayload){
             this.coapMessage = coapMessage;
             this.partialPayload = partialPayload;
@@ -282,6 +1682,9 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
         }
 
         public ChannelBuffer getPartialPayload() {
+            if(partialPayload == null)
+                partialPayload = ChannelBuffers.dynamicBuffer();
+
             return partialPayload;
         }
 
@@ -292,5 +1695,91 @@ public class BlockwiseTransferHandler extends SimpleChannelHandler{
         public int getNextBlockNumber(){
             return this.nextBlockNumber;
         }
+
+        public TreeMap<Long, ChannelBuffer> getReceivedBlocks() {
+            return receivedBlocks;
+        }
+
+        public long getRequestedBlockNumber() {
+            return requestedBlockNumber;
+        }
+
+        public void setRequestedBlockNumber(long requestedBlockNumber) {
+            this.requestedBlockNumber = requestedBlockNumber;
+        }
+
+        /**
+         * Returns the block numbers of the outstanding requests for blocks (key: message ID)
+         */
+        public HashMap<Integer, Long> getRequestedBlocks() {
+            return requestedBlocks;
+        }
+
+        public CoapMessage getBadOptionResponse() {
+            return badOptionResponse;
+        }
+
+        public long getBadOptionBlockNumber() {
+            return badOptionBlockNumber;
+        }
+
+        public void setBadOptionResponse(CoapMessage badOptionResponse, long badOptionBlockNumber) {
+            this.badOptionResponse = badOptionResponse;
+            this.badOptionBlockNumber = badOptionBlockNumber;
+        }
+
+        public long getLastBlockNumber() {
+            return lastBlockNumber;
+        }
+
+        public void setLastBlockNumber(long lastBlockNumber) {
+            this.lastBlockNumber = lastBlockNumber;
+        }
+
+        public Blocksize getBlocksize() {
+            return blocksize;
+        }
+
+        public void setBlocksize(Blocksize blocksize) {
+            this.blocksize = blocksize;
+        }
+
+        /**
+         * Returns <code>true</code> if the {@link OptionName#ETAG} of the given block equals the ETAG of the first
+         * block. The first block defines the ETAG of the transfer.
+         */
+        public boolean matchesETag(CoapResponse coapResponse) {
+            byte[] etag = coapResponse.getOptionList().getOption(ETAG).isEmpty() ?
+                    null : coapResponse.getOption(ETAG).get(0).getValue();
+
+            if(this.etag == null && getNextBlockNumber() == 0 && receivedBlocks.isEmpty())
+                this.etag = etag;
+
+            return Arrays.equals(this.etag, etag);
+        }
+
+        public boolean isStreaming() {
+            return streaming;
+        }
+
+        public void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        public InetSocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public void setRemoteAddress(InetSocketAddress remoteAddress) {
+            this.remoteAddress = remoteAddress;
+        }
+
+        public Long getObserveOptionValue() {
+            return observeOptionValue;
+        }
+
+        public void setObserveOptionValue(Long observeOptionValue) {
+            this.observeOptionValue = observeOptionValue;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.toolbox.ByteArrayWrapper;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Instances of {@link InternalBlockwiseTransferFailedMessage} are sent upstream by the
+ * {@link BlockwiseTransferHandler} if a blockwise transferred response could not be reassembled, e.g. because
+ * the representation changed during the transfer. The exchange is finished, i.e. no complete response will follow.
+ *
+ * @author Oliver Kleine
+ */
+public class InternalBlockwiseTransferFailedMessage {
+
+    private byte[] token;
+    private InetSocketAddress remoteAddress;
+    private String reason;
+
+    /**
+     * @param token the token of the request whose response could not be reassembled
+     * @param remoteAddress the address of the server that sent the blocks
+     * @param reason a description of the reason why the transfer failed
+     */
+    public InternalBlockwiseTransferFailedMessage(byte[] token, InetSocketAddress remoteAddress, String reason){
+        this.token = token;
+        this.remoteAddress = remoteAddress;
+        this.reason = reason;
+    }
+
+    /**
+     * Returns the token of the request whose response could not be reassembled
+     * @return the token of the request whose response could not be reassembled
+     */
+    public ByteArrayWrapper getToken(){
+        return new ByteArrayWrapper(token);
+    }
+
+    /**
+     * Returns the address of the server that sent the blocks
+     * @return the address of the server that sent the blocks
+     */
+    public InetSocketAddress getRemoteAddress(){
+        return remoteAddress;
+    }
+
+    /**
+     * Returns a description of the reason why the transfer failed
+     * @return a description of the reason why the transfer failed
+     */
+    public String getReason(){
+        return reason;
+    }
+
+    @Override
+    public String toString(){
+        return "[BlockwiseTransferFailed] Token: " + getToken() + ", Remote address: " + remoteAddress
+                + ", Reason: " + reason;
+    }
+}
@@ -48,11 +48,12 @@
 package de.uniluebeck.itm.ncoap.communication.core;
 
 import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransport;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransports;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.FixedReceiveBufferSizePredictor;
 import org.jboss.netty.channel.socket.DatagramChannel;
-import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,8 +62,9 @@ import java.util.concurrent.ScheduledExecutorService;
 
 
 /**
- * Factory to provide a {@link DatagramChannel} for a {@link CoapClientApplication}. Each instance of
- * {@link CoapClientDatagramChannelFactory} provides one {@link DatagramChannel}. So, multiple calls
+ * Factory to provide the {@link DatagramChannel}s for a {@link CoapClientApplication}. Each instance of
+ * {@link CoapClientDatagramChannelFactory} provides a fixed number of {@link DatagramChannel}s (one by default), each
+ * bound to its own local port and with its own {@link org.jboss.netty.channel.ChannelPipeline}. So, multiple calls
  * of {@link #getChannel()} will always return the same instance of {@link DatagramChannel}.
  *
  * @author Oliver Kleine
@@ -73,31 +75,77 @@ public class CoapClientDatagramChannelFactory {
 
     public static final int RECEIVE_BUFFER_SIZE = 65536;
 
-    private DatagramChannel datagramChannel;
+    private DatagramChannel[] datagramChannels;
 
     /**
      * @param executorService The {@link ScheduledExecutorService} to provide the threads for I/O operations.
      */
     public CoapClientDatagramChannelFactory(ScheduledExecutorService executorService){
+        this(executorService, 1);
+    }
+
+    /**
+     * @param executorService The {@link ScheduledExecutorService} to provide the threads for I/O operations.
+     * @param numberOfChannels the number of {@link DatagramChannel}s to be provided
+     */
+    public CoapClientDatagramChannelFactory(ScheduledExecutorService executorService, int numberOfChannels){
+        this(executorService, numberOfChannels, DatagramTransports.getDefault());
+    }
 
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(executorService);
+    /**
+     * @param executorService The {@link ScheduledExecutorService} to provide the threads for I/O operations.
+     * @param numberOfChannels the number of {@link DatagramChannel}s to be provided
+     * @param transport the {@link DatagramTransport} to create the {@link DatagramChannel}s
+     */
+    public CoapClientDatagramChannelFactory(ScheduledExecutorService executorService, int numberOfChannels,
+                                            DatagramTransport transport){
+        this(new CoapExecutors(executorService), numberOfChannels, transport);
+    }
+
+    /**
+     * @param executors the {@link CoapExecutors} to provide the threads for I/O operations, protocol timers, and
+     *                  the application
+     * @param numberOfChannels the number of {@link DatagramChannel}s to be provided
+     * @param transport the {@link DatagramTransport} to create the {@link DatagramChannel}s
+     */
+    public CoapClientDatagramChannelFactory(CoapExecutors executors, int numberOfChannels,
+                                            DatagramTransport transport){
+        if(numberOfChannels < 1)
+            throw new IllegalArgumentException("Number of channels must be at least 1 (was " + numberOfChannels + ")");
+
+        ChannelFactory channelFactory = transport.createChannelFactory(executors.getIoExecutorService());
 
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
-        bootstrap.setPipelineFactory(new CoapClientPipelineFactory(executorService));
+        bootstrap.setPipelineFactory(new CoapClientPipelineFactory(executors));
+
+        datagramChannels = new DatagramChannel[numberOfChannels];
+        for(int i = 0; i < numberOfChannels; i++){
+            DatagramChannel datagramChannel = (DatagramChannel) bootstrap.bind(new InetSocketAddress(0));
 
-        datagramChannel = (DatagramChannel) bootstrap.bind(new InetSocketAddress(0));
+            FixedReceiveBufferSizePredictor predictor = new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE);
+            datagramChannel.getConfig().setReceiveBufferSizePredictor(predictor);
 
-        FixedReceiveBufferSizePredictor predictor = new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE);
-        datagramChannel.getConfig().setReceiveBufferSizePredictor(predictor);
+            datagramChannel.getConfig().setReceiveBufferSize(DatagramTransports.SOCKET_BUFFER_SIZE);
+            datagramChannel.getConfig().setSendBufferSize(DatagramTransports.SOCKET_BUFFER_SIZE);
 
-        log.info("New client channel created for port {}", datagramChannel.getLocalAddress().getPort());
+            datagramChannels[i] = datagramChannel;
+            log.info("New client channel created for port {}", datagramChannel.getLocalAddress().getPort());
+        }
     }
 
     /**
-     * Returns the {@link DatagramChannel} provided by this factory
-     * @return the {@link DatagramChannel} provided by this factory
+     * Returns the (first) {@link DatagramChannel} provided by this factory
+     * @return the (first) {@link DatagramChannel} provided by this factory
      */
     public DatagramChannel getChannel(){
-        return this.datagramChannel;
+        return this.datagramChannels[0];
+    }
+
+    /**
+     * Returns all {@link DatagramChannel}s provided by this factory
+     * @return all {@link DatagramChannel}s provided by this factory
+     */
+    public DatagramChannel[] getChannels(){
+        return this.datagramChannels.clone();
     }
 }
@@ -70,44 +70,46 @@ import java.util.concurrent.ScheduledExecutorService;
  */
 public class CoapClientPipelineFactory implements ChannelPipelineFactory {
 
+    private ScheduledExecutorService executorService;
     private ExecutionHandler executionHandler;
 
-    //Encoding
-    private CoapMessageEncoder encoder;
-    private CoapMessageDecoder decoder;
-
-    //Reliability
-    private OutgoingMessageReliabilityHandler outgoingMessageReliabilityHandler;
-    private IncomingMessageReliabilityHandler incomingMessageReliabilityHandler;
-
-    //Blockwise
-    private BlockwiseTransferHandler blockwiseTransferHandler;
-
     /**
      * @param executorService The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
      */
     public CoapClientPipelineFactory(ScheduledExecutorService executorService){
-        executionHandler = new ExecutionHandler(executorService);
-
-        encoder = new CoapMessageEncoder();
-        decoder = new CoapMessageDecoder();
-
-        outgoingMessageReliabilityHandler = new OutgoingMessageReliabilityHandler(executorService);
-        incomingMessageReliabilityHandler = new IncomingMessageReliabilityHandler(executorService);
+        this(new CoapExecutors(executorService));
+    }
 
-        blockwiseTransferHandler = new BlockwiseTransferHandler();
+    /**
+     * @param executors the {@link CoapExecutors} to provide the threads for protocol timers and the
+     *                  {@link ExecutionHandler} to hand incoming messages over to the application
+     */
+    public CoapClientPipelineFactory(CoapExecutors executors){
+        this.executorService = executors.getTimerExecutorService();
+        this.executionHandler = executors.getExecutionHandler();
     }
 
+    /**
+     * Returns a new {@link ChannelPipeline} with new instances of all handlers, i.e. the reliability and
+     * blockwise transfer state (e.g. message IDs) of each {@link DatagramChannel} is independent from other
+     * {@link DatagramChannel}s. The protocol handlers run on the I/O thread, the {@link ExecutionHandler} (last in the
+     * pipeline) hands incoming messages over to the application, i.e. response callbacks are never invoked by the
+     * I/O thread.
+     *
+     * @return a new {@link ChannelPipeline}
+     */
     @Override
     public ChannelPipeline getPipeline() throws Exception {
         ChannelPipeline pipeline = Channels.pipeline();
 
-        //pipeline.addLast("Execution Handler", executionHandler);
-        pipeline.addLast("CoAP Message Encoder", encoder);
-        pipeline.addLast("CoAP Message Decoder", decoder);
-        pipeline.addLast("Outgoing Message Reliability Handler", outgoingMessageReliabilityHandler);
-        pipeline.addLast("Incoming Message Reliability Handler", incomingMessageReliabilityHandler);
-        pipeline.addLast("Blockwise Transfer Handler", blockwiseTransferHandler);
+        pipeline.addLast("CoAP Message Encoder", new CoapMessageEncoder());
+        pipeline.addLast("CoAP Message Decoder", new CoapMessageDecoder());
+        pipeline.addLast("Outgoing Message Reliability Handler",
+                new OutgoingMessageReliabilityHandler(executorService));
+        pipeline.addLast("Incoming Message Reliability Handler",
+                new IncomingMessageReliabilityHandler(executorService));
+        pipeline.addLast("Blockwise Transfer Handler", new BlockwiseTransferHandler(executorService));
+        pipeline.addLast("Execution Handler", executionHandler);
 
         return pipeline;
     }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.encoding.CoapTcpFrameDecoder;
+import de.uniluebeck.itm.ncoap.communication.encoding.CoapTcpFrameEncoder;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory to provide TCP {@link Channel}s (CoAP over TCP, see RFC 8323) for a {@link CoapClientApplication}. The
+ * pipeline of each connection consists of the frame codec, an {@link ExecutionHandler} and the given client
+ * application. As TCP provides reliability, there are no reliability or blockwise transfer handlers, i.e. all
+ * requests to the same remote address are multiplexed (by token) over a single connection.
+ *
+ * @author Oliver Kleine
+ */
+public class CoapClientTcpChannelFactory {
+
+    /**
+     * The maximum time (in milliseconds) to wait for a connection to be established
+     */
+    public static final int CONNECT_TIMEOUT = 10000;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private ClientBootstrap bootstrap;
+    private ChannelGroup channelGroup;
+
+    /**
+     * @param executionHandler the {@link ExecutionHandler} to hand the decoded responses over to the client
+     *                         application
+     * @param clientApplication the {@link CoapClientApplication} to be the last handler of each pipeline
+     */
+    public CoapClientTcpChannelFactory(final ExecutionHandler executionHandler,
+                                       final CoapClientApplication clientApplication){
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Client TCP I/O Thread#%d").build();
+        ChannelFactory channelFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(threadFactory),
+                Executors.newCachedThreadPool(threadFactory));
+
+        channelGroup = new DefaultChannelGroup("CoAP over TCP (client)");
+
+        bootstrap = new ClientBootstrap(channelFactory);
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("connectTimeoutMillis", CONNECT_TIMEOUT);
+
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = Channels.pipeline();
+
+                pipeline.addLast("CoAP over TCP Frame Decoder", new CoapTcpFrameDecoder());
+                pipeline.addLast("CoAP over TCP Frame Encoder", new CoapTcpFrameEncoder());
+                pipeline.addLast("Execution Handler", executionHandler);
+                pipeline.addLast("Client Application", clientApplication);
+
+                return pipeline;
+            }
+        });
+    }
+
+    /**
+     * Establishes a new connection to the given remote address and awaits its completion
+     *
+     * @param remoteAddress the remote address to connect to
+     *
+     * @return the connected {@link Channel}
+     *
+     * @throws IOException if the connection could not be established
+     */
+    public Channel connect(InetSocketAddress remoteAddress) throws IOException {
+        ChannelFuture future = bootstrap.connect(remoteAddress).awaitUninterruptibly();
+
+        if(!future.isSuccess())
+            throw new IOException("Could not connect to " + remoteAddress + ".", future.getCause());
+
+        channelGroup.add(future.getChannel());
+        log.info("New client TCP channel connected to {}.", remoteAddress);
+
+        return future.getChannel();
+    }
+
+    /**
+     * Closes all connections and releases the I/O threads.
+     */
+    public void shutdown(){
+        channelGroup.close().awaitUninterruptibly();
+        bootstrap.releaseExternalResources();
+        log.info("Client TCP channels closed.");
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The executors of a {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} or
+ * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}. There are independently sized pools
+ * <ul>
+ *     <li>for I/O, i.e. the workers of the {@link org.jboss.netty.channel.ChannelFactory},</li>
+ *     <li>for protocol timers, e.g. retransmissions, acknowledgement timeouts, and the scheduling of max-age
+ *     notifications,</li>
+ *     <li>for application work, i.e. the processing of incoming messages by the application (handed over from the
+ *     I/O threads by the {@link ExecutionHandler} in the order of arrival per remote address, see
+ *     {@link PeerOrderedThreadPoolExecutor}), the tasks of web services, and the update notifications (as they
+ *     serialize the resource status).</li>
+ * </ul>
+ *
+ * So, a slow web service (or serialization of its status) can neither delay the I/O nor the retransmissions. An
+ * instance of {@link CoapExecutors} is shut down together with the application it was given to, i.e. it must not be
+ * shared between applications.
+ *
+ * @author Oliver Kleine
+ */
+public class CoapExecutors {
+
+    private ScheduledExecutorService ioExecutorService;
+    private ScheduledExecutorService timerExecutorService;
+    private ScheduledExecutorService applicationExecutorService;
+    private ExecutorService handoffExecutorService;
+    private ExecutionHandler executionHandler;
+
+    /**
+     * @param name the prefix of the thread names, e.g. "CoAP Server"
+     * @param ioThreads the number of threads for I/O (at least one per channel)
+     * @param timerThreads the number of threads for protocol timers
+     * @param applicationThreads the number of threads for application work (for both, the processing of incoming
+     *                           messages and the tasks of web services)
+     */
+    public CoapExecutors(String name, int ioThreads, int timerThreads, int applicationThreads){
+        this.ioExecutorService = Executors.newScheduledThreadPool(ioThreads,
+                new ThreadFactoryBuilder().setNameFormat(name + " I/O Thread#%d").build());
+
+        this.timerExecutorService = Executors.newScheduledThreadPool(timerThreads,
+                new ThreadFactoryBuilder().setNameFormat(name + " Timer Thread#%d").build());
+
+        this.applicationExecutorService = Executors.newScheduledThreadPool(applicationThreads,
+                new ThreadFactoryBuilder().setNameFormat(name + " Application Thread#%d").build());
+
+        this.handoffExecutorService = new PeerOrderedThreadPoolExecutor(applicationThreads,
+                new ThreadFactoryBuilder().setNameFormat(name + " Handoff Thread#%d").build());
+        this.executionHandler = new ExecutionHandler(handoffExecutorService);
+    }
+
+    /**
+     * Uses the given {@link ScheduledExecutorService} for I/O, protocol timers, and application work (without
+     * ordering of incoming messages), i.e. the threading as it was before the executors were separated.
+     *
+     * @param executorService the {@link ScheduledExecutorService} for all tasks
+     */
+    public CoapExecutors(ScheduledExecutorService executorService){
+        this.ioExecutorService = executorService;
+        this.timerExecutorService = executorService;
+        this.applicationExecutorService = executorService;
+        this.handoffExecutorService = executorService;
+        this.executionHandler = new ExecutionHandler(executorService);
+    }
+
+    /**
+     * Returns the {@link ScheduledExecutorService} to provide the I/O threads
+     * @return the {@link ScheduledExecutorService} to provide the I/O threads
+     */
+    public ScheduledExecutorService getIoExecutorService() {
+        return ioExecutorService;
+    }
+
+    /**
+     * Returns the {@link ScheduledExecutorService} to execute protocol timers
+     * @return the {@link ScheduledExecutorService} to execute protocol timers
+     */
+    public ScheduledExecutorService getTimerExecutorService() {
+        return timerExecutorService;
+    }
+
+    /**
+     * Returns the {@link ScheduledExecutorService} to execute the tasks of web services and update notifications
+     * @return the {@link ScheduledExecutorService} to execute the tasks of web services and update notifications
+     */
+    public ScheduledExecutorService getApplicationExecutorService() {
+        return applicationExecutorService;
+    }
+
+    /**
+     * Returns the {@link ExecutionHandler} to hand incoming messages over from the I/O threads to the application
+     * @return the {@link ExecutionHandler} to hand incoming messages over from the I/O threads to the application
+     */
+    public ExecutionHandler getExecutionHandler() {
+        return executionHandler;
+    }
+
+    /**
+     * Returns the number of incoming messages waiting to be handed over to the application
+     * @return the number of incoming messages waiting to be handed over to the application
+     */
+    public int getPendingEvents(){
+        if(handoffExecutorService instanceof PeerOrderedThreadPoolExecutor)
+            return ((PeerOrderedThreadPoolExecutor) handoffExecutorService).getPendingEvents();
+
+        if(handoffExecutorService instanceof ThreadPoolExecutor)
+            return ((ThreadPoolExecutor) handoffExecutorService).getQueue().size();
+
+        return 0;
+    }
+
+    /**
+     * Shuts all executors down without waiting for running tasks to complete. This method may be invoked by any
+     * thread, including the threads of the executors.
+     */
+    public void shutdown(){
+        timerExecutorService.shutdownNow();
+        applicationExecutorService.shutdownNow();
+        handoffExecutorService.shutdownNow();
+        ioExecutorService.shutdownNow();
+    }
+}
@@ -25,11 +25,14 @@
 package de.uniluebeck.itm.ncoap.communication.core;
 
 import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.communication.observe.ObservableResourceHandler;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransport;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransports;
 
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictor;
 import org.jboss.netty.channel.socket.DatagramChannel;
-import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,9 +40,10 @@ import java.net.InetSocketAddress;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
- * Factory to provide the {@link DatagramChannel} for a {@link CoapServerApplication}. Each instance of
- * {@link CoapServerDatagramChannelFactory} provides one {@link DatagramChannel}. So, multiple calls
- * of {@link #getChannel()} will always return the same instance of {@link DatagramChannel}.
+ * Factory to provide the {@link DatagramChannel}s for a {@link CoapServerApplication}. Each instance of
+ * {@link CoapServerDatagramChannelFactory} provides one {@link DatagramChannel} per given local address, each with its
+ * own {@link org.jboss.netty.channel.ChannelPipeline}. So, multiple calls of {@link #getChannel()} will always return
+ * the same instance of {@link DatagramChannel}.
  *
  * @author Oliver Kleine
  */
@@ -47,32 +51,88 @@ public class CoapServerDatagramChannelFactory {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private DatagramChannel datagramChannel;
+    public static final int RECEIVE_BUFFER_SIZE = 65536;
+
+    private DatagramChannel[] datagramChannels;
 
     /**
      * @param executorService the {@link ScheduledExecutorService} to provide the threads for I/O
      * @param serverPort the local port the {@link DatagramChannel} of this factory is bound to.
      */
     public CoapServerDatagramChannelFactory(ScheduledExecutorService executorService, int serverPort){
-        ChannelFactory channelFactory =
-                new NioDatagramChannelFactory(executorService);
+        this(executorService, new InetSocketAddress(serverPort));
+    }
+
+    /**
+     * @param executorService the {@link ScheduledExecutorService} to provide the threads for I/O
+     * @param localAddresses the local addresses (e.g. a range of ports) to bind a {@link DatagramChannel} to (one
+     *                       per address)
+     */
+    public CoapServerDatagramChannelFactory(ScheduledExecutorService executorService,
+                                            InetSocketAddress... localAddresses){
+        this(executorService, DatagramTransports.getDefault(), localAddresses);
+    }
+
+    /**
+     * @param executorService the {@link ScheduledExecutorService} to provide the threads for I/O
+     * @param transport the {@link DatagramTransport} to create the {@link DatagramChannel}s
+     * @param localAddresses the local addresses (e.g. a range of ports) to bind a {@link DatagramChannel} to (one
+     *                       per address)
+     */
+    public CoapServerDatagramChannelFactory(ScheduledExecutorService executorService, DatagramTransport transport,
+                                            InetSocketAddress... localAddresses){
+        this(new CoapExecutors(executorService), transport, localAddresses);
+    }
+
+    /**
+     * @param executors the {@link CoapExecutors} to provide the threads for I/O operations, protocol timers, and
+     *                  the application
+     * @param transport the {@link DatagramTransport} to create the {@link DatagramChannel}s
+     * @param localAddresses the local addresses (e.g. a range of ports) to bind a {@link DatagramChannel} to (one
+     *                       per address)
+     */
+    public CoapServerDatagramChannelFactory(CoapExecutors executors, DatagramTransport transport,
+                                            InetSocketAddress... localAddresses){
+        if(localAddresses.length == 0)
+            throw new IllegalArgumentException("At least one local address is required.");
+
+        ChannelFactory channelFactory = transport.createChannelFactory(executors.getIoExecutorService());
 
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
-        CoapServerPipelineFactory pipelineFactory = new CoapServerPipelineFactory(executorService);
+        CoapServerPipelineFactory pipelineFactory = new CoapServerPipelineFactory(executors);
         bootstrap.setPipelineFactory(pipelineFactory);
 
-        datagramChannel = (DatagramChannel) bootstrap.bind(new InetSocketAddress(serverPort));
+        datagramChannels = new DatagramChannel[localAddresses.length];
+        for(int i = 0; i < localAddresses.length; i++){
+            DatagramChannel datagramChannel = (DatagramChannel) bootstrap.bind(localAddresses[i]);
+
+            //Default predictor truncates datagrams larger than 768 bytes, e.g. requests with blocksize 1024
+            FixedReceiveBufferSizePredictor predictor = new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE);
+            datagramChannel.getConfig().setReceiveBufferSizePredictor(predictor);
 
-        pipelineFactory.getObservableResourceHandler().setChannel(datagramChannel);
+            datagramChannel.getConfig().setReceiveBufferSize(DatagramTransports.SOCKET_BUFFER_SIZE);
+            datagramChannel.getConfig().setSendBufferSize(DatagramTransports.SOCKET_BUFFER_SIZE);
 
-        log.info("New server datagramChannel created for port {}.", datagramChannel.getLocalAddress().getPort());
+            datagramChannel.getPipeline().get(ObservableResourceHandler.class).setChannel(datagramChannel);
+
+            datagramChannels[i] = datagramChannel;
+            log.info("New server datagramChannel created for port {}.", datagramChannel.getLocalAddress().getPort());
+        }
     }
 
     /**
-     * Returns the {@link DatagramChannel} provided by this factory
-     * @return the {@link DatagramChannel} provided by this factory
+     * Returns the (first) {@link DatagramChannel} provided by this factory
+     * @return the (first) {@link DatagramChannel} provided by this factory
      */
     public DatagramChannel getChannel(){
-        return this.datagramChannel;
+        return this.datagramChannels[0];
+    }
+
+    /**
+     * Returns all {@link DatagramChannel}s provided by this factory
+     * @return all {@link DatagramChannel}s provided by this factory
+     */
+    public DatagramChannel[] getChannels(){
+        return this.datagramChannels.clone();
     }
 }
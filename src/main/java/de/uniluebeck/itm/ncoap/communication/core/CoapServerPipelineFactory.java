@@ -24,6 +24,7 @@
  */
 package de.uniluebeck.itm.ncoap.communication.core;
 
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferHandler;
 import de.uniluebeck.itm.ncoap.communication.encoding.CoapMessageDecoder;
 import de.uniluebeck.itm.ncoap.communication.encoding.CoapMessageEncoder;
 import de.uniluebeck.itm.ncoap.communication.observe.ObservableResourceHandler;
@@ -46,56 +47,54 @@ import java.util.concurrent.ScheduledExecutorService;
  */
 public class CoapServerPipelineFactory implements ChannelPipelineFactory {
 
+    private ScheduledExecutorService executorService;
+    private ScheduledExecutorService applicationExecutorService;
     private ExecutionHandler executionHandler;
 
-    private CoapMessageEncoder encoder;
-    private CoapMessageDecoder decoder;
-
-    private OutgoingMessageReliabilityHandler outgoingMessageReliabilityHandler;
-    private IncomingMessageReliabilityHandler incomingMessageReliabilityHandler;
-
-    private ObservableResourceHandler observableResourceHandler;
-
     /**
      * @param executorService The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
      */
     public CoapServerPipelineFactory(ScheduledExecutorService executorService){
-
-        this.executionHandler = new ExecutionHandler(executorService);
-
-        this.encoder = new CoapMessageEncoder();
-        this.decoder = new CoapMessageDecoder();
-
-        this.outgoingMessageReliabilityHandler = new OutgoingMessageReliabilityHandler(executorService);
-        this.incomingMessageReliabilityHandler = new IncomingMessageReliabilityHandler(executorService);
-
-        this.observableResourceHandler = new ObservableResourceHandler(executorService);
+        this(new CoapExecutors(executorService));
     }
 
+    /**
+     * @param executors the {@link CoapExecutors} to provide the threads for protocol timers, the threads for update
+     *                  notifications (application work), and the {@link ExecutionHandler} to hand incoming
+     *                  messages over to the application
+     */
+    public CoapServerPipelineFactory(CoapExecutors executors){
+        this.executorService = executors.getTimerExecutorService();
+        this.applicationExecutorService = executors.getApplicationExecutorService();
+        this.executionHandler = executors.getExecutionHandler();
+    }
 
+    /**
+     * Returns a new {@link ChannelPipeline} with new instances of all handlers (except the stateless
+     * {@link ExecutionHandler}), i.e. the reliability, blockwise transfer, and observation state of each
+     * {@link DatagramChannel} is independent from other {@link DatagramChannel}s. The protocol handlers run on the
+     * I/O thread, the {@link ExecutionHandler} (last in the pipeline) hands incoming messages over to the
+     * application.
+     *
+     * @return a new {@link ChannelPipeline}
+     */
     @Override
     public ChannelPipeline getPipeline() throws Exception {
         ChannelPipeline pipeline = Channels.pipeline();
 
-        pipeline.addLast("Execution Handler", executionHandler);
+        pipeline.addLast("CoAP Message Encoder", new CoapMessageEncoder());
+        pipeline.addLast("CoAP Message Decoder", new CoapMessageDecoder());
 
-        pipeline.addLast("CoAP Message Encoder", encoder);
-        pipeline.addLast("CoAP Message Decoder", decoder);
+        pipeline.addLast("OutgoingMessageReliabilityHandler", new OutgoingMessageReliabilityHandler(executorService));
+        pipeline.addLast("IncomingMessageReliabilityHandler", new IncomingMessageReliabilityHandler(executorService));
 
-        pipeline.addLast("OutgoingMessageReliabilityHandler", outgoingMessageReliabilityHandler);
-        pipeline.addLast("IncomingMessageReliabilityHandler", incomingMessageReliabilityHandler);
+        pipeline.addLast("BlockwiseTransferHandler", new BlockwiseTransferHandler(executorService));
 
-        pipeline.addLast("ObservableResourceHandler", observableResourceHandler);
+        pipeline.addLast("ObservableResourceHandler", new ObservableResourceHandler(executorService,
+                applicationExecutorService));
 
-        return pipeline;
-    }
+        pipeline.addLast("Execution Handler", executionHandler);
 
-    /**
-     * Returns the {@link ObservableResourceHandler} which is part of each pipline from this factory
-     * @return the {@link ObservableResourceHandler} which is part of each pipline from this factory
-     */
-    public ObservableResourceHandler getObservableResourceHandler(){
-        return this.observableResourceHandler;
+        return pipeline;
     }
-
 }
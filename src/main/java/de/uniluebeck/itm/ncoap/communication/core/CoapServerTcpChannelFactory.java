@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.communication.encoding.CoapTcpFrameDecoder;
+import de.uniluebeck.itm.ncoap.communication.encoding.CoapTcpFrameEncoder;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory to provide the listening TCP {@link Channel} for a {@link CoapServerApplication} (CoAP over TCP, see
+ * RFC 8323). The pipeline of each accepted connection consists of the frame codec, an {@link ExecutionHandler} and
+ * the given server application. As TCP provides reliability, there are no reliability, blockwise transfer, or
+ * observation handlers, i.e. large payloads are sent within a single frame.
+ *
+ * @author Oliver Kleine
+ */
+public class CoapServerTcpChannelFactory {
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private Channel serverChannel;
+    private ChannelGroup channelGroup;
+    private ChannelFactory channelFactory;
+
+    /**
+     * @param executionHandler the {@link ExecutionHandler} to hand the decoded requests over to the server
+     *                         application
+     * @param serverApplication the {@link CoapServerApplication} to be the last handler of each pipeline
+     * @param localAddress the local address to listen on for incoming connections
+     */
+    public CoapServerTcpChannelFactory(final ExecutionHandler executionHandler,
+                                       final CoapServerApplication serverApplication, InetSocketAddress localAddress){
+
+        //Boss and worker threads are provided by pools of their own (connections are not bound to a fixed pool)
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Server TCP I/O Thread#%d").build();
+        channelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(threadFactory),
+                Executors.newCachedThreadPool(threadFactory));
+
+        channelGroup = new DefaultChannelGroup("CoAP over TCP (" + localAddress + ")");
+        ServerBootstrap bootstrap = new ServerBootstrap(channelFactory);
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("reuseAddress", true);
+
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = Channels.pipeline();
+
+                pipeline.addLast("Channel Group Handler", new SimpleChannelUpstreamHandler(){
+                    @Override
+                    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+                        channelGroup.add(e.getChannel());
+                        super.channelOpen(ctx, e);
+                    }
+                });
+
+                //The frame decoder is stateful and must thus run before the execution handler
+                pipeline.addLast("CoAP over TCP Frame Decoder", new CoapTcpFrameDecoder());
+                pipeline.addLast("CoAP over TCP Frame Encoder", new CoapTcpFrameEncoder());
+                pipeline.addLast("Execution Handler", executionHandler);
+                pipeline.addLast("Server Application", serverApplication);
+
+                return pipeline;
+            }
+        });
+
+        serverChannel = bootstrap.bind(localAddress);
+        channelGroup.add(serverChannel);
+
+        log.info("New server TCP channel created for port {}.", getPort());
+    }
+
+    /**
+     * Returns the local port the listening TCP {@link Channel} is bound to
+     * @return the local port the listening TCP {@link Channel} is bound to
+     */
+    public int getPort(){
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Closes the listening {@link Channel} and all accepted connections and releases the I/O threads.
+     */
+    public void shutdown(){
+        channelGroup.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+        log.info("Server TCP channel closed.");
+    }
+}
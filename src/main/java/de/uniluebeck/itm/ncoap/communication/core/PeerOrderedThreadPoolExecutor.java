@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.core;
+
+import com.google.common.cache.CacheBuilder;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link OrderedMemoryAwareThreadPoolExecutor} that keeps the order of events per remote address instead of per
+ * {@link org.jboss.netty.channel.Channel}. Since a {@link org.jboss.netty.channel.socket.DatagramChannel} serves
+ * all remote peers, ordering per channel would process all incoming messages one after the other. With ordering
+ * per remote address, messages from the same peer are processed in the order of their arrival while messages from
+ * different peers are processed concurrently. Events without remote address (e.g. channel state events) are ordered
+ * per channel.
+ *
+ * The order of a remote address is forgotten after {@link #CHILD_EXECUTOR_TIMEOUT} seconds without events from that
+ * address. The total size of the queued messages is limited to {@link #MAX_TOTAL_MEMORY_SIZE} bytes, i.e. the I/O
+ * threads are blocked if the application does not keep up.
+ *
+ * @author Oliver Kleine
+ */
+public class PeerOrderedThreadPoolExecutor extends OrderedMemoryAwareThreadPoolExecutor {
+
+    /**
+     * The maximum total size (in bytes) of the messages waiting to be processed
+     */
+    public static final long MAX_TOTAL_MEMORY_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The number of seconds without events from a remote address to forget its order
+     */
+    public static final int CHILD_EXECUTOR_TIMEOUT = 120;
+
+    private final AtomicInteger pendingEvents = new AtomicInteger(0);
+
+    /**
+     * @param numberOfThreads the maximum number of threads to process events
+     * @param threadFactory the {@link ThreadFactory} to create the threads
+     */
+    public PeerOrderedThreadPoolExecutor(int numberOfThreads, ThreadFactory threadFactory){
+        super(numberOfThreads, 0, MAX_TOTAL_MEMORY_SIZE, 30, TimeUnit.SECONDS, threadFactory);
+    }
+
+    @Override
+    protected ConcurrentMap<Object, Executor> newChildExecutorMap(){
+        //Remote addresses never close, so their executors expire instead of being removed on channel closure
+        return CacheBuilder.newBuilder()
+                           .expireAfterAccess(CHILD_EXECUTOR_TIMEOUT, TimeUnit.SECONDS)
+                           .<Object, Executor>build()
+                           .asMap();
+    }
+
+    @Override
+    protected Object getChildExecutorKey(ChannelEvent event){
+        if(event instanceof MessageEvent && ((MessageEvent) event).getRemoteAddress() != null)
+            return ((MessageEvent) event).getRemoteAddress();
+
+        return super.getChildExecutorKey(event);
+    }
+
+    @Override
+    protected void increaseCounter(Runnable task){
+        super.increaseCounter(task);
+        if(shouldCount(task))
+            pendingEvents.incrementAndGet();
+    }
+
+    @Override
+    protected void decreaseCounter(Runnable task){
+        super.decreaseCounter(task);
+        if(shouldCount(task))
+            pendingEvents.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of events waiting to be processed (for all remote addresses)
+     * @return the number of events waiting to be processed (for all remote addresses)
+     */
+    public int getPendingEvents(){
+        return pendingEvents.get();
+    }
+}
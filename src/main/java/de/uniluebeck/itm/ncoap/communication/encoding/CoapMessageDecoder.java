@@ -186,9 +186,48 @@ public class CoapMessageDecoder extends OneToOneDecoder{
                     " exceeds the number of allowed options");
         }
 
+        return decodeOptions(buffer, optionCount, code, header);
+    }
+
+    /**
+     * This method creates an OptionList from the options starting at the current reader position of the given
+     * {@link ChannelBuffer} up to (and including) the {@link CoapTcpFrameEncoder#END_OF_OPTIONS_MARKER} or the end
+     * of the buffer, whichever comes first. It is used for CoAP over TCP frames which do not carry an option count.
+     *
+     * @param buffer the {@link ChannelBuffer} containing the options to be decoded
+     * @param code the {@link Code} of the message that is intended to include the new OptionList
+     * @param header the {@link Header} of the message to be decoded
+     *
+     * @return An {@link OptionList} instance containing the decoded options
+     *
+     * @throws InvalidOptionException if a critical option is malformed, e.g. size is out of defined bounds
+     * @throws ToManyOptionsException if there are too many options contained in the list
+     */
+    OptionList decodeOptionList(ChannelBuffer buffer, Code code, Header header)
+            throws InvalidOptionException, ToManyOptionsException {
+
+        OptionList result = decodeOptions(buffer, Integer.MAX_VALUE, code, header);
+
+        //Skip the end of options marker (if any)
+        if(buffer.readable()){
+            buffer.skipBytes(1);
+        }
+
+        return result;
+    }
+
+    private OptionList decodeOptions(ChannelBuffer buffer, int optionCount, Code code, Header header)
+            throws InvalidOptionException, ToManyOptionsException {
+
         OptionList result = new OptionList();
         int prevOptionNumber = 0;
         for(int i = 0; i < optionCount; i++){
+            //Options of streamed messages end at the end of options marker or the end of the frame
+            if(optionCount == Integer.MAX_VALUE && (!buffer.readable() ||
+                    buffer.getUnsignedByte(buffer.readerIndex()) == CoapTcpFrameEncoder.END_OF_OPTIONS_MARKER)){
+                break;
+            }
+
             //Create the next readable option from the ChannelBuffer and move the buffers read-index to
             //the starting position of the next option (resp. of the payload if existing)
             try{
@@ -113,11 +113,29 @@ public class CoapMessageEncoder extends OneToOneEncoder {
     }
 
     private void encodeOptions(ChannelBuffer buffer, OptionList optionList) throws Exception {
+        encodeOptions(buffer, optionList, true);
+    }
+
+    /**
+     * Writes the encoded options of the given {@link OptionList} into the given {@link ChannelBuffer}.
+     *
+     * @param buffer the {@link ChannelBuffer} to write the encoded options into
+     * @param optionList the {@link OptionList} containing the options to be encoded
+     * @param includeToken <code>false</code> to omit the {@link OptionName#TOKEN} option, e.g. because the token is
+     *                     part of the frame header (CoAP over TCP), <code>true</code> otherwise
+     *
+     * @throws Exception if an option could not be encoded
+     */
+    void encodeOptions(ChannelBuffer buffer, OptionList optionList, boolean includeToken) throws Exception {
 
         //Encode options one after the other and append buf option to the buf
         int prevNumber = 0;
 
         for(OptionName optionName : OptionName.values()){
+            if(!includeToken && optionName == OptionName.TOKEN){
+                continue;
+            }
+
             for(Option option : optionList.getOption(optionName)){
 
                 // Small hack, due to two types of the observe option
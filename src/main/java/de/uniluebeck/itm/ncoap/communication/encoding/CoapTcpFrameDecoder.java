@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.encoding;
+
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.Header;
+import de.uniluebeck.itm.ncoap.message.header.InvalidHeaderException;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.InvalidOptionException;
+import de.uniluebeck.itm.ncoap.message.options.OptionList;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A {@link CoapTcpFrameDecoder} de-serializes the frames written by a {@link CoapTcpFrameEncoder} from a byte
+ * stream (CoAP over TCP, see RFC 8323). Frames may arrive in arbitrary fragments, i.e. the decoder waits until the
+ * complete frame was received.
+ *
+ * As frames carry neither a message type nor a message ID, decoded messages are of type {@link MsgType#NON} with
+ * {@link Header#MESSAGE_ID_UNDEFINED}. Empty frames (e.g. keep-alives) and frames with unknown codes (e.g. the
+ * signaling messages of RFC 8323 like CSM) are completely skipped and silently discarded. Peers sending frames with
+ * a token length of more than 8 bytes are disconnected.
+ *
+ * @author Oliver Kleine
+ */
+public class CoapTcpFrameDecoder extends FrameDecoder {
+
+    /**
+     * The maximum length of a frame (options and payload) to be accepted. Peers sending larger frames are
+     * disconnected.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private static Logger log = LoggerFactory.getLogger(CoapTcpFrameDecoder.class.getName());
+
+    private final CoapMessageDecoder messageDecoder = new CoapMessageDecoder();
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        if(!buffer.readable()){
+            return null;
+        }
+
+        buffer.markReaderIndex();
+
+        int firstByte = buffer.readUnsignedByte();
+        int tokenLength = firstByte & 0x0F;
+
+        if(tokenLength > 8){
+            channel.close();
+            throw new CorruptedFrameException("Token length of " + tokenLength + " exceeds maximum of 8 bytes.");
+        }
+
+        long length = firstByte >>> 4;
+        int extendedLength = length == 13 ? 1 : length == 14 ? 2 : length == 15 ? 4 : 0;
+
+        if(buffer.readableBytes() < extendedLength){
+            buffer.resetReaderIndex();
+            return null;
+        }
+
+        if(length == 13){
+            length = buffer.readUnsignedByte() + 13;
+        }
+        else if(length == 14){
+            length = buffer.readUnsignedShort() + 269;
+        }
+        else if(length == 15){
+            length = buffer.readUnsignedInt() + 65805;
+        }
+
+        if(length > MAX_FRAME_LENGTH){
+            channel.close();
+            throw new TooLongFrameException("Frame length of " + length + " exceeds maximum of " +
+                    MAX_FRAME_LENGTH + " bytes.");
+        }
+
+        if(buffer.readableBytes() < 1 + tokenLength + length){
+            buffer.resetReaderIndex();
+            return null;
+        }
+
+        //Consume the complete frame first to keep the position in the stream in any case
+        int codeNumber = buffer.readUnsignedByte();
+        byte[] token = new byte[tokenLength];
+        buffer.readBytes(token);
+        ChannelBuffer frame = buffer.readBytes((int) length);
+
+        Code code;
+        try{
+            code = Code.getCodeFromNumber(codeNumber);
+        }
+        catch(InvalidHeaderException e){
+            log.debug("Discarded frame with unknown code {} from {}.", codeNumber, channel.getRemoteAddress());
+            return null;
+        }
+
+        if(code == Code.EMPTY){
+            log.debug("Discarded empty frame from {}.", channel.getRemoteAddress());
+            return null;
+        }
+
+        Header header = new Header(MsgType.NON, code);
+
+        OptionList optionList;
+        try{
+            optionList = messageDecoder.decodeOptionList(frame, code, header);
+        }
+        catch(InvalidOptionException e){
+            return new InvalidOptionException(header, e.getOptionNumber(), "Invalid option found while decoding.");
+        }
+
+        CoapMessage result;
+        if(code.isRequest()){
+            result = new CoapRequest(header, optionList, frame.slice());
+        }
+        else{
+            result = new CoapResponse(header, optionList, frame.slice());
+        }
+
+        if(tokenLength > 0){
+            result.setToken(token);
+        }
+
+        if(channel.getLocalAddress() instanceof InetSocketAddress)
+            result.setRcptAdress(((InetSocketAddress) channel.getLocalAddress()).getAddress());
+
+        log.debug("Decoded (frame length {}): {}", length, result);
+        return result;
+    }
+}
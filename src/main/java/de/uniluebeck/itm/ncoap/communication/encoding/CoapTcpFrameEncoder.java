@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.encoding;
+
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link CoapTcpFrameEncoder} serializes outgoing {@link CoapMessage}s into frames for reliable, stream based
+ * transports (CoAP over TCP, see RFC 8323). There is neither a message type nor a message ID within such a frame.
+ * The frame header consists of
+ * <ul>
+ *     <li>4 bits length and 4 bits token length (TKL),</li>
+ *     <li>0, 1, 2, or 4 bytes extended length (for lengths of 13, 269, or 65805 and more bytes),</li>
+ *     <li>1 byte for the {@link de.uniluebeck.itm.ncoap.message.header.Code},</li>
+ *     <li>the token (TKL bytes).</li>
+ * </ul>
+ *
+ * The length covers the encoded options and the payload. Options are encoded like in datagrams (with fencepost
+ * options) but without the token option. As there is no option count, a payload is preceded by the
+ * {@link #END_OF_OPTIONS_MARKER}. Frames may be of any size up to {@link CoapTcpFrameDecoder#MAX_FRAME_LENGTH}, i.e.
+ * large payloads do not need to be split up into blocks.
+ *
+ * @author Oliver Kleine
+ */
+public class CoapTcpFrameEncoder extends OneToOneEncoder {
+
+    /**
+     * The byte to separate the options from the payload. An option delta of 15 is not used otherwise.
+     */
+    public static final int END_OF_OPTIONS_MARKER = 0xF0;
+
+    private static Logger log = LoggerFactory.getLogger(CoapTcpFrameEncoder.class.getName());
+
+    private final CoapMessageEncoder messageEncoder = new CoapMessageEncoder();
+
+    @Override
+    protected Object encode(ChannelHandlerContext ctx, Channel channel, Object object) throws Exception {
+        if(!(object instanceof CoapMessage)){
+            return object instanceof ChannelBuffer ? object : null;
+        }
+
+        CoapMessage coapMessage = (CoapMessage) object;
+        log.debug("CoapMessage to encode: {}", coapMessage);
+
+        ChannelBuffer options = ChannelBuffers.dynamicBuffer();
+        messageEncoder.encodeOptions(options, coapMessage.getOptionList(), false);
+
+        ChannelBuffer payload = coapMessage.getPayload();
+        if(payload.readable()){
+            options.writeByte(END_OF_OPTIONS_MARKER);
+        }
+
+        byte[] token = coapMessage.getToken();
+        ChannelBuffer header = encodeHeader(options.readableBytes() + payload.readableBytes(), token.length);
+        header.writeByte(coapMessage.getCode().number);
+        header.writeBytes(token);
+
+        return ChannelBuffers.wrappedBuffer(header, options, payload);
+    }
+
+    private ChannelBuffer encodeHeader(int length, int tokenLength){
+        ChannelBuffer header = ChannelBuffers.buffer(6 + tokenLength);
+
+        if(length < 13){
+            header.writeByte((length << 4) | tokenLength);
+        }
+        else if(length < 269){
+            header.writeByte((13 << 4) | tokenLength);
+            header.writeByte(length - 13);
+        }
+        else if(length < 65805){
+            header.writeByte((14 << 4) | tokenLength);
+            header.writeShort(length - 269);
+        }
+        else{
+            header.writeByte((15 << 4) | tokenLength);
+            header.writeInt(length - 65805);
+        }
+
+        return header;
+    }
+}
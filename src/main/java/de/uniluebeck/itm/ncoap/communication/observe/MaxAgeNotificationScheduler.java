@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link MaxAgeNotificationScheduler} keeps track of the max-age deadlines of all {@link ObservableWebService}
+ * instances observed by an {@link ObservableResourceHandler}. It is a deadline wheel with {@link #WHEEL_SIZE} slots
+ * of {@link #TICK_MILLIS} milliseconds each, driven by a single periodic task.
+ *
+ * Refreshing the deadline of a service (upon a status update) is O(1). Usually it only sets the new deadline and
+ * the entry is lazily moved to the proper slot when its old slot is due. Cancelled entries are lazily removed
+ * in the same way. All services whose max-age expires within the same tick are handed over to the
+ * {@link ObservableResourceHandler} as one batch.
+ *
+ * @author Oliver Kleine
+ */
+class MaxAgeNotificationScheduler {
+
+    /**
+     * The duration of a tick in milliseconds, i.e. the accuracy of max-age notifications
+     */
+    public static final long TICK_MILLIS = 100;
+
+    /**
+     * The number of slots of the wheel
+     */
+    public static final int WHEEL_SIZE = 512;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private ObservableResourceHandler observableResourceHandler;
+    private ScheduledExecutorService executorService;
+    private ExecutorService notificationExecutorService;
+
+    private Set<Entry>[] wheel;
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private long startTime;
+    private long lastProcessedTick = 0;
+    private ScheduledFuture tickFuture;
+
+    /**
+     * @param observableResourceHandler the {@link ObservableResourceHandler} to send the max-age notifications
+     * @param executorService the {@link ScheduledExecutorService} to execute the periodic tick
+     * @param notificationExecutorService the {@link ExecutorService} to execute the max-age notification batches
+     */
+    @SuppressWarnings("unchecked")
+    MaxAgeNotificationScheduler(ObservableResourceHandler observableResourceHandler,
+                                ScheduledExecutorService executorService, ExecutorService notificationExecutorService){
+        this.observableResourceHandler = observableResourceHandler;
+        this.executorService = executorService;
+        this.notificationExecutorService = notificationExecutorService;
+
+        this.wheel = new Set[WHEEL_SIZE];
+        for(int i = 0; i < WHEEL_SIZE; i++){
+            wheel[i] = new HashSet<Entry>();
+        }
+
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Schedules max-age notifications for the given {@link ObservableWebService}, i.e. the first max-age
+     * notification is due {@link ObservableWebService#getMaxAge()} seconds from now. An already scheduled
+     * deadline for a service with the same path is replaced.
+     *
+     * @param webService the {@link ObservableWebService} to schedule max-age notifications for
+     */
+    public synchronized void schedule(ObservableWebService webService){
+        Entry entry = entries.get(webService.getPath());
+
+        if(entry != null && entry.webService == webService){
+            refresh(webService);
+            return;
+        }
+
+        if(entry != null)
+            entry.cancelled = true;
+
+        entry = new Entry(webService);
+        entry.deadline = getDeadline(webService);
+        entries.put(webService.getPath(), entry);
+        insert(entry, entry.deadline);
+
+        if(tickFuture == null){
+            tickFuture = executorService.scheduleAtFixedRate(new Runnable(){
+                @Override
+                public void run() {
+                    processTicks();
+                }
+            }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        log.debug("Scheduled max-age notifications for {}.", webService.getPath());
+    }
+
+    /**
+     * Postpones the next max-age notification for the given {@link ObservableWebService} to
+     * {@link ObservableWebService#getMaxAge()} seconds from now. This method is supposed to be invoked whenever
+     * observers were notified about a status update.
+     *
+     * @param webService the {@link ObservableWebService} to postpone the next max-age notification for
+     */
+    public synchronized void refresh(ObservableWebService webService){
+        Entry entry = entries.get(webService.getPath());
+        if(entry == null)
+            return;
+
+        entry.deadline = getDeadline(webService);
+
+        //Only a shorter max-age requires the entry to be moved now, all others are moved when their slot is due
+        if(entry.deadline < entry.scheduledTick){
+            wheel[getSlot(entry.scheduledTick)].remove(entry);
+            insert(entry, entry.deadline);
+        }
+    }
+
+    /**
+     * Stops max-age notifications for the service with the given path. The entry is lazily removed from the wheel.
+     *
+     * @param servicePath the path of the service to stop max-age notifications for
+     */
+    public synchronized void cancel(String servicePath){
+        Entry entry = entries.remove(servicePath);
+        if(entry != null){
+            entry.cancelled = true;
+            log.debug("Cancelled max-age notifications for {}.", servicePath);
+        }
+    }
+
+    private synchronized void processTicks(){
+        long currentTick = getTick(System.nanoTime());
+        List<ObservableWebService> expiredServices = new ArrayList<ObservableWebService>();
+
+        while(lastProcessedTick < currentTick){
+            lastProcessedTick++;
+            processTick(lastProcessedTick, expiredServices);
+        }
+
+        if(!expiredServices.isEmpty()){
+            final List<ObservableWebService> batch = expiredServices;
+            notificationExecutorService.execute(new Runnable(){
+                @Override
+                public void run() {
+                    observableResourceHandler.sendMaxAgeNotifications(batch);
+                }
+            });
+        }
+    }
+
+    private void processTick(long tick, List<ObservableWebService> expiredServices){
+        Set<Entry> slot = wheel[getSlot(tick)];
+        if(slot.isEmpty())
+            return;
+
+        List<Entry> dueEntries = new ArrayList<Entry>();
+        Iterator<Entry> iterator = slot.iterator();
+
+        while(iterator.hasNext()){
+            Entry entry = iterator.next();
+            if(entry.cancelled){
+                iterator.remove();
+            }
+            else if(entry.scheduledTick <= tick){
+                iterator.remove();
+                dueEntries.add(entry);
+            }
+        }
+
+        for(Entry entry : dueEntries){
+            if(entry.deadline <= tick){
+                expiredServices.add(entry.webService);
+                entry.deadline = tick + getMaxAgeTicks(entry.webService);
+            }
+            insert(entry, entry.deadline);
+        }
+    }
+
+    private void insert(Entry entry, long tick){
+        entry.scheduledTick = tick;
+        wheel[getSlot(tick)].add(entry);
+    }
+
+    private long getDeadline(ObservableWebService webService){
+        return getTick(System.nanoTime()) + getMaxAgeTicks(webService);
+    }
+
+    private long getMaxAgeTicks(ObservableWebService webService){
+        return Math.max(1, (webService.getMaxAge() * 1000 + TICK_MILLIS - 1) / TICK_MILLIS);
+    }
+
+    private long getTick(long nanoTime){
+        return TimeUnit.NANOSECONDS.toMillis(nanoTime - startTime) / TICK_MILLIS;
+    }
+
+    private int getSlot(long tick){
+        return (int) (tick % WHEEL_SIZE);
+    }
+
+
+    private static class Entry{
+
+        private ObservableWebService webService;
+        private long deadline;
+        private long scheduledTick;
+        private boolean cancelled = false;
+
+        private Entry(ObservableWebService webService){
+            this.webService = webService;
+        }
+    }
+}
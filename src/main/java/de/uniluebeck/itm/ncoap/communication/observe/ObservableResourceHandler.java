@@ -25,6 +25,9 @@
 package de.uniluebeck.itm.ncoap.communication.observe;
 
 import com.google.common.collect.HashBasedTable;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
 import de.uniluebeck.itm.ncoap.application.server.InternalServiceRemovedFromServerMessage;
 import de.uniluebeck.itm.ncoap.application.server.webservice.MediaTypeNotSupportedException;
 import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebService;
@@ -44,9 +47,13 @@ import de.uniluebeck.itm.ncoap.message.options.OptionRegistry;
 import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
 import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static de.uniluebeck.itm.ncoap.message.header.Code.GET;
 import static de.uniluebeck.itm.ncoap.message.header.MsgType.*;
@@ -81,19 +88,53 @@ import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.
 */
 public class ObservableResourceHandler extends SimpleChannelHandler implements Observer{
 
+    /**
+     * The interval (in seconds) to compact the {@link ObservationJournal} (if any)
+     */
+    public static final int JOURNAL_COMPACTION_INTERVAL = 300;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private HashBasedTable<InetSocketAddress, String, ObservationParameter> observations = HashBasedTable.create();
+    private static HashFunction representationHashFunction = Hashing.murmur3_128();
+
+    private ObservationTable observations = new ObservationTable();
+
+    //hashes of the latest serialized resource status per service path and media type
+    private HashBasedTable<String, MediaType, Long> representationHashes = HashBasedTable.create();
+
+    //registered observable services per service path
+    private Map<String, ObservableWebService> webServices = new HashMap<String, ObservableWebService>();
+
     private DatagramChannel channel;
 
     private ScheduledExecutorService executorService;
+    private ExecutorService notificationExecutorService;
+    private MaxAgeNotificationScheduler maxAgeNotificationScheduler;
+
+    private ObservationJournal observationJournal;
+    private ScheduledFuture journalCompactionFuture;
 
     /**
      * @param executorService the {@link ScheduledExecutorService} instance to execute the update notification tasks,
      *                        i.e. send update notifications to all observers of an updated resource
      */
     public ObservableResourceHandler(ScheduledExecutorService executorService){
+        this(executorService, executorService);
+    }
+
+    /**
+     * @param executorService the {@link ScheduledExecutorService} instance to schedule max-age notifications and
+     *                        the compaction of the {@link ObservationJournal}
+     * @param notificationExecutorService the {@link ExecutorService} instance to execute the update notification
+     *                                    tasks, i.e. serialize the resource status (application code) and send
+     *                                    update notifications to all observers of an updated resource
+     */
+    public ObservableResourceHandler(ScheduledExecutorService executorService,
+                                     ExecutorService notificationExecutorService){
         this.executorService = executorService;
+        this.notificationExecutorService = notificationExecutorService;
+        this.maxAgeNotificationScheduler =
+                new MaxAgeNotificationScheduler(this, executorService, notificationExecutorService);
     }
 
     /**
@@ -103,6 +144,74 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         this.channel = channel;
     }
 
+    /**
+     * Sets the {@link ObservationJournal} to persist the running observations. All observations contained in the
+     * journal are resumed, i.e. the observers get update notifications without re-registration. This method is
+     * supposed to be invoked once at startup.
+     *
+     * @param observationJournal the {@link ObservationJournal} to persist the running observations
+     *
+     * @throws IOException if the journal could not be loaded
+     */
+    public void setObservationJournal(final ObservationJournal observationJournal) throws IOException {
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> journaledObservations =
+                observationJournal.load();
+
+        synchronized (this){
+            observations.putAll(journaledObservations);
+            this.observationJournal = observationJournal;
+        }
+
+        log.info("Resumed {} observations from {}.", journaledObservations.size(), observationJournal.getFile());
+
+        journalCompactionFuture = executorService.scheduleWithFixedDelay(new Runnable(){
+            @Override
+            public void run() {
+                compactObservationJournal();
+            }
+        }, JOURNAL_COMPACTION_INTERVAL, JOURNAL_COMPACTION_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Compacts and closes the {@link ObservationJournal} (if any). The running observations are kept in the journal
+     * but removed from this handler, i.e. observers are not notified about the shutdown and the observations are
+     * resumed when the journal is loaded again.
+     */
+    public void closeObservationJournal(){
+        if(observationJournal == null)
+            return;
+
+        journalCompactionFuture.cancel(false);
+        compactObservationJournal();
+
+        synchronized (this){
+            observationJournal.close();
+            observationJournal = null;
+            observations.clear();
+        }
+    }
+
+    private void compactObservationJournal(){
+        ObservationJournal journal;
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> snapshot;
+
+        synchronized (this){
+            if(observationJournal == null)
+                return;
+
+            journal = observationJournal;
+            snapshot = observations.toTable();
+            journal.startCompaction();
+        }
+
+        try{
+            journal.finishCompaction(snapshot);
+        }
+        catch (IOException e) {
+            log.error("Could not compact {}.", journal.getFile(), e);
+        }
+    }
+
     /**
      * This method is automatically called by the Netty framework. It handles the following types of messages
      * possibly contained in the given {@link MessageEvent}:
@@ -164,9 +273,7 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
 
             //If the remote address is registered as observer than stop the observation
             if(coapRequest.getCode() == GET){
-                if(observations.contains(me.getRemoteAddress(), coapRequest.getTargetUri().getPath())){
-                    removeObservation((InetSocketAddress) me.getRemoteAddress(), coapRequest.getTargetUri().getPath());
-                }
+                removeObservation((InetSocketAddress) me.getRemoteAddress(), coapRequest.getTargetUri().getPath());
             }
 
             //Add remote address as observer if the observe request option is set
@@ -186,7 +293,8 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
      * <ul>
      *     <li>
      *         {@link InternalObservableResourceRegistrationMessage}: If there is a new observer to be registered
-     *         for an instance of {@link ObservableWebService}.
+     *         for an instance of {@link ObservableWebService}. This also schedules the max-age notifications for the
+     *         service.
      *     </li>
      *     <li>
      *         {@link InternalServiceRemovedFromServerMessage}: If there was an instance of {@link ObservableWebService}
@@ -211,7 +319,11 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         log.debug("Outgoing: {} to {}.", me.getMessage(), me.getRemoteAddress());
 
         if(me.getMessage() instanceof InternalObservableResourceRegistrationMessage){
-            ((InternalObservableResourceRegistrationMessage) me.getMessage()).getWebService().addObserver(this);
+            ObservableWebService webService =
+                    ((InternalObservableResourceRegistrationMessage) me.getMessage()).getWebService();
+            webService.addObserver(this);
+            addWebService(webService);
+            maxAgeNotificationScheduler.schedule(webService);
             me.getFuture().setSuccess();
             return;
         }
@@ -219,9 +331,11 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         if(me.getMessage() instanceof InternalServiceRemovedFromServerMessage){
             InternalServiceRemovedFromServerMessage message = (InternalServiceRemovedFromServerMessage) me.getMessage();
 
-            for(Object observerAddress : observations.column(message.getServicePath()).keySet().toArray()){
-                ObservationParameter parameter =
-                        observations.remove(observerAddress, message.getServicePath());
+            maxAgeNotificationScheduler.cancel(message.getServicePath());
+            removeWebService(message.getServicePath());
+
+            for(InetSocketAddress observerAddress : getObservations(message.getServicePath()).keySet()){
+                ObservationParameter parameter = removeObservation(observerAddress, message.getServicePath());
 
                 if(parameter != null){
                     log.info("Removed {} as observer for service {}.", observerAddress, message.getServicePath());
@@ -231,7 +345,7 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
                     updateNotification.setServicePath(message.getServicePath());
                     updateNotification.setToken(parameter.getToken());
 
-                    sendUpdateNotification(updateNotification, (InetSocketAddress) observerAddress);
+                    sendUpdateNotification(updateNotification, observerAddress);
                 }
             }
 
@@ -241,32 +355,35 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
 
         if(me.getMessage() instanceof CoapResponse){
             CoapResponse coapResponse = (CoapResponse) me.getMessage();
+            InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
+
             if(!coapResponse.isUpdateNotification()){
-                if(observations.contains(me.getRemoteAddress(), coapResponse.getServicePath())){
-                    removeObservation((InetSocketAddress) me.getRemoteAddress(), coapResponse.getServicePath());
-                }
+                removeObservation(remoteAddress, coapResponse.getServicePath());
             }
             else{
-                if(observations.contains(me.getRemoteAddress(), coapResponse.getServicePath())){
+                int notificationCount = getNotificationCount(remoteAddress, coapResponse.getServicePath());
+                if(notificationCount >= 0){
 
                     if((Long) coapResponse.getOption(OBSERVE_RESPONSE).get(0).getDecodedValue() == 0){
-                        increaseNotificationCount((InetSocketAddress) me.getRemoteAddress(),
-                                coapResponse.getServicePath());
-                    }
-
-                    ObservationParameter parameter =
-                            observations.get(me.getRemoteAddress(), coapResponse.getServicePath());
+                        notificationCount = increaseNotificationCount(remoteAddress, coapResponse.getServicePath());
 
-                    if(parameter != null){
-                        if(coapResponse.getContentType() != null){
-                            log.info("Set MediaType {} for {} observing {}", new Object[]{coapResponse.getContentType(),
-                                    me.getRemoteAddress(), coapResponse.getServicePath()});
-                            parameter.setAcceptedMediaType(coapResponse.getContentType());
+                        //the new observer knows the actual representation, so there is no need to send it again
+                        if(coapResponse.getContentType() != null &&
+                                isRedundantNotificationSuppressionEnabled(coapResponse.getServicePath())){
+                            setRepresentationETag(coapResponse);
                         }
+                    }
 
-                        //set the observer specific notification count of the running observation
-                        coapResponse.setObserveOptionValue(parameter.getNotificationCount());
+                    if(coapResponse.getContentType() != null){
+                        log.info("Set MediaType {} for {} observing {}", new Object[]{coapResponse.getContentType(),
+                                remoteAddress, coapResponse.getServicePath()});
+                        setAcceptedMediaType(remoteAddress, coapResponse.getServicePath(),
+                                coapResponse.getContentType());
                     }
+
+                    //set the observer specific notification count of the running observation
+                    if(notificationCount >= 0)
+                        coapResponse.setObserveOptionValue(notificationCount);
                 }
             }
         }
@@ -274,6 +391,28 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         ctx.sendDownstream(me);
     }
 
+    /**
+     * Sets the hash of the payload of the given registration response as latest representation hash of the
+     * service. The hash is also set as {@link OptionName#ETAG} (replacing an ETAG set by the service), i.e. the
+     * observer can validate later {@link Code#VALID_203} notifications which contain the hash as ETAG.
+     */
+    private void setRepresentationETag(CoapResponse coapResponse){
+        ChannelBuffer payload = coapResponse.getPayload();
+        byte[] serializedStatus = new byte[payload.readableBytes()];
+        payload.getBytes(payload.readerIndex(), serializedStatus);
+
+        long hash = representationHashFunction.hashBytes(serializedStatus).asLong();
+        updateRepresentationHash(coapResponse.getServicePath(), coapResponse.getContentType(), hash);
+
+        try{
+            coapResponse.getOptionList().removeAllOptions(OptionName.ETAG);
+            coapResponse.setETAG(Longs.toByteArray(hash));
+        }
+        catch (Exception e){
+            log.error("This should never happen.", e);
+        }
+    }
+
     private void sendUpdateNotification(final CoapResponse updateNotification,
                                         final InetSocketAddress remoteAddress){
 
@@ -287,30 +426,42 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         });
     }
 
-    private void removeAllObservations(InetSocketAddress observerAddress){
-        for(Object servicePath : observations.row(observerAddress).keySet().toArray()){
-            removeObservation(observerAddress, (String) servicePath);
+    private synchronized void removeAllObservations(InetSocketAddress observerAddress){
+        for(String servicePath : observations.getServicePaths(observerAddress)){
+            removeObservation(observerAddress, servicePath);
         }
     }
 
-    private synchronized void removeObservation(InetSocketAddress observerAddress, String servicePath){
-        if(observations.remove(observerAddress, servicePath) != null){
+    private synchronized ObservationParameter removeObservation(InetSocketAddress observerAddress,
+                                                                String servicePath){
+        ObservationParameter parameter = observations.remove(observerAddress, servicePath);
+        if(parameter != null){
             log.info("Removed {} as observer of {}.", observerAddress, servicePath);
+
+            if(observationJournal != null)
+                observationJournal.recordRemove(observerAddress, servicePath);
         }
+        return parameter;
     }
 
     private synchronized void addObservation(InetSocketAddress observerAddress, String servicePath, byte[] token){
-        observations.put(observerAddress, servicePath,  new ObservationParameter(token));
+        ObservationParameter parameter = new ObservationParameter(token);
+        observations.put(observerAddress, servicePath, parameter);
         log.info("Added {} as observer for {}.", observerAddress, servicePath);
+
+        if(observationJournal != null)
+            observationJournal.recordAdd(observerAddress, servicePath, parameter);
     }
 
-    private synchronized Map<InetSocketAddress, ObservationParameter> getObservations(String servicePath){
-        HashMap<InetSocketAddress, ObservationParameter> result =
-                new HashMap<InetSocketAddress, ObservationParameter>();
+    private synchronized void setAcceptedMediaType(InetSocketAddress observerAddress, String servicePath,
+                                                   MediaType mediaType){
+        if(observations.setAcceptedMediaType(observerAddress, servicePath, mediaType) && observationJournal != null)
+            observationJournal.recordAdd(observerAddress, servicePath,
+                    observations.get(observerAddress, servicePath));
+    }
 
-        for(InetSocketAddress observerAddress : observations.column(servicePath).keySet()){
-            result.put(observerAddress, observations.get(observerAddress, servicePath));
-        }
+    private synchronized Map<InetSocketAddress, ObservationParameter> getObservations(String servicePath){
+        Map<InetSocketAddress, ObservationParameter> result = observations.getObservations(servicePath);
 
         if(log.isDebugEnabled()){
             for(InetSocketAddress observerAddress : result.keySet()){
@@ -321,17 +472,52 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         return result;
     }
 
-    private synchronized void increaseNotificationCount(InetSocketAddress observerAddress, String servicePath){
+    /**
+     * Sets the hash of the latest serialized resource status of the given service and media type.
+     *
+     * @return <code>true</code> if the given hash equals the previous one, i.e. the representation is unchanged,
+     * <code>false</code> otherwise
+     */
+    private synchronized boolean updateRepresentationHash(String servicePath, MediaType mediaType, long hash){
+        Long previousHash = representationHashes.put(servicePath, mediaType, hash);
+        return previousHash != null && previousHash == hash;
+    }
+
+    private synchronized void addWebService(ObservableWebService webService){
+        webServices.put(webService.getPath(), webService);
+    }
+
+    private synchronized void removeWebService(String servicePath){
+        webServices.remove(servicePath);
+        representationHashes.row(servicePath).clear();
+    }
+
+    private synchronized boolean isRedundantNotificationSuppressionEnabled(String servicePath){
+        ObservableWebService webService = webServices.get(servicePath);
+        return webService != null && webService.isRedundantNotificationSuppressionEnabled();
+    }
+
+    /**
+     * @return the new notification count or -1 if there is no such observation
+     */
+    private synchronized int increaseNotificationCount(InetSocketAddress observerAddress, String servicePath){
+        return observations.increaseNotificationCount(observerAddress, servicePath);
+    }
+
+    /**
+     * @return the notification count or -1 if there is no such observation
+     */
+    private synchronized int getNotificationCount(InetSocketAddress observerAddress, String servicePath){
         ObservationParameter parameter = observations.get(observerAddress, servicePath);
-        if(parameter != null){
-            parameter.increaseNotificationCount();
-        }
+        return parameter == null ? -1 : parameter.getNotificationCount();
     }
 
 
     /**
      * This method is automatically invoked by the framework if the status of an {@link ObservableWebService}
-     * instance changed. On invocation every observer gets an update notification.
+     * instance changed. On invocation every observer gets an update notification (unless
+     * {@link ObservableWebService#isRedundantNotificationSuppressionEnabled()} and the representation for
+     * the observer is unchanged) and the next max-age notification is postponed.
      *
      * @param observable the {@link ObservableWebService} instance whose resource status changed
      * @param arg null and thus ignored
@@ -341,9 +527,27 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
         ObservableWebService webService = (ObservableWebService) observable;
         log.info("Observable service {} updated!", webService.getPath());
 
+        maxAgeNotificationScheduler.refresh(webService);
+
         UpdateNotificationsSender updateNotificationSender =
-                new UpdateNotificationsSender(webService, getObservations(webService.getPath()));
-        executorService.submit(updateNotificationSender);
+                new UpdateNotificationsSender(webService, getObservations(webService.getPath()), false);
+        notificationExecutorService.submit(updateNotificationSender);
+    }
+
+    /**
+     * This method is invoked by the {@link MaxAgeNotificationScheduler} with all {@link ObservableWebService}
+     * instances whose max-age expired within the same tick. Every observer of these services gets an update
+     * notification within the same pass.
+     *
+     * @param webServices the {@link ObservableWebService} instances whose max-age expired
+     */
+    void sendMaxAgeNotifications(Collection<ObservableWebService> webServices){
+        for(ObservableWebService webService : webServices){
+            log.info("Send max-age notifications for {} with status {}.", webService.getPath(),
+                    webService.getResourceStatus());
+
+            new UpdateNotificationsSender(webService, getObservations(webService.getPath()), true).run();
+        }
     }
 
 
@@ -353,11 +557,13 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
 
         private ObservableWebService webService;
         private Map<InetSocketAddress, ObservationParameter> observations;
+        private boolean maxAgeExpired;
 
         UpdateNotificationsSender(ObservableWebService webService,
-                                  Map<InetSocketAddress, ObservationParameter> observations){
+                                  Map<InetSocketAddress, ObservationParameter> observations, boolean maxAgeExpired){
             this.webService = webService;
             this.observations = observations;
+            this.maxAgeExpired = maxAgeExpired;
         }
 
         @Override
@@ -365,6 +571,12 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
             final EnumMap<OptionRegistry.MediaType, ChannelBuffer> serializations =
                     new EnumMap<OptionRegistry.MediaType, ChannelBuffer>(OptionRegistry.MediaType.class);
 
+            boolean suppressRedundantNotifications = webService.isRedundantNotificationSuppressionEnabled();
+            final EnumMap<OptionRegistry.MediaType, byte[]> etags =
+                    new EnumMap<OptionRegistry.MediaType, byte[]>(OptionRegistry.MediaType.class);
+            final EnumSet<OptionRegistry.MediaType> unchangedRepresentations =
+                    EnumSet.noneOf(OptionRegistry.MediaType.class);
+
             for(final InetSocketAddress observerAddress : observations.keySet()){
 
                 //get media type for the actual observation
@@ -382,18 +594,48 @@ public class ObservableResourceHandler extends SimpleChannelHandler implements O
                         byte[] payload = webService.getSerializedResourceStatus(mediaType);
                         serializations.put(mediaType, ChannelBuffers.wrappedBuffer(payload));
                         log.debug("Added {} payload for update notifications of {}.", mediaType, webService.getPath());
+
+                        if(suppressRedundantNotifications){
+                            long hash = representationHashFunction.hashBytes(payload).asLong();
+                            etags.put(mediaType, Longs.toByteArray(hash));
+                            if(updateRepresentationHash(webService.getPath(), mediaType, hash))
+                                unchangedRepresentations.add(mediaType);
+                        }
                     }
 
-                    //Create update notification and set parameters properly
-                    updateNotification = new CoapResponse(Code.CONTENT_205);
-                    updateNotification.getHeader().setMsgType(webService.getMessageTypeForUpdateNotifications());
-                    updateNotification.setContentType(mediaType);
-                    updateNotification.setPayload(ChannelBuffers.copiedBuffer(serializations.get(mediaType)));
-                    updateNotification.setMaxAge(webService.getMaxAge());
+                    if(unchangedRepresentations.contains(mediaType)){
+                        if(!maxAgeExpired){
+                            log.debug("Suppressed redundant update notification for {} observing {}.",
+                                    observerAddress, webService.getPath());
+                            continue;
+                        }
+
+                        //The observer is just told that its representation is still valid
+                        updateNotification = new CoapResponse(Code.VALID_203);
+                        updateNotification.getHeader().setMsgType(webService.getMessageTypeForUpdateNotifications());
+                        updateNotification.setETAG(etags.get(mediaType));
+                        updateNotification.setMaxAge(webService.getMaxAge());
+                    }
+                    else{
+                        //Create update notification and set parameters properly
+                        updateNotification = new CoapResponse(Code.CONTENT_205);
+                        updateNotification.getHeader().setMsgType(webService.getMessageTypeForUpdateNotifications());
+                        updateNotification.setContentType(mediaType);
+                        updateNotification.setPayload(ChannelBuffers.copiedBuffer(serializations.get(mediaType)));
+                        updateNotification.setMaxAge(webService.getMaxAge());
+
+                        if(suppressRedundantNotifications)
+                            updateNotification.setETAG(etags.get(mediaType));
+                    }
 
                     //update notification count for observation
-                    parameter.increaseNotificationCount();
-                    updateNotification.setObserveOptionValue(parameter.getNotificationCount());
+                    int notificationCount = increaseNotificationCount(observerAddress, webService.getPath());
+                    if(notificationCount < 0){
+                        log.debug("Observation of {} by {} stopped in the meantime.", webService.getPath(),
+                                observerAddress);
+                        continue;
+                    }
+                    updateNotification.setObserveOptionValue(notificationCount);
 
                     updateNotification.setServicePath(webService.getPath());
 
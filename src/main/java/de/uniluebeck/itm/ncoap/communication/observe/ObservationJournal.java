@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.google.common.io.CountingInputStream;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * An {@link ObservationJournal} persists the observations of an {@link ObservableResourceHandler} in an append-only
+ * file. Every start and stop of an observation is appended as a compact binary record. Upon startup the journal
+ * is replayed, so update notifications to the observers can be resumed without the observers to re-register.
+ *
+ * The journal is periodically compacted, i.e. replaced by a snapshot of the running observations. Notification
+ * counts are only persisted with the snapshots, i.e. after a crash the counts resume from the last compaction.
+ *
+ * Records are flushed to the operating system immediately, but only snapshots are synchronized to the disk.
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationJournal {
+
+    private static final byte RECORD_TYPE_ADD = 1;
+    private static final byte RECORD_TYPE_REMOVE = 2;
+
+    private static final int NO_MEDIA_TYPE = -1;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private File file;
+    private DataOutputStream outputStream;
+
+    //records written while a compaction is running (to be appended to the new snapshot)
+    private ByteArrayOutputStream pendingRecords;
+    private DataOutputStream pendingRecordsStream;
+
+    private long recordCount;
+
+    /**
+     * @param file the file to journal the observations to. If the file already exists, it is expected to be a
+     *             journal written by a previous instance.
+     *
+     * @throws IOException if the given file could not be opened for writing
+     */
+    public ObservationJournal(File file) throws IOException {
+        this.file = file;
+        this.outputStream = openOutputStream();
+    }
+
+    private DataOutputStream openOutputStream() throws FileNotFoundException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Returns the file this journal is written to
+     * @return the file this journal is written to
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of records written since the journal was opened or compacted the last time
+     * @return the number of records written since the journal was opened or compacted the last time
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Replays the journal and returns the running observations. A truncated last record (e.g. due to a crash while
+     * writing) is ignored and cut off the file.
+     *
+     * @return the running observations (row key: observer address, column key: service path)
+     *
+     * @throws IOException if the journal could not be read
+     */
+    synchronized HashBasedTable<InetSocketAddress, String, ObservationParameter> load() throws IOException {
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> observations = HashBasedTable.create();
+
+        if(!file.exists())
+            return observations;
+
+        CountingInputStream countingInputStream =
+                new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        DataInputStream inputStream = new DataInputStream(countingInputStream);
+
+        long validLength = 0;
+        try{
+            while(true){
+                byte recordType = inputStream.readByte();
+                InetSocketAddress observerAddress = readObserverAddress(inputStream);
+                String servicePath = inputStream.readUTF();
+
+                if(recordType == RECORD_TYPE_ADD){
+                    byte[] token = new byte[inputStream.readUnsignedByte()];
+                    inputStream.readFully(token);
+                    int mediaTypeNumber = inputStream.readInt();
+                    int notificationCount = inputStream.readInt();
+
+                    MediaType mediaType = mediaTypeNumber == NO_MEDIA_TYPE ?
+                            null : MediaType.getByNumber((long) mediaTypeNumber);
+
+                    observations.put(observerAddress, servicePath,
+                            new ObservationParameter(token, mediaType, notificationCount));
+                }
+                else if(recordType == RECORD_TYPE_REMOVE){
+                    observations.remove(observerAddress, servicePath);
+                }
+                else{
+                    throw new IOException("Unknown record type " + recordType + " in " + file + ".");
+                }
+
+                validLength = countingInputStream.getCount();
+            }
+        }
+        catch(EOFException e){
+            if(validLength < file.length()){
+                log.warn("Truncated record at the end of {} (offset {}) ignored.", file, validLength);
+                outputStream.close();
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try{
+                    randomAccessFile.setLength(validLength);
+                }
+                finally {
+                    randomAccessFile.close();
+                }
+                outputStream = openOutputStream();
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+
+        log.info("Loaded {} observations from {}.", observations.size(), file);
+        return observations;
+    }
+
+    /**
+     * Appends a record for a new (or updated) observation
+     */
+    synchronized void recordAdd(InetSocketAddress observerAddress, String servicePath,
+                                ObservationParameter parameter){
+        try{
+            writeAdd(outputStream, observerAddress, servicePath, parameter);
+            outputStream.flush();
+
+            if(pendingRecordsStream != null)
+                writeAdd(pendingRecordsStream, observerAddress, servicePath, parameter);
+
+            recordCount++;
+        }
+        catch (IOException e) {
+            log.error("Could not journal observation of {} by {}.", new Object[]{servicePath, observerAddress, e});
+        }
+    }
+
+    /**
+     * Appends a record for a stopped observation
+     */
+    synchronized void recordRemove(InetSocketAddress observerAddress, String servicePath){
+        try{
+            writeRemove(outputStream, observerAddress, servicePath);
+            outputStream.flush();
+
+            if(pendingRecordsStream != null)
+                writeRemove(pendingRecordsStream, observerAddress, servicePath);
+
+            recordCount++;
+        }
+        catch (IOException e) {
+            log.error("Could not journal end of observation of {} by {}.",
+                    new Object[]{servicePath, observerAddress, e});
+        }
+    }
+
+    /**
+     * Starts a compaction. All records written from now on are additionally kept in memory to be appended to the
+     * snapshot given to {@link #finishCompaction(Table)}. This method is supposed to be invoked atomically with
+     * taking the snapshot.
+     */
+    synchronized void startCompaction(){
+        pendingRecords = new ByteArrayOutputStream();
+        pendingRecordsStream = new DataOutputStream(pendingRecords);
+    }
+
+    /**
+     * Replaces the journal with the given snapshot of the running observations and all records written since
+     * {@link #startCompaction()}.
+     *
+     * @param snapshot the running observations at the time {@link #startCompaction()} was invoked
+     *
+     * @throws IOException if the snapshot could not be written. The journal is left unchanged in that case.
+     */
+    void finishCompaction(Table<InetSocketAddress, String, ObservationParameter> snapshot) throws IOException {
+        File snapshotFile = new File(file.getPath() + ".compact");
+        FileOutputStream fileOutputStream = new FileOutputStream(snapshotFile);
+        DataOutputStream snapshotStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+
+        try{
+            //write the snapshot without blocking the journal
+            for(Table.Cell<InetSocketAddress, String, ObservationParameter> cell : snapshot.cellSet()){
+                writeAdd(snapshotStream, cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+            }
+
+            synchronized (this){
+                pendingRecordsStream.flush();
+                pendingRecords.writeTo(snapshotStream);
+                snapshotStream.flush();
+                fileOutputStream.getFD().sync();
+                snapshotStream.close();
+
+                outputStream.close();
+                if(!snapshotFile.renameTo(file)){
+                    //some platforms do not allow to replace an existing file by renaming
+                    if(!file.delete() || !snapshotFile.renameTo(file))
+                        throw new IOException("Could not replace " + file + " with " + snapshotFile + ".");
+                }
+                outputStream = openOutputStream();
+
+                recordCount = 0;
+                pendingRecords = null;
+                pendingRecordsStream = null;
+            }
+
+            log.info("Compacted {} to {} observations.", file, snapshot.size());
+        }
+        catch(IOException e){
+            synchronized (this){
+                pendingRecords = null;
+                pendingRecordsStream = null;
+            }
+            snapshotStream.close();
+            snapshotFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes and closes the journal
+     */
+    public synchronized void close(){
+        try {
+            outputStream.close();
+        }
+        catch (IOException e) {
+            log.error("Could not close {}.", file, e);
+        }
+    }
+
+    private void writeAdd(DataOutputStream stream, InetSocketAddress observerAddress, String servicePath,
+                          ObservationParameter parameter) throws IOException {
+        stream.writeByte(RECORD_TYPE_ADD);
+        writeObserverAddress(stream, observerAddress);
+        stream.writeUTF(servicePath);
+
+        byte[] token = parameter.getToken();
+        stream.writeByte(token.length);
+        stream.write(token);
+
+        MediaType mediaType = parameter.getAcceptedMediaType();
+        stream.writeInt(mediaType == null ? NO_MEDIA_TYPE : mediaType.number);
+        stream.writeInt(parameter.getNotificationCount());
+    }
+
+    private void writeRemove(DataOutputStream stream, InetSocketAddress observerAddress, String servicePath)
+            throws IOException {
+        stream.writeByte(RECORD_TYPE_REMOVE);
+        writeObserverAddress(stream, observerAddress);
+        stream.writeUTF(servicePath);
+    }
+
+    private void writeObserverAddress(DataOutputStream stream, InetSocketAddress observerAddress)
+            throws IOException {
+        byte[] address = observerAddress.getAddress().getAddress();
+        stream.writeByte(address.length);
+        stream.write(address);
+        stream.writeShort(observerAddress.getPort());
+    }
+
+    private InetSocketAddress readObserverAddress(DataInputStream stream) throws IOException {
+        byte[] address = new byte[stream.readUnsignedByte()];
+        stream.readFully(address);
+        return new InetSocketAddress(InetAddress.getByAddress(address), stream.readUnsignedShort());
+    }
+}
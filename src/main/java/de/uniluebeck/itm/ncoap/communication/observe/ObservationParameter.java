@@ -36,7 +36,7 @@ import org.slf4j.LoggerFactory;
  */
 class ObservationParameter {
 
-    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+    private static Logger log = LoggerFactory.getLogger(ObservationParameter.class.getName());
 
     private byte[] token;
     private MediaType acceptedMediaType;
@@ -49,6 +49,17 @@ class ObservationParameter {
         this.token = token;
     }
 
+    /**
+     * @param token The token to be included in every update notification for the observer
+     * @param acceptedMediaType the {@link MediaType} for the observation
+     * @param notificationCount the number of update notifications already sent to the observer
+     */
+    public ObservationParameter(byte[] token, MediaType acceptedMediaType, int notificationCount){
+        this.token = token;
+        this.acceptedMediaType = acceptedMediaType;
+        this.notificationCount = notificationCount;
+    }
+
     /**
      * Returns the {@link MediaType} for the observation. The payload of all update notifications for the
      * observer must have this {@link MediaType}.
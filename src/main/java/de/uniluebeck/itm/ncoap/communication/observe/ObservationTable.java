@@ -0,0 +1,550 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * An {@link ObservationTable} holds the running observations of an {@link ObservableResourceHandler} in a compact
+ * form. Each observation is a record in a set of large primitive arrays, i.e. there are no objects per observation:
+ * <ul>
+ *     <li>the observer address (IPv4 addresses are stored as IPv4-mapped IPv6 addresses) and port,</li>
+ *     <li>the interned id of the observed resource,</li>
+ *     <li>the token (up to 8 bytes) and its length,</li>
+ *     <li>the accepted {@link MediaType} and the notification count.</li>
+ * </ul>
+ *
+ * Records are indexed by resource (doubly linked list per resource) and by observer (open addressing hash table
+ * to the head of a singly linked list per observer). The latter assumes that a single observer only observes
+ * a few resources. Slots of removed records are reused.
+ *
+ * {@link ObservationParameter} instances returned by this table are copies, i.e. changes are not written back.
+ * Instances of {@link ObservationTable} are not thread-safe.
+ *
+ * @author Oliver Kleine
+ */
+class ObservationTable {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+    //record fields
+    private long[] addressesHigh;
+    private long[] addressesLow;
+    private char[] ports;
+    private int[] resourceIds;
+    private long[] tokens;
+    private byte[] tokenLengths;
+    private byte[] mediaTypes;
+    private int[] notificationCounts;
+
+    //record links
+    private int[] nextByResource;
+    private int[] previousByResource;
+    private int[] nextByObserver;
+
+    private int size;
+    private int usedSlots;
+    private int freeSlots;
+
+    //resource index
+    private Map<String, Integer> resourceIdsByPath;
+    private List<String> resourcePaths;
+    private int[] resourceHeads;
+
+    //observer index (heads of the observers lists of records)
+    private int[] observerIndex;
+    private int observerCount;
+
+    ObservationTable(){
+        clear();
+    }
+
+    /**
+     * Removes all observations
+     */
+    public void clear(){
+        addressesHigh = new long[INITIAL_CAPACITY];
+        addressesLow = new long[INITIAL_CAPACITY];
+        ports = new char[INITIAL_CAPACITY];
+        resourceIds = new int[INITIAL_CAPACITY];
+        tokens = new long[INITIAL_CAPACITY];
+        tokenLengths = new byte[INITIAL_CAPACITY];
+        mediaTypes = new byte[INITIAL_CAPACITY];
+        notificationCounts = new int[INITIAL_CAPACITY];
+        nextByResource = new int[INITIAL_CAPACITY];
+        previousByResource = new int[INITIAL_CAPACITY];
+        nextByObserver = new int[INITIAL_CAPACITY];
+
+        size = 0;
+        usedSlots = 0;
+        freeSlots = NONE;
+
+        resourceIdsByPath = new HashMap<String, Integer>();
+        resourcePaths = new ArrayList<String>();
+        resourceHeads = new int[INITIAL_CAPACITY];
+
+        observerIndex = new int[INITIAL_CAPACITY];
+        Arrays.fill(observerIndex, NONE);
+        observerCount = 0;
+    }
+
+    /**
+     * Returns the number of running observations
+     * @return the number of running observations
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if the given observer observes the given resource
+     */
+    public boolean contains(InetSocketAddress observerAddress, String servicePath){
+        return find(observerAddress, servicePath) != NONE;
+    }
+
+    /**
+     * Returns a copy of the parameters of the given observation or <code>null</code> if there is no such observation
+     */
+    public ObservationParameter get(InetSocketAddress observerAddress, String servicePath){
+        int slot = find(observerAddress, servicePath);
+        return slot == NONE ? null : getParameter(slot);
+    }
+
+    /**
+     * Adds a new observation or replaces the parameters of an existing one
+     *
+     * @param observerAddress the address of the observer
+     * @param servicePath the path of the observed service
+     * @param parameter the {@link ObservationParameter} of the observation (the token must not be longer than
+     *                  8 bytes)
+     */
+    public void put(InetSocketAddress observerAddress, String servicePath, ObservationParameter parameter){
+        int slot = find(observerAddress, servicePath);
+
+        if(slot == NONE){
+            slot = allocateSlot();
+
+            long addressHigh = getAddressHigh(observerAddress);
+            long addressLow = getAddressLow(observerAddress);
+            char port = (char) observerAddress.getPort();
+
+            addressesHigh[slot] = addressHigh;
+            addressesLow[slot] = addressLow;
+            ports[slot] = port;
+
+            //link into the list of the resource
+            int resourceId = internResource(servicePath);
+            resourceIds[slot] = resourceId;
+            previousByResource[slot] = NONE;
+            nextByResource[slot] = resourceHeads[resourceId];
+            if(resourceHeads[resourceId] != NONE)
+                previousByResource[resourceHeads[resourceId]] = slot;
+            resourceHeads[resourceId] = slot;
+
+            //link into the list of the observer
+            int position = findObserverPosition(addressHigh, addressLow, port);
+            if(position >= 0){
+                nextByObserver[slot] = observerIndex[position];
+                observerIndex[position] = slot;
+            }
+            else{
+                nextByObserver[slot] = NONE;
+                observerIndex[-(position + 1)] = slot;
+                observerCount++;
+
+                if(observerCount * 2 > observerIndex.length)
+                    resizeObserverIndex(observerIndex.length * 2);
+            }
+
+            size++;
+        }
+
+        setToken(slot, parameter.getToken());
+        setMediaType(slot, parameter.getAcceptedMediaType());
+        notificationCounts[slot] = parameter.getNotificationCount();
+    }
+
+    /**
+     * Adds all observations from the given {@link Table}
+     */
+    public void putAll(Table<InetSocketAddress, String, ObservationParameter> observations){
+        for(Table.Cell<InetSocketAddress, String, ObservationParameter> cell : observations.cellSet()){
+            put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+        }
+    }
+
+    /**
+     * Removes the given observation
+     *
+     * @return a copy of the parameters of the removed observation or <code>null</code> if there was no such
+     * observation
+     */
+    public ObservationParameter remove(InetSocketAddress observerAddress, String servicePath){
+        Integer resourceId = resourceIdsByPath.get(servicePath);
+        if(resourceId == null)
+            return null;
+
+        long addressHigh = getAddressHigh(observerAddress);
+        long addressLow = getAddressLow(observerAddress);
+        char port = (char) observerAddress.getPort();
+
+        int position = findObserverPosition(addressHigh, addressLow, port);
+        if(position < 0)
+            return null;
+
+        //find the record and its predecessor in the list of the observer
+        int previous = NONE;
+        int slot = observerIndex[position];
+        while(slot != NONE && resourceIds[slot] != resourceId){
+            previous = slot;
+            slot = nextByObserver[slot];
+        }
+
+        if(slot == NONE)
+            return null;
+
+        ObservationParameter parameter = getParameter(slot);
+
+        //unlink from the list of the observer
+        if(previous != NONE){
+            nextByObserver[previous] = nextByObserver[slot];
+        }
+        else if(nextByObserver[slot] != NONE){
+            observerIndex[position] = nextByObserver[slot];
+        }
+        else{
+            removeObserverPosition(position);
+            observerCount--;
+        }
+
+        //unlink from the list of the resource
+        if(previousByResource[slot] != NONE)
+            nextByResource[previousByResource[slot]] = nextByResource[slot];
+        else
+            resourceHeads[resourceId] = nextByResource[slot];
+
+        if(nextByResource[slot] != NONE)
+            previousByResource[nextByResource[slot]] = previousByResource[slot];
+
+        //release the slot
+        resourceIds[slot] = NONE;
+        nextByResource[slot] = freeSlots;
+        freeSlots = slot;
+        size--;
+
+        return parameter;
+    }
+
+    /**
+     * Sets the accepted {@link MediaType} of the given observation
+     *
+     * @return <code>true</code> if the observation exists, <code>false</code> otherwise
+     */
+    public boolean setAcceptedMediaType(InetSocketAddress observerAddress, String servicePath, MediaType mediaType){
+        int slot = find(observerAddress, servicePath);
+        if(slot == NONE)
+            return false;
+
+        setMediaType(slot, mediaType);
+        return true;
+    }
+
+    /**
+     * Increases the notification count of the given observation by 1
+     *
+     * @return the new notification count or -1 if there is no such observation
+     */
+    public int increaseNotificationCount(InetSocketAddress observerAddress, String servicePath){
+        int slot = find(observerAddress, servicePath);
+        if(slot == NONE)
+            return -1;
+
+        return ++notificationCounts[slot];
+    }
+
+    /**
+     * Returns (copies of) all observations of the given service
+     *
+     * @return a {@link Map} with the observer addresses as keys and the {@link ObservationParameter}s as values
+     */
+    public Map<InetSocketAddress, ObservationParameter> getObservations(String servicePath){
+        Map<InetSocketAddress, ObservationParameter> result = new HashMap<InetSocketAddress, ObservationParameter>();
+
+        Integer resourceId = resourceIdsByPath.get(servicePath);
+        if(resourceId == null)
+            return result;
+
+        for(int slot = resourceHeads[resourceId]; slot != NONE; slot = nextByResource[slot]){
+            result.put(getObserverAddress(slot), getParameter(slot));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the paths of all services observed by the given observer
+     */
+    public List<String> getServicePaths(InetSocketAddress observerAddress){
+        List<String> result = new ArrayList<String>();
+
+        int position = findObserverPosition(getAddressHigh(observerAddress), getAddressLow(observerAddress),
+                (char) observerAddress.getPort());
+
+        if(position >= 0){
+            for(int slot = observerIndex[position]; slot != NONE; slot = nextByObserver[slot]){
+                result.add(resourcePaths.get(resourceIds[slot]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns (copies of) all running observations
+     *
+     * @return a {@link HashBasedTable} with the observer addresses as row keys, the service paths as column keys
+     * and the {@link ObservationParameter}s as values.
+     */
+    public HashBasedTable<InetSocketAddress, String, ObservationParameter> toTable(){
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> result = HashBasedTable.create();
+
+        for(int slot = 0; slot < usedSlots; slot++){
+            if(resourceIds[slot] != NONE)
+                result.put(getObserverAddress(slot), resourcePaths.get(resourceIds[slot]), getParameter(slot));
+        }
+
+        return result;
+    }
+
+    private int find(InetSocketAddress observerAddress, String servicePath){
+        Integer resourceId = resourceIdsByPath.get(servicePath);
+        if(resourceId == null)
+            return NONE;
+
+        int position = findObserverPosition(getAddressHigh(observerAddress), getAddressLow(observerAddress),
+                (char) observerAddress.getPort());
+
+        if(position < 0)
+            return NONE;
+
+        int slot = observerIndex[position];
+        while(slot != NONE && resourceIds[slot] != resourceId){
+            slot = nextByObserver[slot];
+        }
+
+        return slot;
+    }
+
+    private int internResource(String servicePath){
+        Integer resourceId = resourceIdsByPath.get(servicePath);
+        if(resourceId != null)
+            return resourceId;
+
+        resourceId = resourcePaths.size();
+        resourcePaths.add(servicePath);
+        resourceIdsByPath.put(servicePath, resourceId);
+
+        if(resourceId == resourceHeads.length)
+            resourceHeads = Arrays.copyOf(resourceHeads, resourceHeads.length * 2);
+
+        resourceHeads[resourceId] = NONE;
+        return resourceId;
+    }
+
+    private int allocateSlot(){
+        if(freeSlots != NONE){
+            int slot = freeSlots;
+            freeSlots = nextByResource[slot];
+            return slot;
+        }
+
+        if(usedSlots == resourceIds.length){
+            int capacity = resourceIds.length * 2;
+            addressesHigh = Arrays.copyOf(addressesHigh, capacity);
+            addressesLow = Arrays.copyOf(addressesLow, capacity);
+            ports = Arrays.copyOf(ports, capacity);
+            resourceIds = Arrays.copyOf(resourceIds, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            tokenLengths = Arrays.copyOf(tokenLengths, capacity);
+            mediaTypes = Arrays.copyOf(mediaTypes, capacity);
+            notificationCounts = Arrays.copyOf(notificationCounts, capacity);
+            nextByResource = Arrays.copyOf(nextByResource, capacity);
+            previousByResource = Arrays.copyOf(previousByResource, capacity);
+            nextByObserver = Arrays.copyOf(nextByObserver, capacity);
+        }
+
+        return usedSlots++;
+    }
+
+    //Returns the position of the observer in the index or -(insertion point + 1) if there is no such observer
+    private int findObserverPosition(long addressHigh, long addressLow, char port){
+        int mask = observerIndex.length - 1;
+        int position = hash(addressHigh, addressLow, port) & mask;
+
+        while(observerIndex[position] != NONE){
+            int slot = observerIndex[position];
+            if(addressesLow[slot] == addressLow && ports[slot] == port && addressesHigh[slot] == addressHigh)
+                return position;
+
+            position = (position + 1) & mask;
+        }
+
+        return -(position + 1);
+    }
+
+    //Removes the entry at the given position and shifts subsequent entries of the same probe sequence backwards
+    private void removeObserverPosition(int position){
+        int mask = observerIndex.length - 1;
+        int next = position;
+
+        while(true){
+            next = (next + 1) & mask;
+            int slot = observerIndex[next];
+            if(slot == NONE)
+                break;
+
+            int desired = hash(addressesHigh[slot], addressesLow[slot], ports[slot]) & mask;
+
+            //leave the entry if its desired position is cyclically within (position, next]
+            if(position <= next ? (position < desired && desired <= next) : (position < desired || desired <= next))
+                continue;
+
+            observerIndex[position] = slot;
+            position = next;
+        }
+
+        observerIndex[position] = NONE;
+    }
+
+    private void resizeObserverIndex(int length){
+        int[] oldIndex = observerIndex;
+        observerIndex = new int[length];
+        Arrays.fill(observerIndex, NONE);
+
+        for(int slot : oldIndex){
+            if(slot != NONE){
+                int position = findObserverPosition(addressesHigh[slot], addressesLow[slot], ports[slot]);
+                observerIndex[-(position + 1)] = slot;
+            }
+        }
+    }
+
+    private static int hash(long addressHigh, long addressLow, char port){
+        long hash = (addressHigh * 31 + addressLow) * 31 + port;
+        hash ^= (hash >>> 33);
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= (hash >>> 33);
+        return (int) hash;
+    }
+
+    private void setToken(int slot, byte[] token){
+        long value = 0;
+        for(byte b : token){
+            value = (value << 8) | (b & 0xFF);
+        }
+        tokens[slot] = value;
+        tokenLengths[slot] = (byte) token.length;
+    }
+
+    private void setMediaType(int slot, MediaType mediaType){
+        mediaTypes[slot] = (byte) (mediaType == null ? 0 : mediaType.ordinal() + 1);
+    }
+
+    private ObservationParameter getParameter(int slot){
+        byte[] token = new byte[tokenLengths[slot]];
+        long value = tokens[slot];
+        for(int i = token.length - 1; i >= 0; i--){
+            token[i] = (byte) value;
+            value >>>= 8;
+        }
+
+        MediaType mediaType = mediaTypes[slot] == 0 ? null : MediaType.values()[mediaTypes[slot] - 1];
+        return new ObservationParameter(token, mediaType, notificationCounts[slot]);
+    }
+
+    private InetSocketAddress getObserverAddress(int slot){
+        byte[] address;
+        if(addressesHigh[slot] == 0 && (addressesLow[slot] & 0xFFFFFFFF00000000L) == IPV4_MAPPED_PREFIX){
+            address = new byte[4];
+            toBytes(addressesLow[slot], address, 0, 4);
+        }
+        else{
+            address = new byte[16];
+            toBytes(addressesHigh[slot], address, 0, 8);
+            toBytes(addressesLow[slot], address, 8, 8);
+        }
+
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), ports[slot]);
+        }
+        catch (UnknownHostException e) {
+            //This should never happen since the length of the address is either 4 or 16
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long getAddressHigh(InetSocketAddress socketAddress){
+        byte[] address = socketAddress.getAddress().getAddress();
+        return address.length == 4 ? 0 : toLong(address, 0);
+    }
+
+    private static long getAddressLow(InetSocketAddress socketAddress){
+        byte[] address = socketAddress.getAddress().getAddress();
+        if(address.length == 4)
+            return IPV4_MAPPED_PREFIX | (toLong(address, 0) >>> 32);
+        else
+            return toLong(address, 8);
+    }
+
+    //Reads up to 8 bytes beginning at offset into the most significant bytes of a long
+    private static long toLong(byte[] bytes, int offset){
+        long value = 0;
+        for(int i = 0; i < 8; i++){
+            value <<= 8;
+            if(offset + i < bytes.length)
+                value |= (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    //Writes the length least significant bytes of the given value into the array beginning at offset
+    private static void toBytes(long value, byte[] bytes, int offset, int length){
+        for(int i = offset + length - 1; i >= offset; i--){
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -132,6 +132,12 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
 
         log.debug("Downstream to {}: {}.", me.getRemoteAddress(), me.getMessage());
 
+        if(me.getMessage() instanceof InternalCancelExchangeMessage){
+            stopRetransmissions((InternalCancelExchangeMessage) me.getMessage());
+            me.getFuture().setSuccess();
+            return;
+        }
+
         if(!(me.getMessage() instanceof CoapMessage)){
             ctx.sendDownstream(me);
             return;
@@ -152,8 +158,10 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         if(coapMessage instanceof CoapResponse && ((CoapResponse) coapMessage).isUpdateNotification() &&
                 (coapMessage.getMessageType() == MsgType.CON || coapMessage.getMessageType() == MsgType.NON)){
 
-            observations.put(coapMessage.getMessageID(), (InetSocketAddress) me.getRemoteAddress(),
-                    ((CoapResponse) coapMessage).getServicePath());
+            synchronized (observations){
+                observations.put(coapMessage.getMessageID(), (InetSocketAddress) me.getRemoteAddress(),
+                        ((CoapResponse) coapMessage).getServicePath());
+            }
 
             log.debug("Added resetable update notification (message ID {}) for {}",
                     coapMessage.getMessageID(), me.getRemoteAddress());
@@ -257,6 +265,22 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         }
     }
 
+    private void stopRetransmissions(InternalCancelExchangeMessage message){
+        synchronized (retransmissionSchedules){
+            Iterator<RetransmissionSchedule> schedules =
+                    retransmissionSchedules.row(message.getRemoteAddress()).values().iterator();
+
+            while(schedules.hasNext()){
+                RetransmissionSchedule retransmissionSchedule = schedules.next();
+                if(Arrays.equals(retransmissionSchedule.getToken(), message.getToken())){
+                    retransmissionSchedule.stopScheduledTasks();
+                    schedules.remove();
+                    log.debug("Stopped retransmissions of cancelled request: {}.", message);
+                }
+            }
+        }
+    }
+
     private synchronized long updateRetransmissions(CoapMessage coapMessage, InetSocketAddress remoteAddress) {
         for(int messageID : retransmissionSchedules.row(remoteAddress).keySet()){
             RetransmissionSchedule retransmissionSchedule = retransmissionSchedules.get(remoteAddress, messageID);
@@ -311,10 +335,12 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         InetSocketAddress remoteAddress = (InetSocketAddress) me.getRemoteAddress();
 
         if(coapMessage.getMessageType() == MsgType.RST){
-            if(observations.contains(coapMessage.getMessageID(), me.getRemoteAddress())){
-                String servicePath =
-                        observations.get(coapMessage.getMessageID(), me.getRemoteAddress());
+            String servicePath;
+            synchronized (observations){
+                servicePath = observations.get(coapMessage.getMessageID(), me.getRemoteAddress());
+            }
 
+            if(servicePath != null){
                 log.debug("Observer {} canceled observation of {} with RST and message ID {}.",
                         new Object[]{me.getRemoteAddress(), servicePath, coapMessage.getMessageID()});
 
@@ -370,13 +396,16 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         }
 
         Integer messageID = (Integer) arg;
-        if(observations.rowKeySet().contains(messageID)){
+        synchronized (observations){
             Map<InetSocketAddress, String> observer = observations.row(messageID);
             for(Map.Entry<InetSocketAddress, String> entry : observer.entrySet()){
                 log.info("Observation of {} by {} cannot be stopped with RST {} anymore.",
                         new Object[]{entry.getValue(), entry.getKey(), messageID});
 
             }
+
+            //the message ID was deallocated, i.e. the entries are not needed anymore
+            observer.clear();
         }
     }
 }
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A {@link DatagramTransport} provides the {@link DatagramChannelFactory} to create the
+ * {@link org.jboss.netty.channel.socket.DatagramChannel}s of clients and servers, i.e. it decides how datagrams are
+ * actually transported. The default is chosen by {@link DatagramTransports#getDefault()}.
+ * {@link LoopbackTransport} connects clients and servers within the same JVM.
+ *
+ * @author Oliver Kleine
+ */
+public interface DatagramTransport {
+
+    /**
+     * Returns a new {@link DatagramChannelFactory} for this transport
+     *
+     * @param executorService the {@link ScheduledExecutorService} to provide the threads for I/O operations (if
+     *                        needed by the transport)
+     *
+     * @return a new {@link DatagramChannelFactory} for this transport
+     */
+    public DatagramChannelFactory createChannelFactory(ScheduledExecutorService executorService);
+}
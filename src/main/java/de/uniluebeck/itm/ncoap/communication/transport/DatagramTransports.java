@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the default {@link DatagramTransport} of clients and servers created without explicit transport. The
+ * default is chosen by the system property {@link #TRANSPORT_PROPERTY}:
+ * <ul>
+ *     <li><code>nio</code> (or not set) for {@link NioDatagramTransport}</li>
+ *     <li><code>oio</code> for {@link OioDatagramTransport}</li>
+ * </ul>
+ * Any other value (e.g. <code>epoll</code>, which is not available with Netty 3) falls back to
+ * {@link NioDatagramTransport}.
+ *
+ * @author Oliver Kleine
+ */
+public final class DatagramTransports {
+
+    private static Logger log = LoggerFactory.getLogger(DatagramTransports.class.getName());
+
+    /**
+     * The name of the system property to choose the default {@link DatagramTransport}
+     */
+    public static final String TRANSPORT_PROPERTY = "ncoap.transport";
+
+    /**
+     * The size (in bytes) of the send and receive buffers requested for each socket. Larger buffers absorb bursts
+     * that would otherwise be dropped while the I/O thread is busy (the kernel may limit the actual size, e.g.
+     * <code>net.core.rmem_max</code> on Linux).
+     */
+    public static final int SOCKET_BUFFER_SIZE = 1048576;
+
+    private DatagramTransports(){
+        //Nothing to do here...
+    }
+
+    /**
+     * Returns the default {@link DatagramTransport} according to the system property {@link #TRANSPORT_PROPERTY}
+     * @return the default {@link DatagramTransport} according to the system property {@link #TRANSPORT_PROPERTY}
+     */
+    public static DatagramTransport getDefault(){
+        String transport = System.getProperty(TRANSPORT_PROPERTY, "nio");
+
+        if("nio".equalsIgnoreCase(transport))
+            return new NioDatagramTransport();
+
+        if("oio".equalsIgnoreCase(transport))
+            return new OioDatagramTransport();
+
+        log.warn("Transport {} is not available (use nio).", transport);
+        return new NioDatagramTransport();
+    }
+}
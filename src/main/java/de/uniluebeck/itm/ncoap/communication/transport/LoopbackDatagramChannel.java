@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.DatagramChannelConfig;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+
+/**
+ * A {@link DatagramChannel} whose datagrams are transported by a {@link LoopbackTransport}, i.e. without any
+ * socket. Received datagrams are passed upstream by the delivery thread of the {@link LoopbackTransport}.
+ *
+ * @author Oliver Kleine
+ */
+class LoopbackDatagramChannel extends AbstractChannel implements DatagramChannel {
+
+    private final LoopbackTransport transport;
+    private final DatagramChannelConfig config;
+
+    private volatile InetSocketAddress localAddress;
+
+    LoopbackDatagramChannel(ChannelFactory factory, ChannelPipeline pipeline, ChannelSink sink,
+                            LoopbackTransport transport){
+        super(null, factory, pipeline, sink);
+        this.transport = transport;
+        this.config = new LoopbackDatagramChannelConfig();
+
+        Channels.fireChannelOpen(this);
+    }
+
+    @Override
+    public DatagramChannelConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public boolean isBound() {
+        return isOpen() && localAddress != null;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return false;
+    }
+
+    void bindNow(SocketAddress requestedAddress, ChannelFuture future){
+        try{
+            localAddress = transport.bind(this, (InetSocketAddress) requestedAddress);
+            future.setSuccess();
+            Channels.fireChannelBound(this, localAddress);
+        }
+        catch (Exception e) {
+            future.setFailure(e);
+            Channels.fireExceptionCaught(this, e);
+        }
+    }
+
+    void closeNow(ChannelFuture future){
+        boolean bound = isBound();
+        if(bound)
+            transport.unbind(this);
+
+        if(setClosed()){
+            future.setSuccess();
+            if(bound)
+                Channels.fireChannelUnbound(this);
+            Channels.fireChannelClosed(this);
+        }
+        else{
+            future.setSuccess();
+        }
+    }
+
+    void send(ChannelBuffer datagram, InetSocketAddress remoteAddress){
+        transport.send(this, datagram, remoteAddress);
+    }
+
+    void receive(ChannelBuffer datagram, InetSocketAddress remoteAddress){
+        if(isOpen())
+            Channels.fireMessageReceived(this, datagram, remoteAddress);
+    }
+
+    @Override
+    public void joinGroup(InetAddress multicastAddress) {
+        throw new UnsupportedOperationException("Multicast is not supported by loopback channels.");
+    }
+
+    @Override
+    public void joinGroup(InetSocketAddress multicastAddress, NetworkInterface networkInterface) {
+        throw new UnsupportedOperationException("Multicast is not supported by loopback channels.");
+    }
+
+    @Override
+    public void leaveGroup(InetAddress multicastAddress) {
+        throw new UnsupportedOperationException("Multicast is not supported by loopback channels.");
+    }
+
+    @Override
+    public void leaveGroup(InetSocketAddress multicastAddress, NetworkInterface networkInterface) {
+        throw new UnsupportedOperationException("Multicast is not supported by loopback channels.");
+    }
+}
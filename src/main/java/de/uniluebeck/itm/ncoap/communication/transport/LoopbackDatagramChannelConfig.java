@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannelConfig;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+
+/**
+ * The {@link DatagramChannelConfig} of {@link LoopbackDatagramChannel}s. The socket related options are only kept
+ * (there is no socket) to let code written for UDP channels work unchanged.
+ *
+ * @author Oliver Kleine
+ */
+class LoopbackDatagramChannelConfig extends DefaultChannelConfig implements DatagramChannelConfig {
+
+    private volatile int sendBufferSize = 65536;
+    private volatile int receiveBufferSize = 65536;
+    private volatile int trafficClass;
+    private volatile boolean reuseAddress;
+    private volatile boolean broadcast;
+    private volatile boolean loopbackModeDisabled;
+    private volatile int timeToLive = 1;
+    private volatile InetAddress interfaceAddress;
+    private volatile NetworkInterface networkInterface;
+
+    private volatile ReceiveBufferSizePredictor predictor = new FixedReceiveBufferSizePredictor(65536);
+    private volatile ReceiveBufferSizePredictorFactory predictorFactory =
+            new FixedReceiveBufferSizePredictorFactory(65536);
+
+    @Override
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    @Override
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    @Override
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    @Override
+    public int getTrafficClass() {
+        return trafficClass;
+    }
+
+    @Override
+    public void setTrafficClass(int trafficClass) {
+        this.trafficClass = trafficClass;
+    }
+
+    @Override
+    public boolean isReuseAddress() {
+        return reuseAddress;
+    }
+
+    @Override
+    public void setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
+    @Override
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    @Override
+    public boolean isLoopbackModeDisabled() {
+        return loopbackModeDisabled;
+    }
+
+    @Override
+    public void setLoopbackModeDisabled(boolean loopbackModeDisabled) {
+        this.loopbackModeDisabled = loopbackModeDisabled;
+    }
+
+    @Override
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    @Override
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public InetAddress getInterface() {
+        return interfaceAddress;
+    }
+
+    @Override
+    public void setInterface(InetAddress interfaceAddress) {
+        this.interfaceAddress = interfaceAddress;
+    }
+
+    @Override
+    public NetworkInterface getNetworkInterface() {
+        return networkInterface;
+    }
+
+    @Override
+    public void setNetworkInterface(NetworkInterface networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    @Override
+    public ReceiveBufferSizePredictor getReceiveBufferSizePredictor() {
+        return predictor;
+    }
+
+    @Override
+    public void setReceiveBufferSizePredictor(ReceiveBufferSizePredictor predictor) {
+        this.predictor = predictor;
+    }
+
+    @Override
+    public ReceiveBufferSizePredictorFactory getReceiveBufferSizePredictorFactory() {
+        return predictorFactory;
+    }
+
+    @Override
+    public void setReceiveBufferSizePredictorFactory(ReceiveBufferSizePredictorFactory predictorFactory) {
+        this.predictorFactory = predictorFactory;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+
+/**
+ * The {@link DatagramChannelFactory} to create {@link LoopbackDatagramChannel}s connected by a
+ * {@link LoopbackTransport}.
+ *
+ * @author Oliver Kleine
+ */
+class LoopbackDatagramChannelFactory implements DatagramChannelFactory {
+
+    private final LoopbackTransport transport;
+    private final LoopbackDatagramChannelSink sink;
+
+    LoopbackDatagramChannelFactory(LoopbackTransport transport){
+        this.transport = transport;
+        this.sink = new LoopbackDatagramChannelSink();
+    }
+
+    @Override
+    public DatagramChannel newChannel(ChannelPipeline pipeline) {
+        return new LoopbackDatagramChannel(this, pipeline, sink, transport);
+    }
+
+    /**
+     * Does nothing since the resources (i.e. the delivery thread) belong to the {@link LoopbackTransport} (see
+     * {@link LoopbackTransport#shutdown()}).
+     */
+    @Override
+    public void releaseExternalResources() {
+        //Nothing to do here...
+    }
+}
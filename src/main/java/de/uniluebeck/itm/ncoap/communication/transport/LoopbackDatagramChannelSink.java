@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * The {@link ChannelSink} of all {@link LoopbackDatagramChannel}s, i.e. it executes the downstream operations (bind,
+ * close, write) on the {@link LoopbackTransport}.
+ *
+ * @author Oliver Kleine
+ */
+class LoopbackDatagramChannelSink extends AbstractChannelSink {
+
+    @Override
+    public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) throws Exception {
+        LoopbackDatagramChannel channel = (LoopbackDatagramChannel) e.getChannel();
+        ChannelFuture future = e.getFuture();
+
+        if(e instanceof ChannelStateEvent){
+            ChannelStateEvent event = (ChannelStateEvent) e;
+            Object value = event.getValue();
+
+            switch(event.getState()){
+                case OPEN:
+                    if(Boolean.FALSE.equals(value))
+                        channel.closeNow(future);
+                    break;
+
+                case BOUND:
+                    if(value != null)
+                        channel.bindNow((SocketAddress) value, future);
+                    else
+                        channel.closeNow(future);
+                    break;
+
+                case CONNECTED:
+                    future.setFailure(new UnsupportedOperationException("Loopback channels are not connectable."));
+                    break;
+
+                case INTEREST_OPS:
+                    future.setSuccess();
+                    break;
+            }
+        }
+
+        else if(e instanceof MessageEvent){
+            MessageEvent me = (MessageEvent) e;
+
+            if(!(me.getMessage() instanceof ChannelBuffer) || !(me.getRemoteAddress() instanceof InetSocketAddress)){
+                future.setFailure(
+                        new IllegalArgumentException("Only channel buffers to socket addresses can be sent."));
+                return;
+            }
+
+            if(!channel.isBound()){
+                future.setFailure(new ClosedChannelException());
+                return;
+            }
+
+            channel.send((ChannelBuffer) me.getMessage(), (InetSocketAddress) me.getRemoteAddress());
+            future.setSuccess();
+        }
+    }
+}
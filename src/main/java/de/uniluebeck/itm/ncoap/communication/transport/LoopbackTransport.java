@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DatagramTransport} to connect clients and servers within the same JVM without any sockets, e.g. to
+ * measure the performance of the pipelines and applications in isolation or to test the reliability mechanisms on
+ * a lossy network.
+ *
+ * All channels created via one instance of {@link LoopbackTransport} are connected as if they were bound to the
+ * same host, i.e. datagrams are delivered to the channel bound to the destination port (regardless of the
+ * destination IP address) or dropped if there is no such channel. Channels bound to port 0 get a port from
+ * {@link #FIRST_EPHEMERAL_PORT} upwards.
+ *
+ * Datagrams are delivered in the order of their delivery time by a single thread after the configured latency plus
+ * a random jitter (which reorders datagrams) unless they are dropped according to the configured loss probability.
+ * The random numbers are generated with the seed given on construction, i.e. datagrams written by a single thread are
+ * dropped deterministically.
+ *
+ * @author Oliver Kleine
+ */
+public class LoopbackTransport implements DatagramTransport {
+
+    private static Logger log = LoggerFactory.getLogger(LoopbackTransport.class.getName());
+
+    /**
+     * The first port to be assigned to channels bound to port 0
+     */
+    public static final int FIRST_EPHEMERAL_PORT = 49152;
+
+    private final ConcurrentHashMap<Integer, LoopbackDatagramChannel> channels =
+            new ConcurrentHashMap<Integer, LoopbackDatagramChannel>();
+
+    private final ScheduledExecutorService deliveryExecutor;
+    private final Random random;
+
+    private int nextEphemeralPort = FIRST_EPHEMERAL_PORT;
+
+    private volatile long latency = 0;
+    private volatile long jitter = 0;
+    private volatile double lossProbability = 0;
+
+    private final AtomicLong deliveredDatagrams = new AtomicLong(0);
+    private final AtomicLong droppedDatagrams = new AtomicLong(0);
+
+    /**
+     * Creates a new {@link LoopbackTransport} without latency, jitter, and loss
+     *
+     * @param seed the seed for the random numbers to decide on jitter and loss
+     */
+    public LoopbackTransport(long seed){
+        this.random = new Random(seed);
+        this.deliveryExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Loopback Transport Thread#%d").setDaemon(true).build());
+    }
+
+    /**
+     * Creates a new {@link LoopbackTransport} without latency, jitter, and loss (with a random seed)
+     */
+    public LoopbackTransport(){
+        this(System.nanoTime());
+    }
+
+    @Override
+    public DatagramChannelFactory createChannelFactory(ScheduledExecutorService executorService) {
+        return new LoopbackDatagramChannelFactory(this);
+    }
+
+    /**
+     * Sets the time to pass between writing and delivering a datagram
+     *
+     * @param latency the latency
+     * @param timeUnit the {@link TimeUnit} of the latency
+     */
+    public void setLatency(long latency, TimeUnit timeUnit){
+        this.latency = timeUnit.toMicros(latency);
+    }
+
+    /**
+     * Sets the maximum time to be randomly added to the latency of each datagram. A jitter larger than the time
+     * between two datagrams to the same destination reorders them.
+     *
+     * @param jitter the maximum jitter
+     * @param timeUnit the {@link TimeUnit} of the jitter
+     */
+    public void setJitter(long jitter, TimeUnit timeUnit){
+        this.jitter = timeUnit.toMicros(jitter);
+    }
+
+    /**
+     * Sets the probability of each datagram to be dropped
+     *
+     * @param lossProbability the probability of each datagram to be dropped (0 to 1)
+     */
+    public void setLossProbability(double lossProbability){
+        if(lossProbability < 0 || lossProbability > 1)
+            throw new IllegalArgumentException("Loss probability must be between 0 and 1 (was " + lossProbability
+                    + ").");
+
+        this.lossProbability = lossProbability;
+    }
+
+    /**
+     * Returns the number of datagrams delivered so far
+     * @return the number of datagrams delivered so far
+     */
+    public long getNumberOfDeliveredDatagrams(){
+        return deliveredDatagrams.get();
+    }
+
+    /**
+     * Returns the number of datagrams dropped so far (due to the loss probability or a destination port without
+     * channel)
+     * @return the number of datagrams dropped so far
+     */
+    public long getNumberOfDroppedDatagrams(){
+        return droppedDatagrams.get();
+    }
+
+    /**
+     * Stops the delivery of datagrams, i.e. datagrams not yet delivered are dropped
+     */
+    public void shutdown(){
+        deliveryExecutor.shutdownNow();
+    }
+
+    synchronized InetSocketAddress bind(LoopbackDatagramChannel channel, InetSocketAddress requestedAddress){
+        int port = requestedAddress.getPort();
+
+        if(port == 0){
+            do{
+                port = nextEphemeralPort;
+                nextEphemeralPort = nextEphemeralPort == 65535 ? FIRST_EPHEMERAL_PORT : nextEphemeralPort + 1;
+            }
+            while(channels.containsKey(port));
+        }
+
+        if(channels.putIfAbsent(port, channel) != null)
+            throw new ChannelException("Port " + port + " is already in use.");
+
+        InetAddress address = requestedAddress.getAddress();
+        if(address == null || address.isAnyLocalAddress())
+            return new InetSocketAddress("127.0.0.1", port);
+
+        return new InetSocketAddress(address, port);
+    }
+
+    void unbind(LoopbackDatagramChannel channel){
+        channels.remove(channel.getLocalAddress().getPort(), channel);
+    }
+
+    void send(final LoopbackDatagramChannel sender, ChannelBuffer datagram, InetSocketAddress remoteAddress){
+        long delay;
+        boolean drop;
+
+        synchronized (random){
+            drop = lossProbability > 0 && random.nextDouble() < lossProbability;
+            delay = jitter > 0 ? latency + (long) (random.nextDouble() * jitter) : latency;
+        }
+
+        final LoopbackDatagramChannel recipient = channels.get(remoteAddress.getPort());
+        if(drop || recipient == null){
+            droppedDatagrams.incrementAndGet();
+            log.debug("Dropped datagram from {} to {}.", sender.getLocalAddress(), remoteAddress);
+            return;
+        }
+
+        //The sender does not modify the buffer after writing, so the content is not copied
+        final ChannelBuffer duplicate = datagram.duplicate();
+        final InetSocketAddress senderAddress = sender.getLocalAddress();
+
+        try{
+            deliveryExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    deliveredDatagrams.incrementAndGet();
+                    recipient.receive(duplicate, senderAddress);
+                }
+            }, delay, TimeUnit.MICROSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            droppedDatagrams.incrementAndGet();
+            log.debug("Dropped datagram from {} to {} (transport shut down).", senderAddress, remoteAddress);
+        }
+    }
+}
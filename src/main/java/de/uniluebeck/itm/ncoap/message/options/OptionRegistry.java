@@ -248,6 +248,7 @@ public class OptionRegistry {
         constraints203.put(OptionName.MAX_AGE, OptionOccurence.ONCE);
         constraints203.put(OptionName.BLOCK_2, OptionOccurence.ONCE);
         constraints203.put(OptionName.BLOCK_1, OptionOccurence.ONCE);
+        constraints203.put(OptionName.OBSERVE_RESPONSE, OptionOccurence.ONCE);
         allowedOptions.put(Code.VALID_203, constraints203);
 
         //204 CHANGED
@@ -44,6 +44,14 @@ public class ByteArrayWrapper{
         this.data = data;
     }
 
+    /**
+     * Returns the wrapped byte array (not a copy)
+     * @return the wrapped byte array
+     */
+    public byte[] getData(){
+        return data;
+    }
+
     /**
      * Returns a new byte array without the leading zero bytes (if any) of the given argument, e.g.
      * <ul>
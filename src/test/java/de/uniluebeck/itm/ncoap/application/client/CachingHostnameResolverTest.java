@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test of {@link CachingHostnameResolver} with a local stand-in for the actual {@link HostnameResolver}.
+ *
+ * @author Oliver Kleine
+ */
+public class CachingHostnameResolverTest {
+
+    private ExecutorService executorService;
+    private StandInResolver standInResolver;
+
+    @Before
+    public void setUp(){
+        executorService = Executors.newSingleThreadExecutor();
+        standInResolver = new StandInResolver();
+    }
+
+    @After
+    public void tearDown(){
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testAddressIsCached() throws Exception {
+        CachingHostnameResolver resolver =
+                new CachingHostnameResolver(standInResolver, executorService, 10, 10, TimeUnit.SECONDS);
+
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+        assertEquals("Wrong number of resolutions.", 1, standInResolver.resolutions.get());
+    }
+
+    @Test
+    public void testFailureIsCached() throws Exception {
+        CachingHostnameResolver resolver =
+                new CachingHostnameResolver(standInResolver, executorService, 10, 10, TimeUnit.SECONDS);
+
+        for(int i = 0; i < 2; i++){
+            try{
+                resolver.resolve("unknown.example.org");
+                fail("Unknown host was resolved.");
+            }
+            catch (UnknownHostException e) {
+                //expected
+            }
+        }
+
+        assertEquals("Wrong number of resolutions.", 1, standInResolver.resolutions.get());
+    }
+
+    @Test
+    public void testFailureExpires() throws Exception {
+        CachingHostnameResolver resolver =
+                new CachingHostnameResolver(standInResolver, executorService, 10000, 100, TimeUnit.MILLISECONDS);
+
+        try{
+            resolver.resolve("unknown.example.org");
+            fail("Unknown host was resolved.");
+        }
+        catch (UnknownHostException e) {
+            //expected
+        }
+
+        Thread.sleep(150);
+        standInResolver.unknownHostsResolvable = true;
+
+        assertEquals("Wrong address.", standInResolver.getAddress(2), resolver.resolve("unknown.example.org"));
+    }
+
+    @Test
+    public void testAddressIsRefreshedAsynchronously() throws Exception {
+        CachingHostnameResolver resolver =
+                new CachingHostnameResolver(standInResolver, executorService, 500, 500, TimeUnit.MILLISECONDS);
+
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+
+        //Wait until the refresh ratio of the TTL passed and let the next resolution be slow
+        Thread.sleep(420);
+        standInResolver.delay = 300;
+
+        long start = System.currentTimeMillis();
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+        assertTrue("Resolution was blocking.", System.currentTimeMillis() - start < standInResolver.delay);
+
+        //Wait for the asynchronous resolution
+        Thread.sleep(400);
+        assertEquals("Address was not refreshed.", standInResolver.getAddress(2), resolver.resolve("example.org"));
+        assertEquals("Wrong number of resolutions.", 2, standInResolver.resolutions.get());
+    }
+
+    @Test
+    public void testCachedAddressIsKeptIfRefreshFails() throws Exception {
+        CachingHostnameResolver resolver =
+                new CachingHostnameResolver(standInResolver, executorService, 500, 500, TimeUnit.MILLISECONDS);
+
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+
+        //Wait until the refresh ratio of the TTL passed and let the next resolution fail
+        Thread.sleep(420);
+        standInResolver.failing = true;
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+
+        //Wait for the asynchronous resolution
+        Thread.sleep(50);
+        assertEquals("Cached address was replaced.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+        assertEquals("Wrong number of resolutions.", 2, standInResolver.resolutions.get());
+    }
+
+    @Test
+    public void testExpiredAddressIsResolvedAgain() throws Exception {
+        CachingHostnameResolver resolver =
+                new CachingHostnameResolver(standInResolver, executorService, 100, 100, TimeUnit.MILLISECONDS);
+
+        assertEquals("Wrong address.", standInResolver.getAddress(1), resolver.resolve("example.org"));
+        Thread.sleep(150);
+        assertEquals("Wrong address.", standInResolver.getAddress(2), resolver.resolve("example.org"));
+    }
+
+
+    private static class StandInResolver implements HostnameResolver {
+
+        private AtomicInteger resolutions = new AtomicInteger(0);
+        private volatile long delay = 0;
+        private volatile boolean unknownHostsResolvable = false;
+        private volatile boolean failing = false;
+
+        @Override
+        public InetAddress resolve(String hostname) throws UnknownHostException {
+            int resolution = resolutions.incrementAndGet();
+
+            if(delay > 0){
+                try {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException e) {
+                    throw new UnknownHostException(hostname);
+                }
+            }
+
+            if(failing || hostname.startsWith("unknown") && !unknownHostsResolvable)
+                throw new UnknownHostException(hostname);
+
+            //Every resolution returns another address
+            return getAddress(resolution);
+        }
+
+        private InetAddress getAddress(int resolution) throws UnknownHostException {
+            return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) resolution});
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.toolbox.ByteArrayWrapper;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the time to add, look up and remove 100k outstanding requests per thread (4 threads) with an
+ * {@link ExchangeTable} compared to a synchronized {@link HashBasedTable} with {@link ByteArrayWrapper} keys. This
+ * is not part of the regular test run (use <code>mvn test -Dtest=ExchangeTableBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class ExchangeTableBenchmark {
+
+    private static int NUMBER_OF_THREADS = 4;
+    private static int REQUESTS_PER_THREAD = 100000;
+    private static int ROUNDS = 5;
+
+    private static InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 5683);
+
+    private static CoapResponseProcessor RESPONSE_PROCESSOR = new CoapResponseProcessor() {
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            //Nothing to do here...
+        }
+    };
+
+    @Test
+    public void benchmarkOutstandingRequests() throws Exception {
+        for(int round = 0; round < ROUNDS; round++){
+            final ExchangeTable exchangeTable = new ExchangeTable();
+            long exchangeTableTime = run(new Operations() {
+                @Override
+                public void run(TokenFactory tokenFactory, long[] tokens) {
+                    for(int i = 0; i < tokens.length; i++){
+                        tokens[i] = tokenFactory.getNextToken();
+                        exchangeTable.add(tokens[i], 8, SERVER, RESPONSE_PROCESSOR);
+                    }
+                    for(long token : tokens)
+                        exchangeTable.get(tokenFactory.toByteArray(token), SERVER);
+                    for(long token : tokens)
+                        exchangeTable.remove(tokenFactory.toByteArray(token), SERVER);
+                }
+            });
+            assertEquals(0, exchangeTable.size());
+
+            final HashBasedTable<ByteArrayWrapper, InetSocketAddress, CoapResponseProcessor> table =
+                    HashBasedTable.create();
+            long hashBasedTableTime = run(new Operations() {
+                @Override
+                public void run(TokenFactory tokenFactory, long[] tokens) {
+                    for(int i = 0; i < tokens.length; i++){
+                        tokens[i] = tokenFactory.getNextToken();
+                        synchronized (table){
+                            table.put(new ByteArrayWrapper(tokenFactory.toByteArray(tokens[i])), SERVER,
+                                    RESPONSE_PROCESSOR);
+                        }
+                    }
+                    for(long token : tokens){
+                        synchronized (table){
+                            table.get(new ByteArrayWrapper(tokenFactory.toByteArray(token)), SERVER);
+                        }
+                    }
+                    for(long token : tokens){
+                        synchronized (table){
+                            table.remove(new ByteArrayWrapper(tokenFactory.toByteArray(token)), SERVER);
+                        }
+                    }
+                }
+            });
+            assertEquals(0, table.size());
+
+            System.out.println(String.format("Round %d: ExchangeTable %d ms, synchronized HashBasedTable %d ms.",
+                    round, exchangeTableTime, hashBasedTableTime));
+        }
+    }
+
+    private long run(final Operations operations) throws InterruptedException {
+        final TokenFactory tokenFactory = new TokenFactory(TokenFactory.MAX_TOKEN_LENGTH);
+        final CountDownLatch latch = new CountDownLatch(NUMBER_OF_THREADS);
+
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < NUMBER_OF_THREADS; i++){
+            new Thread(){
+                @Override
+                public void run() {
+                    operations.run(tokenFactory, new long[REQUESTS_PER_THREAD]);
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+
+        return System.currentTimeMillis() - start;
+    }
+
+    private interface Operations {
+        public void run(TokenFactory tokenFactory, long[] tokens);
+    }
+}
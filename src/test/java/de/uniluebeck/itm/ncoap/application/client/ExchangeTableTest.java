@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of {@link ExchangeTable}.
+ *
+ * @author Oliver Kleine
+ */
+public class ExchangeTableTest {
+
+    private static InetSocketAddress SERVER_1 = new InetSocketAddress("127.0.0.1", 5683);
+    private static InetSocketAddress SERVER_2 = new InetSocketAddress("127.0.0.1", 5684);
+
+    private CoapResponseProcessor responseProcessor = new CoapResponseProcessor() {
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            //Nothing to do here...
+        }
+    };
+
+    @Test
+    public void testTokenUsedOnce(){
+        ExchangeTable exchangeTable = new ExchangeTable();
+        assertTrue(exchangeTable.add(0x12AB, 2, SERVER_1, responseProcessor));
+        assertFalse(exchangeTable.add(0x12AB, 2, SERVER_2, responseProcessor));
+    }
+
+    @Test
+    public void testRemoteAddressVerified(){
+        ExchangeTable exchangeTable = new ExchangeTable();
+        exchangeTable.add(0x12AB, 2, SERVER_1, responseProcessor);
+
+        assertNull(exchangeTable.get(new byte[]{0x12, (byte) 0xAB}, SERVER_2));
+        assertNull(exchangeTable.remove(new byte[]{0x12, (byte) 0xAB}, SERVER_2));
+        assertSame(responseProcessor, exchangeTable.get(new byte[]{0x12, (byte) 0xAB}, SERVER_1));
+    }
+
+    @Test
+    public void testTokenLengthVerified(){
+        ExchangeTable exchangeTable = new ExchangeTable();
+        exchangeTable.add(0x12AB, 3, SERVER_1, responseProcessor);
+
+        assertNull(exchangeTable.get(new byte[]{0x12, (byte) 0xAB}, SERVER_1));
+        assertSame(responseProcessor, exchangeTable.remove(new byte[]{0x00, 0x12, (byte) 0xAB}, SERVER_1));
+        assertEquals(0, exchangeTable.size());
+    }
+
+    @Test
+    public void testNoExpiredExchanges(){
+        ExchangeTable exchangeTable = new ExchangeTable();
+        exchangeTable.add(1, 1, SERVER_1, responseProcessor);
+
+        assertEquals(0, exchangeTable.removeExpiredExchanges());
+        assertEquals(1, exchangeTable.size());
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of {@link TokenFactory}.
+ *
+ * @author Oliver Kleine
+ */
+public class TokenFactoryTest {
+
+    @Test
+    public void testAllTokensDistinctForShortTokens(){
+        TokenFactory tokenFactory = new TokenFactory(2);
+
+        Set<Long> tokens = new HashSet<Long>();
+        for(int i = 0; i < 65536; i++){
+            long token = tokenFactory.getNextToken();
+            assertTrue("Token out of range: " + token, token >= 0 && token < 65536);
+            tokens.add(token);
+        }
+
+        assertEquals("Tokens not distinct.", 65536, tokens.size());
+    }
+
+    @Test
+    public void testTokenLength(){
+        for(int tokenLength = 1; tokenLength <= TokenFactory.MAX_TOKEN_LENGTH; tokenLength++){
+            TokenFactory tokenFactory = new TokenFactory(tokenLength);
+            assertEquals("Wrong token length.", tokenLength,
+                    tokenFactory.toByteArray(tokenFactory.getNextToken()).length);
+        }
+    }
+
+    @Test
+    public void testByteArrayConversion(){
+        TokenFactory tokenFactory = new TokenFactory(3);
+        assertArrayEquals(new byte[]{0x00, 0x12, (byte) 0xAB}, tokenFactory.toByteArray(0x12AB));
+        assertEquals(0x12AB, TokenFactory.toLong(new byte[]{0x00, 0x12, (byte) 0xAB}));
+
+        tokenFactory = new TokenFactory(8);
+        assertEquals(-2L, TokenFactory.toLong(tokenFactory.toByteArray(-2L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTokenLength(){
+        new TokenFactory(9);
+    }
+
+    @Test
+    public void testConcurrentTokensDistinct() throws Exception {
+        final TokenFactory tokenFactory = new TokenFactory(TokenFactory.MAX_TOKEN_LENGTH);
+        final Set<Long> tokens = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final CountDownLatch latch = new CountDownLatch(4);
+
+        for(int i = 0; i < 4; i++){
+            new Thread(){
+                @Override
+                public void run() {
+                    for(int j = 0; j < 100000; j++)
+                        tokens.add(tokenFactory.getNextToken());
+                    latch.countDown();
+                }
+            }.start();
+        }
+
+        latch.await();
+        assertEquals("Tokens not distinct.", 400000, tokens.size());
+    }
+
+    @Test
+    public void testTokensOfAllStripesDistinct() throws Exception {
+        final TokenFactory tokenFactory = new TokenFactory(TokenFactory.MIN_STRIPED_TOKEN_LENGTH);
+        final Set<Long> tokens = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final CountDownLatch latch = new CountDownLatch(2 * TokenFactory.STRIPES);
+
+        for(int i = 0; i < 2 * TokenFactory.STRIPES; i++){
+            new Thread(){
+                @Override
+                public void run() {
+                    for(int j = 0; j < 10000; j++)
+                        tokens.add(tokenFactory.getNextToken());
+                    latch.countDown();
+                }
+            }.start();
+        }
+
+        latch.await();
+        assertEquals("Tokens not distinct.", 20000 * TokenFactory.STRIPES, tokens.size());
+    }
+}
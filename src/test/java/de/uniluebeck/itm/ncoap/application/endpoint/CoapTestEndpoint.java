@@ -35,6 +35,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Executors;
@@ -59,6 +62,9 @@ public class CoapTestEndpoint extends SimpleChannelHandler {
     //map to save received messages
     private SortedMap<Long, CoapMessage> receivedMessages = new TreeMap<Long, CoapMessage>();
 
+    //set to save the addresses of the senders of received messages
+    private Set<InetSocketAddress> senders = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
     public CoapTestEndpoint() {
         //Create datagram datagramChannel to receive and send messages
         ChannelFactory channelFactory =
@@ -89,7 +95,15 @@ public class CoapTestEndpoint extends SimpleChannelHandler {
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         if ((e.getMessage() instanceof CoapMessage) && receiveEnabled) {
 
-            receivedMessages.put(System.currentTimeMillis(), (CoapMessage) e.getMessage());
+            //Messages received within the same millisecond are kept in order of reception
+            long receptionTime = System.currentTimeMillis();
+            synchronized (receivedMessages){
+                while(receivedMessages.containsKey(receptionTime))
+                    receptionTime++;
+
+                receivedMessages.put(receptionTime, (CoapMessage) e.getMessage());
+            }
+            senders.add((InetSocketAddress) e.getRemoteAddress());
 
             log.info("Incoming #{} (from {}): {}.",
                     new Object[]{getReceivedMessages().size(), e.getRemoteAddress(), e.getMessage()});
@@ -100,6 +114,10 @@ public class CoapTestEndpoint extends SimpleChannelHandler {
         return receivedMessages;
     }
 
+    public Set<InetSocketAddress> getSenders() {
+        return senders;
+    }
+
     public synchronized void setReceiveEnabled(boolean receiveEnabled) {
         this.receiveEnabled = receiveEnabled;
     }
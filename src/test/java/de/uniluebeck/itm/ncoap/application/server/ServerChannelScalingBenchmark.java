@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.transport.DatagramTransport;
+import de.uniluebeck.itm.ncoap.communication.transport.LoopbackTransport;
+import de.uniluebeck.itm.ncoap.communication.transport.NioDatagramTransport;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the requests per second a {@link CoapServerApplication} answers with 1 to N sockets (N being the number
+ * of available processors) on the loopback interface. The client uses as many sockets as the server and keeps
+ * {@link #WINDOW} requests per server socket outstanding. The message IDs are set by the benchmark since the
+ * clients message ID space (allocated for {@code MessageIDFactory.ALLOCATION_TIMEOUT}) would otherwise limit the
+ * number of requests per round. With <code>-Dtransport=loopback</code> client and server are connected by a
+ * {@link LoopbackTransport} instead of UDP, i.e. only the pipelines and applications are measured. This is not part
+ * of the regular test run (use <code>mvn test -Dtest=ServerChannelScalingBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class ServerChannelScalingBenchmark {
+
+    private static int REQUESTS_PER_ROUND = 60000;
+    private static int WINDOW = 32;
+    private static String PATH_TO_SERVICE = "/service";
+
+    @Test
+    public void benchmarkRequestsPerSecond() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        //warm up
+        run(1);
+
+        for(int numberOfChannels = 1; numberOfChannels <= Runtime.getRuntime().availableProcessors();
+            numberOfChannels *= 2){
+
+            double requestsPerSecond = run(numberOfChannels);
+            System.out.println(String.format("%d socket(s): %.0f requests/s", numberOfChannels, requestsPerSecond));
+            assertTrue("No requests answered.", requestsPerSecond > 0);
+        }
+    }
+
+    private double run(int numberOfChannels) throws Exception {
+        InetSocketAddress[] localAddresses = new InetSocketAddress[numberOfChannels];
+        for(int i = 0; i < numberOfChannels; i++)
+            localAddresses[i] = new InetSocketAddress(0);
+
+        DatagramTransport transport = "loopback".equals(System.getProperty("transport")) ?
+                new LoopbackTransport() : new NioDatagramTransport();
+
+        CoapServerApplication server = new CoapServerApplication(transport, localAddresses);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, "Status", 0));
+
+        CoapClientApplication client = new CoapClientApplication(transport, numberOfChannels);
+
+        int requestsPerChannel = REQUESTS_PER_ROUND / numberOfChannels;
+        CountDownLatch latch = new CountDownLatch(requestsPerChannel * numberOfChannels);
+        AtomicInteger messageIDs = new AtomicInteger(0);
+
+        long start = System.nanoTime();
+
+        for(int port : server.getServerPorts()){
+            URI targetUri = new URI("coap://127.0.0.1:" + port + PATH_TO_SERVICE);
+            AtomicInteger remaining = new AtomicInteger(requestsPerChannel - WINDOW);
+
+            for(int i = 0; i < WINDOW; i++)
+                sendRequest(client, targetUri, messageIDs, remaining, latch);
+        }
+
+        boolean completed = latch.await(60, TimeUnit.SECONDS);
+        long duration = System.nanoTime() - start;
+
+        client.shutdown();
+        server.shutdown();
+        if(transport instanceof LoopbackTransport)
+            ((LoopbackTransport) transport).shutdown();
+
+        assertTrue("Not all requests answered within 60 seconds.", completed);
+        return (double) requestsPerChannel * numberOfChannels / duration * 1000000000L;
+    }
+
+    private void sendRequest(final CoapClientApplication client, final URI targetUri, final AtomicInteger messageIDs,
+                             final AtomicInteger remaining, final CountDownLatch latch) throws Exception {
+
+        CoapRequest coapRequest = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        coapRequest.setMessageID(messageIDs.incrementAndGet() & 0xFFFF);
+
+        Futures.addCallback(client.writeCoapRequest(coapRequest), new FutureCallback<CoapResponse>() {
+            @Override
+            public void onSuccess(CoapResponse coapResponse) {
+                latch.countDown();
+                sendNextRequest();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                System.out.println("Request failed: " + t);
+                sendNextRequest();
+            }
+
+            private void sendNextRequest(){
+                if(remaining.getAndDecrement() <= 0)
+                    return;
+
+                try{
+                    sendRequest(client, targetUri, messageIDs, remaining, latch);
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+}
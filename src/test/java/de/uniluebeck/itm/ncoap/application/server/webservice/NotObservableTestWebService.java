@@ -39,7 +39,8 @@ import java.nio.charset.Charset;
 import static org.junit.Assert.fail;
 
 /**
- * Simple implementation of {@link NotObservableWebService} to handle incoming {@link CoapRequest}s.
+ * Simple implementation of {@link NotObservableWebService} to handle incoming {@link CoapRequest}s. PUT requests
+ * replace the resource status with the payload of the request.
  *
  * @author Oliver Kleine
  */
@@ -71,6 +72,13 @@ public class NotObservableTestWebService extends NotObservableWebService<String>
             fail("This should never happen.");
         }
 
+        //change the status on PUT requests
+        if(request.getCode() == Code.PUT){
+            setResourceStatus(request.getPayload().toString(Charset.forName("UTF-8")));
+            responseFuture.set(new CoapResponse(Code.CHANGED_204));
+            return;
+        }
+
         //create response
         CoapResponse response = new CoapResponse(Code.CONTENT_205);
 
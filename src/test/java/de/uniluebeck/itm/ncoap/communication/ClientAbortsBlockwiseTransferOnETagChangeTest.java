@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferFailedException;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests if a client aborts the reassembly of a blockwise transferred response if the ETAG changes between two
+ * blocks, i.e. the blocks of different representations are not concatenated.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientAbortsBlockwiseTransferOnETagChangeTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/large";
+
+    private static CoapTestEndpoint testEndpoint;
+    private static CoapClientApplication client;
+
+    private static ListenableFuture<CoapResponse> future;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        testEndpoint = new CoapTestEndpoint();
+        client = new CoapClientApplication();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                      Test Endpoint
+//              (1) |------GET------------------->|
+//              (2) |<-----ACK (Block2 0, ETAG 1)-|
+//              (3) |------GET (Block2 1)-------->|
+//              (4) |<-----ACK (Block2 1, ETAG 2)-|           representation changed, i.e. the future fails
+
+        URI targetUri = new URI("coap://localhost:" + testEndpoint.getPort() + PATH_TO_SERVICE);
+        future = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri));
+        Thread.sleep(500);
+
+        writeBlock(0, new byte[]{1});
+        Thread.sleep(500);
+
+        writeBlock(1, new byte[]{2});
+        Thread.sleep(500);
+    }
+
+    private void writeBlock(long blockNumber, byte[] etag) throws Exception {
+        CoapMessage request = testEndpoint.getReceivedMessages().get(testEndpoint.getReceivedMessages().lastKey());
+
+        CoapResponse response = new CoapResponse(Code.CONTENT_205);
+        response.getHeader().setMsgType(MsgType.ACK);
+        response.setMessageID(request.getMessageID());
+        response.setToken(request.getToken());
+        response.setContentType(MediaType.TEXT_PLAIN_UTF8);
+        response.setETAG(etag);
+        response.setBlockOption(BLOCK_2, blockNumber, false, Blocksize.SIZE_16);
+        response.setPayload(String.format("Block #%09d\n", blockNumber).getBytes(Charset.forName("UTF-8")));
+
+        testEndpoint.writeMessage(response, new InetSocketAddress("localhost", client.getClientPort()));
+    }
+
+    @Test
+    public void testEndpointReceivedRequestForSecondBlockOnly(){
+        assertEquals("Wrong number of requests.", 2, testEndpoint.getReceivedMessages().size());
+    }
+
+    @Test
+    public void testFutureFailedWithBlockwiseTransferFailedException() throws Exception {
+        assertTrue("Future is not done.", future.isDone());
+        try{
+            future.get();
+            fail("Future was set with a response.");
+        }
+        catch (ExecutionException e) {
+            assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof BlockwiseTransferFailedException);
+        }
+    }
+}
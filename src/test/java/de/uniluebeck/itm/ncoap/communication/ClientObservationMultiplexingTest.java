@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.OBSERVE_REQUEST;
+import static junit.framework.Assert.*;
+
+/**
+ * Tests if two observations of the same resource share a single observation on the server and if update
+ * notifications with outdated sequence numbers are dropped.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientObservationMultiplexingTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor1;
+    private static TestResponseProcessor responseProcessor2;
+
+    private static CoapTestEndpoint endpoint;
+
+    private static CoapRequest request1;
+    private static CoapRequest request2;
+
+    private static boolean cancelled1;
+    private static boolean cancelled2;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new CoapTestEndpoint();
+
+        client = new CoapClientApplication();
+        responseProcessor1 = new TestResponseProcessor();
+        responseProcessor2 = new TestResponseProcessor();
+
+        URI targetUri = new URI("coap://localhost:" + endpoint.getPort() + PATH_TO_SERVICE);
+        request1 = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request1.setObserveOptionRequest();
+
+        request2 = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request2.setObserveOptionRequest();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Endpoint
+//              (1) |------GET-OBSERVE----------->|           1st subscriber starts observation
+//                  |                             |
+//              (2) |<-----ACK-NOTIFICATION-------|           initial notification (observe: 1)
+//                  |                             |
+//                  |                             |           2nd subscriber is added without a request
+//                  |                             |
+//              (3) |<-----NON-NOTIFICATION-------|           notification (observe: 3)
+//                  |                             |
+//              (4) |<-----NON-NOTIFICATION-------|           outdated notification (observe: 2) is dropped
+//                  |                             |
+//                  |                             |           1st and 2nd subscriber cancel
+//                  |                             |
+//              (5) |------GET------------------->|           client cancels observation on the endpoint
+//                  |                             |
+//              (6) |<-----ACK-RESPONSE-----------|
+
+        InetSocketAddress clientAddress = new InetSocketAddress("localhost", client.getClientPort());
+
+        //(1) and (2)
+        client.writeCoapRequest(request1, responseProcessor1);
+        Thread.sleep(500);
+
+        CoapMessage observationRequest = endpoint.getReceivedMessages()
+                                                 .get(endpoint.getReceivedMessages().lastKey());
+
+        endpoint.writeMessage(createNotification(MsgType.ACK, observationRequest.getMessageID(),
+                observationRequest.getToken(), 1), clientAddress);
+        Thread.sleep(500);
+
+        client.writeCoapRequest(request2, responseProcessor2);
+        Thread.sleep(500);
+
+        //(3) and (4)
+        endpoint.writeMessage(createNotification(MsgType.NON, 1001, observationRequest.getToken(), 3),
+                clientAddress);
+        Thread.sleep(500);
+
+        endpoint.writeMessage(createNotification(MsgType.NON, 1002, observationRequest.getToken(), 2),
+                clientAddress);
+        Thread.sleep(500);
+
+        //(5) and (6)
+        cancelled1 = client.cancelObservation(request1, responseProcessor1);
+        cancelled2 = client.cancelObservation(request2, responseProcessor2);
+        Thread.sleep(500);
+
+        CoapMessage cancellationRequest = endpoint.getReceivedMessages()
+                                                  .get(endpoint.getReceivedMessages().lastKey());
+
+        CoapResponse response = new CoapResponse(Code.CONTENT_205);
+        response.getHeader().setMsgType(MsgType.ACK);
+        response.setMessageID(cancellationRequest.getMessageID());
+        response.setToken(cancellationRequest.getToken());
+        endpoint.writeMessage(response, clientAddress);
+
+        Thread.sleep(1000);
+    }
+
+    private static CoapResponse createNotification(MsgType msgType, int messageID, byte[] token, long observe)
+            throws Exception {
+
+        CoapResponse notification = new CoapResponse(Code.CONTENT_205);
+        notification.getHeader().setMsgType(msgType);
+        notification.setMessageID(messageID);
+        notification.setToken(token);
+        notification.setObserveOptionValue(observe);
+        notification.setPayload(("Status #" + observe).getBytes(Charset.forName("UTF-8")));
+
+        return notification;
+    }
+
+    private static List<String> getPayloads(TestResponseProcessor responseProcessor){
+        List<String> result = new ArrayList<String>();
+        for(CoapResponse coapResponse : responseProcessor.getCoapResponses())
+            result.add(coapResponse.getPayload().toString(Charset.forName("UTF-8")));
+
+        return result;
+    }
+
+    @Test
+    public void testEndpointReceivedObservationRequestAndCancellation(){
+        assertEquals("Endpoint did not receive exactly 2 messages.", 2, endpoint.getReceivedMessages().size());
+    }
+
+    @Test
+    public void testFirstRequestIsObservationRequest(){
+        CoapMessage request = endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().firstKey());
+        assertFalse("First request has no observe option.", request.getOption(OBSERVE_REQUEST).isEmpty());
+    }
+
+    @Test
+    public void testSecondRequestIsCancellation(){
+        CoapMessage request = endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().lastKey());
+
+        assertEquals("Cancellation is no GET request.", Code.GET, request.getCode());
+        assertTrue("Cancellation has observe option.", request.getOption(OBSERVE_REQUEST).isEmpty());
+    }
+
+    @Test
+    public void testFirstSubscriberReceivedNotifications(){
+        List<String> expected = new ArrayList<String>();
+        expected.add("Status #1");
+        expected.add("Status #3");
+
+        assertEquals("Wrong notifications for 1st subscriber.", expected, getPayloads(responseProcessor1));
+    }
+
+    @Test
+    public void testSecondSubscriberReceivedLatestAndSubsequentNotification(){
+        List<String> expected = new ArrayList<String>();
+        expected.add("Status #1");
+        expected.add("Status #3");
+
+        assertEquals("Wrong notifications for 2nd subscriber.", expected, getPayloads(responseProcessor2));
+    }
+
+    @Test
+    public void testBothSubscribersCancelled(){
+        assertTrue("1st subscriber was not cancelled.", cancelled1);
+        assertTrue("2nd subscriber was not cancelled.", cancelled2);
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.OBSERVE_REQUEST;
+import static junit.framework.Assert.*;
+
+/**
+ * Tests if a client requests the remaining blocks of an update notification whose first block was sent without
+ * a preceding request, and if the reassembled notification is forwarded to the observer.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientReceivesBlockwiseUpdateNotificationTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapTestEndpoint testEndpoint;
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor;
+
+    private static CoapRequest request;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        testEndpoint = new CoapTestEndpoint();
+        client = new CoapClientApplication();
+        responseProcessor = new TestResponseProcessor();
+
+        URI targetUri = new URI("coap://localhost:" + testEndpoint.getPort() + PATH_TO_SERVICE);
+        request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request.setObserveOptionRequest();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                      Test Endpoint
+//              (1) |------GET-OBSERVE----------->|
+//              (2) |<-----ACK-NOTIFICATION-------|           initial notification (observe: 1, single block)
+//              (3) |<-----NON (Block2 0, obs 2)--|           notification (observe: 2) starts a new transfer
+//              (4) |------GET (Block2 1)-------->|
+//              (5) |<-----ACK (Block2 1)---------|
+//              (6) |------GET (Block2 2)-------->|
+//              (7) |<-----ACK (Block2 2, last)---|           notification (observe: 2) is complete
+
+        client.writeCoapRequest(request, responseProcessor);
+        Thread.sleep(500);
+
+        CoapMessage observationRequest =
+                testEndpoint.getReceivedMessages().get(testEndpoint.getReceivedMessages().lastKey());
+
+        //(2)
+        CoapResponse notification = new CoapResponse(Code.CONTENT_205);
+        notification.getHeader().setMsgType(MsgType.ACK);
+        notification.setMessageID(observationRequest.getMessageID());
+        notification.setToken(observationRequest.getToken());
+        notification.setObserveOptionValue(1);
+        notification.setPayload("Status #1".getBytes(Charset.forName("UTF-8")));
+        writeMessage(notification);
+        Thread.sleep(500);
+
+        //(3)
+        CoapResponse firstBlock = createBlock(0, false);
+        firstBlock.getHeader().setMsgType(MsgType.NON);
+        firstBlock.setMessageID(1001);
+        firstBlock.setToken(observationRequest.getToken());
+        firstBlock.setObserveOptionValue(2);
+        writeMessage(firstBlock);
+        Thread.sleep(500);
+
+        //(4) to (7)
+        for(long blockNumber = 1; blockNumber < 3; blockNumber++){
+            CoapMessage blockRequest =
+                    testEndpoint.getReceivedMessages().get(testEndpoint.getReceivedMessages().lastKey());
+
+            CoapResponse block = createBlock(blockNumber, blockNumber == 2);
+            block.getHeader().setMsgType(MsgType.ACK);
+            block.setMessageID(blockRequest.getMessageID());
+            block.setToken(blockRequest.getToken());
+            writeMessage(block);
+            Thread.sleep(500);
+        }
+    }
+
+    private static CoapResponse createBlock(long blockNumber, boolean isLastBlock) throws Exception {
+        CoapResponse response = new CoapResponse(Code.CONTENT_205);
+        response.setContentType(MediaType.TEXT_PLAIN_UTF8);
+        response.setETAG(new byte[]{2});
+        response.setBlockOption(BLOCK_2, blockNumber, isLastBlock, Blocksize.SIZE_16);
+        response.setPayload(createBlockPayload(blockNumber).getBytes(Charset.forName("UTF-8")));
+
+        return response;
+    }
+
+    private static String createBlockPayload(long blockNumber){
+        return String.format("Block #%09d\n", blockNumber);
+    }
+
+    private static void writeMessage(CoapMessage coapMessage){
+        testEndpoint.writeMessage(coapMessage, new InetSocketAddress("localhost", client.getClientPort()));
+    }
+
+    @Test
+    public void testEndpointReceivedRequestsForFollowUpBlocks() throws Exception {
+        assertEquals("Wrong number of requests.", 3, testEndpoint.getReceivedMessages().size());
+
+        Iterator<CoapMessage> requests = testEndpoint.getReceivedMessages().values().iterator();
+        CoapMessage observationRequest = requests.next();
+
+        for(long blockNumber = 1; blockNumber < 3; blockNumber++){
+            CoapMessage blockRequest = requests.next();
+            assertEquals("Wrong block number.", blockNumber, blockRequest.getBlockNumber(BLOCK_2));
+            assertTrue("Block request contains observe option.", blockRequest.getOption(OBSERVE_REQUEST).isEmpty());
+            assertTrue("Block request has wrong token.",
+                    Arrays.equals(observationRequest.getToken(), blockRequest.getToken()));
+        }
+    }
+
+    @Test
+    public void testObserverReceivedBothNotifications(){
+        assertEquals("Wrong number of notifications.", 2, responseProcessor.getCoapResponses().size());
+    }
+
+    @Test
+    public void testSecondNotificationIsComplete(){
+        CoapResponse response = responseProcessor.getCoapResponse(1);
+
+        String expected = createBlockPayload(0) + createBlockPayload(1) + createBlockPayload(2);
+        assertEquals("Wrong payload.", expected, response.getPayload().toString(Charset.forName("UTF-8")));
+        assertTrue("Notification contains block option.", response.getOptionList().getOption(BLOCK_2).isEmpty());
+        assertEquals("Wrong observe option.", 2, response.getObserveOptionValue());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.MediaTypeNotSupportedException;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static junit.framework.Assert.*;
+
+/**
+ * Tests if update notifications with a payload larger than the default blocksize are received completely.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientReceivesLargeObserveNotificationsTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor;
+
+    private static CoapServerApplication server;
+    private static ObservableTestWebService service;
+
+    private static CoapRequest request;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        service = new ObservableTestWebService(PATH_TO_SERVICE, 1, 0){
+            @Override
+            public byte[] getSerializedResourceStatus(OptionRegistry.MediaType mediaType)
+                    throws MediaTypeNotSupportedException {
+                return createStatus(getResourceStatus()).getBytes(Charset.forName("UTF-8"));
+            }
+        };
+        server.registerService(service);
+
+        client = new CoapClientApplication();
+        responseProcessor = new TestResponseProcessor();
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+        request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request.setObserveOptionRequest();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//              (1) |------GET-OBSERVE----------->|           send observable request to server
+//                  |                             |
+//              (2) |<-----ACK-NOTIFICATION-------|           initial notification (800 bytes)
+//                  |                             |
+//                  |                             |  <------  status update (new status: 2)
+//                  |                             |
+//              (3) |<-----CON-NOTIFICATION-------|           2nd notification (800 bytes)
+//                  |                             |
+//                  |                             |  <------  status update (new status: 3)
+//                  |                             |
+//              (4) |<-----CON-NOTIFICATION-------|           3rd notification (800 bytes)
+
+        client.writeCoapRequest(request, responseProcessor);
+        Thread.sleep(1500);
+
+        service.setResourceStatus(2);
+        Thread.sleep(1500);
+
+        service.setResourceStatus(3);
+        Thread.sleep(1500);
+    }
+
+    private static String createStatus(int status){
+        StringBuilder result = new StringBuilder();
+        while(result.length() < 800)
+            result.append("Status #").append(status).append(" ");
+
+        return result.substring(0, 800);
+    }
+
+    @Test
+    public void testClientReceived3Notifications(){
+        assertEquals("Wrong number of notifications.", 3, responseProcessor.getCoapResponses().size());
+    }
+
+    @Test
+    public void testNotificationsContainFullPayload(){
+        for(int i = 0; i < 3; i++){
+            CoapResponse response = responseProcessor.getCoapResponse(i);
+            assertEquals("Wrong payload of notification " + (i + 1) + ".", createStatus(i + 1),
+                    response.getPayload().toString(Charset.forName("UTF-8")));
+        }
+    }
+
+    @Test
+    public void testNotificationsContainNoBlockOption(){
+        for(CoapResponse response : responseProcessor.getCoapResponses())
+            assertTrue("Notification contains block option.", response.getOptionList().getOption(BLOCK_2).isEmpty());
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseResponseProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests if a client using a {@link BlockwiseResponseProcessor} receives the blocks of a blockwise transferred
+ * response one by one and if the next block is not requested before the processor is ready.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientReceivesStreamedBlockwiseResponseTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/large";
+    private static String PAYLOAD;
+
+    private static CoapServerApplication server;
+
+    private static CoapClientApplication client;
+    private static StreamingResponseProcessor responseProcessor;
+
+    private static int blocksReceivedBeforeResume;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        StringBuilder payload = new StringBuilder();
+        for(int i = 0; i < 1000; i++)
+            payload.append(String.format("Line #%03d\n", i));
+        PAYLOAD = payload.toString();
+
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+
+        client = new CoapClientApplication();
+        responseProcessor = new StreamingResponseProcessor();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//              (1) |------GET (Block2 0)-------->|           request 1st block of 10000 bytes
+//              (2) |<-----ACK (Block2 0)---------|           processor is not ready for the next block
+//                  |                             |
+//                  |   (pause)                   |
+//                  |                             |
+//              (3) |------GET (Block2 1)-------->|           application requests the next block
+//              (4) |<-----ACK (Block2 1)---------|           processor is ready for further blocks
+//                 ...                           ...
+//              (5) |<-----ACK (Block2 19)--------|           last block
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+
+        client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri), responseProcessor);
+        Thread.sleep(1000);
+
+        blocksReceivedBeforeResume = responseProcessor.getBlocks().size();
+        responseProcessor.setReady(true);
+        client.requestNextBlock(responseProcessor.getBlocks().get(0));
+        Thread.sleep(2000);
+    }
+
+    @Test
+    public void testNextBlockNotRequestedBeforeProcessorWasReady(){
+        assertEquals("Wrong number of blocks before resume.", 1, blocksReceivedBeforeResume);
+    }
+
+    @Test
+    public void testAllBlocksReceived(){
+        assertEquals("Wrong number of blocks.", 20, responseProcessor.getBlocks().size());
+    }
+
+    @Test
+    public void testOffsets(){
+        List<Long> offsets = responseProcessor.getOffsets();
+        for(int i = 0; i < offsets.size(); i++)
+            assertEquals("Wrong offset of block " + i + ".", 512L * i, (long) offsets.get(i));
+    }
+
+    @Test
+    public void testPayloadComplete(){
+        StringBuilder payload = new StringBuilder();
+        for(CoapResponse block : responseProcessor.getBlocks())
+            payload.append(block.getPayload().toString(Charset.forName("UTF-8")));
+
+        assertEquals("Wrong payload.", PAYLOAD, payload.toString());
+    }
+
+    @Test
+    public void testNoCompleteResponseDelivered(){
+        assertEquals("Complete response was delivered.", 0, responseProcessor.getCompleteResponses());
+    }
+
+    private static class StreamingResponseProcessor implements BlockwiseResponseProcessor {
+
+        private List<CoapResponse> blocks = Collections.synchronizedList(new ArrayList<CoapResponse>());
+        private List<Long> offsets = Collections.synchronizedList(new ArrayList<Long>());
+        private volatile boolean ready;
+        private volatile int completeResponses;
+
+        @Override
+        public boolean processResponseBlock(CoapResponse coapResponse, long offset) {
+            blocks.add(coapResponse);
+            offsets.add(offset);
+            return ready;
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            completeResponses++;
+        }
+
+        public void setReady(boolean ready) {
+            this.ready = ready;
+        }
+
+        public List<CoapResponse> getBlocks() {
+            return blocks;
+        }
+
+        public List<Long> getOffsets() {
+            return offsets;
+        }
+
+        public int getCompleteResponses() {
+            return completeResponses;
+        }
+    }
+}
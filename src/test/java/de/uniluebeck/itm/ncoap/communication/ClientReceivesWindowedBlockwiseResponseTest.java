@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if a client with a window of concurrently requested blocks receives the complete payload of a blockwise
+ * transferred response, including a payload whose number of blocks is not a multiple of the window size.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientReceivesWindowedBlockwiseResponseTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/large";
+    private static String PAYLOAD;
+
+    private static CoapServerApplication server;
+
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor1;
+    private static TestResponseProcessor responseProcessor2;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        StringBuilder payload = new StringBuilder();
+        for(int i = 0; i < 1000; i++)
+            payload.append(String.format("Line #%03d\n", i));
+        PAYLOAD = payload.toString();
+
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+
+        client = new CoapClientApplication();
+        client.setBlock2WindowSize(4);
+
+        responseProcessor1 = new TestResponseProcessor();
+        responseProcessor2 = new TestResponseProcessor();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//              (1) |------GET (Block2 0)-------->|           request 1st block of 10000 bytes
+//              (2) |<-----ACK (Block2 0)---------|
+//                  |                             |
+//              (3) |------GET (Block2 1-4)------>|           request next 4 blocks concurrently
+//              (4) |<-----ACK (Block2 1-4)-------|           (every received block moves the window)
+//                 ...                           ...
+//              (5) |<-----ACK (Block2 19)--------|           last block completes the payload
+//                  |                             |
+//              (6) |------GET (Block2 0, 256)--->|           same with blocksize 256 (40 blocks)
+//                 ...                           ...
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+
+        client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri), responseProcessor1);
+        Thread.sleep(2000);
+
+        CoapRequest request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request.setMaxBlocksizeForResponse(Blocksize.SIZE_256);
+        client.writeCoapRequest(request, responseProcessor2);
+        Thread.sleep(2000);
+    }
+
+    @Test
+    public void testClientReceivedOneResponsePerRequest(){
+        assertEquals("Wrong number of responses.", 1, responseProcessor1.getCoapResponses().size());
+        assertEquals("Wrong number of responses.", 1, responseProcessor2.getCoapResponses().size());
+    }
+
+    @Test
+    public void testPayloadsComplete(){
+        assertEquals("Wrong payload.", PAYLOAD,
+                responseProcessor1.getCoapResponse(0).getPayload().toString(Charset.forName("UTF-8")));
+        assertEquals("Wrong payload.", PAYLOAD,
+                responseProcessor2.getCoapResponse(0).getPayload().toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testResponsesContainNoBlockOption(){
+        assertTrue("Response contains BLOCK_2 option.",
+                responseProcessor1.getCoapResponse(0).getOptionList().getOption(BLOCK_2).isEmpty());
+    }
+}
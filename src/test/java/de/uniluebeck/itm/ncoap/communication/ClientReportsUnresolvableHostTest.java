@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.RequestFailureProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests if {@link CoapResponseProcessor}s implementing {@link RequestFailureProcessor} are informed if the
+ * hostname of the recipient of a request (or an observation request) cannot be resolved.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientReportsUnresolvableHostTest extends AbstractCoapCommunicationTest {
+
+    private static final String TARGET_URI = "coap://unresolvable.invalid/test";
+
+    private static CoapClientApplication client;
+
+    private static FailureRecordingProcessor requestProcessor;
+    private static FailureRecordingProcessor observationProcessor;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        client = new CoapClientApplication();
+        requestProcessor = new FailureRecordingProcessor();
+        observationProcessor = new FailureRecordingProcessor();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                      (unresolvable)
+//                  |                             |           GET cannot be sent, 1st processor fails
+//                  |                             |
+//                  |                             |           GET-OBSERVE cannot be sent, 2nd processor fails
+
+        client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, new URI(TARGET_URI)), requestProcessor);
+
+        CoapRequest observationRequest = new CoapRequest(MsgType.CON, Code.GET, new URI(TARGET_URI));
+        observationRequest.setObserveOptionRequest();
+        client.writeCoapRequest(observationRequest, observationProcessor);
+
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testRequestProcessorWasInformed(){
+        assertEquals("Wrong number of failures.", 1, requestProcessor.failures.size());
+        assertTrue("Wrong cause.", requestProcessor.failures.get(0) instanceof UnknownHostException);
+        assertTrue("Processor received a response.", requestProcessor.responses.isEmpty());
+    }
+
+    @Test
+    public void testObservationProcessorWasInformed(){
+        assertEquals("Wrong number of failures.", 1, observationProcessor.failures.size());
+        assertTrue("Wrong cause.", observationProcessor.failures.get(0) instanceof UnknownHostException);
+        assertTrue("Processor received a response.", observationProcessor.responses.isEmpty());
+    }
+
+
+    private static class FailureRecordingProcessor implements CoapResponseProcessor, RequestFailureProcessor {
+
+        private List<CoapResponse> responses = new CopyOnWriteArrayList<CoapResponse>();
+        private List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            responses.add(coapResponse);
+        }
+
+        @Override
+        public void processRequestFailure(Throwable cause) {
+            failures.add(cause);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests if a future returned by {@link CoapClientApplication#writeCoapRequest(CoapRequest)} fails if the request
+ * could not be sent, i.e. the future is completed even without deadline.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientRequestFutureFailsIfRequestNotSentTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+
+    private static CoapTestEndpoint testEndpoint;
+    private static CoapClientApplication client;
+
+    private static ListenableFuture<CoapResponse> lastOpenFuture;
+    private static ListenableFuture<CoapResponse> failedFuture;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        testEndpoint = new CoapTestEndpoint();
+        client = new CoapClientApplication();
+        client.setTokenLength(1);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                      Test Endpoint
+//              (1) |------256 x NON GET------->|           all tokens (1 byte) in use, no responses
+//                  |                           |
+//                  |                           |           257th request is not sent, i.e. the future fails
+
+        URI targetUri = new URI("coap://localhost:" + testEndpoint.getPort() + PATH_TO_SERVICE);
+
+        for(int i = 0; i < 256; i++)
+            lastOpenFuture = client.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, targetUri));
+
+        failedFuture = client.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, targetUri));
+
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testFutureFailedWithCause() throws Exception {
+        assertTrue("Future is not done.", failedFuture.isDone());
+        try{
+            failedFuture.get();
+            fail("Future was set with a response.");
+        }
+        catch (ExecutionException e) {
+            assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testFuturesOfSentRequestsStillOpen(){
+        assertFalse("Future of sent request is done.", lastOpenFuture.isDone());
+    }
+}
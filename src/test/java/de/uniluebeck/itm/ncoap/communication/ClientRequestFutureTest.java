@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the future-based API of the {@link CoapClientApplication}, i.e. if futures are set with the response, fail
+ * after the deadline passed, and if neither a cancelled request nor a request whose deadline passed is
+ * retransmitted.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientRequestFutureTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final String PAYLOAD = "Status";
+
+    private static CoapServerApplication server;
+    private static CoapTestEndpoint testEndpoint;
+    private static CoapClientApplication client;
+
+    private static ListenableFuture<CoapResponse> future1;
+    private static ListenableFuture<List<CoapResponse>> future2;
+    private static ListenableFuture<CoapResponse> future3;
+    private static ListenableFuture<CoapResponse> future4;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+
+        testEndpoint = new CoapTestEndpoint();
+        client = new CoapClientApplication();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server / Test Endpoint
+//              (1) |------GET------------------->|           (server) future is set with the response
+//              (2) |<-----ACK--------------------|
+//                  |                             |
+//              (3) |------3 x GET--------------->|           (server) futures are awaited together
+//              (4) |<-----3 x ACK----------------|
+//                  |                             |
+//              (5) |------GET------------------->|           (endpoint) deadline of 1 second
+//              (6) |------GET------------------->|           (endpoint) cancelled after 500 ms
+//                  |                             |
+//                  |                             |           no retransmissions within 5 seconds
+
+        URI serverUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+        URI endpointUri = new URI("coap://localhost:" + testEndpoint.getPort() + PATH_TO_SERVICE);
+
+        future1 = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, serverUri), 2, TimeUnit.SECONDS);
+
+        List<ListenableFuture<CoapResponse>> futures = new ArrayList<ListenableFuture<CoapResponse>>();
+        for(int i = 0; i < 3; i++)
+            futures.add(client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, serverUri)));
+        future2 = Futures.allAsList(futures);
+
+        future3 = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, endpointUri), 1, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        future4 = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, endpointUri));
+
+        Thread.sleep(500);
+        future4.cancel(true);
+
+        Thread.sleep(5000);
+    }
+
+    @Test
+    public void testFutureSetWithResponse() throws Exception {
+        assertEquals("Wrong code.", Code.CONTENT_205, future1.get().getCode());
+        assertEquals("Wrong payload.", PAYLOAD, future1.get().getPayload().toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testFuturesAwaitedTogether() throws Exception {
+        assertEquals("Wrong number of responses.", 3, future2.get().size());
+        for(CoapResponse coapResponse : future2.get())
+            assertEquals("Wrong code.", Code.CONTENT_205, coapResponse.getCode());
+    }
+
+    @Test
+    public void testDeadlinePassed() throws Exception {
+        try{
+            future3.get();
+            fail("Future did not fail.");
+        }
+        catch (ExecutionException e) {
+            assertTrue("Wrong exception.", e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testFutureCancelled(){
+        assertTrue("Future not cancelled.", future4.isCancelled());
+    }
+
+    @Test
+    public void testNoRetransmissions(){
+        assertEquals("Wrong number of requests received by endpoint.", 2, testEndpoint.getReceivedMessages().size());
+    }
+}
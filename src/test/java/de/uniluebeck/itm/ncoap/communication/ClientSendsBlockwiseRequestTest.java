@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseTransferHandler;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if the client sends large request payloads blockwise and if the server reassembles them, both in memory
+ * and (for payloads exceeding {@link BlockwiseTransferHandler#UPLOAD_MEMORY_THRESHOLD}) in a temporary file.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientSendsBlockwiseRequestTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/upload";
+
+    private static CoapServerApplication server;
+    private static NotObservableTestWebService service;
+
+    private static CoapClientApplication client;
+    private static TestResponseProcessor smallUploadProcessor;
+    private static TestResponseProcessor largeUploadProcessor;
+
+    private static String smallPayload;
+    private static String largePayload;
+    private static String statusAfterSmallUpload;
+    private static String statusAfterLargeUpload;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        service = new NotObservableTestWebService(PATH_TO_SERVICE, "initial", 0);
+        server.registerService(service);
+
+        client = new CoapClientApplication();
+        smallUploadProcessor = new TestResponseProcessor();
+        largeUploadProcessor = new TestResponseProcessor();
+
+        smallPayload = createPayload(5000);
+        largePayload = createPayload(BlockwiseTransferHandler.UPLOAD_MEMORY_THRESHOLD + 50000);
+    }
+
+    private static String createPayload(int length){
+        StringBuilder payload = new StringBuilder(length);
+        for(int i = 0; i < length; i++)
+            payload.append((char) ('a' + (i % 26)));
+
+        return payload.toString();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//              (1) |------PUT (Block1 0)-------->|           upload of 5000 bytes with default blocksize
+//              (2) |<-----ACK 2.04 (Block1 0)----|
+//                 ...                           ...
+//              (3) |------PUT (Block1 9)-------->|           last block, server reassembles the payload
+//              (4) |<-----ACK 2.04 (Block1 9)----|
+//                  |                             |
+//              (5) |------PUT (Block1 0)-------->|           upload of 115536 bytes with blocksize 1024
+//                 ...                           ...          (server spills the payload to a temporary file)
+//              (6) |<-----ACK 2.04 (Block1 112)--|
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+
+        CoapRequest smallUpload = new CoapRequest(MsgType.CON, Code.PUT, targetUri);
+        smallUpload.setPayload(smallPayload.getBytes(Charset.forName("UTF-8")));
+        client.writeCoapRequest(smallUpload, smallUploadProcessor);
+
+        Thread.sleep(1000);
+        statusAfterSmallUpload = service.getResourceStatus();
+
+        CoapRequest largeUpload = new CoapRequest(MsgType.CON, Code.PUT, targetUri);
+        largeUpload.setPayload(largePayload.getBytes(Charset.forName("UTF-8")));
+        largeUpload.setMaxBlocksizeForRequest(Blocksize.SIZE_1024);
+        client.writeCoapRequest(largeUpload, largeUploadProcessor);
+
+        Thread.sleep(5000);
+        statusAfterLargeUpload = service.getResourceStatus();
+    }
+
+    @Test
+    public void testClientReceivedOneResponsePerUpload(){
+        assertEquals("Wrong number of responses for small upload.", 1,
+                smallUploadProcessor.getCoapResponses().size());
+        assertEquals("Wrong number of responses for large upload.", 1,
+                largeUploadProcessor.getCoapResponses().size());
+    }
+
+    @Test
+    public void testResponsesConfirmChange(){
+        assertEquals("Wrong code.", Code.CHANGED_204, smallUploadProcessor.getCoapResponse(0).getCode());
+        assertEquals("Wrong code.", Code.CHANGED_204, largeUploadProcessor.getCoapResponse(0).getCode());
+    }
+
+    @Test
+    public void testSmallUploadReassembled(){
+        assertEquals("Wrong status length.", smallPayload.length(), statusAfterSmallUpload.length());
+        assertTrue("Wrong status.", smallPayload.equals(statusAfterSmallUpload));
+    }
+
+    @Test
+    public void testLargeUploadReassembled(){
+        assertEquals("Wrong status length.", largePayload.length(), statusAfterLargeUpload.length());
+        assertTrue("Wrong status.", largePayload.equals(statusAfterLargeUpload));
+    }
+}
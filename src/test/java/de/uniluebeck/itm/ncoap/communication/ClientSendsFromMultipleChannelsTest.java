@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests a {@link CoapClientApplication} with several local sockets, i.e. if all requests to the same remote address
+ * are sent from the same socket, if the requests are spread over the sockets, and if responses are received on all
+ * sockets.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientSendsFromMultipleChannelsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+
+    private static final int NUMBER_OF_CHANNELS = 4;
+    private static final int NUMBER_OF_ENDPOINTS = 8;
+    private static final int NUMBER_OF_SERVERS = 4;
+
+    private static CoapClientApplication client;
+    private static CoapTestEndpoint[] testEndpoints;
+    private static CoapServerApplication[] servers;
+
+    private static ListenableFuture<List<CoapResponse>> responses;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        client = new CoapClientApplication(NUMBER_OF_CHANNELS);
+
+        testEndpoints = new CoapTestEndpoint[NUMBER_OF_ENDPOINTS];
+        for(int i = 0; i < NUMBER_OF_ENDPOINTS; i++)
+            testEndpoints[i] = new CoapTestEndpoint();
+
+        servers = new CoapServerApplication[NUMBER_OF_SERVERS];
+        for(int i = 0; i < NUMBER_OF_SERVERS; i++){
+            servers[i] = new CoapServerApplication(0);
+            servers[i].registerService(new NotObservableTestWebService(PATH_TO_SERVICE, "Server " + i, 0));
+        }
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+
+        for(CoapTestEndpoint testEndpoint : testEndpoints)
+            testEndpoint.shutdown();
+
+        for(CoapServerApplication server : servers)
+            server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client (4 sockets)            Test Endpoints (8) / Servers (4)
+//              (1) |------3 x NON GET--------->|           (each endpoint) requests from the same socket
+//                  |                           |
+//              (2) |------3 x CON GET--------->|           (each server)
+//              (3) |<-----3 x ACK--------------|           responses received on all sockets
+
+        for(int i = 0; i < 3; i++){
+            for(CoapTestEndpoint testEndpoint : testEndpoints){
+                URI targetUri = new URI("coap://localhost:" + testEndpoint.getPort() + PATH_TO_SERVICE);
+                client.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, targetUri));
+            }
+            Thread.sleep(100);
+        }
+
+        List<ListenableFuture<CoapResponse>> futures = new ArrayList<ListenableFuture<CoapResponse>>();
+        for(int i = 0; i < 3; i++){
+            for(CoapServerApplication server : servers){
+                URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+                futures.add(client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri)));
+            }
+        }
+        responses = Futures.allAsList(futures);
+        responses.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testNumberOfChannels(){
+        assertEquals("Wrong number of channels.", NUMBER_OF_CHANNELS, client.getNumberOfChannels());
+    }
+
+    @Test
+    public void testRemoteAddressesPinnedToChannels(){
+        for(CoapTestEndpoint testEndpoint : testEndpoints){
+            assertEquals("Wrong number of requests received by endpoint.", 3,
+                    testEndpoint.getReceivedMessages().size());
+            assertEquals("Requests sent from several sockets.", 1, testEndpoint.getSenders().size());
+        }
+    }
+
+    @Test
+    public void testRequestsSpreadOverChannels(){
+        Set<Integer> ports = new HashSet<Integer>();
+        for(CoapTestEndpoint testEndpoint : testEndpoints){
+            for(InetSocketAddress sender : testEndpoint.getSenders())
+                ports.add(sender.getPort());
+        }
+
+        assertTrue("All requests sent from the same socket.", ports.size() > 1);
+    }
+
+    @Test
+    public void testResponsesReceived() throws Exception {
+        assertEquals("Wrong number of responses.", 3 * NUMBER_OF_SERVERS, responses.get().size());
+        for(CoapResponse coapResponse : responses.get())
+            assertEquals("Wrong code.", Code.CONTENT_205, coapResponse.getCode());
+    }
+}
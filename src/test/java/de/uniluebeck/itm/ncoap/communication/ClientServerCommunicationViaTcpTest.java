@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.Header;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests CoAP over TCP, i.e. if concurrent requests are multiplexed over one connection, if large payloads are sent
+ * without blockwise transfer, if error responses are matched, and if requests are sent via UDP again after the
+ * connection was closed.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientServerCommunicationViaTcpTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final String PATH_TO_LARGE_SERVICE = "/large";
+    private static final String PAYLOAD = "Status";
+    private static final String LARGE_PAYLOAD = Strings.repeat("0123456789", 10000);
+
+    private static final int NUMBER_OF_REQUESTS = 20;
+
+    private static CoapServerApplication server;
+    private static CoapClientApplication client;
+
+    private static ListenableFuture<List<CoapResponse>> responses;
+    private static CoapResponse largeResponse;
+    private static CoapResponse errorResponse;
+    private static CoapResponse udpResponse;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.core").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.bindTcp(new InetSocketAddress(server.getServerPort()));
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+        server.registerService(new NotObservableTestWebService(PATH_TO_LARGE_SERVICE, LARGE_PAYLOAD, 0));
+
+        client = new CoapClientApplication();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//                  |=====TCP connect============>|
+//              (1) |------GET (20 concurrent)--->|           one connection
+//              (2) |<-----CONTENT (20)-----------|           matched by token
+//                  |                             |
+//              (3) |------GET /large------------>|
+//              (4) |<-----CONTENT (100 KB)-------|           no Block2
+//                  |                             |
+//              (5) |------GET /unknown---------->|
+//              (6) |<-----NOT FOUND--------------|
+//                  |=====TCP close==============>|
+//              (7) |------CON GET (UDP)--------->|
+//              (8) |<-----ACK CONTENT------------|
+
+        InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getTcpServerPort());
+        client.connectTcp(serverAddress);
+
+        List<ListenableFuture<CoapResponse>> futures = new ArrayList<ListenableFuture<CoapResponse>>();
+        for(int i = 0; i < NUMBER_OF_REQUESTS; i++){
+            URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SERVICE);
+            futures.add(client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri)));
+        }
+        responses = Futures.allAsList(futures);
+        responses.get(5, TimeUnit.SECONDS);
+
+        URI largeUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_LARGE_SERVICE);
+        largeResponse = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, largeUri))
+                              .get(5, TimeUnit.SECONDS);
+
+        URI unknownUri = new URI("coap://127.0.0.1:" + server.getServerPort() + "/unknown");
+        errorResponse = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, unknownUri))
+                              .get(5, TimeUnit.SECONDS);
+
+        client.disconnectTcp(serverAddress);
+
+        URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SERVICE);
+        udpResponse = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri))
+                            .get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConcurrentRequestsViaTcp() throws Exception {
+        assertEquals("Wrong number of responses.", NUMBER_OF_REQUESTS, responses.get().size());
+        for(CoapResponse coapResponse : responses.get()){
+            assertEquals("Wrong code.", Code.CONTENT_205, coapResponse.getCode());
+            assertEquals("Wrong payload.", PAYLOAD, coapResponse.getPayload().toString(Charset.forName("UTF-8")));
+
+            //Frames have no message ID
+            assertEquals("Wrong message ID.", Header.MESSAGE_ID_UNDEFINED, coapResponse.getMessageID());
+        }
+    }
+
+    @Test
+    public void testLargePayloadWithoutBlockwiseTransfer(){
+        assertEquals("Wrong code.", Code.CONTENT_205, largeResponse.getCode());
+        assertTrue("Response must not be split into blocks.",
+                largeResponse.getOptionList().getOption(BLOCK_2).isEmpty());
+        assertEquals("Wrong payload.", LARGE_PAYLOAD, largeResponse.getPayload().toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testErrorResponseViaTcp(){
+        assertEquals("Wrong code.", Code.NOT_FOUND_404, errorResponse.getCode());
+    }
+
+    @Test
+    public void testUdpAfterDisconnect(){
+        assertEquals("Wrong code.", Code.CONTENT_205, udpResponse.getCode());
+        assertEquals("Wrong message type.", MsgType.ACK, udpResponse.getMessageType());
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.ETAG;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if a client with a window of concurrently requested blocks sends the options of the original request with
+ * every request for a follow-up block and if a {@link Code#BAD_OPTION_402} for the next missing block is given to
+ * the application.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientWindowedBlockRequestsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/large";
+
+    private static CoapTestEndpoint testEndpoint;
+    private static CoapClientApplication client;
+
+    private static ListenableFuture<CoapResponse> future;
+    private static List<CoapMessage> requests;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        testEndpoint = new CoapTestEndpoint();
+        client = new CoapClientApplication();
+        client.setBlock2WindowSize(2);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                      Test Endpoint
+//              (1) |------GET (ETAG)------------>|
+//              (2) |<-----ACK (Block2 0)---------|
+//              (3) |------GET (ETAG, Block2 1)-->|           request next 2 blocks concurrently
+//              (4) |------GET (ETAG, Block2 2)-->|
+//              (5) |<-----ACK 4.02 (for 1)-------|           4.02 for the next missing block is given to the
+//                  |                             |           application
+
+        URI targetUri = new URI("coap://localhost:" + testEndpoint.getPort() + PATH_TO_SERVICE);
+        CoapRequest request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request.setETAG(new byte[]{0x11, 0x22});
+        future = client.writeCoapRequest(request);
+        Thread.sleep(500);
+
+        CoapMessage firstRequest = testEndpoint.getReceivedMessages().values().iterator().next();
+        CoapResponse response = new CoapResponse(Code.CONTENT_205);
+        response.getHeader().setMsgType(MsgType.ACK);
+        response.setMessageID(firstRequest.getMessageID());
+        response.setToken(firstRequest.getToken());
+        response.setContentType(MediaType.TEXT_PLAIN_UTF8);
+        response.setBlockOption(BLOCK_2, 0, false, Blocksize.SIZE_16);
+        response.setPayload(new byte[16]);
+        testEndpoint.writeMessage(response, new InetSocketAddress("localhost", client.getClientPort()));
+        Thread.sleep(500);
+
+        requests = new ArrayList<CoapMessage>(testEndpoint.getReceivedMessages().values());
+
+        for(CoapMessage blockRequest : requests){
+            if(!blockRequest.getOptionList().getOption(BLOCK_2).isEmpty() && blockRequest.getBlockNumber(BLOCK_2) == 1){
+                CoapResponse badOption = new CoapResponse(Code.BAD_OPTION_402);
+                badOption.getHeader().setMsgType(MsgType.ACK);
+                badOption.setMessageID(blockRequest.getMessageID());
+                badOption.setToken(blockRequest.getToken());
+                testEndpoint.writeMessage(badOption, new InetSocketAddress("localhost", client.getClientPort()));
+            }
+        }
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testEndpointReceivedRequestsForTwoFollowUpBlocks(){
+        assertEquals("Wrong number of requests.", 3, requests.size());
+    }
+
+    @Test
+    public void testRequestsForFollowUpBlocksContainOriginalOptions(){
+        for(CoapMessage blockRequest : requests.subList(1, requests.size())){
+            assertFalse("Missing BLOCK_2 option.", blockRequest.getOptionList().getOption(BLOCK_2).isEmpty());
+            assertEquals("Missing ETAG option.", 1, blockRequest.getOptionList().getOption(ETAG).size());
+        }
+    }
+
+    @Test
+    public void testBadOptionWasGivenToApplication() throws Exception {
+        assertTrue("Future is not done.", future.isDone());
+        assertEquals("Wrong code.", Code.BAD_OPTION_402, future.get().getCode());
+    }
+}
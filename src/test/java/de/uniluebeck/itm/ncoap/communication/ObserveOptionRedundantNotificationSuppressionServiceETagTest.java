@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.SortedMap;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.ETAG;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+
+/**
+* Tests if the server replaces an {@link de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName#ETAG}
+* set by an observable service on the registration response with the ETAG of the later {@link Code#VALID_203}
+* notifications if redundant notifications are suppressed.
+*
+* @author Oliver Kleine
+*/
+public class ObserveOptionRedundantNotificationSuppressionServiceETagTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static final byte[] SERVICE_ETAG = new byte[]{1, 2, 3};
+
+    private static CoapRequest request;
+
+    private static CoapTestEndpoint endpoint;
+    private static CoapServerApplication server;
+    private static ObservableTestWebService service;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.observe").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+
+        //The service sets its own ETAG on every response
+        service = new ObservableTestWebService(PATH_TO_SERVICE, 1, 0){
+            @Override
+            public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                           InetSocketAddress remoteAddress) {
+
+                SettableFuture<CoapResponse> serviceResponseFuture = SettableFuture.create();
+                super.processCoapRequest(serviceResponseFuture, coapRequest, remoteAddress);
+
+                try{
+                    CoapResponse coapResponse = serviceResponseFuture.get();
+                    coapResponse.setETAG(SERVICE_ETAG);
+                    responseFuture.set(coapResponse);
+                }
+                catch (Exception e) {
+                    responseFuture.setException(e);
+                }
+            }
+        };
+        service.setMaxAge(3);
+        service.setRedundantNotificationSuppressionEnabled(true);
+
+        server.registerService(service);
+
+        endpoint = new CoapTestEndpoint();
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+        request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request.getHeader().setMsgID(3333);
+        request.setToken(new byte[]{0x13, 0x24, 0x35});
+        request.setObserveOptionRequest();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        Thread.sleep(1000);
+        endpoint.shutdown();
+    }
+
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             testEndpoint                    Server      DESCRIPTION
+//                  |                             |
+//              (1) |--------GET_OBSERVE--------->|        Register observer
+//                  |                             |
+//              (2) |<-------1st Notification-----|        ETAG of the service is replaced by the hash ETAG
+//                  |                             |
+//                  |                             |        Status is set to the same value (no notification)
+//                  |                             | |
+//                  |                             | | 3 seconds until max-age ends
+//                  |                             | |
+//              (3) |<-------2.03 Notification----|        Representation is still valid (hash ETAG)
+//                  |                             |
+//              (4) |--------RST----------------->|
+//                  |                             |
+
+        endpoint.writeMessage(request, new InetSocketAddress("localhost", server.getServerPort()));
+
+        Thread.sleep(1000);
+        service.setResourceStatus(1);
+
+        //wait for Max-Age to end and resulting notification
+        Thread.sleep(3500);
+
+        //write RST
+        int messageID = endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().lastKey()).getMessageID();
+        endpoint.writeMessage(CoapMessage.createEmptyReset(messageID),
+            new InetSocketAddress("localhost", server.getServerPort()));
+
+        Thread.sleep(1000);
+    }
+
+
+    @Test
+    public void testReceiverReceived2Messages() {
+        assertEquals("Receiver did not receive 2 messages", 2, endpoint.getReceivedMessages().values().size());
+    }
+
+    @Test
+    public void testFirstNotificationDoesNotContainETagOfService() {
+        CoapMessage recNotification1 = endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().firstKey());
+
+        assertEquals("1st notification should contain 1 ETAG", 1, recNotification1.getOption(ETAG).size());
+        assertFalse("1st notification should not contain the ETAG of the service",
+                Arrays.equals(SERVICE_ETAG, recNotification1.getOption(ETAG).get(0).getValue()));
+    }
+
+    @Test
+    public void testFirstNotificationContainsETagOfSecondNotification() {
+        SortedMap<Long, CoapMessage> receivedMessages = endpoint.getReceivedMessages();
+        Iterator<Long> timeKeys = receivedMessages.keySet().iterator();
+        CoapMessage recNotification1 = receivedMessages.get(timeKeys.next());
+        CoapMessage recNotification2 = receivedMessages.get(timeKeys.next());
+
+        assertEquals("2nd notification should be 2.03", Code.VALID_203, recNotification2.getCode());
+        assertEquals("ETAGs of both notifications should be equal", recNotification1.getOption(ETAG),
+                recNotification2.getOption(ETAG));
+    }
+}
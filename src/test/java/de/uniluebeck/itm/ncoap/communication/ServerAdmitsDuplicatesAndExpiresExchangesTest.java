@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionController;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if the server lets duplicates of admitted requests pass even when overloaded (i.e. the duplicate does not
+ * cause a {@link Code#SERVICE_UNAVAILABLE_503} for a request that is already processed) and if exchanges without
+ * response expire, i.e. do not keep the server overloaded forever.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerAdmitsDuplicatesAndExpiresExchangesTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SLOW_SERVICE = "/slow";
+    private static final String PATH_TO_SILENT_SERVICE = "/silent";
+    private static final long PROCESSING_TIME = 1500;
+    private static final long EXCHANGE_TIMEOUT = 1000;
+
+    private static CoapServerApplication server;
+    private static CoapTestEndpoint endpoint;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.admission").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SLOW_SERVICE, "slow", PROCESSING_TIME));
+
+        //this service never sets the response
+        server.registerService(new NotObservableTestWebService(PATH_TO_SILENT_SERVICE, "silent", 0){
+            @Override
+            public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest request,
+                                           InetSocketAddress remoteAddress) {
+                //Nothing to do here...
+            }
+        });
+
+        server.getAdmissionController().setMaxInFlightExchanges(1);
+        server.getAdmissionController().setExchangeTimeout(EXCHANGE_TIMEOUT);
+
+        endpoint = new CoapTestEndpoint();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        endpoint.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             Endpoint                          Server
+//      (1)       |----CON GET /slow (MID 5000)--->|   admitted (in-flight 1/1)
+//      (2)       |----CON GET /slow (MID 5000)--->|   duplicate, passes
+//      (3)       |----CON GET /slow (MID 5001)--->|   overloaded
+//      (4)       |<---ACK 5.03 (MID 5001)---------|
+//      (5)       |<---ACK CONTENT (MID 5000)------|
+//                |                                |
+//      (6)       |----CON GET /silent (MID 5002)->|   admitted (in-flight 1/1), never answered by the service
+//                |                                |   exchange expires after 1 second
+//      (7)       |<---ACK 5.00 (MID 5002)---------|
+//      (8)       |----CON GET /slow (MID 5003)--->|   admitted
+//      (9)       |<---ACK CONTENT (MID 5003)------|
+
+        URI slowUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SLOW_SERVICE);
+        URI silentUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SILENT_SERVICE);
+        InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getServerPort());
+
+        endpoint.writeMessage(createRequest(slowUri, 5000), serverAddress);
+        Thread.sleep(200);
+
+        endpoint.writeMessage(createRequest(slowUri, 5000), serverAddress);
+        Thread.sleep(100);
+
+        endpoint.writeMessage(createRequest(slowUri, 5001), serverAddress);
+        Thread.sleep(PROCESSING_TIME + 200);
+
+        endpoint.writeMessage(createRequest(silentUri, 5002), serverAddress);
+        Thread.sleep(EXCHANGE_TIMEOUT + 500);
+
+        endpoint.writeMessage(createRequest(slowUri, 5003), serverAddress);
+        Thread.sleep(PROCESSING_TIME + 500);
+    }
+
+    private static CoapRequest createRequest(URI targetUri, int messageID) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        coapRequest.setMessageID(messageID);
+        coapRequest.setToken(new byte[]{(byte) (messageID >>> 8), (byte) messageID});
+        return coapRequest;
+    }
+
+    private static List<Code> getReceivedCodes(int messageID){
+        List<Code> result = new ArrayList<Code>();
+        for(CoapMessage coapMessage : endpoint.getReceivedMessages().values()){
+            if(coapMessage.getMessageID() == messageID)
+                result.add(coapMessage.getCode());
+        }
+        return result;
+    }
+
+    @Test
+    public void testDuplicateOfAdmittedRequestNotRejected(){
+        assertFalse("Duplicate of admitted request was rejected.",
+                getReceivedCodes(5000).contains(Code.SERVICE_UNAVAILABLE_503));
+        assertTrue("Admitted request was not answered.", getReceivedCodes(5000).contains(Code.CONTENT_205));
+    }
+
+    @Test
+    public void testNewRequestRejected(){
+        assertTrue("New request was not rejected.", getReceivedCodes(5001).contains(Code.SERVICE_UNAVAILABLE_503));
+    }
+
+    @Test
+    public void testExchangeExpired(){
+        assertTrue("Expired exchange was not answered with an error.",
+                getReceivedCodes(5002).contains(Code.INTERNAL_SERVER_ERROR_500));
+
+        AdmissionController admissionController = server.getAdmissionController();
+        assertEquals("Wrong number of expired exchanges.", 1, admissionController.getExpiredExchanges());
+        assertEquals("Exchanges were not completed.", 0, admissionController.getInFlightExchanges());
+    }
+
+    @Test
+    public void testRequestAdmittedAfterExpiry(){
+        assertTrue("Request after expiry was not admitted.", getReceivedCodes(5003).contains(Code.CONTENT_205));
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_1;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests if the server evicts an incoming blockwise request (including its temporary file) after the upload timeout
+ * even if there are no further blocks.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerEvictsExpiredUploadsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/upload";
+
+    private static CoapServerApplication server;
+    private static CoapTestEndpoint testEndpoint;
+
+    private static int filesBeforeUpload;
+    private static int filesDuringUpload;
+    private static int filesAfterTimeout;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, "initial", 0));
+
+        //spill every upload to a temporary file and evict it after 500 ms
+        server.setUploadLimits(0, 1024, 1, 500);
+
+        testEndpoint = new CoapTestEndpoint();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             testEndpoint                    Server
+//              (1) |------PUT (Block1 0, M)----->|           first block of an upload that is never finished
+//              (2) |<-----ACK 2.04 (Block1 0)----|           upload is spilled to a temporary file
+//                  |                             |
+//                  |                             |           upload is evicted after 500 ms
+
+        filesBeforeUpload = countUploadFiles();
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+        CoapRequest request = new CoapRequest(MsgType.CON, Code.PUT, targetUri);
+        request.getHeader().setMsgID(1234);
+        request.setToken(new byte[]{0x12, 0x34});
+        request.setPayload(new byte[16]);
+        request.setBlockOption(BLOCK_1, 0, false, Blocksize.SIZE_16);
+
+        testEndpoint.writeMessage(request, new InetSocketAddress("localhost", server.getServerPort()));
+        Thread.sleep(200);
+        filesDuringUpload = countUploadFiles();
+
+        Thread.sleep(2500);
+        filesAfterTimeout = countUploadFiles();
+    }
+
+    private static int countUploadFiles(){
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("ncoap-upload");
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testIntermediateBlockWasConfirmed(){
+        assertEquals("Wrong number of responses.", 1, testEndpoint.getReceivedMessages().size());
+        assertEquals("Wrong code.", Code.CHANGED_204,
+                testEndpoint.getReceivedMessages().values().iterator().next().getCode());
+    }
+
+    @Test
+    public void testTemporaryFileWasCreated(){
+        assertEquals("Upload was not spilled to a temporary file.", filesBeforeUpload + 1, filesDuringUpload);
+    }
+
+    @Test
+    public void testTemporaryFileWasDeletedAfterTimeout(){
+        assertEquals("Temporary file of expired upload was not deleted.", filesBeforeUpload, filesAfterTimeout);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests a {@link CoapServerApplication} listening on several sockets, i.e. if all sockets answer requests for the
+ * shared services (from the socket that received the request) and if observations work on any socket.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerListensOnMultipleChannelsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final String PATH_TO_OBSERVABLE_SERVICE = "/observable";
+    private static final String PAYLOAD = "Status";
+
+    private static final int NUMBER_OF_CHANNELS = 3;
+
+    private static CoapServerApplication server;
+    private static ObservableTestWebService observableService;
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor;
+
+    private static ListenableFuture<List<CoapResponse>> responses;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.server").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        InetSocketAddress[] localAddresses = new InetSocketAddress[NUMBER_OF_CHANNELS];
+        for(int i = 0; i < NUMBER_OF_CHANNELS; i++)
+            localAddresses[i] = new InetSocketAddress(0);
+
+        server = new CoapServerApplication(localAddresses);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+
+        observableService = new ObservableTestWebService(PATH_TO_OBSERVABLE_SERVICE, 1, 0);
+        server.registerService(observableService);
+
+        client = new CoapClientApplication();
+        responseProcessor = new TestResponseProcessor();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server (3 sockets)
+//              (1) |------GET------------------->|           (each socket)
+//              (2) |<-----ACK--------------------|           from the same socket
+//                  |                             |
+//              (3) |------GET-OBSERVE----------->|           (3rd socket)
+//              (4) |<-----ACK-NOTIFICATION-------|
+//                  |                             |           status change
+//              (5) |<-----CON-NOTIFICATION-------|           from the 3rd socket
+//              (6) |------ACK------------------->|
+
+        List<ListenableFuture<CoapResponse>> futures = new ArrayList<ListenableFuture<CoapResponse>>();
+        for(int port : server.getServerPorts()){
+            URI targetUri = new URI("coap://localhost:" + port + PATH_TO_SERVICE);
+            futures.add(client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri)));
+        }
+        responses = Futures.allAsList(futures);
+        responses.get(5, TimeUnit.SECONDS);
+
+        URI observableUri =
+                new URI("coap://localhost:" + server.getServerPorts()[2] + PATH_TO_OBSERVABLE_SERVICE);
+        CoapRequest observationRequest = new CoapRequest(MsgType.CON, Code.GET, observableUri);
+        observationRequest.setObserveOptionRequest();
+
+        client.writeCoapRequest(observationRequest, responseProcessor);
+        Thread.sleep(500);
+
+        observableService.setResourceStatus(2);
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testNumberOfSockets(){
+        assertEquals("Wrong number of sockets.", NUMBER_OF_CHANNELS, server.getServerPorts().length);
+    }
+
+    @Test
+    public void testAllSocketsRespond() throws Exception {
+        assertEquals("Wrong number of responses.", NUMBER_OF_CHANNELS, responses.get().size());
+        for(CoapResponse coapResponse : responses.get()){
+            assertEquals("Wrong code.", Code.CONTENT_205, coapResponse.getCode());
+            assertEquals("Wrong payload.", PAYLOAD, coapResponse.getPayload().toString(Charset.forName("UTF-8")));
+        }
+    }
+
+    @Test
+    public void testObservationOnThirdSocket(){
+        assertEquals("Wrong number of notifications.", 2, responseProcessor.getCoapResponses().size());
+        assertEquals("Wrong payload.", "Status #2",
+                responseProcessor.getCoapResponse(1).getPayload().toString(Charset.forName("UTF-8")));
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.admission.RateLimit;
+import de.uniluebeck.itm.ncoap.communication.admission.RateLimiter;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Iterator;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests if the server sheds the requests of a source exceeding its rate limit before decoding, i.e. with RST for
+ * confirmable requests and without any reaction for non-confirmable requests, while the requests within the limit
+ * are processed normally and empty messages (e.g. ACK) are not limited at all.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerRateLimitsSourceAddressTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final int BURST = 3;
+
+    private static CoapServerApplication server;
+    private static CoapTestEndpoint endpoint;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.admission").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, "payload", 0));
+
+        //the prefix rule overrides the (very restrictive) default limit
+        server.getRateLimiter().setDefaultRateLimit(new RateLimit(0.1, 1, RateLimit.Action.DROP));
+        server.getRateLimiter().setRateLimit("127.0.0.0/8", new RateLimit(0.1, BURST, RateLimit.Action.RESET));
+
+        endpoint = new CoapTestEndpoint();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        endpoint.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Endpoint                          Server
+//           (1) |----CON GET (MID 1)-------------->|   within burst
+//           (2) |<---ACK CONTENT (MID 1)-----------|
+//           (3) |----CON GET (MID 2)-------------->|   within burst
+//           (4) |<---ACK CONTENT (MID 2)-----------|
+//           (5) |----CON GET (MID 3)-------------->|   within burst
+//           (6) |<---ACK CONTENT (MID 3)-----------|
+//           (7) |----CON GET (MID 4)-------------->|   limit exceeded
+//           (8) |<---RST (MID 4)-------------------|
+//           (9) |----NON GET (MID 5)-------------->|   limit exceeded, dropped
+//          (10) |----ACK (MID 6)------------------>|   not limited
+
+        URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SERVICE);
+        InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getServerPort());
+
+        for(int messageID = 1; messageID <= 5; messageID++){
+            CoapRequest coapRequest = new CoapRequest(messageID < 5 ? MsgType.CON : MsgType.NON, Code.GET, targetUri);
+            coapRequest.setMessageID(messageID);
+            endpoint.writeMessage(coapRequest, serverAddress);
+            Thread.sleep(100);
+        }
+
+        endpoint.writeMessage(CoapMessage.createEmptyAcknowledgement(6), serverAddress);
+        Thread.sleep(200);
+    }
+
+    @Test
+    public void testMessagesWithinLimitAreProcessed(){
+        assertEquals("Wrong number of messages received by endpoint.", BURST + 1,
+                endpoint.getReceivedMessages().size());
+
+        Iterator<CoapMessage> messages = endpoint.getReceivedMessages().values().iterator();
+        for(int messageID = 1; messageID <= BURST; messageID++){
+            CoapMessage response = messages.next();
+            assertEquals("Wrong message type.", MsgType.ACK, response.getMessageType());
+            assertEquals("Wrong code.", Code.CONTENT_205, response.getCode());
+            assertEquals("Wrong message ID.", messageID, response.getMessageID());
+        }
+    }
+
+    @Test
+    public void testConfirmableMessageExceedingLimitIsReset(){
+        CoapMessage reset = endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().lastKey());
+        assertEquals("Wrong message type.", MsgType.RST, reset.getMessageType());
+        assertEquals("Wrong message ID.", 4, reset.getMessageID());
+    }
+
+    @Test
+    public void testRateLimiterMetrics(){
+        RateLimiter rateLimiter = server.getRateLimiter();
+        assertEquals("Wrong number of passed messages.", BURST, rateLimiter.getPassedMessages());
+        assertEquals("Wrong number of reset messages.", 1, rateLimiter.getResetMessages());
+        assertEquals("Wrong number of dropped messages.", 1, rateLimiter.getDroppedMessages());
+        assertEquals("Wrong number of tracked sources.", 1, rateLimiter.getTrackedSources());
+    }
+}
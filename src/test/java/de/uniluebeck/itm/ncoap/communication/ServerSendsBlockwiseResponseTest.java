@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.blockwise.Blocksize;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.BLOCK_2;
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.ETAG;
+import static junit.framework.Assert.*;
+
+/**
+ * Tests if the server splits up large responses into blocks of the requested size and answers requests for
+ * follow-up blocks from the cached representation.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerSendsBlockwiseResponseTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/large";
+    private static String PAYLOAD;
+
+    private static CoapServerApplication server;
+    private static CoapTestEndpoint endpoint;
+
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor;
+
+    private static List<CoapMessage> responses = new ArrayList<CoapMessage>();
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        StringBuilder payload = new StringBuilder();
+        for(int i = 0; i < 150; i++)
+            payload.append(String.format("Line #%03d\n", i));
+        PAYLOAD = payload.toString();
+
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+
+        endpoint = new CoapTestEndpoint();
+
+        client = new CoapClientApplication();
+        responseProcessor = new TestResponseProcessor();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             testEndpoint                    Server      DESCRIPTION
+//                  |                             |
+//              (1) |--------GET (Block 0)------->|        request 1st block with blocksize 256
+//              (2) |<-------ACK (Block 0)--------|
+//                  |                             |
+//              (3) |--------GET (Block 1)------->|        request 2nd block
+//              (4) |<-------ACK (Block 1)--------|
+//                  |                             |
+//              (5) |--------GET (Block 5)------->|        request last block
+//              (6) |<-------ACK (Block 5)--------|
+//                  |                             |
+//              (7) |--------GET (Block 6)------->|        request non-existing block
+//              (8) |<-------ACK (4.02)-----------|
+//
+//             Client (without Block2 option) receives the complete payload assembled from blocks of default size
+
+        InetSocketAddress serverAddress = new InetSocketAddress("localhost", server.getServerPort());
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+
+        int messageID = 1;
+        for(long blockNumber : new long[]{0, 1, 5, 6}){
+            CoapRequest request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+            request.getHeader().setMsgID(messageID++);
+            request.setBlockOption(BLOCK_2, blockNumber, false, Blocksize.SIZE_256);
+
+            endpoint.writeMessage(request, serverAddress);
+            Thread.sleep(300);
+
+            responses.add(endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().lastKey()));
+        }
+
+        client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri), responseProcessor);
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testEndpointReceived4Responses(){
+        assertEquals("Endpoint did not receive 4 messages.", 4, endpoint.getReceivedMessages().size());
+    }
+
+    @Test
+    public void testFirstBlock() throws Exception {
+        CoapMessage response = responses.get(0);
+
+        assertEquals("Wrong block number.", 0, response.getBlockNumber(BLOCK_2));
+        assertFalse("Block is marked as last block.", response.isLastBlock(BLOCK_2));
+        assertEquals("Wrong blocksize.", Blocksize.SIZE_256, response.getMaxBlocksizeForResponse());
+        assertEquals("Wrong payload.", PAYLOAD.substring(0, 256),
+                response.getPayload().toString(Charset.forName("UTF-8")));
+        assertFalse("Block has no ETAG.", response.getOption(ETAG).isEmpty());
+    }
+
+    @Test
+    public void testSecondBlockFromSameRepresentation() throws Exception {
+        CoapMessage response = responses.get(1);
+
+        assertEquals("Wrong block number.", 1, response.getBlockNumber(BLOCK_2));
+        assertEquals("Wrong payload.", PAYLOAD.substring(256, 512),
+                response.getPayload().toString(Charset.forName("UTF-8")));
+        assertEquals("ETAG differs from 1st block.", responses.get(0).getOption(ETAG).get(0),
+                response.getOption(ETAG).get(0));
+    }
+
+    @Test
+    public void testLastBlock() throws Exception {
+        CoapMessage response = responses.get(2);
+
+        assertEquals("Wrong block number.", 5, response.getBlockNumber(BLOCK_2));
+        assertTrue("Block is not marked as last block.", response.isLastBlock(BLOCK_2));
+        assertEquals("Wrong payload.", PAYLOAD.substring(1280),
+                response.getPayload().toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testNonExistingBlock(){
+        assertEquals("Wrong code.", Code.BAD_OPTION_402, responses.get(3).getCode());
+    }
+
+    @Test
+    public void testClientReceivedCompletePayload(){
+        assertEquals("Client did not receive 1 response.", 1, responseProcessor.getCoapResponses().size());
+        assertEquals("Wrong payload.", PAYLOAD,
+                responseProcessor.getCoapResponse(0).getPayload().toString(Charset.forName("UTF-8")));
+    }
+}
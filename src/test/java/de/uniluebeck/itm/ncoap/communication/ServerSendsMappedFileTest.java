@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.io.Files;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.TestResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.MappedFileWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static de.uniluebeck.itm.ncoap.message.options.OptionRegistry.OptionName.ETAG;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Tests if a {@link MappedFileWebService} serves the content of a file blockwise, serves the new content after the
+ * file was changed and answers requests containing the current ETAG with {@link Code#VALID_203}.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerSendsMappedFileTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/firmware";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static String CONTENT_1;
+    private static String CONTENT_2;
+
+    private static File directory;
+    private static File file;
+
+    private static CoapServerApplication server;
+
+    private static CoapClientApplication client;
+    private static TestResponseProcessor responseProcessor1;
+    private static TestResponseProcessor responseProcessor2;
+    private static TestResponseProcessor responseProcessor3;
+
+    private static List<MappedFileWebService> directoryServices;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.server.webservice").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for(int i = 0; i < 500; i++)
+            content.append(String.format("Line #%03d\n", i));
+        CONTENT_1 = content.toString();
+        CONTENT_2 = CONTENT_1.substring(0, 3000).toUpperCase();
+
+        directory = Files.createTempDir();
+        file = new File(directory, "image.bin");
+        Files.write(CONTENT_1.getBytes(UTF8), file);
+
+        server = new CoapServerApplication(0);
+        server.registerService(new MappedFileWebService(PATH_TO_SERVICE, file, MediaType.APP_OCTET_STREAM));
+
+        client = new CoapClientApplication();
+
+        responseProcessor1 = new TestResponseProcessor();
+        responseProcessor2 = new TestResponseProcessor();
+        responseProcessor3 = new TestResponseProcessor();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+        file.delete();
+        directory.delete();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//              (1) |------GET------------------->|           file content (5000 bytes)
+//              (2) |<-----ACK (Block2 0)---------|
+//                 ...                           ...
+//              (3) |<-----ACK (Block2 9)---------|
+//                  |                             |           file is changed (3000 bytes)
+//              (4) |------GET------------------->|
+//              (5) |<-----ACK (Block2 0)---------|           new ETAG
+//                 ...                           ...
+//              (6) |------GET (ETAG)------------>|           current ETAG
+//              (7) |<-----ACK (2.03)-------------|
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+
+        client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri), responseProcessor1);
+        Thread.sleep(1000);
+
+        Files.write(CONTENT_2.getBytes(UTF8), file);
+        file.setLastModified(file.lastModified() + 2000);
+
+        client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri), responseProcessor2);
+        Thread.sleep(1000);
+
+        CoapRequest coapRequest = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        coapRequest.setETAG(responseProcessor2.getCoapResponse(0).getOption(ETAG).get(0).getValue());
+        client.writeCoapRequest(coapRequest, responseProcessor3);
+        Thread.sleep(500);
+
+        directoryServices = MappedFileWebService.createServices("/files", directory, MediaType.APP_OCTET_STREAM);
+    }
+
+    @Test
+    public void testFirstContent(){
+        assertEquals("Wrong code.", Code.CONTENT_205, responseProcessor1.getCoapResponse(0).getCode());
+        assertEquals("Wrong payload.", CONTENT_1, responseProcessor1.getCoapResponse(0).getPayload().toString(UTF8));
+    }
+
+    @Test
+    public void testChangedContent(){
+        assertEquals("Wrong code.", Code.CONTENT_205, responseProcessor2.getCoapResponse(0).getCode());
+        assertEquals("Wrong payload.", CONTENT_2, responseProcessor2.getCoapResponse(0).getPayload().toString(UTF8));
+    }
+
+    @Test
+    public void testETagChanged(){
+        byte[] etag1 = responseProcessor1.getCoapResponse(0).getOption(ETAG).get(0).getValue();
+        byte[] etag2 = responseProcessor2.getCoapResponse(0).getOption(ETAG).get(0).getValue();
+        assertFalse("ETAG did not change.", Arrays.equals(etag1, etag2));
+    }
+
+    @Test
+    public void testValidResponse(){
+        assertEquals("Wrong code.", Code.VALID_203, responseProcessor3.getCoapResponse(0).getCode());
+        assertEquals("Payload not empty.", 0, responseProcessor3.getCoapResponse(0).getPayload().readableBytes());
+    }
+
+    @Test
+    public void testServicesForDirectory(){
+        assertEquals("Wrong number of services.", 1, directoryServices.size());
+        assertEquals("Wrong path.", "/files/image.bin", directoryServices.get(0).getPath());
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionController;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if the server sheds requests before decoding when the {@link AdmissionController} reports overload, i.e.
+ * with {@link Code#SERVICE_UNAVAILABLE_503} and a Max-Age retry hint if overloaded and with RST (confirmable) or
+ * not at all (non-confirmable) if critical, while the admitted requests are processed normally.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerShedsRequestsUnderOverloadTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SLOW_SERVICE = "/slow";
+    private static final long PROCESSING_TIME = 1500;
+    private static final long RETRY_AFTER = 10;
+    private static final byte[] TOKEN = new byte[]{1, 2, 3};
+
+    private static CoapServerApplication server;
+    private static CoapClientApplication client1;
+    private static CoapClientApplication client2;
+    private static CoapClientApplication client3;
+    private static CoapTestEndpoint endpoint;
+
+    private static CoapResponse response1;
+    private static CoapResponse response2;
+    private static CoapResponse response3;
+    private static long rejectionTime;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.admission").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SLOW_SERVICE, "slow", PROCESSING_TIME));
+        server.getAdmissionController().setMaxInFlightExchanges(2);
+        server.getAdmissionController().setRetryAfter(RETRY_AFTER);
+
+        client1 = new CoapClientApplication();
+        client2 = new CoapClientApplication();
+        client3 = new CoapClientApplication();
+        endpoint = new CoapTestEndpoint();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client1.shutdown();
+        client2.shutdown();
+        client3.shutdown();
+        endpoint.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//          Client 1   Client 2   Client 3   Endpoint                 Server
+//      (1)    |-----NON GET /slow---------------------------------------->|   admitted (in-flight 1/2)
+//      (2)    |          |-----NON GET /slow----------------------------->|   admitted (in-flight 2/2)
+//      (3)    |          |          |-----NON GET /slow------------------>|   overloaded
+//      (4)    |          |          |<----NON 5.03 (Max-Age 10)-----------|
+//      (5)    |          |          |          |----CON GET (MID 4711)--->|   overloaded
+//      (6)    |          |          |          |<---ACK 5.03 (MID 4711)---|
+//             |          |          |          |                          |   threshold lowered to 1 (critical)
+//      (7)    |          |          |          |----CON GET (MID 4712)--->|   critical
+//      (8)    |          |          |          |<---RST (MID 4712)--------|
+//      (9)    |          |          |          |----NON GET (MID 4713)--->|   critical, dropped
+//     (10)    |<----NON CONTENT-------------------------------------------|
+//     (11)    |          |<----NON CONTENT--------------------------------|
+
+        URI slowUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SLOW_SERVICE);
+        InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getServerPort());
+
+        ListenableFuture<CoapResponse> future1 =
+                client1.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri));
+        Thread.sleep(100);
+
+        ListenableFuture<CoapResponse> future2 =
+                client2.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri));
+        Thread.sleep(100);
+
+        long startTime = System.currentTimeMillis();
+        response3 = client3.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri))
+                           .get(PROCESSING_TIME, TimeUnit.MILLISECONDS);
+        rejectionTime = System.currentTimeMillis() - startTime;
+
+        endpoint.writeMessage(createRequest(MsgType.CON, slowUri, 4711), serverAddress);
+        Thread.sleep(100);
+
+        server.getAdmissionController().setMaxInFlightExchanges(1);
+
+        endpoint.writeMessage(createRequest(MsgType.CON, slowUri, 4712), serverAddress);
+        Thread.sleep(100);
+
+        endpoint.writeMessage(createRequest(MsgType.NON, slowUri, 4713), serverAddress);
+
+        Futures.allAsList(future1, future2).get(3 * PROCESSING_TIME, TimeUnit.MILLISECONDS);
+        response1 = future1.get();
+        response2 = future2.get();
+
+        //the exchange is completed after the response was sent
+        Thread.sleep(100);
+    }
+
+    private static CoapRequest createRequest(MsgType msgType, URI targetUri, int messageID) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(msgType, Code.GET, targetUri);
+        coapRequest.setMessageID(messageID);
+        coapRequest.setToken(TOKEN);
+        return coapRequest;
+    }
+
+    @Test
+    public void testAdmittedRequestsAreProcessed(){
+        assertEquals("Wrong code of response 1.", Code.CONTENT_205, response1.getCode());
+        assertEquals("Wrong code of response 2.", Code.CONTENT_205, response2.getCode());
+    }
+
+    @Test
+    public void testOverloadedServerRejectsWithRetryHint(){
+        assertEquals("Wrong code of response 3.", Code.SERVICE_UNAVAILABLE_503, response3.getCode());
+        assertEquals("Wrong retry hint.", RETRY_AFTER, response3.getMaxAge());
+        assertTrue("Rejection was delayed (" + rejectionTime + " ms).", rejectionTime < PROCESSING_TIME / 2);
+    }
+
+    @Test
+    public void testEndpointReceivedPiggyBackedRejectionAndReset(){
+        assertEquals("Wrong number of messages received by endpoint.", 2, endpoint.getReceivedMessages().size());
+
+        Iterator<CoapMessage> messages = endpoint.getReceivedMessages().values().iterator();
+        CoapMessage rejection = messages.next();
+        assertEquals("Wrong message type of rejection.", MsgType.ACK, rejection.getMessageType());
+        assertEquals("Wrong code of rejection.", Code.SERVICE_UNAVAILABLE_503, rejection.getCode());
+        assertEquals("Wrong message ID of rejection.", 4711, rejection.getMessageID());
+        assertTrue("Wrong token of rejection.", Arrays.equals(TOKEN, rejection.getToken()));
+        assertEquals("Wrong retry hint.", RETRY_AFTER, ((CoapResponse) rejection).getMaxAge());
+
+        CoapMessage reset = messages.next();
+        assertEquals("Wrong message type of reset.", MsgType.RST, reset.getMessageType());
+        assertEquals("Wrong message ID of reset.", 4712, reset.getMessageID());
+    }
+
+    @Test
+    public void testAdmissionControllerMetrics(){
+        AdmissionController admissionController = server.getAdmissionController();
+        assertEquals("Wrong number of admitted requests.", 2, admissionController.getAdmittedRequests());
+        assertEquals("Wrong number of rejected requests.", 2, admissionController.getRejectedRequests());
+        assertEquals("Wrong number of reset requests.", 1, admissionController.getResetRequests());
+        assertEquals("Wrong number of dropped requests.", 1, admissionController.getDroppedRequests());
+        assertEquals("Exchanges were not completed.", 0, admissionController.getInFlightExchanges());
+    }
+}
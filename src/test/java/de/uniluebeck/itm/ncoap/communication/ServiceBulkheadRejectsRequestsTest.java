@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.Bulkhead;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if a {@link Bulkhead} limits the concurrently processed and queued requests of a slow web service, answers
+ * excess requests immediately with {@link Code#SERVICE_UNAVAILABLE_503} and a Max-Age retry hint and does not affect
+ * other web services.
+ *
+ * @author Oliver Kleine
+ */
+public class ServiceBulkheadRejectsRequestsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SLOW_SERVICE = "/slow";
+    private static final String PATH_TO_FAST_SERVICE = "/fast";
+    private static final long PROCESSING_TIME = 1500;
+    private static final long RETRY_AFTER = 10;
+
+    private static CoapServerApplication server;
+    private static Bulkhead bulkhead;
+    private static CoapClientApplication client1;
+    private static CoapClientApplication client2;
+    private static CoapClientApplication client3;
+    private static CoapClientApplication client4;
+
+    private static long startTime;
+    private static CoapResponse response1;
+    private static CoapResponse response2;
+    private static CoapResponse response3;
+    private static CoapResponse response4;
+    private static AtomicLong responseTime1 = new AtomicLong();
+    private static AtomicLong responseTime2 = new AtomicLong();
+    private static AtomicLong responseTime3 = new AtomicLong();
+    private static AtomicLong responseTime4 = new AtomicLong();
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.server").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SLOW_SERVICE, "slow", PROCESSING_TIME));
+        server.registerService(new NotObservableTestWebService(PATH_TO_FAST_SERVICE, "fast", 0));
+
+        bulkhead = new Bulkhead(1, 1, RETRY_AFTER);
+        server.setBulkhead(PATH_TO_SLOW_SERVICE, bulkhead);
+
+        client1 = new CoapClientApplication();
+        client2 = new CoapClientApplication();
+        client3 = new CoapClientApplication();
+        client4 = new CoapClientApplication();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client1.shutdown();
+        client2.shutdown();
+        client3.shutdown();
+        client4.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//          Client 1   Client 2   Client 3   Client 4              Server
+//      (1)    |-----NON GET /slow------------------------------------->|   running (bulkhead 1/1)
+//      (2)    |          |-----NON GET /slow-------------------------->|   queued (queue 1/1)
+//      (3)    |          |          |-----NON GET /slow--------------->|   rejected
+//      (4)    |          |          |<----NON 5.03 (Max-Age 10)--------|
+//      (5)    |          |          |          |----NON GET /fast----->|   no bulkhead
+//      (6)    |          |          |          |<---NON CONTENT--------|
+//      (7)    |<----NON CONTENT (slow)---------------------------------|
+//      (8)    |          |<----NON CONTENT (slow)----------------------|
+
+        URI slowUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SLOW_SERVICE);
+        URI fastUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_FAST_SERVICE);
+
+        startTime = System.currentTimeMillis();
+        ListenableFuture<CoapResponse> future1 =
+                client1.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri));
+        recordResponseTime(future1, responseTime1);
+        Thread.sleep(100);
+
+        ListenableFuture<CoapResponse> future2 =
+                client2.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri));
+        recordResponseTime(future2, responseTime2);
+        Thread.sleep(100);
+
+        ListenableFuture<CoapResponse> future3 =
+                client3.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri));
+        recordResponseTime(future3, responseTime3);
+        Thread.sleep(100);
+
+        ListenableFuture<CoapResponse> future4 =
+                client4.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, fastUri));
+        recordResponseTime(future4, responseTime4);
+
+        Futures.allAsList(future1, future2, future3, future4).get(3 * PROCESSING_TIME, TimeUnit.MILLISECONDS);
+
+        response1 = future1.get();
+        response2 = future2.get();
+        response3 = future3.get();
+        response4 = future4.get();
+
+        //the slot is released after the response was sent
+        Thread.sleep(100);
+    }
+
+    private static void recordResponseTime(ListenableFuture<CoapResponse> future, final AtomicLong responseTime){
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                responseTime.set(System.currentTimeMillis() - startTime);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void testRunningAndQueuedRequestsAreProcessed(){
+        assertEquals("Wrong code of response 1.", Code.CONTENT_205, response1.getCode());
+        assertEquals("Wrong code of response 2.", Code.CONTENT_205, response2.getCode());
+        assertTrue("Queued request must be processed after the running one.",
+                responseTime2.get() >= 2 * PROCESSING_TIME);
+    }
+
+    @Test
+    public void testExcessRequestIsRejectedImmediately(){
+        assertEquals("Wrong code of response 3.", Code.SERVICE_UNAVAILABLE_503, response3.getCode());
+        assertEquals("Wrong retry hint.", RETRY_AFTER, response3.getMaxAge());
+        assertTrue("Rejection was delayed (" + responseTime3.get() + " ms).",
+                responseTime3.get() < PROCESSING_TIME / 2);
+    }
+
+    @Test
+    public void testOtherServiceIsNotAffected(){
+        assertEquals("Wrong code of response 4.", Code.CONTENT_205, response4.getCode());
+        assertTrue("Response of other service was delayed (" + responseTime4.get() + " ms).",
+                responseTime4.get() < PROCESSING_TIME / 2);
+    }
+
+    @Test
+    public void testBulkheadMetrics(){
+        assertEquals("Wrong number of accepted requests.", 2, bulkhead.getAcceptedRequests());
+        assertEquals("Wrong number of queued requests.", 1, bulkhead.getQueuedRequests());
+        assertEquals("Wrong number of rejected requests.", 1, bulkhead.getRejectedRequests());
+        assertEquals("Wrong maximum queue length.", 1, bulkhead.getMaxQueueLength());
+        assertEquals("Slot was not released.", 0, bulkhead.getRunningRequests());
+        assertEquals("Queue was not drained.", 0, bulkhead.getQueueLength());
+    }
+}
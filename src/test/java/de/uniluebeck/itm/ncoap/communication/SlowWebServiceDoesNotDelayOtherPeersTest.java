@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if requests are handed over to the application per remote address, i.e. a slow web service delays the
+ * subsequent requests of the same client (to keep their order) but not the requests of other clients.
+ *
+ * @author Oliver Kleine
+ */
+public class SlowWebServiceDoesNotDelayOtherPeersTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SLOW_SERVICE = "/slow";
+    private static final String PATH_TO_FAST_SERVICE = "/fast";
+    private static final long PROCESSING_TIME = 2000;
+
+    private static CoapServerApplication server;
+    private static CoapClientApplication client1;
+    private static CoapClientApplication client2;
+
+    private static long startTime;
+    private static AtomicLong slowResponseTime = new AtomicLong();
+    private static AtomicLong fastResponseTime1 = new AtomicLong();
+    private static AtomicLong fastResponseTime2 = new AtomicLong();
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.core").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SLOW_SERVICE, "slow", PROCESSING_TIME));
+        server.registerService(new NotObservableTestWebService(PATH_TO_FAST_SERVICE, "fast", 0));
+
+        client1 = new CoapClientApplication();
+        client2 = new CoapClientApplication();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client1.shutdown();
+        client2.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client 1             Client 2                Server
+//              (1) |------NON GET /slow--------------------->|   processing takes 2 seconds
+//              (2) |------NON GET /fast--------------------->|   queued behind (1)
+//              (3) |                    |----NON GET /fast-->|   processed immediately
+//              (4) |                    |<---NON CONTENT-----|
+//              (5) |<-----NON CONTENT (slow)-----------------|
+//              (6) |<-----NON CONTENT (fast)-----------------|
+
+        URI slowUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SLOW_SERVICE);
+        URI fastUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_FAST_SERVICE);
+
+        startTime = System.currentTimeMillis();
+        ListenableFuture<CoapResponse> slowFuture =
+                client1.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, slowUri));
+        recordResponseTime(slowFuture, slowResponseTime);
+        Thread.sleep(100);
+
+        ListenableFuture<CoapResponse> fastFuture1 =
+                client1.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, fastUri));
+        recordResponseTime(fastFuture1, fastResponseTime1);
+        Thread.sleep(100);
+
+        ListenableFuture<CoapResponse> fastFuture2 =
+                client2.writeCoapRequest(new CoapRequest(MsgType.NON, Code.GET, fastUri));
+        recordResponseTime(fastFuture2, fastResponseTime2);
+
+        Futures.allAsList(slowFuture, fastFuture1, fastFuture2).get(5, TimeUnit.SECONDS);
+    }
+
+    private static void recordResponseTime(ListenableFuture<CoapResponse> future, final AtomicLong responseTime){
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                responseTime.set(System.currentTimeMillis() - startTime);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void testOtherClientIsNotDelayed(){
+        assertTrue("Response for client 2 was delayed (" + fastResponseTime2.get() + " ms).",
+                fastResponseTime2.get() < PROCESSING_TIME / 2);
+    }
+
+    @Test
+    public void testOrderOfRequestsFromSameClient(){
+        assertTrue("Slow response must take at least " + PROCESSING_TIME + " ms.",
+                slowResponseTime.get() >= PROCESSING_TIME);
+        assertTrue("Fast request of client 1 must be processed after the slow one.",
+                fastResponseTime1.get() >= slowResponseTime.get());
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares CoAP over UDP with CoAP over TCP on the loopback interface, i.e. the requests per second for small
+ * responses (with {@link #WINDOW} requests outstanding) and the throughput for large responses of
+ * {@link #LARGE_PAYLOAD_SIZE} bytes (UDP with blockwise transfer, TCP within a single frame). The message IDs of the
+ * small requests are set by the benchmark since the clients message ID space would otherwise limit the number of
+ * UDP requests per round. For the same reason, the number of large requests is limited such that their blocks (of
+ * {@code BlockwiseTransferHandler.DEFAULT_BLOCKSIZE}) do not exhaust the message IDs. This is not part of the
+ * regular test run (use <code>mvn test -Dtest=TcpVersusUdpBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class TcpVersusUdpBenchmark {
+
+    private static int SMALL_REQUESTS = 20000;
+    private static int WINDOW = 32;
+    private static int LARGE_REQUESTS = 25;
+    private static int LARGE_PAYLOAD_SIZE = 65536;
+
+    private static String PATH_TO_SERVICE = "/service";
+    private static String PATH_TO_LARGE_SERVICE = "/large";
+
+    @Test
+    public void benchmarkTcpVersusUdp() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        for(int round = 0; round < 2; round++){
+            for(boolean tcp : new boolean[]{false, true}){
+                String transport = tcp ? "TCP" : "UDP";
+
+                double requestsPerSecond = runSmallRequests(tcp);
+                System.out.println(String.format("%s: %.0f requests/s (small)", transport, requestsPerSecond));
+                assertTrue("No requests answered.", requestsPerSecond > 0);
+
+                double bytesPerSecond = runLargeRequests(tcp);
+                System.out.println(String.format("%s: %.2f MB/s (%d KB responses)", transport,
+                        bytesPerSecond / 1024 / 1024, LARGE_PAYLOAD_SIZE / 1024));
+                assertTrue("No responses received.", bytesPerSecond > 0);
+            }
+        }
+    }
+
+    private double runSmallRequests(boolean tcp) throws Exception {
+        CoapServerApplication server = createServer();
+        CoapClientApplication client = createClient(server, tcp);
+
+        CountDownLatch latch = new CountDownLatch(SMALL_REQUESTS);
+        AtomicInteger messageIDs = new AtomicInteger(0);
+        AtomicInteger remaining = new AtomicInteger(SMALL_REQUESTS - WINDOW);
+        URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SERVICE);
+
+        long start = System.nanoTime();
+        for(int i = 0; i < WINDOW; i++)
+            sendRequest(client, targetUri, messageIDs, remaining, latch);
+
+        boolean completed = latch.await(60, TimeUnit.SECONDS);
+        long duration = System.nanoTime() - start;
+
+        client.shutdown();
+        server.shutdown();
+
+        assertTrue("Not all requests answered within 60 seconds.", completed);
+        return (double) SMALL_REQUESTS / duration * 1000000000L;
+    }
+
+    private double runLargeRequests(boolean tcp) throws Exception {
+        CoapServerApplication server = createServer();
+        CoapClientApplication client = createClient(server, tcp);
+
+        URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_LARGE_SERVICE);
+
+        long start = System.nanoTime();
+        for(int i = 0; i < LARGE_REQUESTS; i++){
+            CoapResponse coapResponse = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri))
+                                              .get(60, TimeUnit.SECONDS);
+            assertEquals("Wrong payload size.", LARGE_PAYLOAD_SIZE, coapResponse.getPayload().readableBytes());
+        }
+        long duration = System.nanoTime() - start;
+
+        client.shutdown();
+        server.shutdown();
+
+        return (double) LARGE_REQUESTS * LARGE_PAYLOAD_SIZE / duration * 1000000000L;
+    }
+
+    private static CoapServerApplication createServer(){
+        CoapServerApplication server = new CoapServerApplication(0);
+        server.bindTcp(new InetSocketAddress(server.getServerPort()));
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, "Status", 0));
+        server.registerService(new NotObservableTestWebService(PATH_TO_LARGE_SERVICE,
+                Strings.repeat("x", LARGE_PAYLOAD_SIZE), 0));
+        return server;
+    }
+
+    private static CoapClientApplication createClient(CoapServerApplication server, boolean tcp) throws Exception {
+        CoapClientApplication client = new CoapClientApplication();
+        if(tcp)
+            client.connectTcp(new InetSocketAddress("127.0.0.1", server.getTcpServerPort()));
+
+        return client;
+    }
+
+    private void sendRequest(final CoapClientApplication client, final URI targetUri, final AtomicInteger messageIDs,
+                             final AtomicInteger remaining, final CountDownLatch latch) throws Exception {
+
+        CoapRequest coapRequest = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        coapRequest.setMessageID(messageIDs.incrementAndGet() & 0xFFFF);
+
+        Futures.addCallback(client.writeCoapRequest(coapRequest), new FutureCallback<CoapResponse>() {
+            @Override
+            public void onSuccess(CoapResponse coapResponse) {
+                latch.countDown();
+                sendNextRequest();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                System.out.println("Request failed: " + t);
+                sendNextRequest();
+            }
+
+            private void sendNextRequest(){
+                if(remaining.getAndDecrement() <= 0)
+                    return;
+
+                try{
+                    sendRequest(client, targetUri, messageIDs, remaining, latch);
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.endpoint.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.MediaTypeNotSupportedException;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests if the resource status is serialized for update notifications (upon status updates and max-age) by the
+ * application threads, i.e. a slow serialization can not delay the protocol timers.
+ *
+ * @author Oliver Kleine
+ */
+public class UpdateNotificationsSerializedByApplicationThreadsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapServerApplication server;
+    private static CoapTestEndpoint endpoint;
+    private static ObservableTestWebService service;
+
+    private static List<String> serializingThreads = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.observe").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        service = new ObservableTestWebService(PATH_TO_SERVICE, 1, 0){
+            @Override
+            public byte[] getSerializedResourceStatus(OptionRegistry.MediaType mediaType)
+                    throws MediaTypeNotSupportedException {
+
+                serializingThreads.add(Thread.currentThread().getName());
+                return super.getSerializedResourceStatus(mediaType);
+            }
+        };
+        service.setMaxAge(2);
+        server.registerService(service);
+
+        endpoint = new CoapTestEndpoint();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        endpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             testEndpoint                    Server      DESCRIPTION
+//                  |                             |
+//              (1) |--------GET_OBSERVE--------->|        Register observer
+//              (2) |<-------1st Notification-----|        Response to the registration
+//                  |                             |        Status update
+//              (3) |<-------2nd Notification-----|
+//                  |                             |        Max-age ends
+//              (4) |<-------3rd Notification-----|
+//                  |                             |
+//              (5) |--------RST----------------->|
+
+        URI targetUri = new URI("coap://localhost:" + server.getServerPort() + PATH_TO_SERVICE);
+        CoapRequest request = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+        request.getHeader().setMsgID(3333);
+        request.setToken(new byte[]{0x12, 0x34});
+        request.setObserveOptionRequest();
+
+        endpoint.writeMessage(request, new InetSocketAddress("localhost", server.getServerPort()));
+        Thread.sleep(500);
+
+        service.setResourceStatus(2);
+        Thread.sleep(2500);
+
+        //stop the observation
+        CoapMessage lastNotification =
+                endpoint.getReceivedMessages().get(endpoint.getReceivedMessages().lastKey());
+        endpoint.writeMessage(CoapMessage.createEmptyReset(lastNotification.getMessageID()),
+                new InetSocketAddress("localhost", server.getServerPort()));
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testEndpointReceived3Notifications(){
+        assertEquals("Wrong number of notifications.", 3, endpoint.getReceivedMessages().size());
+    }
+
+    @Test
+    public void testStatusSerializedByApplicationThreads(){
+        assertTrue("Status was not serialized.", serializingThreads.size() >= 3);
+
+        //the first notification is the response to the registration, i.e. processed as incoming message
+        for(String threadName : serializingThreads.subList(1, serializingThreads.size()))
+            assertTrue("Status serialized by " + threadName + ".", threadName.contains("Application Thread"));
+    }
+}
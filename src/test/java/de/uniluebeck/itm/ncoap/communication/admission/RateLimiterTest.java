@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+import com.google.common.net.InetAddresses;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of {@link RateLimiter}.
+ *
+ * @author Oliver Kleine
+ */
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static InetAddress address(String address){
+        return InetAddresses.forString(address);
+    }
+
+    @Test
+    public void testUnlimitedWithoutRateLimits(){
+        RateLimiter rateLimiter = new RateLimiter();
+        for(int i = 0; i < 1000; i++)
+            assertNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+
+        assertEquals(1000, rateLimiter.getPassedMessages());
+        assertEquals(0, rateLimiter.getTrackedSources());
+    }
+
+    @Test
+    public void testBurstAndRefill(){
+        RateLimiter rateLimiter = new RateLimiter();
+        RateLimit rateLimit = new RateLimit(2, 3, RateLimit.Action.DROP);
+        rateLimiter.setDefaultRateLimit(rateLimit);
+
+        for(int i = 0; i < 3; i++)
+            assertNull("Message " + i + " of burst was limited.", rateLimiter.acquire(address("10.0.0.1"), 0));
+
+        assertSame(rateLimit, rateLimiter.acquire(address("10.0.0.1"), 0));
+
+        //two tokens per second, i.e. one token after half a second
+        assertSame(rateLimit, rateLimiter.acquire(address("10.0.0.1"), SECOND / 4));
+        assertNull(rateLimiter.acquire(address("10.0.0.1"), SECOND / 2));
+        assertSame(rateLimit, rateLimiter.acquire(address("10.0.0.1"), SECOND / 2));
+
+        //the bucket is never filled beyond the burst size
+        for(int i = 0; i < 3; i++)
+            assertNull(rateLimiter.acquire(address("10.0.0.1"), 100 * SECOND));
+        assertSame(rateLimit, rateLimiter.acquire(address("10.0.0.1"), 100 * SECOND));
+    }
+
+    @Test
+    public void testSourcesAreLimitedIndependently(){
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.setDefaultRateLimit(new RateLimit(1, 1, RateLimit.Action.DROP));
+
+        assertNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+        assertNotNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+        assertNull(rateLimiter.acquire(address("10.0.0.2"), 0));
+        assertNull(rateLimiter.acquire(address("fe80::1"), 0));
+
+        assertEquals(3, rateLimiter.getTrackedSources());
+    }
+
+    @Test
+    public void testLongestPrefixMatches(){
+        RateLimiter rateLimiter = new RateLimiter();
+        RateLimit defaultRateLimit = new RateLimit(1, 1, RateLimit.Action.DROP);
+        RateLimit rateLimit8 = new RateLimit(10, 10, RateLimit.Action.RESET);
+        RateLimit rateLimit20 = new RateLimit(100, 100, RateLimit.Action.RESET);
+        RateLimit rateLimit32 = new RateLimit(1000, 1000, RateLimit.Action.DROP);
+        RateLimit rateLimitIPv6 = new RateLimit(5, 5, RateLimit.Action.DROP);
+
+        rateLimiter.setDefaultRateLimit(defaultRateLimit);
+        rateLimiter.setRateLimit("10.0.0.0/8", rateLimit8);
+        rateLimiter.setRateLimit("10.1.16.0/20", rateLimit20);
+        rateLimiter.setRateLimit("10.1.17.5", rateLimit32);
+        rateLimiter.setRateLimit("fd00::/8", rateLimitIPv6);
+
+        assertSame(defaultRateLimit, rateLimiter.getRateLimit(address("192.168.1.1")));
+        assertSame(rateLimit8, rateLimiter.getRateLimit(address("10.2.3.4")));
+        assertSame(rateLimit8, rateLimiter.getRateLimit(address("10.1.32.1")));
+        assertSame(rateLimit20, rateLimiter.getRateLimit(address("10.1.31.255")));
+        assertSame(rateLimit32, rateLimiter.getRateLimit(address("10.1.17.5")));
+        assertSame(rateLimitIPv6, rateLimiter.getRateLimit(address("fd12::1")));
+        assertSame(defaultRateLimit, rateLimiter.getRateLimit(address("fe80::1")));
+
+        assertSame(rateLimit8, rateLimiter.removeRateLimit("10.0.0.0/8"));
+        assertSame(defaultRateLimit, rateLimiter.getRateLimit(address("10.2.3.4")));
+        assertEquals(3, rateLimiter.getRateLimits().size());
+    }
+
+    @Test
+    public void testChangedRateLimitsDiscardBuckets(){
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.setDefaultRateLimit(new RateLimit(1, 1, RateLimit.Action.DROP));
+
+        assertNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+        assertNotNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+
+        rateLimiter.setRateLimit("10.0.0.0/8", new RateLimit(1, 2, RateLimit.Action.DROP));
+        assertEquals(0, rateLimiter.getTrackedSources());
+        assertNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+        assertNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+        assertNotNull(rateLimiter.acquire(address("10.0.0.1"), 0));
+    }
+
+    @Test
+    public void testUnlimitedSourcesAreTracked(){
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.setRateLimit("10.0.0.0/8", new RateLimit(1, 1, RateLimit.Action.DROP));
+
+        for(int i = 0; i < 1000; i++)
+            assertNull(rateLimiter.acquire(address("192.168.1.1"), 0));
+
+        assertNull(rateLimiter.getBucket(address("192.168.1.1"), 0));
+        assertEquals(1, rateLimiter.getTrackedSources());
+
+        //a new rule applies to sources already known to be not limited
+        rateLimiter.setRateLimit("192.168.0.0/16", new RateLimit(1, 1, RateLimit.Action.DROP));
+        assertNull(rateLimiter.acquire(address("192.168.1.1"), 0));
+        assertNotNull(rateLimiter.acquire(address("192.168.1.1"), 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedPrefixLength(){
+        new RateLimiter().setRateLimit("10.0.0.0/33", new RateLimit(1, 1, RateLimit.Action.DROP));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHostNamesAreNoPrefixes(){
+        new RateLimiter().setRateLimit("localhost", new RateLimit(1, 1, RateLimit.Action.DROP));
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends 10M requests through a {@link BlockwiseTransferHandler} and prints the used heap after every 1M requests.
+ * Every request is answered by a response without {@link de.uniluebeck.itm.ncoap.message.options.OptionRegistry
+ * .OptionName#BLOCK_2} option except for every 10th request which is never answered. The used heap is expected to
+ * stay flat as soon as {@link BlockwiseTransferHandler#MAX_RESPONSE_TRANSFERS} unanswered requests are kept. This is
+ * not part of the regular test run (use <code>mvn test -Dtest=BlockwiseTransferHandlerSoakBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class BlockwiseTransferHandlerSoakBenchmark {
+
+    private static int NUMBER_OF_REQUESTS = 10000000;
+    private static int SAMPLE_INTERVAL = 1000000;
+
+    @Test
+    public void benchmarkHeapAfterRequests() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.WARN);
+
+        BlockwiseTransferHandler handler = new BlockwiseTransferHandler();
+        EncoderEmbedder<Object> downstream = new EncoderEmbedder<Object>(handler);
+        DecoderEmbedder<Object> upstream = new DecoderEmbedder<Object>(handler);
+
+        URI targetUri = new URI("coap://localhost:5683/service");
+
+        long firstSample = 0;
+        long maxSample = 0;
+
+        for(int i = 1; i <= NUMBER_OF_REQUESTS; i++){
+            byte[] token = getToken(i);
+
+            CoapRequest coapRequest = new CoapRequest(MsgType.CON, Code.GET, targetUri);
+            coapRequest.setToken(token);
+            downstream.offer(coapRequest);
+            downstream.poll();
+
+            if(i % 10 != 0){
+                CoapResponse coapResponse = new CoapResponse(Code.CONTENT_205);
+                coapResponse.getHeader().setMsgType(MsgType.ACK);
+                coapResponse.setToken(token);
+                upstream.offer(coapResponse);
+                upstream.poll();
+            }
+
+            if(i % SAMPLE_INTERVAL == 0){
+                long usedHeap = getUsedHeap();
+                System.out.println(String.format("%d requests: %d bytes used heap, %d requests kept (%s).",
+                        i, usedHeap, handler.getResponseTransferCount(), handler.getResponseTransferStats()));
+
+                if(firstSample == 0)
+                    firstSample = usedHeap;
+
+                maxSample = Math.max(maxSample, usedHeap);
+            }
+        }
+
+        assertTrue("Requests kept exceed the limit.",
+                handler.getResponseTransferCount() <= BlockwiseTransferHandler.MAX_RESPONSE_TRANSFERS);
+        assertTrue("Used heap increased by more than 16 MB.", maxSample - firstSample < 16777216);
+    }
+
+    private static byte[] getToken(int i){
+        return new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++){
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
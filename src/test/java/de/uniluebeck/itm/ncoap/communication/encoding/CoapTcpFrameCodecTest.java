@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.encoding;
+
+import com.google.common.base.Strings;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link CoapTcpFrameEncoder} and {@link CoapTcpFrameDecoder}, i.e. if frames of all length classes
+ * (with and without extended length) survive the round trip, even if the stream is fragmented.
+ *
+ * @author Oliver Kleine
+ */
+public class CoapTcpFrameCodecTest extends AbstractCoapTest {
+
+    private static final byte[] TOKEN = new byte[]{1, 2, 3, 4};
+    private static final int[] PAYLOAD_LENGTHS = new int[]{0, 5, 200, 1000, 70000};
+
+    @Override
+    public void setupLogging() throws Exception {
+        //nothing to do
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        for(int length : PAYLOAD_LENGTHS){
+            CoapRequest coapRequest = new CoapRequest(MsgType.CON, Code.POST, new URI("coap://localhost/path/to"));
+            coapRequest.setToken(TOKEN);
+            coapRequest.setPayload(Strings.repeat("x", length).getBytes(Charset.forName("UTF-8")));
+
+            CoapMessage decoded = decode(encode(coapRequest), 7);
+
+            assertTrue("Wrong message class.", decoded instanceof CoapRequest);
+            assertEquals("Wrong code.", Code.POST, decoded.getCode());
+            assertArrayEquals("Wrong token.", TOKEN, decoded.getToken());
+            assertEquals("Wrong path.", "/path/to", ((CoapRequest) decoded).getTargetUri().getPath());
+            assertEquals("Wrong payload length.", length, decoded.getPayload().readableBytes());
+        }
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws Exception {
+        for(int length : PAYLOAD_LENGTHS){
+            CoapResponse coapResponse = new CoapResponse(Code.CONTENT_205);
+            coapResponse.setToken(TOKEN);
+            coapResponse.setContentType(MediaType.TEXT_PLAIN_UTF8);
+            coapResponse.setPayload(Strings.repeat("y", length).getBytes(Charset.forName("UTF-8")));
+
+            CoapMessage decoded = decode(encode(coapResponse), 1024);
+
+            assertTrue("Wrong message class.", decoded instanceof CoapResponse);
+            assertEquals("Wrong code.", Code.CONTENT_205, decoded.getCode());
+            assertEquals("Wrong message type.", MsgType.NON, decoded.getMessageType());
+            assertArrayEquals("Wrong token.", TOKEN, decoded.getToken());
+            assertEquals("Wrong content type.", MediaType.TEXT_PLAIN_UTF8, ((CoapResponse) decoded).getContentType());
+            assertEquals("Wrong payload.", Strings.repeat("y", length),
+                    decoded.getPayload().toString(Charset.forName("UTF-8")));
+        }
+    }
+
+    @Test
+    public void testSeveralFramesInOneBuffer() throws Exception {
+        CoapResponse first = new CoapResponse(Code.CONTENT_205);
+        first.setToken(new byte[]{1});
+        first.setPayload("first".getBytes(Charset.forName("UTF-8")));
+
+        CoapResponse second = new CoapResponse(Code.NOT_FOUND_404);
+        second.setToken(new byte[]{2});
+
+        DecoderEmbedder<CoapMessage> decoder = new DecoderEmbedder<CoapMessage>(new CoapTcpFrameDecoder());
+        decoder.offer(ChannelBuffers.wrappedBuffer(encode(first), encode(second)));
+
+        CoapMessage decoded = decoder.poll();
+        assertEquals("Wrong code of first frame.", Code.CONTENT_205, decoded.getCode());
+        assertEquals("Wrong payload of first frame.", "first", decoded.getPayload().toString(Charset.forName("UTF-8")));
+
+        decoded = decoder.poll();
+        assertEquals("Wrong code of second frame.", Code.NOT_FOUND_404, decoded.getCode());
+        assertArrayEquals("Wrong token of second frame.", new byte[]{2}, decoded.getToken());
+        assertNull("There must not be a third frame.", decoder.poll());
+    }
+
+    @Test
+    public void testFrameWithUnknownCodeSkipped() throws Exception {
+        //CSM (7.01) with Max-Message-Size option (no. 2, value 1152) as sent first by RFC 8323 peers
+        ChannelBuffer csm = ChannelBuffers.wrappedBuffer(new byte[]{0x30, (byte) 0xE1, 0x22, 0x04, (byte) 0x80});
+
+        CoapResponse coapResponse = new CoapResponse(Code.CONTENT_205);
+        coapResponse.setToken(new byte[]{3});
+
+        DecoderEmbedder<CoapMessage> decoder = new DecoderEmbedder<CoapMessage>(new CoapTcpFrameDecoder());
+        decoder.offer(ChannelBuffers.wrappedBuffer(csm, encode(coapResponse)));
+
+        CoapMessage decoded = decoder.poll();
+        assertEquals("Wrong code of frame after CSM.", Code.CONTENT_205, decoded.getCode());
+        assertArrayEquals("Wrong token of frame after CSM.", new byte[]{3}, decoded.getToken());
+        assertNull("There must not be another frame.", decoder.poll());
+    }
+
+    @Test(expected = CodecEmbedderException.class)
+    public void testFrameWithInvalidTokenLengthRejected() throws Exception {
+        DecoderEmbedder<CoapMessage> decoder = new DecoderEmbedder<CoapMessage>(new CoapTcpFrameDecoder());
+        decoder.offer(ChannelBuffers.wrappedBuffer(new byte[]{0x09, 0x45, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+    }
+
+    private static ChannelBuffer encode(CoapMessage coapMessage){
+        EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<ChannelBuffer>(new CoapTcpFrameEncoder());
+        encoder.offer(coapMessage);
+        return encoder.poll();
+    }
+
+    //Offers the encoded frame in fragments of the given size
+    private static CoapMessage decode(ChannelBuffer frame, int fragmentSize){
+        DecoderEmbedder<CoapMessage> decoder = new DecoderEmbedder<CoapMessage>(new CoapTcpFrameDecoder());
+
+        while(frame.readable()){
+            assertNull("Frame must not be decoded before it is complete.", decoder.peek());
+            decoder.offer(frame.readBytes(Math.min(fragmentSize, frame.readableBytes())));
+        }
+
+        return decoder.poll();
+    }
+}
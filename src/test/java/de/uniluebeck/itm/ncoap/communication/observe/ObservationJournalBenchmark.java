@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the time to write, compact and recover an {@link ObservationJournal} with 1M observations. This is not
+ * part of the regular test run (use <code>mvn test -Dtest=ObservationJournalBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationJournalBenchmark {
+
+    private static int NUMBER_OF_OBSERVATIONS = 1000000;
+
+    @Test
+    public void benchmarkRecovery() throws Exception {
+        File file = File.createTempFile("observations", ".journal");
+        file.delete();
+
+        try{
+            HashBasedTable<InetSocketAddress, String, ObservationParameter> observations = HashBasedTable.create();
+            ObservationJournal journal = new ObservationJournal(file);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < NUMBER_OF_OBSERVATIONS; i++){
+                InetSocketAddress observerAddress = new InetSocketAddress(InetAddress.getByAddress(
+                        new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i}), 5683);
+                String servicePath = "/service" + (i % 100);
+                ObservationParameter parameter =
+                        new ObservationParameter(new byte[]{(byte) i, (byte) (i >>> 8)}, MediaType.TEXT_PLAIN_UTF8, 0);
+
+                journal.recordAdd(observerAddress, servicePath, parameter);
+                observations.put(observerAddress, servicePath, parameter);
+            }
+            System.out.println(String.format("Journaled %d observations in %d ms (%d bytes).",
+                    NUMBER_OF_OBSERVATIONS, (System.nanoTime() - start) / 1000000, file.length()));
+
+            start = System.nanoTime();
+            journal.startCompaction();
+            journal.finishCompaction(observations);
+            System.out.println(String.format("Compacted %d observations in %d ms (%d bytes).",
+                    NUMBER_OF_OBSERVATIONS, (System.nanoTime() - start) / 1000000, file.length()));
+            journal.close();
+
+            start = System.nanoTime();
+            int recovered = new ObservationJournal(file).load().size();
+            System.out.println(String.format("Recovered %d observations in %d ms.",
+                    recovered, (System.nanoTime() - start) / 1000000));
+
+            assertEquals(NUMBER_OF_OBSERVATIONS, recovered);
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of {@link ObservationJournal}.
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationJournalTest {
+
+    private static InetSocketAddress observer1 = new InetSocketAddress("127.0.0.1", 5683);
+    private static InetSocketAddress observer2 = new InetSocketAddress("::1", 12345);
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("observations", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile(){
+        file.delete();
+    }
+
+    @Test
+    public void testReplayOfAddAndRemove() throws Exception {
+        ObservationJournal journal = new ObservationJournal(file);
+        journal.recordAdd(observer1, "/service1", new ObservationParameter(new byte[]{1, 2, 3}));
+        journal.recordAdd(observer2, "/service1", new ObservationParameter(new byte[]{4}));
+        journal.recordAdd(observer2, "/service1",
+                new ObservationParameter(new byte[]{4}, MediaType.APP_XML, 7));
+        journal.recordRemove(observer1, "/service1");
+        journal.close();
+
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> observations =
+                new ObservationJournal(file).load();
+
+        assertEquals(1, observations.size());
+        ObservationParameter parameter = observations.get(observer2, "/service1");
+        assertArrayEquals(new byte[]{4}, parameter.getToken());
+        assertEquals(MediaType.APP_XML, parameter.getAcceptedMediaType());
+        assertEquals(7, parameter.getNotificationCount());
+    }
+
+    @Test
+    public void testCompactionKeepsRecordsWrittenDuringCompaction() throws Exception {
+        ObservationJournal journal = new ObservationJournal(file);
+        ObservationParameter parameter = new ObservationParameter(new byte[]{1}, MediaType.TEXT_PLAIN_UTF8, 3);
+        journal.recordAdd(observer1, "/service1", parameter);
+        journal.recordAdd(observer1, "/service2", parameter);
+        journal.recordRemove(observer1, "/service2");
+
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> snapshot = HashBasedTable.create();
+        snapshot.put(observer1, "/service1", parameter);
+
+        journal.startCompaction();
+        journal.recordAdd(observer2, "/service2", new ObservationParameter(new byte[]{2}));
+        long lengthBeforeCompaction = file.length();
+        journal.finishCompaction(snapshot);
+
+        assertEquals(0, journal.getRecordCount());
+        assertTrue("Journal did not shrink", file.length() < lengthBeforeCompaction);
+
+        journal.recordRemove(observer1, "/service1");
+        journal.close();
+
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> observations =
+                new ObservationJournal(file).load();
+
+        assertEquals(1, observations.size());
+        assertTrue(observations.contains(observer2, "/service2"));
+    }
+
+    @Test
+    public void testTruncatedRecordIsIgnored() throws Exception {
+        ObservationJournal journal = new ObservationJournal(file);
+        journal.recordAdd(observer1, "/service1", new ObservationParameter(new byte[]{1}));
+        journal.recordAdd(observer2, "/service1", new ObservationParameter(new byte[]{2}));
+        journal.close();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+
+        journal = new ObservationJournal(file);
+        assertEquals(1, journal.load().size());
+
+        //records appended after the truncated one must be readable
+        journal.recordAdd(observer2, "/service2", new ObservationParameter(new byte[]{3}));
+        journal.close();
+
+        assertEquals(2, new ObservationJournal(file).load().size());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import com.google.common.collect.HashBasedTable;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the heap used per observation with 1M observations in an {@link ObservationTable} compared to a
+ * {@link HashBasedTable} with {@link ObservationParameter} values. This is not part of the regular test run (use
+ * <code>mvn test -Dtest=ObservationTableBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationTableBenchmark {
+
+    private static int NUMBER_OF_OBSERVATIONS = 1000000;
+
+    @Test
+    public void benchmarkHeapPerObservation() throws Exception {
+        long before = getUsedHeap();
+        ObservationTable table = new ObservationTable();
+        for(int i = 0; i < NUMBER_OF_OBSERVATIONS; i++){
+            table.put(getObserverAddress(i), "/service" + (i % 100), new ObservationParameter(getToken(i)));
+        }
+        long tableHeap = getUsedHeap() - before;
+        assertEquals(NUMBER_OF_OBSERVATIONS, table.size());
+
+        System.out.println(String.format("ObservationTable: %d bytes per observation.",
+                tableHeap / NUMBER_OF_OBSERVATIONS));
+
+        table = null;
+
+        before = getUsedHeap();
+        HashBasedTable<InetSocketAddress, String, ObservationParameter> hashBasedTable = HashBasedTable.create();
+        for(int i = 0; i < NUMBER_OF_OBSERVATIONS; i++){
+            hashBasedTable.put(getObserverAddress(i), "/service" + (i % 100), new ObservationParameter(getToken(i)));
+        }
+        long hashBasedTableHeap = getUsedHeap() - before;
+        assertEquals(NUMBER_OF_OBSERVATIONS, hashBasedTable.size());
+
+        System.out.println(String.format("HashBasedTable: %d bytes per observation.",
+                hashBasedTableHeap / NUMBER_OF_OBSERVATIONS));
+    }
+
+    private static InetSocketAddress getObserverAddress(int i) throws Exception {
+        return new InetSocketAddress(InetAddress.getByAddress(
+                new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i}), 5683);
+    }
+
+    private static byte[] getToken(int i){
+        return new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++){
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
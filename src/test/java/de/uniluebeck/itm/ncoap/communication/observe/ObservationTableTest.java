@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.message.options.OptionRegistry.MediaType;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of {@link ObservationTable}.
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationTableTest {
+
+    private static InetSocketAddress ipv4Observer = new InetSocketAddress("127.0.0.1", 5683);
+    private static InetSocketAddress ipv6Observer = new InetSocketAddress("fe80::1:2:3", 65535);
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        ObservationTable table = new ObservationTable();
+        table.put(ipv4Observer, "/service", new ObservationParameter(new byte[]{0, 1, 2, 3, 4, 5, 6, (byte) 0xFF},
+                MediaType.APP_JSON, 5));
+        table.put(ipv6Observer, "/service", new ObservationParameter(new byte[0]));
+
+        ObservationParameter parameter = table.get(ipv4Observer, "/service");
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, (byte) 0xFF}, parameter.getToken());
+        assertEquals(MediaType.APP_JSON, parameter.getAcceptedMediaType());
+        assertEquals(5, parameter.getNotificationCount());
+
+        parameter = table.get(ipv6Observer, "/service");
+        assertEquals(0, parameter.getToken().length);
+        assertNull(parameter.getAcceptedMediaType());
+
+        assertEquals(6, table.increaseNotificationCount(ipv4Observer, "/service"));
+        assertEquals(-1, table.increaseNotificationCount(ipv4Observer, "/other"));
+
+        Map<InetSocketAddress, ObservationParameter> observations = table.getObservations("/service");
+        assertEquals(new HashSet<InetSocketAddress>(observations.keySet()),
+                new HashSet<InetSocketAddress>(java.util.Arrays.asList(ipv4Observer, ipv6Observer)));
+    }
+
+    @Test
+    public void testRandomOperationsMatchReference() throws Exception {
+        ObservationTable table = new ObservationTable();
+        HashBasedTable<InetSocketAddress, String, Integer> reference = HashBasedTable.create();
+        Random random = new Random(4711);
+
+        for(int i = 0; i < 200000; i++){
+            InetSocketAddress observerAddress = new InetSocketAddress(InetAddress.getByAddress(
+                    new byte[]{10, 0, 0, (byte) random.nextInt(64)}), 5683 + random.nextInt(4));
+            String servicePath = "/service" + random.nextInt(8);
+
+            if(random.nextInt(3) > 0){
+                table.put(observerAddress, servicePath, new ObservationParameter(new byte[]{(byte) i}));
+                reference.put(observerAddress, servicePath, i);
+            }
+            else{
+                ObservationParameter removed = table.remove(observerAddress, servicePath);
+                Integer expected = reference.remove(observerAddress, servicePath);
+                assertEquals(expected == null, removed == null);
+                if(expected != null)
+                    assertEquals((byte) expected.intValue(), removed.getToken()[0]);
+            }
+
+            assertEquals(reference.size(), table.size());
+        }
+
+        for(InetSocketAddress observerAddress : reference.rowKeySet()){
+            assertEquals(reference.row(observerAddress).keySet(),
+                    new HashSet<String>(table.getServicePaths(observerAddress)));
+        }
+
+        for(String servicePath : reference.columnKeySet()){
+            assertEquals(reference.column(servicePath).keySet(), table.getObservations(servicePath).keySet());
+        }
+
+        assertEquals(reference.size(), table.toTable().size());
+    }
+}
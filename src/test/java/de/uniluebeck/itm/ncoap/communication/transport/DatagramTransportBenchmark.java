@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the datagrams per second of {@link NioDatagramTransport}, {@link OioDatagramTransport}, and
+ * {@link LoopbackTransport} on the loopback interface. A sender keeps {@link #WINDOW} datagrams of
+ * {@link #DATAGRAM_SIZE} bytes outstanding to an echo channel, i.e. each round trip accounts for two datagrams. This
+ * is not part of the regular test run (use <code>mvn test -Dtest=DatagramTransportBenchmark</code>).
+ *
+ * @author Oliver Kleine
+ */
+public class DatagramTransportBenchmark {
+
+    private static int ROUND_TRIPS = 200000;
+    private static int WINDOW = 64;
+    private static int DATAGRAM_SIZE = 32;
+
+    @Test
+    public void benchmarkDatagramsPerSecond() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        for(int round = 0; round < 2; round++){
+            print("NIO", run(new NioDatagramTransport()));
+            print("OIO", run(new OioDatagramTransport()));
+
+            LoopbackTransport loopbackTransport = new LoopbackTransport();
+            print("Loopback", run(loopbackTransport));
+            loopbackTransport.shutdown();
+        }
+    }
+
+    private static void print(String transport, double datagramsPerSecond){
+        System.out.println(String.format("%s: %.0f datagrams/s", transport, datagramsPerSecond));
+        assertTrue("No datagrams received.", datagramsPerSecond > 0);
+    }
+
+    private double run(DatagramTransport transport) throws Exception {
+        ScheduledExecutorService executorService = Executors.newScheduledThreadPool(8);
+        ChannelFactory channelFactory = transport.createChannelFactory(executorService);
+
+        //Echo
+        ConnectionlessBootstrap echoBootstrap = new ConnectionlessBootstrap(channelFactory);
+        echoBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SimpleChannelUpstreamHandler(){
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me){
+                        me.getChannel().write(me.getMessage(), me.getRemoteAddress());
+                    }
+                });
+            }
+        });
+        DatagramChannel echoChannel = (DatagramChannel) echoBootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+        final InetSocketAddress echoAddress = echoChannel.getLocalAddress();
+
+        //Sender
+        final CountDownLatch latch = new CountDownLatch(ROUND_TRIPS);
+        final AtomicInteger remaining = new AtomicInteger(ROUND_TRIPS - WINDOW);
+
+        ConnectionlessBootstrap senderBootstrap = new ConnectionlessBootstrap(channelFactory);
+        senderBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SimpleChannelUpstreamHandler(){
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me){
+                        latch.countDown();
+                        if(remaining.getAndDecrement() > 0)
+                            me.getChannel().write(createDatagram(), echoAddress);
+                    }
+                });
+            }
+        });
+        DatagramChannel senderChannel = (DatagramChannel) senderBootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        long start = System.nanoTime();
+        for(int i = 0; i < WINDOW; i++)
+            senderChannel.write(createDatagram(), echoAddress);
+
+        latch.await(60, TimeUnit.SECONDS);
+        long duration = System.nanoTime() - start;
+
+        senderChannel.close().awaitUninterruptibly();
+        echoChannel.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+        executorService.shutdownNow();
+
+        //lost datagrams reduce the number of completed round trips
+        long completed = ROUND_TRIPS - latch.getCount();
+        return 2.0 * completed / duration * 1000000000L;
+    }
+
+    private static ChannelBuffer createDatagram(){
+        return ChannelBuffers.wrappedBuffer(new byte[DATAGRAM_SIZE]);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.transport;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.header.Code;
+import de.uniluebeck.itm.ncoap.message.header.MsgType;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link LoopbackTransport}, i.e. the communication of clients and servers within the JVM and the
+ * emulation of loss, latency, and reordering.
+ *
+ * @author Oliver Kleine
+ */
+public class LoopbackTransportTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final String PAYLOAD = "Status";
+
+    @Test
+    public void testRequestAndResponse() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport(0);
+
+        //The default port does not conflict with any socket (or other transport)
+        InetSocketAddress serverAddress = new InetSocketAddress(CoapServerApplication.DEFAULT_COAP_SERVER_PORT);
+        CoapServerApplication server = new CoapServerApplication(transport, serverAddress);
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+        CoapClientApplication client = new CoapClientApplication(transport, 1);
+
+        try{
+            URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SERVICE);
+            CoapResponse coapResponse = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri))
+                                              .get(1, TimeUnit.SECONDS);
+
+            assertEquals("Wrong code.", Code.CONTENT_205, coapResponse.getCode());
+            assertEquals("Wrong payload.", PAYLOAD, coapResponse.getPayload().toString(Charset.forName("UTF-8")));
+            assertEquals("Wrong number of delivered datagrams.", 2, transport.getNumberOfDeliveredDatagrams());
+        }
+        finally {
+            client.shutdown();
+            server.shutdown();
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void testLostRequestIsRetransmitted() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport(0);
+
+        CoapServerApplication server = new CoapServerApplication(transport, new InetSocketAddress(0));
+        server.registerService(new NotObservableTestWebService(PATH_TO_SERVICE, PAYLOAD, 0));
+        CoapClientApplication client = new CoapClientApplication(transport, 1);
+
+        try{
+            transport.setLossProbability(1);
+
+            URI targetUri = new URI("coap://127.0.0.1:" + server.getServerPort() + PATH_TO_SERVICE);
+            Future<CoapResponse> future = client.writeCoapRequest(new CoapRequest(MsgType.CON, Code.GET, targetUri));
+
+            Thread.sleep(100);
+            transport.setLossProbability(0);
+
+            assertEquals("Wrong code.", Code.CONTENT_205, future.get(10, TimeUnit.SECONDS).getCode());
+            assertEquals("Wrong number of dropped datagrams.", 1, transport.getNumberOfDroppedDatagrams());
+        }
+        finally {
+            client.shutdown();
+            server.shutdown();
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void testLossIsDeterministic() throws Exception {
+        List<Integer> received1 = sendDatagrams(new LoopbackTransport(42), 0.3, 0, 100);
+        List<Integer> received2 = sendDatagrams(new LoopbackTransport(42), 0.3, 0, 100);
+
+        assertTrue("No datagram dropped.", received1.size() < 100);
+        assertEquals("Different datagrams dropped.", received1, received2);
+    }
+
+    @Test
+    public void testJitterReordersDatagrams() throws Exception {
+        List<Integer> received = sendDatagrams(new LoopbackTransport(42), 0, 50, 20);
+
+        assertEquals("Wrong number of datagrams received.", 20, received.size());
+
+        List<Integer> sorted = new ArrayList<Integer>(received);
+        Collections.sort(sorted);
+        assertFalse("Datagrams not reordered.", sorted.equals(received));
+    }
+
+    private static List<Integer> sendDatagrams(LoopbackTransport transport, double lossProbability, long jitter,
+                                               int numberOfDatagrams) throws Exception {
+
+        transport.setLossProbability(lossProbability);
+        transport.setJitter(jitter, TimeUnit.MILLISECONDS);
+
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+
+        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(transport.createChannelFactory(null));
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SimpleChannelUpstreamHandler(){
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me){
+                        received.add(((ChannelBuffer) me.getMessage()).getInt(0));
+                    }
+                });
+            }
+        });
+
+        DatagramChannel sender = (DatagramChannel) bootstrap.bind(new InetSocketAddress(0));
+        DatagramChannel recipient = (DatagramChannel) bootstrap.bind(new InetSocketAddress(0));
+
+        for(int i = 0; i < numberOfDatagrams; i++){
+            ChannelBuffer datagram = ChannelBuffers.buffer(4);
+            datagram.writeInt(i);
+            sender.write(datagram, recipient.getLocalAddress());
+        }
+
+        Thread.sleep(jitter + 200);
+
+        sender.close().awaitUninterruptibly();
+        recipient.close().awaitUninterruptibly();
+        transport.shutdown();
+
+        return new ArrayList<Integer>(received);
+    }
+}